@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.configuration.experiment.Experiment;
+import bacmman.configuration.experiment.Structure;
+import bacmman.data_structure.MasterDAOFactory;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.dao.MasterDAO;
+import bacmman.data_structure.dao.ObjectDAO;
+import bacmman.measurement.MeasurementExtractor;
+import bacmman.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store / retrieve of a synthetic mother-machine population (root / microchannels / bacteria, linked in tracks, with measurements) in the persistent DAOs, and measurement extraction.
+ * @author Jean Ollion
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DAOBenchmark {
+    public final static String POSITION = "position";
+    public final static String[] MEASUREMENTS = new String[]{"Size", "Length", "Width", "MeanFluo", "SDFluo", "MinFluo", "MaxFluo", "Quantile50", "GrowthRate", "DivisionFrame"};
+    static {MasterDAOFactory.findModules("bacmman.data_structure.dao");}
+
+    @State(Scope.Benchmark)
+    public static class DB {
+        @Param({"MapDB", "ObjectBox"})
+        public String dbType;
+        @Param({"100"})
+        public int frames;
+        @Param({"10"})
+        public int microchannels;
+        Path dir;
+        MasterDAO db;
+
+        protected void openDB() throws Exception {
+            dir = Files.createTempDirectory("bacmman_benchmark");
+            db = MasterDAOFactory.getDAO(dir, dbType);
+            db.setConfigurationReadOnly(false);
+            db.lockPositions();
+            Experiment xp = new Experiment("benchmark");
+            xp.setImportImageMethod(Experiment.IMPORT_METHOD.SINGLE_FILE);
+            xp.setPath(dir);
+            xp.setOutputDirectory(dir.resolve("Output").toString());
+            xp.getStructures().removeAllElements();
+            xp.getStructures().insert(new Structure("MicroChannel", -1, 0), new Structure("Bacteria", 0, 0));
+            xp.createPosition(POSITION);
+            db.setExperiment(xp, true);
+        }
+
+        protected ObjectDAO<?> dao() {
+            return db.getDao(POSITION);
+        }
+
+        protected List<SegmentedObject> createPopulation() {
+            return SyntheticData.population(db.getAccess(), dao(), frames, microchannels, MEASUREMENTS);
+        }
+
+        @TearDown(Level.Trial)
+        public void closeDB() throws IOException {
+            db.unlockPositions();
+            db.unlockConfiguration();
+            db.eraseAll();
+            Utils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EmptyDB extends DB {
+        List<SegmentedObject> roots;
+        @Setup(Level.Trial)
+        public void setUpTrial() throws Exception {
+            openDB();
+        }
+        @Setup(Level.Iteration)
+        public void setUpIteration() {
+            dao().deleteAllObjects();
+            dao().clearCache();
+            roots = createPopulation();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PopulatedDB extends DB {
+        File extractFile;
+        @Setup(Level.Trial)
+        public void setUpTrial() throws Exception {
+            openDB();
+            store(dao(), createPopulation());
+            dao().clearCache();
+            extractFile = dir.resolve("extract.csv").toFile();
+        }
+        @Setup(Level.Iteration)
+        public void setUpIteration() {
+            dao().clearCache();
+        }
+    }
+
+    protected static void store(ObjectDAO<?> dao, List<SegmentedObject> roots) {
+        dao.store(roots);
+        for (int ocIdx = 0; ocIdx<=1; ++ocIdx) {
+            List<SegmentedObject> objects = new ArrayList<>();
+            for (SegmentedObject r : roots) r.getChildren(ocIdx).forEach(objects::add);
+            dao.store(objects);
+        }
+    }
+
+    @Benchmark
+    public void store(EmptyDB state) {
+        store(state.dao(), state.roots);
+    }
+
+    @Benchmark
+    public void retrieveAll(PopulatedDB state, Blackhole bh) {
+        ObjectDAO<?> dao = state.dao();
+        for (SegmentedObject root : dao.getRoots()) {
+            root.getChildren(0).forEach(mc -> mc.getChildren(1).forEach(bh::consume));
+        }
+    }
+
+    @Benchmark
+    public void retrieveTracks(PopulatedDB state, Blackhole bh) {
+        ObjectDAO<?> dao = state.dao();
+        SegmentedObject root = dao.getRoots().get(0);
+        for (SegmentedObject mcTh : dao.getTrackHeads(root, 0)) {
+            List<SegmentedObject> mcTrack = dao.getTrack(mcTh);
+            dao.setAllChildren(mcTrack, 1);
+            for (SegmentedObject bTh : dao.getTrackHeads(mcTh, 1)) bh.consume(dao.getTrack(bTh));
+        }
+    }
+
+    @Benchmark
+    public void retrieveMeasurements(PopulatedDB state, Blackhole bh) {
+        bh.consume(state.dao().getMeasurements(1, MEASUREMENTS));
+    }
+
+    @Benchmark
+    public long extractMeasurements(PopulatedDB state) {
+        MeasurementExtractor.extractMeasurementObjects(state.db, state.extractFile.getAbsolutePath(), 1, Collections.singletonList(POSITION), null, MEASUREMENTS);
+        return state.extractFile.length();
+    }
+}
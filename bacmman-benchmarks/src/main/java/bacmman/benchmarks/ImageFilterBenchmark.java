@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.image.ImageByte;
+import bacmman.image.ImageFloat;
+import bacmman.processing.Filters;
+import bacmman.processing.ImageFeatures;
+import bacmman.processing.neighborhood.EllipsoidalNeighborhood;
+import bacmman.processing.neighborhood.Neighborhood;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Neighborhood filters and gaussian-derivative features on a synthetic field of view
+ * @author Jean Ollion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageFilterBenchmark {
+    @Param({"8", "32"})
+    public int channelNumber;
+    @Param({"1", "5"})
+    public int sizeZ;
+    @Param({"2.0"})
+    public double radius;
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    ImageFloat image;
+    ImageByte mask;
+    Neighborhood neighborhood;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        image = SyntheticData.fieldOfView(channelNumber, 512, sizeZ, 1);
+        mask = SyntheticData.foregroundMask(image);
+        neighborhood = Filters.getNeighborhood(radius, image);
+    }
+
+    @Benchmark
+    public ImageFloat median() {
+        ImageFloat res = Filters.median(image, null, neighborhood, parallel);
+        return res;
+    }
+
+    @Benchmark
+    public ImageFloat mean() {
+        ImageFloat res = Filters.mean(image, null, neighborhood, parallel);
+        return res;
+    }
+
+    @Benchmark
+    public ImageByte localMax() {
+        return Filters.localExtrema(image, null, true, mask, new EllipsoidalNeighborhood(1.5, 1.5, false), parallel);
+    }
+
+    @Benchmark
+    public ImageFloat gaussian() {
+        return ImageFeatures.gaussianSmooth(image, radius, false);
+    }
+
+    @Benchmark
+    public ImageFloat[] hessian() {
+        return ImageFeatures.getHessian(image, radius, false);
+    }
+}
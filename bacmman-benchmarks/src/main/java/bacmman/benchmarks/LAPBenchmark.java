@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.processing.matching.trackmate.tracking.sparselap.costfunction.CostFunction;
+import bacmman.processing.matching.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.LAPJVSolver;
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Frame to frame linking of spots that move randomly in a 512x512 field of view, as performed by LAP trackers.
+ * Solver benchmarks alternate between two problems with the same structure and slightly different costs (as when re-linking after small changes): the solver is created for each problem, re-used, or re-used with warm start.
+ * Linker benchmarks link a sequence of frames with or without re-use of the buffers and the solver.
+ * @author Jean Ollion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LAPBenchmark {
+    public final static int FIELD_SIZE = 512;
+    public final static int FRAMES = 10;
+    @Param({"200", "2000"})
+    public int spotNumber;
+    @Param({"15"})
+    public double maxDistance;
+    @Param({"3"})
+    public double motionSD;
+
+    double[][][] positions; // frame, spot, x/y
+    SparseCostMatrix[] problems;
+    double alternativeCost;
+    LAPJVSolver solver, warmSolver;
+    JaqamanLinkingCostMatrixCreator.Buffer<Integer, Integer> buffer;
+    int problemIdx;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(0);
+        positions = new double[FRAMES][spotNumber][2];
+        for (int s = 0; s < spotNumber; ++s) {
+            positions[0][s][0] = random.nextDouble() * FIELD_SIZE;
+            positions[0][s][1] = random.nextDouble() * FIELD_SIZE;
+        }
+        for (int f = 1; f < FRAMES; ++f) {
+            for (int s = 0; s < spotNumber; ++s) {
+                positions[f][s][0] = positions[f - 1][s][0] + random.nextGaussian() * motionSD;
+                positions[f][s][1] = positions[f - 1][s][1] + random.nextGaussian() * motionSD;
+            }
+        }
+        alternativeCost = 1.05 * maxDistance * maxDistance;
+        problems = new SparseCostMatrix[]{linkingCosts(0, 0), linkingCosts(0, 1)};
+        solver = new LAPJVSolver();
+        warmSolver = new LAPJVSolver().setWarmStart(true);
+        buffer = new JaqamanLinkingCostMatrixCreator.Buffer<>();
+    }
+
+    /**
+     * @param frame source frame
+     * @param seed seed of the perturbation of costs: problems with different seeds have the same structure and slightly different costs
+     */
+    protected SparseCostMatrix linkingCosts(int frame, long seed) {
+        Random random = new Random(seed);
+        double[] perturbation = IntStream.range(0, spotNumber).mapToDouble(i -> 1 + 0.05 * (random.nextDouble() - 0.5)).toArray();
+        CostFunction<Integer, Integer> cost = costFunction(frame);
+        JaqamanLinkingCostMatrixCreator<Integer, Integer> creator = new JaqamanLinkingCostMatrixCreator<>(spots(), spots(), (s, t) -> cost.linkingCost(s, t) * perturbation[t], maxDistance * maxDistance * 1.1, alternativeCost);
+        if (!creator.checkInput() || !creator.process()) throw new RuntimeException(creator.getErrorMessage());
+        return creator.getResult();
+    }
+
+    protected CostFunction<Integer, Integer> costFunction(int frame) {
+        double thld = maxDistance * maxDistance;
+        return (s, t) -> {
+            double dx = positions[frame][s][0] - positions[frame + 1][t][0];
+            double dy = positions[frame][s][1] - positions[frame + 1][t][1];
+            double d2 = dx * dx + dy * dy;
+            return d2 < thld ? Math.max(d2, 1e-3) : Double.POSITIVE_INFINITY;
+        };
+    }
+
+    protected List<Integer> spots() {
+        return IntStream.range(0, spotNumber).boxed().collect(Collectors.toList());
+    }
+
+    private SparseCostMatrix nextProblem() {
+        problemIdx = (problemIdx + 1) % problems.length;
+        return problems[problemIdx];
+    }
+
+    private boolean solve(LAPJVSolver solver, SparseCostMatrix problem) {
+        return solver.solveWithAlternatives(problem, i -> alternativeCost, j -> alternativeCost);
+    }
+
+    @Benchmark
+    public void newSolver(Blackhole bh) {
+        LAPJVSolver solver = new LAPJVSolver();
+        bh.consume(solve(solver, nextProblem()));
+        bh.consume(solver.getRowAssignment());
+    }
+
+    @Benchmark
+    public void reusedSolver(Blackhole bh) {
+        bh.consume(solve(solver, nextProblem()));
+        bh.consume(solver.getRowAssignment());
+    }
+
+    @Benchmark
+    public void warmStartedSolver(Blackhole bh) {
+        bh.consume(solve(warmSolver, nextProblem()));
+        bh.consume(warmSolver.getRowAssignment());
+    }
+
+    @Benchmark
+    public void linkFrames(Blackhole bh) {
+        List<Integer> spots = spots();
+        for (int f = 0; f < FRAMES - 1; ++f) {
+            JaqamanLinker<Integer, Integer> linker = new JaqamanLinker<>(new JaqamanLinkingCostMatrixCreator<>(spots, spots, costFunction(f), maxDistance * maxDistance, alternativeCost));
+            if (!linker.checkInput() || !linker.process()) throw new RuntimeException(linker.getErrorMessage());
+            bh.consume(linker.getResult());
+        }
+    }
+
+    @Benchmark
+    public void linkFramesReusingBuffers(Blackhole bh) {
+        List<Integer> spots = spots();
+        for (int f = 0; f < FRAMES - 1; ++f) {
+            JaqamanLinker<Integer, Integer> linker = new JaqamanLinker<>(new JaqamanLinkingCostMatrixCreator<>(spots, spots, costFunction(f), maxDistance * maxDistance, alternativeCost).setBuffer(buffer)).setSolver(solver);
+            if (!linker.checkInput() || !linker.process()) throw new RuntimeException(linker.getErrorMessage());
+            bh.consume(linker.getResult());
+        }
+    }
+}
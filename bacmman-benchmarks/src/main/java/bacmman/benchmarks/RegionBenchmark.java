@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.Voxel;
+import bacmman.image.ImageFloat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Set operations between the bacteria of two consecutive synthetic frames, as performed by trackers and by manual curation.
+ * Regions can be represented by a mask (as after segmentation), by a voxel set or by a ROI (as after retrieval from a DAO).
+ * @author Jean Ollion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegionBenchmark {
+    public enum REPRESENTATION {MASK, VOXELS, ROI}
+    @Param({"16"})
+    public int channelNumber;
+    @Param({"MASK", "VOXELS", "ROI"})
+    public REPRESENTATION representation;
+
+    List<Region> prev, next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ImageFloat prevImage = SyntheticData.fieldOfView(channelNumber, 512, 1, 1);
+        ImageFloat nextImage = SyntheticData.fieldOfView(channelNumber, 512, 1, 2);
+        prev = new ArrayList<>(SyntheticData.bacteria(prevImage));
+        next = new ArrayList<>(SyntheticData.bacteria(nextImage));
+    }
+
+    /**
+     * Operations may create a cached representation (e.g. a mask from a ROI): restore the benchmarked representation before each iteration
+     */
+    @Setup(Level.Iteration)
+    public void setRepresentation() {
+        prev.forEach(this::setRepresentation);
+        next.forEach(this::setRepresentation);
+    }
+
+    private void setRepresentation(Region r) {
+        switch (representation) {
+            case MASK:
+            default:
+                r.getMask();
+                r.clearRoi();
+                r.clearVoxels();
+                break;
+            case VOXELS:
+                r.getVoxels();
+                r.clearMask();
+                r.clearRoi();
+                break;
+            case ROI:
+                r.freeMemory();
+                break;
+        }
+    }
+
+    private List<Region> duplicate(List<Region> regions) {
+        return regions.stream().map(r -> r.duplicate(true)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public void mostOverlappingRegion(Blackhole bh) {
+        for (Region r : next) bh.consume(r.getMostOverlappingRegion(prev, null, null));
+    }
+
+    @Benchmark
+    public void overlapArea(Blackhole bh) {
+        for (Region r : next) {
+            for (Region p : prev) {
+                if (r.boundsIntersect(p)) bh.consume(r.getOverlapArea(p));
+            }
+        }
+    }
+
+    @Benchmark
+    public void intersection(Blackhole bh) {
+        for (Region r : next) {
+            for (Region p : prev) {
+                if (r.boundsIntersect(p)) bh.consume(r.getIntersection(p));
+            }
+        }
+    }
+
+    @Benchmark
+    public void contour(Blackhole bh) {
+        for (Region r : next) {
+            Set<Voxel> contour = r.getContour();
+            bh.consume(contour);
+        }
+    }
+
+    @Benchmark
+    public void mergeConsecutive(Blackhole bh) {
+        List<Region> regions = duplicate(next);
+        for (int i = 0; i<regions.size()-1; i+=2) {
+            Region r = regions.get(i);
+            r.merge(regions.get(i+1));
+            bh.consume(r.size());
+        }
+    }
+
+    @Benchmark
+    public void addAndRemove(Blackhole bh) {
+        List<Region> regions = duplicate(next);
+        for (Region r : regions) {
+            for (Region p : prev) {
+                if (r.boundsIntersect(p)) {
+                    r.add(p);
+                    r.remove(p);
+                }
+            }
+            bh.consume(r.size());
+        }
+    }
+}
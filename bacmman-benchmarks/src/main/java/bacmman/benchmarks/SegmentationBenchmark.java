@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.RegionPopulation;
+import bacmman.image.ImageByte;
+import bacmman.image.ImageFloat;
+import bacmman.processing.EDT;
+import bacmman.processing.ImageFeatures;
+import bacmman.processing.ImageLabeller;
+import bacmman.processing.watershed.WatershedTransform;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watershed, connected-component labelling and euclidean distance transform on a synthetic field of view
+ * @author Jean Ollion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentationBenchmark {
+    @Param({"8", "32"})
+    public int channelNumber;
+    @Param({"1", "5"})
+    public int sizeZ;
+
+    ImageFloat image, smoothed;
+    ImageByte mask;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        image = SyntheticData.fieldOfView(channelNumber, 512, sizeZ, 1);
+        smoothed = ImageFeatures.gaussianSmooth(image, 1.5, false);
+        mask = SyntheticData.foregroundMask(image);
+    }
+
+    @Benchmark
+    public RegionPopulation watershed() {
+        WatershedTransform.WatershedConfiguration config = new WatershedTransform.WatershedConfiguration().decreasingPropagation(true);
+        return WatershedTransform.watershed(smoothed, mask, config);
+    }
+
+    @Benchmark
+    public Region[] labelImage() {
+        return ImageLabeller.labelImage(mask);
+    }
+
+    @Benchmark
+    public ImageFloat edtInside() {
+        return EDT.transform(mask, true, 1, 1, false);
+    }
+
+    @Benchmark
+    public ImageFloat edtInsideMultithread() {
+        return EDT.transform(mask, true, 1, 1, true);
+    }
+}
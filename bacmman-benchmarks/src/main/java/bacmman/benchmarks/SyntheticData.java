@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.benchmarks;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.SegmentedObjectAccessor;
+import bacmman.data_structure.SegmentedObjectUtils;
+import bacmman.data_structure.dao.ObjectDAO;
+import bacmman.image.BlankMask;
+import bacmman.image.ImageByte;
+import bacmman.image.ImageFloat;
+import bacmman.processing.ImageLabeller;
+import bacmman.processing.ImageOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of mother-machine like images: vertical microchannels filled with rod-shaped bacteria on a noisy background.
+ * All generators are seeded so that two benchmark runs process exactly the same data
+ * @author Jean Ollion
+ */
+public class SyntheticData {
+    public final static double BACKGROUND = 100;
+    public final static double BACTERIA = 400;
+    public final static double NOISE_SD = 15;
+    public final static int CHANNEL_WIDTH = 24;
+    public final static int CHANNEL_SPACING = 16;
+    public final static int BACTERIA_WIDTH = 10;
+
+    /**
+     * Single microchannel image, as cropped after microchannel segmentation
+     * @param sizeY length of the microchannel
+     * @param seed
+     * @return
+     */
+    public static ImageFloat microchannel(int sizeY, long seed) {
+        ImageFloat res = new ImageFloat("microchannel", CHANNEL_WIDTH, sizeY, 1);
+        Random random = new Random(seed);
+        fillBackground(res, random);
+        drawBacteriaColumn(res, 0, CHANNEL_WIDTH, random);
+        return res;
+    }
+
+    /**
+     * Field of view with {@param channelNumber} microchannels side by side
+     * @param channelNumber
+     * @param sizeY
+     * @param sizeZ
+     * @param seed
+     * @return
+     */
+    public static ImageFloat fieldOfView(int channelNumber, int sizeY, int sizeZ, long seed) {
+        int sizeX = channelNumber * (CHANNEL_WIDTH + CHANNEL_SPACING) + CHANNEL_SPACING;
+        ImageFloat res = new ImageFloat("field of view", sizeX, sizeY, sizeZ);
+        Random random = new Random(seed);
+        fillBackground(res, random);
+        for (int c = 0; c<channelNumber; ++c) {
+            int x0 = CHANNEL_SPACING + c * (CHANNEL_WIDTH + CHANNEL_SPACING);
+            drawBacteriaColumn(res, x0, CHANNEL_WIDTH, random);
+        }
+        return res;
+    }
+
+    /**
+     * Foreground mask of {@param image}, at mid-distance between background and bacteria intensity
+     * @param image
+     * @return
+     */
+    public static ImageByte foregroundMask(ImageFloat image) {
+        return ImageOperations.threshold(image, (BACKGROUND + BACTERIA) / 2, true, true);
+    }
+
+    /**
+     * Connected components of the foreground mask: one region per bacterium
+     * @param image
+     * @return
+     */
+    public static List<Region> bacteria(ImageFloat image) {
+        return Arrays.asList(ImageLabeller.labelImage(foregroundMask(image)));
+    }
+
+    /**
+     * Creates an in-memory population: one root per frame, {@param microchannelNumber} microchannels (object class 0) per root, and bacteria (object class 1) segmented from a synthetic microchannel image.
+     * Microchannels and bacteria are linked by index across frames, and each bacterium bears the measurements {@param measurements} with random values
+     * @param accessor
+     * @param dao
+     * @param frames
+     * @param microchannelNumber
+     * @param measurements
+     * @return root track
+     */
+    public static List<SegmentedObject> population(SegmentedObjectAccessor accessor, ObjectDAO dao, int frames, int microchannelNumber, String... measurements) {
+        int sizeY = 512;
+        int sizeX = microchannelNumber * (CHANNEL_WIDTH + CHANNEL_SPACING) + CHANNEL_SPACING;
+        Random random = new Random(frames * 31L + microchannelNumber);
+        List<SegmentedObject> roots = new ArrayList<>(frames);
+        List<List<SegmentedObject>> mcTracks = new ArrayList<>(microchannelNumber);
+        for (int c = 0; c<microchannelNumber; ++c) mcTracks.add(new ArrayList<>(frames));
+        List<List<SegmentedObject>> bacteriaTracks = new ArrayList<>();
+        List<List<List<SegmentedObject>>> currentBacteriaTracks = new ArrayList<>(microchannelNumber); // per microchannel, per index
+        for (int c = 0; c<microchannelNumber; ++c) currentBacteriaTracks.add(new ArrayList<>());
+        for (int t = 0; t<frames; ++t) {
+            SegmentedObject root = accessor.createRoot(t, new BlankMask(sizeX, sizeY, 1), dao);
+            roots.add(root);
+            List<SegmentedObject> mcs = new ArrayList<>(microchannelNumber);
+            for (int c = 0; c<microchannelNumber; ++c) {
+                int x0 = CHANNEL_SPACING + c * (CHANNEL_WIDTH + CHANNEL_SPACING);
+                Region mcRegion = new Region(new BlankMask(CHANNEL_WIDTH, sizeY, 1, x0, 0, 0, 1, 1), c+1, true);
+                SegmentedObject mc = new SegmentedObject(t, 0, c, mcRegion, root);
+                mcs.add(mc);
+                mcTracks.get(c).add(mc);
+                List<Region> regions = bacteria(microchannel(sizeY, t * 1000L + c));
+                List<SegmentedObject> bacteria = new ArrayList<>(regions.size());
+                List<List<SegmentedObject>> currentTracks = currentBacteriaTracks.get(c);
+                for (int i = 0; i<regions.size(); ++i) {
+                    SegmentedObject b = new SegmentedObject(t, 1, i, regions.get(i).setLabel(i+1), mc);
+                    for (String m : measurements) b.getMeasurements().setValue(m, random.nextDouble() * 100);
+                    bacteria.add(b);
+                    if (i<currentTracks.size() && currentTracks.get(i).get(currentTracks.get(i).size()-1).getFrame() == t-1) currentTracks.get(i).add(b);
+                    else {
+                        List<SegmentedObject> track = new ArrayList<>();
+                        track.add(b);
+                        bacteriaTracks.add(track);
+                        if (i<currentTracks.size()) currentTracks.set(i, track);
+                        else currentTracks.add(track);
+                    }
+                }
+                accessor.setChildren(mc, bacteria, 1);
+            }
+            accessor.setChildren(root, mcs, 0);
+        }
+        SegmentedObjectUtils.setTrackLinks(roots);
+        mcTracks.forEach(SegmentedObjectUtils::setTrackLinks);
+        bacteriaTracks.forEach(SegmentedObjectUtils::setTrackLinks);
+        return roots;
+    }
+
+    private static void fillBackground(ImageFloat image, Random random) {
+        for (int z = 0; z<image.sizeZ(); ++z) {
+            float[] pixels = image.getPixelArray()[z];
+            for (int i = 0; i<pixels.length; ++i) pixels[i] = (float)(BACKGROUND + random.nextGaussian() * NOISE_SD);
+        }
+    }
+
+    /**
+     * Draws capsule-shaped bacteria of random length, separated by small gaps, from the closed-end of the microchannel (y=0) to its opening
+     */
+    private static void drawBacteriaColumn(ImageFloat image, int x0, int channelWidth, Random random) {
+        double xCenter = x0 + channelWidth / 2.;
+        double radius = BACTERIA_WIDTH / 2.;
+        int y = 2 + random.nextInt(3);
+        while (true) {
+            int length = 25 + random.nextInt(35);
+            if (y + length >= image.sizeY() - 2) break;
+            double yStart = y + radius;
+            double yEnd = y + length - radius;
+            for (int yy = y; yy<y+length; ++yy) {
+                double dy = yy < yStart ? yStart - yy : (yy > yEnd ? yy - yEnd : 0);
+                for (int xx = (int)(xCenter-radius); xx<=(int)Math.ceil(xCenter+radius); ++xx) {
+                    if (xx<0 || xx>=image.sizeX()) continue;
+                    double dx = xx + 0.5 - xCenter;
+                    double d2 = dx * dx + dy * dy;
+                    if (d2 <= radius * radius) {
+                        double value = BACTERIA * (1 - 0.3 * d2 / (radius * radius)); // brighter along the spine
+                        for (int z = 0; z<image.sizeZ(); ++z) image.setPixel(xx, yy, z, value + random.nextGaussian() * NOISE_SD);
+                    }
+                }
+            }
+            y += length + 2 + random.nextInt(3);
+        }
+    }
+}
@@ -496,7 +496,7 @@ public class Experiment extends ContainerParameterImpl<Experiment> implements Pa
         else {
             ArrayList<MeasurementKey> res= new ArrayList<MeasurementKey>();
             for (PluginParameter<Measurement> p : measurements.getActivatedChildren()) {
-                Measurement m = p.instantiatePlugin();
+                Measurement m = p.getCachedInstance();
                 if (m!=null) res.addAll(m.getMeasurementKeys());
             }
             return res;
@@ -529,6 +529,10 @@ public class Experiment extends ContainerParameterImpl<Experiment> implements Pa
         return mapRes;
     }
     
+    /**
+     * @param structureIdx call object classes to include (all if empty)
+     * @return new configured measurement instances grouped by call object class. Instances belong to the caller (see {@link PluginParameter#getCachedInstance()} for cached instances)
+     */
     public Map<Integer, List<Measurement>> getMeasurementsByCallStructureIdx(int... structureIdx) {
         if (this.measurements.getChildCount()==0) return Collections.emptyMap();
         else {
@@ -545,7 +549,7 @@ public class Experiment extends ContainerParameterImpl<Experiment> implements Pa
         }
     }
     public Stream<Measurement> getMeasurements(int structureIdx) {
-        return measurements.getChildren().stream().filter(pp->pp.isActivated() && pp.isOnePluginSet()).map(pp->pp.instantiatePlugin()).filter(m->m.getCallObjectClassIdx()==structureIdx);
+        return measurements.getChildren().stream().filter(pp->pp.isActivated() && pp.isOnePluginSet()).map(PluginParameter::getCachedInstance).filter(m->m.getCallObjectClassIdx()==structureIdx);
     }
     
     private static boolean contains(int[] structures, int structureIdx) {
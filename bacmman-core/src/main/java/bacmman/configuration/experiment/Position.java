@@ -178,7 +178,7 @@ public class Position extends ContainerParameterImpl<Position> implements ListEl
                 }
             }
         }
-        String tmpDir = DiskBackedImageManagerProvider.getTempDirectory(Paths.get(getExperiment().getOutputImageDirectory()).resolve(getName()), true);
+        String tmpDir = DiskBackedImageManagerProvider.getTempDirectory(getExperiment(), getName(), true);
         if (this.getPreProcessingChain().isEmpty(true))  { // ensure bybass DAO if no pre-filters have been set
             if (imageDAO !=null && imageDAO.getSourceImageDAO() instanceof BypassImageDAO) {
                 ((BypassImageDAO) imageDAO.getSourceImageDAO()).updateXP(this.getExperiment()); // in case duplicated channels have been modified
@@ -239,7 +239,7 @@ public class Position extends ContainerParameterImpl<Position> implements ListEl
                     int defTp = defaultTimePoint.getValue().intValue()-tpOff;
                     if (defTp<0) defTp=0;
                     if (defTp>=tpNp) defTp=tpNp-1;
-                    String tmpDir = DiskBackedImageManagerProvider.getTempDirectory(Paths.get(getExperiment().getOutputImageDirectory()), true);
+                    String tmpDir = DiskBackedImageManagerProvider.getTempDirectory(getExperiment(), getName(), true);
                     inputImages = new InputImagesImpl(res, defTp, getExperiment().getFocusChannelAndAlgorithm(), tmpDir).setMinFrame(tpOff);
                     logger.debug("creation input images: def tp: {}, frames: {} ([{}; {}]), channels: {}",defTp, inputImages.getFrameNumber(), getStartTrimFrame(),getEndTrimFrame() , inputImages.getChannelNumber());
                 }
@@ -277,6 +277,7 @@ public abstract class ContainerParameterImpl<P extends ContainerParameterImpl<P>
         if (listeners != null) listeners.remove(listener);
     }
     public void fireListeners() {
+        ParameterUtils.notifyModification(this);
         if (listeners != null && !bypassListeners) for (Consumer<P> pl : listeners) pl.accept((P)this);
     }
     public void setListeners(List<Consumer<P>> listeners) {
@@ -601,6 +601,7 @@ public abstract class ListParameterImpl<T extends Parameter, L extends ListParam
 
     @Override
     public void fireListeners() {
+        ParameterUtils.notifyModification(this);
         if (listeners==null || bypassListeners) return;
         for (Consumer<L> l : listeners) l.accept((L)this);
     }
@@ -223,6 +223,7 @@ public abstract class ParameterImpl<P extends ParameterImpl<P>> implements Param
         else this.listeners = new ArrayList<>(listeners);
     }
     public void fireListeners() {
+        ParameterUtils.notifyModification(this);
         if (!bypassListeners && listeners != null) for (Consumer<P> pl : listeners) pl.accept((P)this);
     }
     // op
@@ -25,6 +25,7 @@ import bacmman.configuration.experiment.Structure;
 import static bacmman.configuration.parameters.Parameter.logger;
 
 import java.util.*;
+import javax.swing.tree.TreeNode;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -37,6 +38,24 @@ import bacmman.utils.Utils;
  * @author Jean Ollion
  */
 public class ParameterUtils {
+    /**
+     * Signals that the value of {@param p} may have changed: increments the version of {@param p} if it is a {@link PluginParameter}, and of all its {@link PluginParameter} ancestors, so that cached plugin instances can be validated again (see {@link PluginParameter#getCachedInstance()}).
+     * Propagation stops at parameters of plugin instances, that are not part of the tree.
+     */
+    public static void notifyModification(Parameter p) {
+        if (p instanceof PluginParameter) ((PluginParameter)p).incrementVersion();
+        Parameter child = p;
+        TreeNode parent = p.getParent();
+        while (parent instanceof Parameter) {
+            if (parent instanceof PluginParameter) {
+                PluginParameter pp = (PluginParameter)parent;
+                if (!pp.isChild(child)) return; // parameter of a plugin instance
+                pp.incrementVersion();
+            }
+            child = (Parameter)parent;
+            parent = child.getParent();
+        }
+    }
 
     public static Experiment getExperiment(Parameter p) {
         if (p instanceof Experiment) {
@@ -101,6 +120,7 @@ public class ParameterUtils {
     }
 
     public static boolean setContent(List<Parameter> target, List<Parameter> source) {
+        if (target!=null) for (Parameter p : target) if (p!=null) notifyModification(p);
         if (target==null || source== null || target.size()!=source.size()) {
             setContentMap(target, source);
             return false;
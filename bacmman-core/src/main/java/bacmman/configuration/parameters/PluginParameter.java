@@ -23,6 +23,9 @@ import static bacmman.configuration.parameters.ChoiceParameter.NO_SELECTION;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -71,6 +74,7 @@ public class PluginParameter<T extends Plugin> extends ContainerParameterImpl<Pl
     }
     @Override
     public void initFromJSONEntry(Object jsonEntry) {
+        ParameterUtils.notifyModification(this);
         activated = Deactivable.getActivated(jsonEntry);
         jsonEntry = Deactivable.copyAndRemoveActivatedPropertyIfNecessary(jsonEntry);
         JSONObject jsonO = (JSONObject)jsonEntry;
@@ -171,6 +175,7 @@ public class PluginParameter<T extends Plugin> extends ContainerParameterImpl<Pl
     
     @Override
     protected void initChildList() {
+        ParameterUtils.notifyModification(this); // plugin changed
         if (pluginParameters!=null && additionalParameters!=null) {
             ArrayList<Parameter> al = new ArrayList<>(pluginParameters);
             al.addAll(additionalParameters);
@@ -236,6 +241,89 @@ public class PluginParameter<T extends Plugin> extends ContainerParameterImpl<Pl
         } else return pluginFactory.get();
     }
     
+    // instance cache
+    private final AtomicLong version = new AtomicLong();
+    private volatile InstanceCache<T> instanceCache;
+
+    /**
+     * Increments the version of this parameter. Called when this parameter or a parameter of its subtree is modified (see {@link ParameterUtils#notifyModification(Parameter)})
+     */
+    void incrementVersion() {
+        version.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return whether {@param p} is a child of this parameter. Parameters of plugin instances created by {@link #instantiatePlugin()} have this parameter as parent but are not children
+     */
+    boolean isChild(Parameter p) {
+        List<Parameter> c = children;
+        if (c == null) return false;
+        for (Parameter cc : c) if (cc == p) return true;
+        return false;
+    }
+
+    /**
+     * Configured instance of the selected plugin that is re-used across calls as long as this parameter and its subtree are unchanged.
+     * Plugins implementing {@link ThreadSafe} are shared by all threads. Other plugins have one instance per thread: instances returned by this method must not be passed to other threads.
+     * Per-thread instances are weakly referenced by their thread and are all released when the parameter is edited.
+     * The cache is validated against the version of this parameter (see {@link #getVersion()}) and, when it has changed, against the json content of this parameter.
+     * @return configured plugin instance, or null if no plugin is set
+     */
+    public T getCachedInstance() {
+        if (!isOnePluginSet()) return null;
+        InstanceCache<T> cache = instanceCache;
+        long v = version.get();
+        if (cache == null || cache.version != v) {
+            synchronized (this) {
+                cache = instanceCache;
+                v = version.get();
+                if (cache == null || cache.version != v) {
+                    String signature = toJSONEntry().toJSONString();
+                    if (cache != null && cache.signature.equals(signature)) cache.version = v;
+                    else {
+                        boolean threadSafe = ThreadSafe.class.isAssignableFrom(getSelectedPluginClass());
+                        cache = new InstanceCache<>(signature, v, threadSafe, threadSafe ? instantiatePlugin() : null);
+                        instanceCache = cache;
+                    }
+                }
+            }
+        }
+        return cache.get(this::instantiatePlugin);
+    }
+
+    private static class InstanceCache<T> {
+        final String signature;
+        volatile long version;
+        final boolean threadSafe;
+        final T sharedInstance;
+        final Map<Thread, T> threadInstances;
+        InstanceCache(String signature, long version, boolean threadSafe, T sharedInstance) {
+            this.signature = signature;
+            this.version = version;
+            this.threadSafe = threadSafe;
+            this.sharedInstance = sharedInstance;
+            this.threadInstances = threadSafe ? null : new WeakHashMap<>();
+        }
+        T get(Supplier<T> factory) {
+            if (threadSafe) return sharedInstance;
+            Thread t = Thread.currentThread();
+            T instance;
+            synchronized (threadInstances) {
+                instance = threadInstances.get(t);
+            }
+            if (instance != null) return instance;
+            instance = factory.get(); // created outside the lock: only the current thread creates its own instance
+            synchronized (threadInstances) {
+                threadInstances.put(t, instance);
+            }
+            return instance;
+        }
+    }
+
     @Override
     public boolean sameContent(Parameter other) {
         if (other instanceof PluginParameter) {
@@ -316,6 +404,7 @@ public class PluginParameter<T extends Plugin> extends ContainerParameterImpl<Pl
     }
 
     @Override public void setActivated(boolean activated) {
+        if (this.activated != activated) ParameterUtils.notifyModification(this);
         this.activated=activated;
     }
     
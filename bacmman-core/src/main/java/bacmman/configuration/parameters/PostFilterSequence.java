@@ -24,6 +24,7 @@ import bacmman.image.ImageProperties;
 import bacmman.image.SimpleImageProperties;
 import java.util.Collection;
 import bacmman.plugins.PostFilter;
+import bacmman.utils.Metrics;
 
 /**
  *
@@ -38,7 +39,11 @@ public class PostFilterSequence extends PluginParameterList<PostFilter, PostFilt
     public RegionPopulation filter(RegionPopulation objectPopulation, int objectClassIdx, SegmentedObject parent) {
         if (objectPopulation == null) return null;
         ImageProperties prop = new SimpleImageProperties(objectPopulation.getImageProperties());
-        for (PostFilter p : this.get()) objectPopulation = p.runPostFilter(parent, objectClassIdx, objectPopulation);
+        for (PostFilter p : this.get()) {
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.POST_FILTER, Metrics.name(p))) {
+                objectPopulation = p.runPostFilter(parent, objectClassIdx, objectPopulation);
+            }
+        }
         objectPopulation.setProperties(prop, true);
         return objectPopulation;
     }
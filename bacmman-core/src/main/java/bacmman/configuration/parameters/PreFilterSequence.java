@@ -24,6 +24,8 @@ import bacmman.image.ImageProperties;
 import java.util.Collection;
 import bacmman.plugins.PreFilter;
 import bacmman.plugins.HistogramScaler;
+import bacmman.plugins.Tileable;
+import bacmman.utils.Metrics;
 import bacmman.utils.Utils;
 
 /**
@@ -49,7 +51,9 @@ public class PreFilterSequence extends PluginParameterList<PreFilter, PreFilterS
             first = false;
         }
         for (PreFilter p : get()) {
-            input = p.runPreFilter(input, mask, !first);
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.PRE_FILTER, Metrics.name(p))) {
+                input = p.runPreFilter(input, mask, !first);
+            }
             first = false;
             //logger.debug("prefilter: {}", p.getClass().getSimpleName());
         }
@@ -57,6 +61,22 @@ public class PreFilterSequence extends PluginParameterList<PreFilter, PreFilterS
         if (input.sameDimensions(prop)) input.resetOffset().translate(prop);
         return input;
     }
+    /**
+     * @param input
+     * @return sum of the halos of all pre-filters, or -1 if one pre-filter cannot be run on tiles
+     * @see Tileable
+     */
+    public int getTileHalo(Image input) {
+        if (scaler!=null) return -1;
+        int halo = 0;
+        for (PreFilter p : get()) {
+            if (!(p instanceof Tileable)) return -1;
+            int h = ((Tileable)p).getTileHalo(input);
+            if (h<0) return -1;
+            halo+=h;
+        }
+        return halo;
+    }
     @Override public PreFilterSequence removeAll() {
         this.removeAllElements();
         return this;
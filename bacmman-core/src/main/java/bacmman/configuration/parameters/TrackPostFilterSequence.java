@@ -26,6 +26,7 @@ import java.util.List;
 
 import bacmman.data_structure.TrackLinkEditor;
 import bacmman.plugins.TrackPostFilter;
+import bacmman.utils.Metrics;
 import bacmman.utils.MultipleException;
 
 /**
@@ -42,7 +43,9 @@ public class TrackPostFilterSequence extends PluginParameterList<TrackPostFilter
         if (parentTrack.isEmpty()) return;
         int count=0;
         for (TrackPostFilter p : this.get()) {
-            p.filter(structureIdx, parentTrack, factory, editor);
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACK_POST_FILTER, Metrics.name(p))) {
+                p.filter(structureIdx, parentTrack, factory, editor);
+            }
             logger.debug("track post-filter: {}/{} done", ++count, this.getChildCount());
         }
     }
@@ -32,6 +32,7 @@ import java.util.*;
 
 import bacmman.plugins.TrackPreFilter;
 import bacmman.plugins.HistogramScaler;
+import bacmman.utils.Metrics;
 import bacmman.utils.MultipleException;
 import bacmman.utils.Utils;
 import org.slf4j.Logger;
@@ -89,7 +90,9 @@ public class TrackPreFilterSequence extends PluginParameterList<TrackPreFilter,
         });
         //setScale.run();
         for (TrackPreFilter p : this.get()) {
-            p.filter(structureIdx, images);
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACK_PRE_FILTER, Metrics.name(p))) {
+                p.filter(structureIdx, images);
+            }
             setScale.run();
             images.setAllowInplaceModification(true);  // image can be modified inplace
         }
@@ -18,6 +18,7 @@
  */
 package bacmman.core;
 
+import bacmman.configuration.experiment.Experiment;
 import bacmman.data_structure.DiskBackedImageManagerProvider;
 import bacmman.data_structure.MasterDAOFactory;
 import bacmman.data_structure.SegmentedObject;
@@ -145,6 +146,18 @@ public class Core {
         diskBackedImageManagerProvider.clear();
     }
 
+    public static void clearDiskBackedImageManager(String directory) {
+        diskBackedImageManagerProvider.clear(directory);
+    }
+
+    public static void clearDiskBackedImageManagers(Experiment xp, String position) {
+        diskBackedImageManagerProvider.clear(xp, position);
+    }
+
+    public static boolean isDiskManagerFreeingMemory() {
+        return diskBackedImageManagerProvider.isFreeingMemory();
+    }
+
     public static void waitDiskManagerFreeMemory() {
         diskBackedImageManagerProvider.waitFreeMemory();
         System.gc();
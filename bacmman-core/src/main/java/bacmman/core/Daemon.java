@@ -19,57 +19,106 @@
 package bacmman.core;
 
 import bacmman.ui.logger.FileProgressLogger;
+import bacmman.ui.logger.MultiProgressLogger;
 import bacmman.ui.logger.ProgressLogger;
 import com.google.common.io.Files;
 import bacmman.core.DefaultWorker.WorkerTask;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.json.simple.JSONObject;
 import bacmman.utils.FileIO;
 import bacmman.utils.JSONUtils;
+import bacmman.utils.Utils;
 import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Watches a directory for job files (one JSON task per line) and runs them with one or several workers.
+ * Parsed tasks are split by position and stored in the "Queue" sub-directory, a job file being removed only once it has been run: when the daemon is restarted on the same directory, it resumes with the remaining jobs.
+ * Export actions of a task are run once all its positions have been processed.
+ * Workers share the memory budget for pre-processing, never run two jobs on the same position concurrently and do not start a new job while memory is under pressure.
  * @author Jean Ollion
  */
 public class Daemon {
+    public final static Logger logger = LoggerFactory.getLogger(Daemon.class);
     ProgressLogger ui;
-    FileProgressLogger logUI;
     String watchDir;
-    File parsedJobDir, errorDir, logDir;
-    boolean watching, running;
+    File parsedJobDir, errorDir, logDir, queueDir;
+    volatile boolean watching, running;
     long idleTime = 10000;
+    int workers = 1;
+    double memoryBudget = 0.5; // proportion of the maximal memory that can be used for pre-processing, shared among workers
+    double memoryPressureThreshold = 0.75; // no job is started while memory usage is over this proportion (unless no job is running)
+    boolean splitByPosition = true;
     DefaultWorker w;
-    final Queue<Task> jobQueue = new LinkedList<>();
-    final Map<Task, File> taskFileNameMap = new HashMap<>();
-    final Map<File, Boolean> fileNameErrorMap = new HashMap<>();
-    final Set<File> oneJobHasBeenRun = new HashSet<>();
+    ExecutorService workerPool;
+    final LinkedList<Job> jobQueue = new LinkedList<>(); // also used as monitor for runningJobs
+    final List<Job> runningJobs = new ArrayList<>();
     public Daemon(ProgressLogger ui) {
         this.ui=ui;
     }
 
+    public Daemon setWorkers(int workers) {
+        if (workers<1) throw new IllegalArgumentException("At least one worker is required");
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     *
+     * @param memoryBudget proportion of the maximal memory that can be used for pre-processing by all workers
+     * @return this daemon
+     */
+    public Daemon setMemoryBudget(double memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public Daemon setMemoryPressureThreshold(double memoryPressureThreshold) {
+        this.memoryPressureThreshold = memoryPressureThreshold;
+        return this;
+    }
+
+    public Daemon setSplitByPosition(boolean splitByPosition) {
+        this.splitByPosition = splitByPosition;
+        return this;
+    }
+
     public void terminateWatch() {
         watching = false;
         ui.setMessage("Stop Watching");
+        synchronized (jobQueue) {
+            jobQueue.notifyAll();
+        }
     }
+    /**
+     * Running jobs are completed, remaining jobs stay in the queue directory and will be run when the daemon is started again
+     */
     public void stopAfterNextJob() {
         running = false;
         watching = false;
         ui.setMessage("Stop Running");
+        synchronized (jobQueue) {
+            jobQueue.notifyAll();
+        }
     }
     public void terminateNow() {
+        running = false;
+        watching = false;
+        if (workerPool!=null) workerPool.shutdownNow();
         if (w!=null) w.cancelSilently();
     }
     public void watchDirectory(String dir) {
@@ -81,10 +130,12 @@ public class Daemon {
         File pd = Paths.get(dir, "ParsedJobs").toFile();
         File ed = Paths.get(dir, "Errors").toFile();
         File ld = Paths.get(dir, "Logs").toFile();
+        File qd = Paths.get(dir, "Queue").toFile();
         pd.mkdirs();
         ed.mkdirs();
         ld.mkdirs();
-        if (!pd.isDirectory() || !ed.isDirectory() || !ld.isDirectory()) {
+        qd.mkdirs();
+        if (!pd.isDirectory() || !ed.isDirectory() || !ld.isDirectory() || !qd.isDirectory()) {
             ui.setMessage("Cannot create sub directories within directory: "+dir);
             return;
         }
@@ -92,64 +143,166 @@ public class Daemon {
         parsedJobDir=pd;
         errorDir=ed;
         logDir=ld;
+        queueDir=qd;
         watching = true;
-        ui.setMessage("Setting watch directory: "+dir);
+        ui.setMessage("Setting watch directory: "+dir+ " workers: "+workers);
+        loadQueue();
+        running = true;
+        workerPool = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i<workers; ++i) workerPool.submit(this::runJobs);
+        workerPool.shutdown();
         WorkerTask wt = new WorkerTask() {
             @Override
             public String run(int i) {
-                while(running) {
-                    Task t = jobQueue.poll();
-                    if (t!=null) {
-                        logUI.setAppend(!oneJobHasBeenRun.contains(taskFileNameMap.get(t)));
-                        logUI.setLogFile(Paths.get(logDir.getAbsolutePath(), taskFileNameMap.get(t).getName().replace(".json", ".txt")).toString());
-                        t.publishMemoryUsage("");
-                        ui.setMessage("Running Job: "+t+" remaining jobs: "+jobQueue.size());
-                        t.setPreprocessingMemoryThreshold(0.5);
-                        t.runTask();
-                        t.publishErrors();
-                        if (!t.errors.isEmpty()) fileNameErrorMap.put(taskFileNameMap.get(t), true);
-                        t.flush(true);
-                        logUI.setLogFile(null);
-                        oneJobHasBeenRun.add(taskFileNameMap.get(t));
-                        taskFileNameMap.remove(t);
-                        moveFiles();
-                    }
-                    else if (watching) {
-                        addFiles(watchDir);
-                        while(watching && jobQueue.isEmpty()) {
-                            try {
-                                Thread.sleep(idleTime);
-                            } catch (InterruptedException ex) {}
-                            addFiles(watchDir);
+                while(watching) {
+                    addFiles(watchDir);
+                    synchronized (jobQueue) {
+                        try {
+                            jobQueue.wait(idleTime);
+                        } catch (InterruptedException ex) {
+                            return "";
                         }
-                    } else running=false;
+                    }
                 }
+                try {
+                    workerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {}
+                ui.setMessage("Daemon stopped. Remaining jobs: "+jobQueue.size());
                 return "";
             }
         };
-        running = true;
         w = DefaultWorker.execute(wt, 1, null);
     }
+
+    /**
+     * Worker loop: runs jobs from the queue until the daemon is stopped, or until the queue is empty if the directory is not watched anymore
+     */
+    protected void runJobs() {
+        while(running) {
+            Job job = nextJob();
+            if (job==null) return;
+            try {
+                run(job);
+            } finally {
+                synchronized (jobQueue) {
+                    runningJobs.remove(job);
+                    jobQueue.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until a job can be run
+     * @return next job that can be run, or null if the worker should stop
+     */
+    protected Job nextJob() {
+        while(running) {
+            boolean memoryPressure = isUnderMemoryPressure(); // outside the monitor: may block while disk-backed image managers free memory
+            synchronized (jobQueue) {
+                if (jobQueue.isEmpty() && runningJobs.isEmpty() && !watching) return null;
+                if (!memoryPressure || runningJobs.isEmpty()) {
+                    Iterator<Job> it = jobQueue.iterator();
+                    while (it.hasNext()) {
+                        Job job = it.next();
+                        if (canRun(job)) {
+                            it.remove();
+                            runningJobs.add(job);
+                            return job;
+                        }
+                    }
+                }
+                try {
+                    jobQueue.wait(1000);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected boolean isUnderMemoryPressure() {
+        return Core.isDiskManagerFreeingMemory() || Utils.getMemoryUsageProportion() > memoryPressureThreshold;
+    }
+
+    // called while holding jobQueue monitor
+    private boolean canRun(Job job) {
+        for (Job r : runningJobs) if (r.conflicts(job)) return false;
+        if (job.last) { // wait for all processing jobs of the same source
+            for (Job r : runningJobs) if (r.source.equals(job.source)) return false;
+            for (Job q : jobQueue) if (q!=job && q.source.equals(job.source) && !q.last) return false;
+        }
+        return true;
+    }
+
+    protected void run(Job job) {
+        Task t = job.task;
+        FileProgressLogger logUI = new FileProgressLogger(true);
+        logUI.setLogFile(Paths.get(logDir.getAbsolutePath(), job.file.getName().replace(".json", ".txt")).toString());
+        logUI.setRunning(true);
+        t.setUI(new MultiProgressLogger(ui, logUI));
+        t.setPreprocessingMemoryThreshold(memoryBudget / workers);
+        t.setSharedResources(workers>1);
+        t.publishMemoryUsage("");
+        ui.setMessage("Running Job: "+t+" remaining jobs: "+jobQueue.size());
+        try {
+            t.runTask();
+        } catch (Throwable e) {
+            t.publishError("Job: "+job.file.getName(), e);
+        }
+        t.publishErrors();
+        boolean error = !t.getErrors().isEmpty();
+        t.flush(true);
+        logUI.setLogFile(null);
+        if (error) moveFile(job.file, errorDir);
+        else if (!job.file.delete()) ui.setMessage("Cannot remove job file: "+job.file);
+    }
+
+    /**
+     * Reloads the jobs that were not run when the daemon was last stopped
+     */
+    protected void loadQueue() {
+        File[] jobFiles = queueDir.listFiles(f->f.isFile() && f.getName().endsWith(".json"));
+        if (jobFiles==null || jobFiles.length==0) return;
+        Arrays.sort(jobFiles);
+        int count = 0;
+        synchronized (jobQueue) {
+            for (File f : jobFiles) {
+                Job job = Job.read(f);
+                if (job==null) {
+                    ui.setMessage("Error: could not read job file: "+f);
+                    moveFile(f, errorDir);
+                } else {
+                    job.task.setUI(ui);
+                    jobQueue.add(job);
+                    ++count;
+                }
+            }
+        }
+        ui.setMessage(count+ " jobs resumed from queue directory: "+queueDir);
+    }
+
     public void addFiles(String dir) {
         File[] subF = new File(dir).listFiles(f->f.isFile() && f.getName().endsWith(".json"));
         if (subF==null || subF.length==0) {
             //ui.setMessage("no job found in directory: "+dir);
             return;
         }
+        int count = 0;
         for (File f : subF) {
-            List<String> jobs = FileIO.readFromFile(f.getAbsolutePath(), s->s, s->ui.setMessage("Error while reading file: "+f));
+            List<String> lines = FileIO.readFromFile(f.getAbsolutePath(), s->s, s->ui.setMessage("Error while reading file: "+f));
+            String source = f.getName().replace(".json", "") + "_" + System.currentTimeMillis();
+            List<Job> jobs = new ArrayList<>();
             boolean error= false;
-            for (String s : jobs) {
-                JSONObject o = null;
+            for (String s : lines) {
                 try {
-                    o = JSONUtils.parse(s);
+                    JSONObject o = JSONUtils.parse(s);
                     Task t = new Task();
                     t.initFromJSONEntry(o);
                     t.setUI(ui);
-                    if (t.isValid()) {
-                        jobQueue.add(t);
-                        taskFileNameMap.put(t, f);
-                    } else {
+                    if (t.isValid()) jobs.addAll(split(t, source));
+                    else {
                         error=true;
                         ui.setMessage("Invalid task: "+f);
                         t.printErrorsTo(ui);
@@ -159,23 +312,86 @@ public class Daemon {
                     ui.setMessage("Error: could not parse task: "+ e.toString());
                     error = true;
                 }
-                fileNameErrorMap.put(f, error);
             }
+            // persist jobs before moving the file so that no job is lost if the daemon is interrupted
+            for (int i = 0; i<jobs.size(); ++i) jobs.get(i).write(Paths.get(queueDir.getAbsolutePath(), String.format("%s_%05d.json", source, i)).toFile());
+            moveFile(f, error ? errorDir : parsedJobDir); // move file to subfolder so that it is not scanned again
+            synchronized (jobQueue) {
+                jobQueue.addAll(jobs);
+                jobQueue.notifyAll();
+            }
+            count += jobs.size();
         }
-        ui.setMessage(jobQueue.size()+ " new jobs found in directory: "+dir);
-    }
-    private void moveFiles() {
-        Iterator<Entry<File, Boolean>> it = fileNameErrorMap.entrySet().iterator();
-        while(it.hasNext()) {
-            Entry<File, Boolean> e = it.next();
-            if (!taskFileNameMap.containsValue(e.getKey())) { // all jobs are done
-                try { // move file to subfolder so that it is not scanned again
-                    Files.move(e.getKey(), Paths.get((e.getValue()?errorDir.getAbsolutePath():parsedJobDir.getAbsolutePath()),e.getKey().getName()).toFile());
-                } catch (IOException ex) {
-                    ui.setMessage("Cannot move file: "+e.getKey().getName() + " "+ ex.getMessage());
-                }
+        ui.setMessage(count+ " new jobs found in directory: "+dir);
+    }
+
+    /**
+     * Splits the processing actions of {@param t} by position so that positions can be run concurrently, and export actions are run in a last job
+     * @param t task with initialized db
+     * @param source
+     * @return jobs
+     */
+    protected List<Job> split(Task t, String source) {
+        if (!splitByPosition || t.selectionName!=null || !t.hasProcessingActions()) return Collections.singletonList(new Job(t, source, false));
+        List<Job> res = t.splitByPosition().map(st -> new Job(st, source, false)).collect(Collectors.toList());
+        Task exportTask = t.getExportTask();
+        if (exportTask!=null) res.add(new Job(exportTask, source, true));
+        return res;
+    }
+
+    private void moveFile(File file, File dir) {
+        try {
+            Files.move(file, Paths.get(dir.getAbsolutePath(), file.getName()).toFile());
+        } catch (IOException ex) {
+            ui.setMessage("Cannot move file: "+file.getName() + " "+ ex.getMessage());
+        }
+    }
+
+    static class Job {
+        File file;
+        final Task task;
+        final String source; // jobs split from the same task file share the same source
+        final boolean last; // export job: run once all other jobs from the same source are done
+
+        Job(Task task, String source, boolean last) {
+            this.task = task;
+            this.source = source;
+            this.last = last;
+        }
+
+        boolean conflicts(Job other) {
+            if (!task.getDir().equals(other.task.getDir())) return false;
+            if (positions()==null || other.positions()==null) return true;
+            return !Collections.disjoint(positions(), other.positions());
+        }
+
+        List<Integer> positions() {
+            return task.positions;
+        }
+
+        void write(File file) {
+            JSONObject res = new JSONObject();
+            res.put("source", source);
+            if (last) res.put("last", true);
+            res.put("task", task.toJSONEntry());
+            FileIO.writeToFile(file.getAbsolutePath(), Collections.singletonList(res), o -> o.toJSONString());
+            this.file = file;
+        }
+
+        static Job read(File file) {
+            List<String> lines = FileIO.readFromFile(file.getAbsolutePath(), s->s, s->{});
+            if (lines.isEmpty()) return null;
+            try {
+                JSONObject o = JSONUtils.parse(lines.get(0));
+                Task t = new Task();
+                t.initFromJSONEntry((JSONObject)o.get("task"));
+                Job job = new Job(t, (String)o.get("source"), (Boolean)o.getOrDefault("last", false));
+                job.file = file;
+                return job;
+            } catch (ParseException|RuntimeException e) {
+                logger.error("Error reading job file: "+file, e);
+                return null;
             }
         }
-        
     }
 }
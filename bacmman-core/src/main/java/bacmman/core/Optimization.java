@@ -185,6 +185,14 @@ public class Optimization {
                 run(db.getDao(position), selection, errors, pcb);
                 db.clearCache(position);
             }
+            if (pcb!=null) pcb.log("Measurements...");
+            try {
+                Processor.performMeasurements(db, positions, MEASUREMENT_MODE.ERASE_ALL, selection, pcb); // positions are measured concurrently
+            } catch (MultipleException e) {
+                errors.addExceptions(e.getExceptions());
+            } finally {
+                if (pcb!=null) for (int i = 0; i<positions.size(); ++i) pcb.incrementProgress();
+            }
             if (!errors.isEmpty()) throw errors;
             // export all measurements
             if (pcb!=null) pcb.log("Export Measurements...");
@@ -198,6 +206,9 @@ public class Optimization {
             if (!errors.isEmpty()) throw errors;
         }
 
+        /**
+         * Segmentation and tracking of the position of {@code dao}. Measurements are performed afterwards for all positions
+         */
         public void run(ObjectDAO dao, Selection selection, MultipleException errors, ProgressCallback pcb) {
             int[] ocA = objectClasses().toArray();
             if (selection==null) {
@@ -226,9 +237,6 @@ public class Optimization {
                     Core.clearDiskBackedImageManagers();
                 }
             }
-            if (pcb!=null) pcb.log("Measurements...");
-            Processor.performMeasurements(dao, MEASUREMENT_MODE.ERASE_ALL, selection, pcb);
-            pcb.incrementProgress();
         }
 
         public boolean performed() {
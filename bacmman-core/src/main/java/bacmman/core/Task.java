@@ -84,6 +84,7 @@ public class Task implements TaskI<Task>, ProgressCallback {
         double cleanMemoryProportionThld = 0.25; // if memory is over this thld after a task item is performed, cleans memory
         ProgressLogger ui;
         String selectionName;
+        boolean sharedResources; // other tasks run concurrently in the same JVM
 
 
         String extractDSFile, extractRawDSFile;
@@ -885,6 +886,16 @@ public class Task implements TaskI<Task>, ProgressCallback {
         this.preProcessingMemoryThreshold=preProcessingMemoryThreshold;
     }
 
+    /**
+     * When other tasks are run concurrently in the same JVM, only the resources associated to the processed positions are released after each position (instead of all disk-backed image managers)
+     * @param sharedResources
+     * @return this task
+     */
+    public Task setSharedResources(boolean sharedResources) {
+        this.sharedResources = sharedResources;
+        return this;
+    }
+
     public void runTask() {
         //if (ui!=null) ui.setRunning(true);
         publish("Run task: "+this.toString());
@@ -924,10 +935,13 @@ public class Task implements TaskI<Task>, ProgressCallback {
         if (this.taskCounter==null) this.taskCounter = new int[]{0, this.countSubtasks()};
         publish("number of subtasks: "+countSubtasks());
         if (processing) {
+            Metrics.push(getDBName());
             try {
-                for (String position : positionsToProcess) {
+                List<String> positionsToMeasure = new ArrayList<>();
+                if (preProcess || segmentAndTrack || trackOnly) for (String position : positionsToProcess) {
+                    Metrics.push(position);
                     try {
-                        process(position, deleteAllPosition, selection, preProcessingMemoryThreshold);
+                        if (process(position, deleteAllPosition, selection, preProcessingMemoryThreshold)) positionsToMeasure.add(position);
                     } catch (MultipleException e) {
                         errors.addExceptions(e.getExceptions());
                     } catch (Throwable e) {
@@ -935,13 +949,38 @@ public class Task implements TaskI<Task>, ProgressCallback {
                     } finally {
                         db.getExperiment().getPosition(position).freeMemoryImages(true, true);
                         db.getExperiment().getDLengineProvider().closeAllEngines();
-                        Core.clearDiskBackedImageManagers();
+                        if (sharedResources) Core.clearDiskBackedImageManagers(db.getExperiment(), position);
+                        else Core.clearDiskBackedImageManagers();
                         db.clearCache(position);
                         if (db.getSelectionDAO() != null) db.getSelectionDAO().clearCache();
                         clearSelections();
                         Core.freeDisplayMemory();
                         System.gc();
                         publishMemoryUsage("After clearing cache");
+                        logMetrics(Metrics.pop());
+                    }
+                } else positionsToMeasure.addAll(positionsToProcess);
+                if (measurements && !positionsToMeasure.isEmpty()) { // positions are measured concurrently
+                    publish("Measurements...");
+                    logger.info("Measurements: DB: {}, Positions: {}", getDBName(), positionsToMeasure);
+                    try {
+                        Processor.performMeasurements(db, positionsToMeasure, measurementMode, selection, this);
+                    } catch (MultipleException e) {
+                        errors.addExceptions(e.getExceptions());
+                    } catch (Throwable e) {
+                        errors.addExceptions(new Pair("Error while performing measurements: db: " + db.getDBName(), e));
+                    } finally {
+                        for (String position : positionsToMeasure) {
+                            incrementProgress();
+                            if (sharedResources) Core.clearDiskBackedImageManagers(db.getExperiment(), position);
+                        }
+                        if (!sharedResources) Core.clearDiskBackedImageManagers();
+                        db.getExperiment().getDLengineProvider().closeAllEngines();
+                        if (db.getSelectionDAO() != null) db.getSelectionDAO().clearCache();
+                        clearSelections();
+                        Core.freeDisplayMemory();
+                        System.gc();
+                        publishMemoryUsage("After Measurements");
                     }
                 }
             } catch (Throwable t) {
@@ -952,9 +991,12 @@ public class Task implements TaskI<Task>, ProgressCallback {
                 logger.debug("closing engines...");
                 db.getExperiment().getDLengineProvider().closeAllEngines();
                 logger.debug("engines closed!");
-                logger.debug("clearing disk backed image manager...");
-                Core.clearDiskBackedImageManagers();
-                logger.debug("disk backed image manager cleared!");
+                if (!sharedResources) {
+                    logger.debug("clearing disk backed image manager...");
+                    Core.clearDiskBackedImageManagers();
+                    logger.debug("disk backed image manager cleared!");
+                }
+                logMetrics(Metrics.pop());
             }
         }
         if (!exportDir.isEmpty()) {
@@ -1026,6 +1068,11 @@ public class Task implements TaskI<Task>, ProgressCallback {
         clearSelections();
     }
 
+    protected void logMetrics(Metrics metrics) {
+        if (!Metrics.isEnabled() || metrics.isEmpty()) return;
+        logger.info("Processing metrics: {}", metrics.toJSONEntry().toJSONString());
+    }
+
     public void flush(boolean errors) {
         clearDB();
         if (errors) {
@@ -1033,7 +1080,11 @@ public class Task implements TaskI<Task>, ProgressCallback {
         }
     }
 
-    private void process(String position, boolean deleteAllPosition, Selection selection, double preProcessingMemoryThreshold) {
+    /**
+     * Pre-processing, segmentation and tracking of {@code position}. Measurements are performed afterwards for all positions
+     * @return true if no error occurred during segmentation and tracking
+     */
+    private boolean process(String position, boolean deleteAllPosition, Selection selection, double preProcessingMemoryThreshold) {
         publish("Dataset" + getDBName()+ " Position: "+position);
         logger.debug("position: {} delete all position: {}", position, deleteAllPosition);
         if (deleteAllPosition) db.getDao(position).erase();
@@ -1108,14 +1159,7 @@ public class Task implements TaskI<Task>, ProgressCallback {
             }
             publishMemoryUsage("After Processing:");
         }
-        
-        if (ok && measurements) {
-            publish("Measurements...");
-            logger.info("Measurements: DB: {}, Position: {}", getDBName(), position);
-            Processor.performMeasurements(db.getDao(position), measurementMode, selection, this);
-            incrementProgress();
-            //publishMemoryUsage("After Measurements");
-        }
+        return ok;
     }
     public void publishMemoryUsage(String message) {
         publish(message+Utils.getMemoryUsage());
@@ -1571,12 +1615,32 @@ public class Task implements TaskI<Task>, ProgressCallback {
             res.setStructures(structures);
             res.segmentAndTrack = segmentAndTrack;
             res.trackOnly = trackOnly;
-            if (measurements) res.measurements = true;
+            if (measurements) {
+                res.measurements = true;
+                res.measurementMode = measurementMode;
+            }
             return res;
         };
         return positions.stream().map(subTaskCreator);
     }
 
+    public boolean hasProcessingActions() {
+        return preProcess || segmentAndTrack || trackOnly || measurements;
+    }
+
+    public boolean hasExportActions() {
+        return !exportDir.isEmpty() || exportData || extractDSFile!=null || extractRawDSFile!=null;
+    }
+
+    /**
+     * Export and dataset extraction actions require all positions to be processed
+     * @return a copy of this task without processing actions, or null if this task has no export action
+     */
+    public Task getExportTask() {
+        if (!hasExportActions()) return null;
+        return duplicate().setActions(false, false, false, false);
+    }
+
     public static Map<XP_POS, List<Task>> getProcessingTasksByPosition(List<Task> tasks) {
         //checkXPNameDir(tasks);
         BinaryOperator<Task> taskMerger=(t1, t2) -> {
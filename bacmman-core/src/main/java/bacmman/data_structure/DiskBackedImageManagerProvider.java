@@ -1,5 +1,6 @@
 package bacmman.data_structure;
 
+import bacmman.configuration.experiment.Experiment;
 import bacmman.data_structure.dao.DiskBackedImageManager;
 import bacmman.data_structure.dao.DiskBackedImageManagerImageDAO;
 import bacmman.data_structure.dao.DiskBackedImageManagerImpl;
@@ -12,14 +13,26 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DiskBackedImageManagerProvider {
     Logger logger = LoggerFactory.getLogger(DiskBackedImageManagerProvider.class);
     final Map<String, DiskBackedImageManager> managers = new HashMapGetCreate.HashMapGetCreateRedirected<>(DiskBackedImageManagerImpl::new);
+    final Map<String, DiskBackedImageManagerImageDAO> imageDAOManagers = new HashMap<>(); // by temp directory of the position, which is specific to the dataset and the position
+
+    protected List<DiskBackedImageManager> getAllManagers() {
+        List<DiskBackedImageManager> res = new ArrayList<>(managers.values());
+        synchronized (imageDAOManagers) {
+            res.addAll(imageDAOManagers.values());
+        }
+        return res;
+    }
 
     public synchronized boolean waitFreeMemory() {
-        for (DiskBackedImageManager manager : managers.values()) {
+        for (DiskBackedImageManager manager : getAllManagers()) {
             while(manager.isFreeingMemory()) {
                 try {
                     Thread.sleep(1000);
@@ -42,45 +55,92 @@ public class DiskBackedImageManagerProvider {
         return manager;
     }
 
+    /**
+     * @param position name of the position
+     * @param imageDAO DAO of the position
+     * @param tmpDir temporary directory of the position, see {@link #getTempDirectory(Experiment, String, boolean)}. Managers are identified by this directory, so that positions with the same name in different datasets have distinct managers
+     * @param replaceIfExisting if true, an existing manager is cleared and replaced
+     * @return disk-backed manager of the images of the position
+     */
     public DiskBackedImageManagerImageDAO getImageDAOManager(String position, ImageDAO imageDAO, String tmpDir, boolean replaceIfExisting) {
-        DiskBackedImageManager manager = managers.get(position);
-        if (manager == null || replaceIfExisting) {
-            synchronized (managers) {
-                manager = managers.get(position);
-                if (manager == null || replaceIfExisting) {
-                    if (manager!=null) {
-                        manager.stopDaemon();
-                        manager.clear(true);
-                    }
-                    manager = new DiskBackedImageManagerImageDAO(position, imageDAO, tmpDir);
-                    managers.put(position, manager);
-                    manager.startDaemon(DiskBackedImageManager.memoryFraction, DiskBackedImageManager.timeInterval);
+        synchronized (imageDAOManagers) {
+            DiskBackedImageManagerImageDAO manager = imageDAOManagers.get(tmpDir);
+            if (manager == null || replaceIfExisting) {
+                if (manager!=null) {
+                    manager.stopDaemon();
+                    manager.clear(true);
                 }
+                manager = new DiskBackedImageManagerImageDAO(position, imageDAO, tmpDir);
+                imageDAOManagers.put(tmpDir, manager);
+                manager.startDaemon(DiskBackedImageManager.memoryFraction, DiskBackedImageManager.timeInterval);
             }
+            return manager;
         }
-        if (!(manager instanceof DiskBackedImageManagerImageDAO)) throw new RuntimeException("Image manager at position "+position+" is not a DiskBackedImageManagerImageDAO");
-        return (DiskBackedImageManagerImageDAO)manager;
     }
 
     public synchronized DiskBackedImageManager getManager(SegmentedObject segmentedObject) {
-        String tmp = getTempDirectory(Paths.get(segmentedObject.getExperiment().getOutputImageDirectory()), true);
+        String tmp = getTempDirectory(segmentedObject.getExperiment(), segmentedObject.getPositionName(), true);
         return getManager(tmp);
     }
 
     public synchronized void clear() {
-        for (DiskBackedImageManager m : managers.values()) {
+        for (DiskBackedImageManager m : getAllManagers()) {
             m.stopDaemon();
             m.clear(true);
         }
         managers.clear();
+        synchronized (imageDAOManagers) {
+            imageDAOManagers.clear();
+        }
+    }
+
+    /**
+     * Releases the managers associated to a position: the manager of the images of the position and the manager of images of objects of the position
+     * @param xp dataset
+     * @param position name of the position
+     */
+    public synchronized void clear(Experiment xp, String position) {
+        String tmpDir = getTempDirectory(xp, position, false);
+        if (tmpDir == null) return;
+        clear(tmpDir);
+        DiskBackedImageManagerImageDAO m;
+        synchronized (imageDAOManagers) {
+            m = imageDAOManagers.remove(tmpDir);
+        }
+        if (m!=null) {
+            m.stopDaemon();
+            m.clear(true);
+        }
+    }
+
+    public synchronized void clear(String directory) {
+        DiskBackedImageManager m = managers.remove(directory);
+        if (m!=null) {
+            m.stopDaemon();
+            m.clear(true);
+        }
+    }
+
+    public synchronized boolean isFreeingMemory() {
+        for (DiskBackedImageManager manager : getAllManagers()) {
+            if (manager.isFreeingMemory()) return true;
+        }
+        return false;
     }
 
     public synchronized void freeMemory() {
-        for (DiskBackedImageManager m : managers.values()) {
+        for (DiskBackedImageManager m : getAllManagers()) {
             m.freeMemory(0.1);
         }
     }
 
+    /**
+     * @return temporary directory of {@param position} of the dataset {@param xp}
+     */
+    public static String getTempDirectory(Experiment xp, String position, boolean createIfNotExisting) {
+        return getTempDirectory(Paths.get(xp.getOutputImageDirectory()).resolve(position), createIfNotExisting);
+    }
+
     public static String getTempDirectory(Path parent, boolean createIfNotExisting) {
         Path tmp = parent.resolve("tmp");
         if (!Files.exists(tmp)) {
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable sorted set of index paths (frame, then index of the object at each level of the path to root, see {@link SegmentedObjectUtils#getIndexTree(SegmentedObject)}) of a single position and object class.
+ * Paths are packed two indices per long and sorted in lexicographic order, so that set operations are merge-based and linear in the number of elements.
+ * String form is the one used by {@link Selection}: indices separated by {@link Selection#indexSeparator}
+ * @author Jean Ollion
+ */
+public class IndexPathSet implements Iterable<int[]> {
+    public final static Logger logger = LoggerFactory.getLogger(IndexPathSet.class);
+    public final static IndexPathSet EMPTY = new IndexPathSet(0, new long[0], 0);
+    final int length; // number of indices per path
+    final int stride; // number of longs per path
+    final long[] data;
+    final int size;
+
+    private IndexPathSet(int length, long[] data, int size) {
+        this.length = length;
+        this.stride = (length + 1) / 2;
+        this.data = data;
+        this.size = size;
+    }
+
+    public static IndexPathSet of(int[]... paths) {
+        return of(Arrays.asList(paths));
+    }
+
+    public static IndexPathSet of(Collection<int[]> paths) {
+        if (paths.isEmpty()) return EMPTY;
+        int length = paths.iterator().next().length;
+        int stride = (length + 1) / 2;
+        long[] data = new long[paths.size() * stride];
+        int n = 0;
+        for (int[] p : paths) {
+            if (p.length != length) {
+                logger.warn("Index path: {} has wrong length (expected: {})", p, length);
+                continue;
+            }
+            pack(p, data, n++ * stride);
+        }
+        return sortAndRemoveDuplicates(length, data, n);
+    }
+
+    /**
+     * @param indices index paths in string form, e.g. "12-0-3"
+     * @return set of parsed index paths. Paths whose length differs from the first path are ignored
+     */
+    public static IndexPathSet parse(Collection<String> indices) {
+        if (indices.isEmpty()) return EMPTY;
+        int length = -1, stride = 0;
+        long[] data = null;
+        int n = 0;
+        int[] path = null;
+        for (String s : indices) {
+            if (length < 0) {
+                length = length(s);
+                stride = (length + 1) / 2;
+                data = new long[indices.size() * stride];
+                path = new int[length];
+            }
+            if (!parse(s, path)) {
+                logger.warn("Index path: {} has wrong length (expected: {})", s, length);
+                continue;
+            }
+            pack(path, data, n++ * stride);
+        }
+        return sortAndRemoveDuplicates(length, data, n);
+    }
+
+    public static int[] parse(String indices) {
+        int[] res = new int[length(indices)];
+        if (!parse(indices, res)) throw new NumberFormatException("Invalid index path: "+indices);
+        return res;
+    }
+
+    public static IndexPathSet collect(Stream<SegmentedObject> objects) {
+        List<int[]> paths = new ArrayList<>();
+        objects.map(SegmentedObjectUtils::getIndexTree).forEach(paths::add);
+        return of(paths);
+    }
+
+    // parsing / packing
+    private static int length(String indices) {
+        int l = 1;
+        for (int i = 0; i<indices.length(); ++i) if (indices.charAt(i)==Selection.indexSeparator.charAt(0)) ++l;
+        return l;
+    }
+
+    private static boolean parse(String indices, int[] path) {
+        int l = 0, value = 0;
+        boolean digit = false;
+        for (int i = 0; i<indices.length(); ++i) {
+            char c = indices.charAt(i);
+            if (c==Selection.indexSeparator.charAt(0)) {
+                if (!digit || l==path.length) return false;
+                path[l++] = value;
+                value = 0;
+                digit = false;
+            } else if (c>='0' && c<='9') {
+                value = value * 10 + (c - '0');
+                digit = true;
+            } else if (c!=' ') throw new NumberFormatException("Invalid index path: "+indices);
+        }
+        if (!digit || l!=path.length-1) return false;
+        path[l] = value;
+        return true;
+    }
+
+    private static void pack(int[] path, long[] data, int offset) {
+        for (int i = 0; i<path.length; i+=2) {
+            long hi = path[i];
+            long lo = i+1<path.length ? path[i+1] : 0;
+            data[offset + i/2] = (hi << 32) | (lo & 0xFFFFFFFFL);
+        }
+    }
+
+    private static IndexPathSet sortAndRemoveDuplicates(int length, long[] data, int n) {
+        if (n==0) return EMPTY;
+        int stride = (length + 1) / 2;
+        if (stride==1) {
+            Arrays.sort(data, 0, n);
+            int count = 1;
+            for (int i = 1; i<n; ++i) if (data[i]!=data[count-1]) data[count++] = data[i];
+            return new IndexPathSet(length, data, count);
+        }
+        int[] order = IntStream.range(0, n).toArray();
+        IntArrays.quickSort(order, (i, j) -> compare(data, i * stride, data, j * stride, stride));
+        long[] sorted = new long[n * stride];
+        int count = 0;
+        for (int i = 0; i<n; ++i) {
+            int off = order[i] * stride;
+            if (count>0 && compare(data, off, sorted, (count-1) * stride, stride)==0) continue;
+            System.arraycopy(data, off, sorted, count++ * stride, stride);
+        }
+        return new IndexPathSet(length, sorted, count);
+    }
+
+    private static int compare(long[] a, int offA, long[] b, int offB, int stride) {
+        for (int k = 0; k<stride; ++k) {
+            int c = Long.compare(a[offA+k], b[offB+k]);
+            if (c!=0) return c;
+        }
+        return 0;
+    }
+
+    // accessors
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    /**
+     * @return number of indices of each path
+     */
+    public int length() {
+        return length;
+    }
+
+    public int get(int i, int level) {
+        long word = data[i * stride + level / 2];
+        return level%2==0 ? (int)(word >>> 32) : (int)word;
+    }
+
+    public int getFrame(int i) {
+        return get(i, 0);
+    }
+
+    public int[] get(int i) {
+        int[] res = new int[length];
+        for (int l = 0; l<length; ++l) res[l] = get(i, l);
+        return res;
+    }
+
+    public String getString(int i) {
+        StringBuilder sb = new StringBuilder(length * 4);
+        for (int l = 0; l<length; ++l) {
+            if (l>0) sb.append(Selection.indexSeparator);
+            sb.append(get(i, l));
+        }
+        return sb.toString();
+    }
+
+    public List<String> toStringList() {
+        List<String> res = new ArrayList<>(size);
+        for (int i = 0; i<size; ++i) res.add(getString(i));
+        return res;
+    }
+
+    public Stream<String> streamStrings() {
+        return IntStream.range(0, size).mapToObj(this::getString);
+    }
+
+    @Override
+    public Iterator<int[]> iterator() {
+        return new Iterator<int[]>() {
+            int i = 0;
+            @Override
+            public boolean hasNext() {
+                return i<size;
+            }
+            @Override
+            public int[] next() {
+                if (i>=size) throw new NoSuchElementException();
+                return get(i++);
+            }
+        };
+    }
+
+    /**
+     * @param path index path
+     * @return index of {@param path} in this set if contained, (-(insertion point) - 1) otherwise
+     */
+    public int indexOf(int[] path) {
+        if (path.length!=length || size==0) return -1;
+        long[] key = new long[stride];
+        pack(path, key, 0);
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(data, mid * stride, key, 0, stride);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -(low + 1);
+    }
+
+    public boolean contains(int[] path) {
+        return indexOf(path)>=0;
+    }
+
+    public boolean contains(SegmentedObject o) {
+        return contains(SegmentedObjectUtils.getIndexTree(o));
+    }
+
+    // set operations
+    public IndexPathSet union(IndexPathSet other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        checkLength(other);
+        long[] res = new long[(size + other.size) * stride];
+        int i = 0, j = 0, n = 0;
+        while (i<size || j<other.size) {
+            int c = i==size ? 1 : (j==other.size ? -1 : compare(data, i * stride, other.data, j * stride, stride));
+            if (c<=0) {
+                System.arraycopy(data, i++ * stride, res, n++ * stride, stride);
+                if (c==0) ++j;
+            } else System.arraycopy(other.data, j++ * stride, res, n++ * stride, stride);
+        }
+        return new IndexPathSet(length, res, n);
+    }
+
+    public IndexPathSet intersection(IndexPathSet other) {
+        if (isEmpty() || other.isEmpty()) return EMPTY;
+        checkLength(other);
+        long[] res = new long[Math.min(size, other.size) * stride];
+        int i = 0, j = 0, n = 0;
+        while (i<size && j<other.size) {
+            int c = compare(data, i * stride, other.data, j * stride, stride);
+            if (c<0) ++i;
+            else if (c>0) ++j;
+            else {
+                System.arraycopy(data, i * stride, res, n++ * stride, stride);
+                ++i;
+                ++j;
+            }
+        }
+        return n==0 ? EMPTY : new IndexPathSet(length, res, n);
+    }
+
+    /**
+     * @param other
+     * @return elements of this set that are not contained in {@param other}
+     */
+    public IndexPathSet difference(IndexPathSet other) {
+        if (isEmpty() || other.isEmpty()) return this;
+        checkLength(other);
+        long[] res = new long[size * stride];
+        int i = 0, j = 0, n = 0;
+        while (i<size) {
+            int c = j==other.size ? -1 : compare(data, i * stride, other.data, j * stride, stride);
+            if (c<0) System.arraycopy(data, i++ * stride, res, n++ * stride, stride);
+            else if (c>0) ++j;
+            else ++i;
+        }
+        if (n==size) return this;
+        return n==0 ? EMPTY : new IndexPathSet(length, res, n);
+    }
+
+    /**
+     * @param predicate
+     * @return elements of this set whose index path verify {@param predicate}
+     */
+    public IndexPathSet filter(Predicate<int[]> predicate) {
+        long[] res = new long[size * stride];
+        int n = 0;
+        for (int i = 0; i<size; ++i) {
+            if (predicate.test(get(i))) System.arraycopy(data, i * stride, res, n++ * stride, stride);
+        }
+        if (n==size) return this;
+        return n==0 ? EMPTY : new IndexPathSet(length, res, n);
+    }
+
+    /**
+     * Selects elements according to their ancestors. As elements are sorted in lexicographic order, elements with a given prefix are contiguous and the selection is merge-based
+     * @param prefixes index paths of ancestors (shorter than paths of this set)
+     * @param keep if true elements that have an ancestor in {@param prefixes} are kept, otherwise they are removed
+     * @return filtered set
+     */
+    public IndexPathSet filterByPrefix(IndexPathSet prefixes, boolean keep) {
+        if (isEmpty()) return this;
+        if (prefixes.isEmpty()) return keep ? EMPTY : this;
+        if (prefixes.length>=length) throw new IllegalArgumentException("Prefixes should be shorter than paths");
+        long[] res = new long[size * stride];
+        int i = 0, j = 0, n = 0;
+        while (i<size) {
+            int c = j==prefixes.size ? -1 : comparePrefix(i, prefixes, j);
+            if (c>0) ++j;
+            else {
+                if ((c==0) == keep) System.arraycopy(data, i * stride, res, n++ * stride, stride);
+                ++i;
+            }
+        }
+        if (n==size) return this;
+        return n==0 ? EMPTY : new IndexPathSet(length, res, n);
+    }
+
+    private int comparePrefix(int i, IndexPathSet prefixes, int j) {
+        for (int l = 0; l<prefixes.length; ++l) {
+            int c = Integer.compare(get(i, l), prefixes.get(j, l));
+            if (c!=0) return c;
+        }
+        return 0;
+    }
+
+    /**
+     * @param n number of levels to remove
+     * @return set of the distinct ancestors of the elements, {@param n} levels above
+     */
+    public IndexPathSet getParents(int n) {
+        if (n<=0 || isEmpty()) return this;
+        int pLength = Math.max(1, length - n);
+        if (pLength==length) return this;
+        int pStride = (pLength + 1) / 2;
+        long[] res = new long[size * pStride];
+        int[] path = new int[pLength];
+        int count = 0;
+        for (int i = 0; i<size; ++i) { // truncation preserves lexicographic order -> only consecutive duplicates
+            for (int l = 0; l<pLength; ++l) path[l] = get(i, l);
+            pack(path, res, count * pStride);
+            if (count>0 && compare(res, count * pStride, res, (count-1) * pStride, pStride)==0) continue;
+            ++count;
+        }
+        return new IndexPathSet(pLength, res, count);
+    }
+
+    private void checkLength(IndexPathSet other) {
+        if (other.length!=length) throw new IllegalArgumentException("Index paths have different length: "+length+" vs "+other.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IndexPathSet)) return false;
+        IndexPathSet other = (IndexPathSet) o;
+        if (size!=other.size) return false;
+        if (size==0) return true;
+        if (length!=other.length) return false;
+        for (int i = 0; i<size * stride; ++i) if (data[i]!=other.data[i]) return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 31 * size + length;
+        for (int i = 0; i<size * stride; ++i) h = 31 * h + Long.hashCode(data[i]);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexPathSet{n="+size+", length="+length+"}";
+    }
+}
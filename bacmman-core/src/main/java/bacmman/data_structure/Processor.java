@@ -39,10 +39,16 @@ import bacmman.plugins.plugins.processing_pipeline.SegmentOnly;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import bacmman.processing.matching.OverlapMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import bacmman.utils.Metrics;
 import bacmman.utils.MultipleException;
 import bacmman.utils.Pair;
 import bacmman.utils.StreamConcatenation;
@@ -52,6 +58,7 @@ import bacmman.utils.Utils;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -257,7 +264,7 @@ public class Processor {
         int directParentStructure = xp.getStructure(structureIdx).getParentStructure();
         String position = parentTrack.get(0).getPositionName();
         if (selection!=null) {
-            if (selection.getElementStrings(position).isEmpty()) return;
+            if (!selection.hasElementsAt(position)) return;
             if (selection.getObjectClassIdx()!=directParentStructure) return;
         }
         if (trackOnly && ps instanceof SegmentOnly) return  ;
@@ -387,28 +394,57 @@ public class Processor {
         }
         scaler.setHistogram(histogram);
     }
+    public static int HISTOGRAM_FRAME_SUBSAMPLING = Integer.getInteger("bacmman.histogram.frameSubsampling", 1);
+    public static double HISTOGRAM_MEMORY_FRACTION = 0.5; // fraction of free memory that raw images decoded concurrently can use
+
     public static Histogram createHistogramForPosition(ObjectDAO dao, int objectClassIdx) {
+        return createHistogramForPosition(dao, objectClassIdx, HISTOGRAM_FRAME_SUBSAMPLING);
+    }
+
+    /**
+     * Computes the histogram of the raw images of the parent objects of {@param objectClassIdx} in a single pass: frames are processed in parallel, each thread filling a partial {@link StreamingHistogram}, and partial histograms are merged.
+     * The number of frames processed concurrently is limited by the available memory, and raw images opened for the computation are released after each frame.
+     * @param frameSubsampling only one frame every {@param frameSubsampling} frames is used
+     * @return histogram
+     */
+    public static Histogram createHistogramForPosition(ObjectDAO dao, int objectClassIdx, int frameSubsampling) {
         int parentClassIdx = dao.getExperiment().experimentStructure.getParentObjectClassIdx(objectClassIdx);
-        List<SegmentedObject> object = SegmentedObjectUtils.getAllObjectsAsStream(dao, parentClassIdx).collect(Collectors.toList());
-        double min, binSize;
-        int nBins;
-        Image refImage= object.get(0).getRawImage(objectClassIdx);
-        if (refImage.floatingPoint() || refImage.byteCount()>2) {
-            double[] minAndMax = HistogramFactory.getMinAndMax(object.stream().map(o -> o.getRawImage(objectClassIdx)));
-            min = minAndMax[0];
-            nBins = 1000;
-            binSize = HistogramFactory.getBinSize(minAndMax[0], minAndMax[1], nBins);
-        } else if (refImage.byteCount()==1) {
-            min = 0;
-            binSize = 1;
-            nBins = 256;
-        } else if (refImage.byteCount() == 2) {
-            min = 0;
-            binSize = 1;
-            nBins = 65536;
-        } else throw new RuntimeException("Unsupported image type: "+ refImage.getClass());
-        Histogram histo = HistogramFactory.getHistogram(object.stream().map(o -> o.getRawImage(objectClassIdx)), binSize, nBins, min);
-        return histo.getShortenedHistogram();
+        int channelIdx = dao.getExperiment().getChannelImageIdx(objectClassIdx);
+        List<List<SegmentedObject>> frames = new ArrayList<>(SegmentedObjectUtils.getAllObjectsAsStream(dao, parentClassIdx)
+                .filter(o -> frameSubsampling <= 1 || o.getFrame() % frameSubsampling == 0)
+                .collect(Collectors.groupingBy(SegmentedObject::getFrame, TreeMap::new, Collectors.toList())).values());
+        if (frames.isEmpty()) throw new RuntimeException("No parent objects found to compute histogram of position: "+dao.getPositionName());
+        SegmentedObject ref = frames.get(0).get(0);
+        Image refImage = ref.getRawImage(objectClassIdx);
+        long bytesPerFrame = Math.max(1, (long)ref.getRoot().getBounds().volume() * refImage.byteCount());
+        long used = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        long budget = (long)((Utils.getTotalMemory() - used) * HISTOGRAM_MEMORY_FRACTION);
+        int concurrentFrames = (int)Math.max(1, Math.min(ThreadRunner.getMaxCPUs(), budget / bytesPerFrame));
+        List<StreamingHistogram> partials = Collections.synchronizedList(new ArrayList<>());
+        ThreadRunner<Void> tr = new ThreadRunner<>(() -> {
+            StreamingHistogram h = StreamingHistogram.create(refImage);
+            partials.add(h);
+            return f -> {
+                List<SegmentedObject> objects = frames.get(f);
+                List<SegmentedObject> toRelease = new ArrayList<>();
+                SegmentedObject root = objects.get(0).getRoot();
+                if (root.rawImagesC.get(channelIdx) == null && root != ref.getRoot()) toRelease.add(root);
+                for (SegmentedObject o : objects) {
+                    if (!o.isRoot() && o.rawImagesC.get(channelIdx) == null) toRelease.add(o);
+                    h.add(o.getRawImage(objectClassIdx));
+                }
+                for (SegmentedObject o : toRelease) o.rawImagesC.set(null, channelIdx);
+                return null;
+            };
+        }, 0, frames.size(), concurrentFrames);
+        try {
+            tr.startAndJoin();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        tr.throwErrorIfNecessary();
+        StreamingHistogram histo = partials.stream().reduce(StreamingHistogram::merge).get();
+        return histo.toHistogram(1000).getShortenedHistogram();
     }
 
     private static void execute(ProcessingPipeline ps, int structureIdx, List<SegmentedObject> parentTrack, boolean trackOnly, boolean deleteChildren, ObjectDAO dao) {
@@ -447,23 +483,126 @@ public class Processor {
     // measurement-related methods
     public enum MEASUREMENT_MODE {ERASE_ALL, OVERWRITE, ONLY_NEW}
     
+    public static int MEASUREMENT_CONCURRENT_POSITIONS = Integer.getInteger("bacmman.measurements.concurrentPositions", 2);
+    public static double MEASUREMENT_MEMORY_FRACTION = 0.6; // a new position is started only if memory usage is lower than this fraction of the total memory
+
+    /**
+     * Performs measurements on several positions concurrently: at most {@link #MEASUREMENT_CONCURRENT_POSITIONS} positions are in flight, and a new position is started only if memory usage is lower than {@link #MEASUREMENT_MEMORY_FRACTION}.
+     * Measurements are stored by a single writer thread so that storing the measurements of a position overlaps with the computation of the next ones. The cache of a position is cleared once its measurements are stored.
+     * Metrics of each position are recorded in a scope named after the position, that spans computation and storage of its measurements.
+     */
     public static void performMeasurements(MasterDAO db, MEASUREMENT_MODE mode, Selection selection, ProgressCallback pcb) {
         List<String> positions = selection==null ? Arrays.asList(db.getExperiment().getPositionsAsString()) :
-                selection.getAllPositions().stream().filter(p->!selection.getElementStrings(p).isEmpty()).collect(Collectors.toList());
-        for (String position : positions) {
-            performMeasurements(db.getDao(position), mode, selection, pcb);
-            //if (dao!=null) dao.clearCacheLater(xp.getPosition(i).getName());
-            db.getDao(position).clearCache();
-            db.getExperiment().getPosition(position).freeMemoryImages(true, true);
+                selection.getAllPositions().stream().filter(selection::hasElementsAt).collect(Collectors.toList());
+        performMeasurements(db, positions, mode, selection, pcb);
+    }
+
+    /**
+     * Performs measurements on {@code positions}, see {@link #performMeasurements(MasterDAO, MEASUREMENT_MODE, Selection, ProgressCallback)}
+     * @throws MultipleException errors of all positions
+     */
+    public static void performMeasurements(MasterDAO db, List<String> positions, MEASUREMENT_MODE mode, Selection selection, ProgressCallback pcb) {
+        int concurrentPositions = Math.max(1, Math.min(MEASUREMENT_CONCURRENT_POSITIONS, positions.size()));
+        if (concurrentPositions == 1) {
+            for (String position : positions) {
+                Metrics.push(position);
+                try {
+                    performMeasurements(db.getDao(position), mode, selection, pcb);
+                } finally {
+                    db.getDao(position).clearCache();
+                    db.getExperiment().getPosition(position).freeMemoryImages(true, true);
+                    logMeasurementMetrics(Metrics.pop());
+                }
+            }
+            return;
         }
+        Semaphore slots = new Semaphore(concurrentPositions); // a slot is released once measurements of the position are stored and its cache cleared
+        ExecutorService computation = Executors.newFixedThreadPool(concurrentPositions);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        MultipleException globE = new MultipleException();
+        try {
+            for (String position : positions) {
+                slots.acquire();
+                while (slots.availablePermits() < concurrentPositions - 1 && Utils.getMemoryUsageProportion() > MEASUREMENT_MEMORY_FRACTION) Thread.sleep(100); // wait for running positions to release memory
+                computation.submit(Metrics.inCurrentScope(() -> {
+                    Metrics.push(position); // the position scope is closed by the store task, once measurements are stored
+                    MultipleException posE = new MultipleException();
+                    ObjectDAO dao = null;
+                    Set<SegmentedObject> modifiedObjects = null;
+                    try {
+                        dao = db.getDao(position);
+                        modifiedObjects = computeMeasurements(dao, mode, selection, null, posE);
+                    } catch (Throwable t) {
+                        posE.addExceptions(new Pair<>(position, t));
+                    }
+                    ObjectDAO storeDAO = dao;
+                    Set<SegmentedObject> toStore = modifiedObjects;
+                    Runnable store = () -> {
+                        try {
+                            if (storeDAO != null && toStore != null) {
+                                storeDAO.upsertMeasurements(toStore);
+                                storeDAO.flushMeasurements(); // write errors are reported for this position
+                                if (pcb != null) pcb.incrementProgress();
+                            }
+                        } catch (Throwable t) {
+                            posE.addExceptions(new Pair<>(position, t));
+                        } finally {
+                            try {
+                                if (storeDAO != null) storeDAO.clearCache();
+                                db.getExperiment().getPosition(position).freeMemoryImages(true, true);
+                            } catch (Throwable t) {
+                                posE.addExceptions(new Pair<>(position, t));
+                            } finally { // the slot is always released
+                                logMeasurementMetrics(Metrics.pop());
+                                if (!posE.isEmpty()) synchronized (globE) {globE.addExceptions(posE.getExceptions());}
+                                slots.release();
+                            }
+                        }
+                    };
+                    Runnable scopedStore = Metrics.inCurrentScope(store); // run in the position scope
+                    try {
+                        writer.submit(scopedStore);
+                    } catch (RejectedExecutionException e) {
+                        scopedStore.run();
+                    }
+                }));
+            }
+            slots.acquire(concurrentPositions); // wait for all positions to be stored
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            computation.shutdownNow();
+            writer.shutdown();
+        }
+        if (!globE.isEmpty()) throw globE;
     }
     
+    private static void logMeasurementMetrics(Metrics metrics) {
+        if (!Metrics.isEnabled() || metrics.isEmpty()) return;
+        logger.info("Measurement metrics: {}", metrics.toJSONEntry().toJSONString());
+    }
+
     public static void performMeasurements(final ObjectDAO dao, MEASUREMENT_MODE mode, Selection selection, ProgressCallback pcb) {
+        MultipleException globE = new MultipleException();
+        Set<SegmentedObject> allModifiedObjects = computeMeasurements(dao, mode, selection, pcb, globE);
+        if (allModifiedObjects == null) return;
+        dao.upsertMeasurements(allModifiedObjects);
+        dao.flushMeasurements(); // write errors are reported to the caller
+        if (pcb!=null) pcb.incrementProgress();
+        if (!globE.isEmpty()) throw globE;
+    }
+
+    /**
+     * Computes measurements of a position without storing them
+     * @param globE errors occurring during measurements are added to this exception
+     * @return objects with modified measurements or null if the position contains no object
+     */
+    private static Set<SegmentedObject> computeMeasurements(final ObjectDAO dao, MEASUREMENT_MODE mode, Selection selection, ProgressCallback pcb, MultipleException globE) {
         long t0 = System.currentTimeMillis();
         List<SegmentedObject> roots = dao.getRoots();
         logger.debug("Measurements : {} number of roots: {}, mode: {}", dao.getPositionName(), roots.size(), mode);
         final Map<Integer, List<Measurement>> measurements = dao.getExperiment().getMeasurementsByCallStructureIdx();
-        if (roots.isEmpty()) return;
+        if (roots.isEmpty()) return null;
         Map<SegmentedObject, List<SegmentedObject>> rootTrack = new HashMap<>(1); rootTrack.put(roots.get(0), roots);
         boolean containsObjects=false;
         BiPredicate<SegmentedObject, Measurement> measurementMissing = (SegmentedObject callObject, Measurement m) -> {
@@ -479,7 +618,6 @@ public class Processor {
             dao.deleteAllMeasurements();
             // TODO if selection not null -> erase only corresponding measurements!
         }
-        MultipleException globE = new MultipleException();
         Set<SegmentedObject> selectionTH = selection==null ? null : selection.getElements(dao.getPositionName()).stream().map(SegmentedObject::getTrackHead).collect(Collectors.toSet());
         for(Entry<Integer, List<Measurement>> e : measurements.entrySet()) { // measurements by call structure idx
             Map<SegmentedObject, List<SegmentedObject>> allParentTracks;
@@ -504,11 +642,16 @@ public class Processor {
             logger.debug("Executing: #{} measurements from parent: {} (#{} parentTracks) : {}", e.getValue().size(), e.getKey(), allParentTracks.size(), Utils.toStringList(e.getValue(), m->m.getClass().getSimpleName()));
             // measurement are run separately depending on their characteristics to optimize parallel processing
             // start with non parallel measurements on tracks -> give 1 CPU to the measurement and perform track by track
-            List<Pair<Measurement, SegmentedObject>> nonParallelTrackMeasurements = new ArrayList<>();
-            allParentTracks.keySet().forEach(pt -> dao.getExperiment().getMeasurementsByCallStructureIdx(e.getKey()).get(e.getKey()).stream()
-                    .filter(m->m.callOnlyOnTrackHeads() && !(m instanceof MultiThreaded))
-                    .filter(m->measurementMissing.test(pt, m)) // only test on trackhead object
-                    .forEach(m-> nonParallelTrackMeasurements.add(new Pair<>(m, pt))));
+            // pairs hold the index of the measurement: the instance is resolved in the executing thread, each thread having its own instances
+            List<Pair<Integer, SegmentedObject>> nonParallelTrackMeasurements = new ArrayList<>();
+            List<Measurement> callMeasurements = e.getValue();
+            int callOC = e.getKey();
+            Map<Thread, List<Measurement>> instancesByThread = new ConcurrentHashMap<>(); // instances only live during this call
+            Supplier<List<Measurement>> threadInstances = () -> instancesByThread.computeIfAbsent(Thread.currentThread(), t -> dao.getExperiment().getMeasurementsByCallStructureIdx(callOC).get(callOC));
+            allParentTracks.keySet().forEach(pt -> IntStream.range(0, callMeasurements.size())
+                    .filter(i->callMeasurements.get(i).callOnlyOnTrackHeads() && !(callMeasurements.get(i) instanceof MultiThreaded))
+                    .filter(i->measurementMissing.test(pt, callMeasurements.get(i))) // only test on trackhead object
+                    .forEach(i-> nonParallelTrackMeasurements.add(new Pair<>(i, pt))));
             int subTaskNumber = 0;
             if (!nonParallelTrackMeasurements.isEmpty()) {
                 subTaskNumber+=nonParallelTrackMeasurements.size();
@@ -519,8 +662,7 @@ public class Processor {
                 subTaskNumber+=allParentTracks.size() * parallelMeasCount;
             }
             // count measurements on objects
-            List<Measurement> measObj = dao.getExperiment().getMeasurementsByCallStructureIdx(e.getKey()).get(e.getKey()).stream()
-                    .filter(m->!m.callOnlyOnTrackHeads()).collect(Collectors.toList());
+            List<Measurement> measObj = callMeasurements.stream().filter(m->!m.callOnlyOnTrackHeads()).collect(Collectors.toList());
             if (!measObj.isEmpty()) subTaskNumber+=measObj.size();
             if (subTaskNumber>0 && pcb!=null) pcb.setSubtaskNumber(subTaskNumber);
             if (!nonParallelTrackMeasurements.isEmpty()) containsObjects=true;
@@ -530,8 +672,8 @@ public class Processor {
                     new HashMap<>(),
                     (map, p) -> {
                         Set<Integer> ocs = map.get(p.value);
-                        if (ocs==null) map.put(p.value, modifiedOC.apply(p.key));
-                        else ocs.addAll(modifiedOC.apply(p.key));
+                        if (ocs==null) map.put(p.value, modifiedOC.apply(callMeasurements.get(p.key)));
+                        else ocs.addAll(modifiedOC.apply(callMeasurements.get(p.key)));
                         return map;
                     }, (map1, map2) -> {
                         for (Entry<SegmentedObject, Set<Integer>> ee : map2.entrySet()) {
@@ -554,7 +696,8 @@ public class Processor {
                 try {
                     ThreadRunner.executeAndThrowErrors(nonParallelTrackMeasurements.parallelStream(), p -> {
                         //pcb.log("performing: "+p.key+"@"+p.value);
-                        p.key.performMeasurement(p.value);
+                        Measurement m = threadInstances.get().get(p.key);
+                        Metrics.time(Metrics.STAGE.MEASUREMENT, Metrics.name(m), () -> m.performMeasurement(p.value));
                         if (pcb != null) pcb.incrementSubTask();
                     });
                 } catch (MultipleException me) {
@@ -566,12 +709,12 @@ public class Processor {
                 //if (pcb!=null) pcb.log("Executing: #" + parallelMeasCount * allParentTracks.size() + " multithreaded track measurements");
                 try {
                     ThreadRunner.executeAndThrowErrors(allParentTracks.keySet().stream(), pt -> {
-                        dao.getExperiment().getMeasurementsByCallStructureIdx(e.getKey()).get(e.getKey()).stream()
+                        callMeasurements.stream()
                                 .filter(m -> m.callOnlyOnTrackHeads() && (m instanceof MultiThreaded))
                                 .filter(m -> measurementMissing.test(pt, m)) // only test on trackhead object
                                 .forEach(m -> {
                                     ((MultiThreaded) m).setMultiThread(true);
-                                    m.performMeasurement(pt);
+                                    Metrics.time(Metrics.STAGE.MEASUREMENT, Metrics.name(m), () -> m.performMeasurement(pt));
                                     if (pcb != null) pcb.incrementSubTask();
                                 });
                     });
@@ -587,7 +730,7 @@ public class Processor {
                 Stream<SegmentedObject> callObjectStream = StreamConcatenation.concat((Stream<SegmentedObject>[])allParentTracks.values().stream().map(l->l.parallelStream()).toArray(s->new Stream[s]));
                 try {
                     //callObjectStream.sequential().filter(o->measurementMissing.test(o, m)).forEach(o->m.performMeasurement(o));
-                    ThreadRunner.executeAndThrowErrors(callObjectStream.filter(o->measurementMissing.test(o, m)), o->m.performMeasurement(o));
+                    ThreadRunner.executeAndThrowErrors(callObjectStream.filter(o->measurementMissing.test(o, m)), o->Metrics.time(Metrics.STAGE.MEASUREMENT, Metrics.name(m), () -> m.performMeasurement(o)));
                 } catch(MultipleException me) {
                     globE.addExceptions(me.getExceptions());
                 } catch (Throwable t) {
@@ -610,12 +753,10 @@ public class Processor {
         }
         logger.debug("measurements on field: {}: computation time: {}, #modified objects: {}", dao.getPositionName(), t1-t0, allModifiedObjects.size());
         //if (pcb!=null) pcb.log("Measurements performed, saving "+allModifiedObjects.size()+" objects...");
-        dao.upsertMeasurements(allModifiedObjects);
-        if (pcb!=null) pcb.incrementProgress();
-        if (!globE.isEmpty()) throw globE;
         if (containsObjects && allModifiedObjects.isEmpty()) {
             //throw new RuntimeException("No Measurement preformed");
         }
+        return allModifiedObjects;
     }
 
     // apply filter to children. children can be a subset of parent objects. if new objects are created they are added to parent, and relabeled
@@ -22,6 +22,7 @@ import bacmman.configuration.experiment.Experiment;
 import bacmman.configuration.experiment.Position;
 import bacmman.data_structure.dao.ObjectDAO;
 import bacmman.data_structure.region_container.RegionContainer;
+import bacmman.data_structure.region_container.RegionContainerLazy;
 import bacmman.image.*;
 
 import java.io.IOException;
@@ -34,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import bacmman.plugins.ObjectSplitter;
 import bacmman.utils.geom.Point;
 
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -1000,6 +1002,7 @@ public class SegmentedObject implements Comparable<SegmentedObject>, GraphObject
     }
     RegionContainer getRegionContainer() {
         updateRegionContainer();
+        if (regionContainer instanceof RegionContainerLazy && ((RegionContainerLazy)regionContainer).isDecoded()) return ((RegionContainerLazy)regionContainer).getContainer();
         return regionContainer;
     }
     boolean updateRegionContainer() {
@@ -1125,6 +1128,15 @@ public class SegmentedObject implements Comparable<SegmentedObject>, GraphObject
         else return im;
     }
 
+    /**
+     *
+     * @param structureIdx
+     * @return Pre-filtered image of the channel associated to {@param structureIdx} if it has been set, null otherwise (no fallback to the raw image)
+     */
+    public Image getPreFilteredImageIfSet(int structureIdx) {
+        return this.preFilteredImagesS.get(structureIdx);
+    }
+
     void setPreFilteredImage(Image image, int structureIdx) {
         if (image!=null) {
             // test same dimension. allow different z for 2D objects only
@@ -1149,6 +1161,7 @@ public class SegmentedObject implements Comparable<SegmentedObject>, GraphObject
     }
     
     public boolean is2D() {
+        if (region==null && regionContainer instanceof RegionContainerLazy) return regionContainer.is2D(); // avoid decoding region
         if (getRegion()!=null) return getRegion().is2D();
         if (isRoot()) return true;
         return getExperimentStructure().sizeZ(getPositionName(), getExperiment().getChannelImageIdx(structureIdx))==1;
@@ -1390,12 +1403,30 @@ public class SegmentedObject implements Comparable<SegmentedObject>, GraphObject
             attributes = (Map<String, Object>)json.get("attributes");
             //attributes = JSONUtils.toValueMap((Map)json.get("attributes")); // leave list for better efficiency ?
         } 
-        if (json.containsKey("object")) {
+        if (json.get("object") instanceof Map) { // null when the region is set from its string representation, see SegmentedObjectAccessor#createFromJSON
             Map objectJ = (Map)json.get("object");
-            regionContainer = RegionContainer.createFromJSON(this, objectJ);
+            regionContainer = new RegionContainerLazy(this, objectJ); // region is decoded at first call to getRegion
         }
     }
     public void initRegionFromJSONEntry(Map jsonEntry) {
-        regionContainer = RegionContainer.createFromJSON(this, jsonEntry);
+        regionContainer = new RegionContainerLazy(this, jsonEntry);
+    }
+
+    /**
+     * Sets the region from its JSON representation without parsing it: only bounds are read until {@link #getRegion()} is called
+     * @param regionJSON JSON representation of the region container
+     */
+    public void initRegionFromJSONString(String regionJSON) {
+        regionContainer = new RegionContainerLazy(this, regionJSON);
+    }
+
+    /**
+     * Sets the region from its stored representation without decoding it: only {@param bounds} are available until {@link #getRegion()} is called
+     * @param bounds bounds of the region
+     * @param is2D whether the region is 2D
+     * @param regionJSONEntry supplies the JSON representation of the region
+     */
+    public void initRegionLazily(SimpleBoundingBox bounds, boolean is2D, Supplier<Map> regionJSONEntry) {
+        regionContainer = new RegionContainerLazy(this, bounds, is2D, regionJSONEntry);
     }
 }
@@ -22,8 +22,13 @@ public class SegmentedObjectAccessor {
     // constructor
 
     public SegmentedObject createFromJSON(String s, ObjectDAO dao) throws org.json.simple.parser.ParseException {
-        JSONObject jo = JSONUtils.parse(s);
-        return new SegmentedObject(jo, dao);
+        int[] region = JSONUtils.findTopLevelValue(s, "object");
+        if (region == null || s.charAt(region[0]) != '{') return new SegmentedObject(JSONUtils.parse(s), dao);
+        // the region, which is the largest part of the record, is kept as a string and only parsed at the first call to getRegion
+        JSONObject jo = JSONUtils.parse(s.substring(0, region[0]) + "null" + s.substring(region[1]));
+        SegmentedObject res = new SegmentedObject(jo, dao);
+        res.initRegionFromJSONString(s.substring(region[0], region[1]));
+        return res;
     }
 
     public SegmentedObject createRoot(int timePoint, BlankMask mask, ObjectDAO dao) {
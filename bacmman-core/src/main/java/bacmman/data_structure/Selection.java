@@ -62,7 +62,7 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
 
     String name;
     int objectClassIdx;
-    Map<String, List<String>> elements; // position maps bar-code stored as list for simplicity
+    Map<String, IndexPathSet> elements; // position maps index paths of the objects
     public final static String indexSeparator ="-";
     Map<String, List<SegmentedObject>> retrievedElements= new HashMap<>();
     MasterDAO mDAO;
@@ -76,7 +76,7 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
 
     public Selection duplicate(String name) {
         Selection dup = new Selection(name, objectClassIdx, mDAO);
-        elements.forEach(dup::addElementStrings);
+        dup.elements.putAll(elements); // index path sets are immutable
         return dup;
     }
 
@@ -180,29 +180,55 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         return objectClassIdx;
     }
     public boolean contains(SegmentedObject o) {
-        if (elements.containsKey(o.getPositionName())) return elements.get(o.getPositionName()).contains(indicesString(o));
-        else return false;
+        IndexPathSet indices = elements.get(o.getPositionName());
+        return indices != null && indices.contains(o);
     }
+
+    /**
+     * @param position
+     * @return index paths of the elements of this selection located in {@param position}. The returned set is immutable
+     */
+    public IndexPathSet getIndices(String position) {
+        return elements.getOrDefault(position, IndexPathSet.EMPTY);
+    }
+
+    /**
+     * Replaces the elements located in {@param position}
+     * @param position
+     * @param indices
+     */
+    public synchronized void setIndices(String position, IndexPathSet indices) {
+        if (indices==null || indices.isEmpty()) elements.remove(position);
+        else elements.put(position, indices);
+        retrievedElements.remove(position);
+    }
+
     public Set<String> getElementStrings(String position) {
-        if (elements.containsKey(position)) return new HashSet<>(this.elements.get(position));
+        if (elements.containsKey(position)) return new HashSet<>(this.elements.get(position).toStringList());
         else return Collections.EMPTY_SET;
     }
     public boolean hasElementsAt(String position) {
         return elements.containsKey(position) && !elements.get(position).isEmpty();
     }
     public void removeAll(String position, Collection<String> toRemove) {
-        if (elements.containsKey(position)) {
-            elements.get(position).removeAll(toRemove);
-            if (elements.get(position).isEmpty()) elements.remove(position);
-        }
+        removeAll(position, IndexPathSet.parse(toRemove));
+    }
+    public synchronized void removeAll(String position, IndexPathSet toRemove) {
+        IndexPathSet els = elements.get(position);
+        if (els == null) return;
+        IndexPathSet newEls = els.difference(toRemove);
+        if (newEls == els) return;
+        setElements(position, newEls);
+        List<SegmentedObject> objects = retrievedElements.get(position);
+        if (objects!=null) objects.removeIf(toRemove::contains);
     }
     public Set<String> getElementStrings(Collection<String> positions) {
         Set<String> res = new HashSet<>();
-        for (String f : positions) if (elements.containsKey(f)) res.addAll(elements.get(f));
+        for (String f : positions) if (elements.containsKey(f)) res.addAll(elements.get(f).toStringList());
         return res;
     }
     public Set<String> getAllElementStrings() {
-        return Utils.flattenMapSet(elements);
+        return getElementStrings(elements.keySet());
     }
     
     public Set<SegmentedObject> getAllElements() {
@@ -215,17 +241,19 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         return getElementsAsStream(elements.keySet().stream());
     }
     
+    /**
+     * Elements are retrieved from the DAO at the first call for a given position, and kept until {@link #freeMemoryForPositions(String...)} is called
+     * @param position
+     * @return elements of this selection located in {@param position}
+     */
     public List<SegmentedObject> getElements(String position) {
         List<SegmentedObject> res = retrievedElements.get(position);
         if (res==null && elements.containsKey(position)) {
             synchronized(retrievedElements) {
                 res = retrievedElements.get(position);
                 if (res==null) {
-                    Collection<String> indices = get(position, false);
-                    if (indices != null) {
-                        res = getObjects(position, indices);
-                        retrievedElements.put(position, res);
-                    } else res = Collections.emptyList();
+                    res = getObjects(position, elements.get(position));
+                    retrievedElements.put(position, res);
                 }
                 else return res;
             }
@@ -258,66 +286,66 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         return positions.flatMap(p -> getElements(p).stream());
     }
         
-    protected Collection<String> get(String fieldName, boolean createIfNull) {
-        Object indiciesList = elements.get(fieldName);
-        if (indiciesList==null) {
-            if (createIfNull) {
-                synchronized(elements) {
-                    indiciesList = elements.get(fieldName);
-                    if (indiciesList==null) {
-                        indiciesList = new ArrayList<String>();
-                        elements.put(fieldName, (List)indiciesList);
-                    }
-                }
-            } else return null;
-        }
-        else if (indiciesList instanceof Set) { // retro-compatibility
-            indiciesList = new ArrayList<String>((Set)indiciesList);
-            elements.put(fieldName, (List)indiciesList);
-        } else if (indiciesList instanceof String) { // case of one single object stored by R
-            ArrayList<String> l = new ArrayList<String>();
-            l.add((String)indiciesList);
-            elements.put(fieldName, l);
-            return l;
-        }
-        return (Collection<String>)indiciesList;
+    private void setElements(String position, IndexPathSet indices) {
+        if (indices.isEmpty()) elements.remove(position);
+        else elements.put(position, indices);
     }
 
-    private static Map<SegmentedObject, List<int[]>> nextChildren(Map<SegmentedObject, List<int[]>> iByParent, int[] pathToRoot, int idx) {
-        Map<SegmentedObject, List<int[]>> res = new HashMap<>(iByParent.size());
-        for (Entry<SegmentedObject, List<int[]>> e : iByParent.entrySet()) {
-            Stream<SegmentedObject> candidates = e.getKey().getChildren(pathToRoot[idx-1]);
-            Map<Integer, List<int[]>> iByFrame = e.getValue().stream().collect(Collectors.groupingBy(i -> i[idx]));
-            for (Entry<Integer, List<int[]>> e2 : iByFrame.entrySet()) {
-                SegmentedObject parent = getChild(candidates, e2.getKey());
-                res.put(parent, e2.getValue());
-            }
-        }
-        return res;
+    private static IndexPathSet toIndexPathSet(Object indices) {
+        if (indices==null) return IndexPathSet.EMPTY;
+        if (indices instanceof IndexPathSet) return (IndexPathSet)indices;
+        if (indices instanceof Collection) return IndexPathSet.parse((Collection<String>)indices); // also handles sets: retro-compatibility
+        if (indices instanceof String) return IndexPathSet.parse(Collections.singletonList((String)indices)); // case of one single object stored by R
+        throw new IllegalArgumentException("Invalid selection elements: "+indices.getClass());
     }
 
     protected List<SegmentedObject> getObjects(String position, Collection<String> indiciesList) {
+        if (indiciesList==null) return new ArrayList<>();
+        return getObjects(position, IndexPathSet.parse(indiciesList));
+    }
+
+    /**
+     * Resolves index paths into objects. As index paths are sorted, consecutive paths share their ancestors: they are resolved once, and children of the current ancestor are indexed by their idx
+     * @param position
+     * @param indices
+     * @return objects corresponding to {@param indices} that could be found
+     */
+    protected List<SegmentedObject> getObjects(String position, IndexPathSet indices) {
         if (position==null) throw new IllegalArgumentException("Position cannot be null");
-        if (indiciesList==null)  return Collections.EMPTY_LIST;
+        if (indices==null || indices.isEmpty()) return new ArrayList<>();
         ObjectDAO<?> dao = mDAO.getDao(position);
         int[] pathToRoot = mDAO.getExperiment().experimentStructure.getPathToRoot(objectClassIdx);
-        List<SegmentedObject> res = new ArrayList<>(indiciesList.size());
+        if (indices.length()-1!=pathToRoot.length) {
+            logger.warn("Selection: {} objects have wrong number of indices: {} (expected: {})", name, indices.length(), pathToRoot.length+1);
+            return new ArrayList<>();
+        }
+        List<SegmentedObject> res = new ArrayList<>(indices.size());
         List<SegmentedObject> roots = dao.getRoots();
         long t0 = System.currentTimeMillis();
-        List<int[]> notFound = logger.isWarnEnabled() ? new ArrayList<>() : null;
-        for (String s : indiciesList) {
-            int[] indicies = parseIndices(s);
-            if (indicies.length-1!=pathToRoot.length) {
-                logger.warn("Selection: Object: {} has wrong number of indicies (expected: {})", indicies, pathToRoot.length);
-                continue;
+        int length = indices.length();
+        SegmentedObject[] ancestors = new SegmentedObject[length];
+        Map<Integer, SegmentedObject>[] childrenByIdx = new Map[length];
+        int[] previous = null;
+        int notFound = 0;
+        for (int i = 0; i<indices.size(); ++i) {
+            int[] path = indices.get(i);
+            int l = 0;
+            if (previous!=null) while (l<length-1 && path[l]==previous[l]) ++l; // ancestors up to l-1 are shared with previous path
+            for (int k = l; k<length; ++k) {
+                if (k==0) ancestors[0] = getRoot(roots, path[0]);
+                else if (ancestors[k-1]==null) ancestors[k] = null;
+                else {
+                    if (k>l || childrenByIdx[k]==null) childrenByIdx[k] = ancestors[k-1].getChildren(pathToRoot[k-1]).collect(Collectors.toMap(SegmentedObject::getIdx, o->o, (o1, o2)->o1)); // in case relabel was not performed
+                    ancestors[k] = childrenByIdx[k].get(path[k]);
+                }
             }
-            SegmentedObject elem = getObject(indicies, pathToRoot, roots);
-            if (elem!=null) res.add(elem);
-            else if (notFound!=null) notFound.add(indicies);
+            if (ancestors[length-1]!=null) res.add(ancestors[length-1]);
+            else ++notFound;
+            previous = path;
         }
         long t2 = System.currentTimeMillis();
         logger.debug("Selection: {}, position: {}, #{} elements retrieved in: {}", this.name, position, res.size(), t2-t0);
-        if (notFound!=null && !notFound.isEmpty()) logger.debug("Selection: {} objects not found: {}", getName(), Utils.toStringList(notFound, array -> Utils.toStringArray(array)));
+        if (notFound>0) logger.debug("Selection: {} #{} objects not found", getName(), notFound);
         return res;
     }
 
@@ -332,34 +360,31 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
     }
 
     public static SegmentedObject getObject(int[] indices, int[] pathToRoot, List<SegmentedObject> roots) {
-        if (roots==null || roots.size()<=indices[0]) return null;
-        SegmentedObject elem = roots.get(indices[0]);
-        if (elem.getFrame()!=indices[0]) elem = Utils.getFirst(roots, o->o.getFrame()==indices[0]);
+        SegmentedObject elem = getRoot(roots, indices[0]);
         if (elem==null) return null;
         for (int i= 1; i<indices.length; ++i) {
-            /*if (elem.getChildren(pathToRoot[i-1]).size()<=indices[i]) {
-                logger.warn("Selection: Object: {} was not found @ idx {}, last parent: {}", indices, i, elem);
-                return null;
-            }
-            elem = elem.getChildren(pathToRoot[i-1]).get(indices[i]);*/
             elem = getChild(elem.getChildren(pathToRoot[i-1]), indices[i]); // in case relabel was not performed -> safer method but slower
             if (elem == null) {
-                //logger.warn("Selection: Object: {} was not found @ idx {}", indices, i);
+                //logger.warn("Selection: Object: {} was not found @ idx {}", indices, i);
                 return null;
             }
         }
         return elem;
     }
 
+    private static SegmentedObject getRoot(List<SegmentedObject> roots, int frame) {
+        if (roots==null || roots.size()<=frame) return null;
+        SegmentedObject root = roots.get(frame);
+        if (root.getFrame()!=frame) root = Utils.getFirst(roots, o->o.getFrame()==frame);
+        return root;
+    }
+
     private static SegmentedObject getChild(Stream<SegmentedObject> list, int idx) {
         return list.filter(o->o.getIdx()==idx).findAny().orElse(null);
     }
     
     public static int[] parseIndices(String indicies) {
-        String[] split = indicies.split(indexSeparator);
-        int[] res = new int[split.length];
-        for (int i = 0; i<res.length; ++i) res[i] = Integer.parseInt(split[i]);
-        return res;
+        return IndexPathSet.parse(indicies);
     }
     
     public static String indicesString(SegmentedObject o) {
@@ -370,22 +395,18 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         return Utils.toStringArray(indicies, "", "", indexSeparator).toString();
     }
     
-    public void addElement(SegmentedObject elementToAdd) {
+    public synchronized void addElement(SegmentedObject elementToAdd) {
         if (this.objectClassIdx==-2) objectClassIdx=elementToAdd.getStructureIdx();
         else if (objectClassIdx!=elementToAdd.getStructureIdx()) return;
-        if (!retrievedElements.containsKey(elementToAdd.getPositionName())) retrievedElements.put(elementToAdd.getPositionName(), new ArrayList<>());
-        List<SegmentedObject> list = getElements(elementToAdd.getPositionName());
-        if (!list.contains(elementToAdd)) {
-            list.add(elementToAdd);
-            Collection<String> els = get(elementToAdd.getPositionName(), true);
-            els.add(indicesString(elementToAdd));
-        }
+        if (contains(elementToAdd)) return;
+        String position = elementToAdd.getPositionName();
+        if (!retrievedElements.containsKey(position)) retrievedElements.put(position, new ArrayList<>());
+        getElements(position).add(elementToAdd);
+        setElements(position, getIndices(position).union(IndexPathSet.of(SegmentedObjectUtils.getIndexTree(elementToAdd))));
     }
 
-    public void addElementString(String positionName, String el) {
-        Collection<String> els = get(positionName, true);
-        if (!els.contains(el)) els.add(el);
-        if (this.retrievedElements.containsKey(positionName)) retrievedElements.get(positionName).add(getObject(positionName, el));
+    public synchronized void addElementString(String positionName, String el) {
+        addElementStrings(positionName, Collections.singletonList(el));
     }
 
     public synchronized Selection addElements(Collection<SegmentedObject> elementsToAdd) {
@@ -400,42 +421,43 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         } 
         Map<String, List<SegmentedObject>> elByPos = SegmentedObjectUtils.splitByPosition(elementsToAdd);
         for (String pos : elByPos.keySet()) {
+            IndexPathSet current = getIndices(pos);
+            IndexPathSet toAdd = IndexPathSet.collect(elByPos.get(pos).stream()).difference(current);
+            if (toAdd.isEmpty()) continue;
             if (!this.retrievedElements.containsKey(pos)) retrievedElements.put(pos, new ArrayList<>());
-            retrievedElements.get(pos).addAll(elByPos.get(pos));
-            if (elements.containsKey(pos)) {
-                Collection<String> els = elements.get(pos);
-                for (SegmentedObject o : elByPos.get(pos)) els.add(indicesString(o));
-            } else elements.put(pos, Utils.transform(elByPos.get(pos), Selection::indicesString));
+            elByPos.get(pos).stream().filter(toAdd::contains).forEach(retrievedElements.get(pos)::add);
+            setElements(pos, current.union(toAdd));
         }
         return this;
     }
     
     public synchronized Selection addElementStrings(String position, Collection<String> elementsToAdd) {
         if (elementsToAdd==null || elementsToAdd.isEmpty()) return this;
-        List<String> els = this.elements.get(position);
-        if (els==null) elements.put(position, new ArrayList<>(elementsToAdd));
-        else {
-            els.addAll(elementsToAdd);
-            Utils.removeDuplicates(els, false);
-        }
-        if (retrievedElements.containsKey(position)) retrievedElements.get(position).addAll(getObjects(position, elementsToAdd));
+        return addIndices(position, IndexPathSet.parse(elementsToAdd));
+    }
+
+    public synchronized Selection addIndices(String position, IndexPathSet elementsToAdd) {
+        if (elementsToAdd==null || elementsToAdd.isEmpty()) return this;
+        IndexPathSet current = getIndices(position);
+        IndexPathSet toAdd = elementsToAdd.difference(current);
+        if (toAdd.isEmpty()) return this;
+        setElements(position, current.union(toAdd));
+        if (retrievedElements.containsKey(position)) retrievedElements.get(position).addAll(getObjects(position, toAdd));
         return this;
     }
     
     public synchronized Selection removeElementStrings(String position, Collection<String> elementsToRemove) {
         if (elementsToRemove==null || elementsToRemove.isEmpty()) return this;
-        List<String> els = this.elements.get(position);
-        if (els!=null) els.removeAll(elementsToRemove);
-        if (retrievedElements.containsKey(position)) retrievedElements.get(position).removeIf(o -> elementsToRemove.contains(indicesString(o)));
+        removeAll(position, IndexPathSet.parse(elementsToRemove));
         return this;
     }    
   
-    public boolean removeElement(SegmentedObject elementToRemove) {
+    public synchronized boolean removeElement(SegmentedObject elementToRemove) {
         String position = elementToRemove.getPositionName();
-        if (elements.containsKey(position)) {
-            boolean rem = elements.get(position).remove(indicesString(elementToRemove));
-            if (rem && retrievedElements.containsKey(position)) retrievedElements.get(position).remove(elementToRemove);
-            return rem;
+        if (contains(elementToRemove)) {
+            setElements(position, getIndices(position).difference(IndexPathSet.of(SegmentedObjectUtils.getIndexTree(elementToRemove))));
+            if (retrievedElements.containsKey(position)) retrievedElements.get(position).remove(elementToRemove);
+            return true;
         }
         return false;
     }
@@ -448,15 +470,7 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
 
     protected synchronized void removeElements(String position, Collection<SegmentedObject> elementsToRemove) {
         if (elementsToRemove==null || elementsToRemove.isEmpty()) return;
-        Collection<String> els = get(position, false);
-        List<SegmentedObject> objects = retrievedElements.get(position);
-        if (objects != null ) {
-            for (SegmentedObject o : elementsToRemove) {
-                if (objects.remove(o)) els.remove(indicesString(o));
-            }
-        } else {
-            for (SegmentedObject o : elementsToRemove) els.remove(indicesString(o));
-        }
+        removeAll(position, IndexPathSet.collect(elementsToRemove.stream()));
     }
 
     public synchronized void removeChildrenOf(List<SegmentedObject> parents) { 
@@ -469,15 +483,10 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
             for (int parentSIdxToRemove : parentsBySIdx.keySet()) {
                 List<SegmentedObject> parentsToRemove = parentsBySIdx.get(parentSIdxToRemove);
                 if (parentSIdxToRemove == parentSIdx) { // direct children, most common case
-                    Set<String> elements = getElementStrings(position);
+                    IndexPathSet elements = getIndices(position);
                     if (elements.isEmpty()) continue;
-                    Map<String, List<String>> parentToChildrenMap = elements.stream().collect(Collectors.groupingBy(Selection::getParent));
-                    Set<String> curParents = new HashSet<>(Utils.transform(parentsToRemove, Selection::indicesString));
-                    curParents.retainAll(parentToChildrenMap.keySet()); // intersection
-                    if (curParents.isEmpty()) continue;
-                    List<String> toRemove = new ArrayList<>();
-                    for (String p : curParents) toRemove.addAll(parentToChildrenMap.get(p));
-                    this.removeElementStrings(position, toRemove);
+                    IndexPathSet newElements = elements.filterByPrefix(IndexPathSet.collect(parentsToRemove.stream()), false);
+                    if (newElements.size() < elements.size()) this.removeAll(position, elements.difference(newElements));
                 } else if (parentSIdxToRemove == objectClassIdx) { // same object class
                     removeElements(parentsToRemove);
                 } else {
@@ -511,16 +520,16 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         return sb.toString();
     }
     public boolean isEmpty() {
-        for (List l : elements.values()) if (!l.isEmpty()) return false;
+        for (IndexPathSet l : elements.values()) if (!l.isEmpty()) return false;
         return true;
     }
     public int count() {
         int c = 0;
-        for (String k : elements.keySet()) c+=get(k, true).size();
+        for (IndexPathSet l : elements.values()) c+=l.size();
         return c;
     }
     public int count(String position) {
-        return get(position, true).size();
+        return getIndices(position).size();
     }
     public String getName() {
         return name;
@@ -542,14 +551,17 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         } else return false;
     }
     // morphium
-    public Selection() {}
+    public Selection() {
+        elements = new HashMap<>();
+    }
 
     public static Selection generateSelection(String name, int structureIdx, Map<String, List<String>> elements) {
         Selection res= new Selection();
         if (name==null) name="current";
         res.name=name;
         res.objectClassIdx=structureIdx;
-        res.elements=elements;
+        res.elements=new HashMap<>(elements.size());
+        elements.forEach((p, e) -> res.setElements(p, IndexPathSet.parse(e)));
         return res;
     }
     public static Selection generateSelection(String name, MasterDAO mDAO, Map<String, List<SegmentedObject>> elements) {
@@ -570,7 +582,7 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
         }
 
         res.elements=new HashMap<>(elements.size());
-        elements.forEach((p, e) -> res.elements.put(p, e.stream().map(Selection::indicesString).collect(Collectors.toList())));
+        elements.forEach((p, e) -> res.setElements(p, IndexPathSet.collect(e.stream())));
         return res;
     }
     public static String getParent(String idx) {
@@ -600,7 +612,9 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
     @Override
     public JSONObject toJSONEntry() {
         JSONObject res= new JSONObject();
-        res.put("objects", JSONUtils.toJSONObject(elements));
+        Map<String, List<String>> elementStrings = new HashMap<>(elements.size());
+        elements.forEach((p, e) -> elementStrings.put(p, e.toStringList()));
+        res.put("objects", JSONUtils.toJSONObject(elementStrings));
         res.put("name", name);
         res.put("objectClassIdx", objectClassIdx);
         res.put("color", color);
@@ -613,7 +627,9 @@ public class Selection implements Comparable<Selection>, JSONSerializable {
     @Override
     public void initFromJSONEntry(Object jsonEntry) {
         JSONObject jo = (JSONObject)jsonEntry;
-        elements = (Map<String, List<String>>)JSONUtils.get(jo, "objects", "elements");
+        Map<String, Object> elementStrings = (Map<String, Object>)JSONUtils.get(jo, "objects", "elements");
+        elements = new HashMap<>();
+        if (elementStrings!=null) elementStrings.forEach((p, e) -> setElements(p, toIndexPathSet(e)));
         name = (String)JSONUtils.get(jo,"name", "_id");
         objectClassIdx = ((Number)JSONUtils.get(jo, "objectClassIdx", "structureIdx", "structure_idx")).intValue();
         if (jo.containsKey("color")) color = (String)jo.get("color");
@@ -18,12 +18,12 @@ public class SelectionOperations {
         if (selections.isEmpty()) return new Selection();
         Selection model = selections.iterator().next();
         selections.removeIf(s->s.getObjectClassIdx()!=model.getObjectClassIdx());
-        HashMapGetCreate<String, Set<String>> elByPos = new HashMapGetCreate<>(new HashMapGetCreate.SetFactory<>());
+        Map<String, IndexPathSet> elByPos = new HashMap<>();
         for (Selection sel : selections) {
-            for (String pos : sel.getAllPositions()) elByPos.getAndCreateIfNecessary(pos).addAll(sel.getElementStrings(pos));
+            for (String pos : sel.getAllPositions()) elByPos.merge(pos, sel.getIndices(pos), IndexPathSet::union);
         }
         Selection res = new Selection(name,model.getObjectClassIdx(), model.getMasterDAO()); //"union:"+Utils.toStringList(selections, s->s.getName())
-        for (Map.Entry<String, Set<String>> e : elByPos.entrySet()) res.addElementStrings(e.getKey(), e.getValue());
+        elByPos.forEach(res::setIndices);
         return res;
     }
 
@@ -38,14 +38,14 @@ public class SelectionOperations {
         Set<String> allPos = new HashSet<>();
         allPos.addAll(model.getAllPositions());
         for (Selection s : selections) allPos.retainAll(s.getAllPositions());
-        HashMapGetCreate<String, Set<String>> elByPos = new HashMapGetCreate(new HashMapGetCreate.SetFactory());
-        for (String p : allPos) elByPos.put(p, new HashSet<>(model.getElementStrings(p)));
+        Map<String, IndexPathSet> elByPos = new HashMap<>();
+        for (String p : allPos) elByPos.put(p, model.getIndices(p));
         for (Selection s : selections) {
             if (s.equals(model)) continue;
-            for (String p : allPos) elByPos.get(p).retainAll(s.getElementStrings(p));
+            for (String p : allPos) elByPos.put(p, elByPos.get(p).intersection(s.getIndices(p)));
         }
         Selection res = new Selection(name,model.getObjectClassIdx(), model.getMasterDAO()); //"intersection:"+Utils.toStringList(selections, s->s.getName())
-        for (Map.Entry<String, Set<String>> e : elByPos.entrySet()) res.addElementStrings(e.getKey(), e.getValue());
+        elByPos.forEach(res::setIndices);
         return res;
     }
 
@@ -54,7 +54,7 @@ public class SelectionOperations {
         for (String pos:new ArrayList<>(sel.getAllPositions())) {
             Arrays.stream(selections)
                     .filter(s -> s.getObjectClassIdx() == sel.getObjectClassIdx() && s.getAllPositions().contains(pos))
-                    .forEach(s -> sel.removeAll(pos, s.getElementStrings(pos)));
+                    .forEach(s -> sel.removeAll(pos, s.getIndices(pos)));
         }
     }
 
@@ -236,10 +236,13 @@ public class SelectionOperations {
         return objects.filter(o -> indices.contains(Selection.indicesString(o)));
     }
 
+    public static Stream<SegmentedObject> filter(Stream<SegmentedObject> objects, IndexPathSet indices) {
+        return objects.filter(indices::contains);
+    }
+
     public static List<SegmentedObject> getParents(Selection sel, String position, MasterDAO db) {
-        Set<String> parentStrings = sel.getElementStrings(position).stream().map(Selection::getParent).collect(Collectors.toSet());
-        Utils.removeDuplicates(parentStrings, false);
-        return filter(SegmentedObjectUtils.getAllObjectsAsStream(db.getDao(position), db.getExperiment().getStructure(sel.getObjectClassIdx()).getParentStructure()), parentStrings).collect(Collectors.toList());
+        IndexPathSet parentIndices = sel.getIndices(position).getParents(1);
+        return filter(SegmentedObjectUtils.getAllObjectsAsStream(db.getDao(position), db.getExperiment().getStructure(sel.getObjectClassIdx()).getParentStructure()), parentIndices).collect(Collectors.toList());
     }
 
     public static List<SegmentedObject> getParentTrackHeads(Selection sel, String position, MasterDAO db) {
@@ -250,12 +253,10 @@ public class SelectionOperations {
     public static List<SegmentedObject> getParents(Selection sel, String position, int parentStructureIdx, MasterDAO db) {
         if (!(db.getExperiment().experimentStructure.isChildOf(parentStructureIdx, sel.getObjectClassIdx())||parentStructureIdx==sel.getObjectClassIdx())) return Collections.EMPTY_LIST;
         int[] path = db.getExperiment().experimentStructure.getPathToStructure(parentStructureIdx, sel.getObjectClassIdx());
-        Set<String> parentStrings = parentStructureIdx!=sel.getObjectClassIdx()?sel.getElementStrings(position).stream().map(s->Selection.getParent(s, path.length)).collect(Collectors.toSet()):
-                sel.getElementStrings(position);
-        Utils.removeDuplicates(parentStrings, false);
-        logger.debug("get parent sel: path: {}, parent strings: {}", path, parentStrings);
+        IndexPathSet parentIndices = parentStructureIdx!=sel.getObjectClassIdx() ? sel.getIndices(position).getParents(path.length) : sel.getIndices(position);
+        logger.debug("get parent sel: path: {}, parent indices: {}", path, parentIndices);
         Stream<SegmentedObject> allObjects = SegmentedObjectUtils.getAllObjectsAsStream(db.getDao(position), parentStructureIdx);
-        return filter(allObjects, parentStrings).collect(Collectors.toList());
+        return filter(allObjects, parentIndices).collect(Collectors.toList());
     }
 
     public static List<SegmentedObject> getParentTrackHeads(Selection sel, String position, int parentStructureIdx, MasterDAO db) {
@@ -1,6 +1,7 @@
 package bacmman.data_structure;
 
 import bacmman.image.Image;
+import bacmman.utils.IndexedMinHeap;
 import it.unimi.dsi.fastutil.ints.*;
 import it.unimi.dsi.fastutil.longs.*;
 
@@ -10,12 +11,176 @@ import java.util.stream.LongStream;
 public interface SortedCoordSet extends CoordCollection {
     long pollFirst();
     static SortedCoordSet create(Image sortImage, boolean reverseOrder) {
+        return create(sortImage, reverseOrder, -1);
+    }
+
+    /**
+     * @param sortImage image giving the order
+     * @param reverseOrder if true, coordinates with highest values come first
+     * @param maxSize upper bound of the number of coordinates in the set (e.g. size of the mask in which coordinates are added), or a negative value if unknown. Determines whether memory of the set is proportional to the image or to its content
+     * @return sorted coordinate set
+     */
+    static SortedCoordSet create(Image sortImage, boolean reverseOrder, long maxSize) {
+        return createHeap(sortImage, reverseOrder, null, maxSize);
+    }
+
+    /**
+     * Tree-based implementation: the order is computed from the pixel values at each comparison
+     */
+    static SortedCoordSet createTree(Image sortImage, boolean reverseOrder) {
         if (sortImage.sizeZ()==1) {
             return new SortedCoordSet2D(sortImage, 0, reverseOrder);
         }
         else return new SortedCoordSet3D(sortImage, reverseOrder);
     }
 
+    /**
+     * Heap-based implementation: the pixel value is read once when the coordinate is added. Coordinates with equal values are ordered by increasing coordinate, as in the tree-based implementation
+     * @param sortImage image giving the order
+     * @param reverseOrder if true, coordinates with highest values come first
+     * @param buffer heap buffer to reuse (e.g. one per thread), may be null
+     * @return sorted coordinate set
+     */
+    static HeapCoordSet createHeap(Image sortImage, boolean reverseOrder, IndexedMinHeap buffer) {
+        return createHeap(sortImage, reverseOrder, buffer, (long)sortImage.sizeX() * sortImage.sizeY() * sortImage.sizeZ());
+    }
+
+    /**
+     * @param maxSize upper bound of the number of coordinates in the set, or a negative value if unknown: when it is a small fraction of the image, positions in the heap are indexed with a hash map instead of an image-sized array
+     * @see #createHeap(Image, boolean, IndexedMinHeap)
+     */
+    static HeapCoordSet createHeap(Image sortImage, boolean reverseOrder, IndexedMinHeap buffer, long maxSize) {
+        long capacity = (long)sortImage.sizeX() * sortImage.sizeY() * sortImage.sizeZ();
+        IndexedMinHeap heap = buffer == null ? new IndexedMinHeap(capacity, maxSize) : buffer.ensureCapacity(capacity, maxSize);
+        if (sortImage.sizeZ()==1) return new HeapCoordSet2D(sortImage, reverseOrder, heap);
+        else return new HeapCoordSet3D(sortImage, reverseOrder, heap);
+    }
+
+    interface HeapCoordSet extends SortedCoordSet {
+        /**
+         * Adds {@param coord}, or moves it forward if it is already present and its pixel value has been modified so that it comes earlier (decrease-key)
+         * @return true if the set was modified
+         */
+        boolean addOrUpdate(long coord);
+    }
+
+    class HeapCoordSet2D extends AbstractCoordCollection2D implements HeapCoordSet {
+        final IndexedMinHeap heap;
+        final Image sortImage;
+        final boolean reverseOrder;
+        public HeapCoordSet2D(Image sortImage, boolean reverseOrder, IndexedMinHeap heap) {
+            super(sortImage.sizeX(), sortImage.sizeY(), 0);
+            this.sortImage = sortImage;
+            this.reverseOrder = reverseOrder;
+            this.heap = heap;
+        }
+        protected double key(long coord) {
+            double v = getPixel(sortImage, coord);
+            return reverseOrder ? -v : v;
+        }
+        @Override public long pollFirst() {
+            return heap.poll();
+        }
+        @Override public boolean add(long coord) {
+            return heap.add(coord, key(coord));
+        }
+        @Override public boolean addOrUpdate(long coord) {
+            return heap.addOrDecreaseKey(coord, key(coord));
+        }
+        @Override public boolean addAll(long... coord) {
+            boolean res = false;
+            for (long c : coord) if (add(c)) res = true;
+            return res;
+        }
+        @Override public boolean addAll(CoordCollection coordCollection) {
+            if (coordCollection.isEmpty()) return true;
+            if (coordCollection instanceof AbstractCoordCollection2D) {
+                boolean[] res = new boolean[1];
+                coordCollection.stream().forEach(c -> {if (add(c)) res[0] = true;});
+                return res[0];
+            } else throw new IllegalArgumentException("Invalid coordset");
+        }
+        @Override public boolean isEmpty() {
+            return heap.isEmpty();
+        }
+        @Override public boolean containsCoord(long coord) {
+            return heap.contains(coord);
+        }
+        @Override public int size() {
+            return heap.size();
+        }
+        @Override public void clear() {
+            heap.clear();
+        }
+        @Override public void removeIf(LongPredicate filter) {
+            heap.removeIf(filter);
+        }
+        @Override public LongStream stream() {
+            return heap.stream();
+        }
+        @Override public IntCollection getCoords() {
+            return new IntArrayList(heap.stream().mapToInt(c -> (int)c).toArray());
+        }
+    }
+
+    class HeapCoordSet3D extends AbstractCoordCollection3D implements HeapCoordSet {
+        final IndexedMinHeap heap;
+        final Image sortImage;
+        final boolean reverseOrder;
+        public HeapCoordSet3D(Image sortImage, boolean reverseOrder, IndexedMinHeap heap) {
+            super(sortImage.sizeX(), sortImage.sizeY(), sortImage.sizeZ());
+            this.sortImage = sortImage;
+            this.reverseOrder = reverseOrder;
+            this.heap = heap;
+        }
+        protected double key(long coord) {
+            double v = getPixel(sortImage, coord);
+            return reverseOrder ? -v : v;
+        }
+        @Override public long pollFirst() {
+            return heap.poll();
+        }
+        @Override public boolean add(long coord) {
+            return heap.add(coord, key(coord));
+        }
+        @Override public boolean addOrUpdate(long coord) {
+            return heap.addOrDecreaseKey(coord, key(coord));
+        }
+        @Override public boolean addAll(long... coord) {
+            boolean res = false;
+            for (long c : coord) if (add(c)) res = true;
+            return res;
+        }
+        @Override public boolean addAll(CoordCollection coordCollection) {
+            if (coordCollection instanceof AbstractCoordCollection3D) {
+                boolean[] res = new boolean[1];
+                coordCollection.stream().forEach(c -> {if (add(c)) res[0] = true;});
+                return res[0];
+            } else throw new IllegalArgumentException("Invalid coordset");
+        }
+        @Override public boolean isEmpty() {
+            return heap.isEmpty();
+        }
+        @Override public boolean containsCoord(long coord) {
+            return heap.contains(coord);
+        }
+        @Override public int size() {
+            return heap.size();
+        }
+        @Override public void clear() {
+            heap.clear();
+        }
+        @Override public void removeIf(LongPredicate filter) {
+            heap.removeIf(filter);
+        }
+        @Override public LongStream stream() {
+            return heap.stream();
+        }
+        @Override public LongCollection getCoords() {
+            return new LongArrayList(heap.stream().toArray());
+        }
+    }
+
     class SortedCoordSet2D extends AbstractCoordCollection2D implements SortedCoordSet {
         final IntSortedSet coords;
         public SortedCoordSet2D(Image sortImage, int z, boolean reverseOrder) {
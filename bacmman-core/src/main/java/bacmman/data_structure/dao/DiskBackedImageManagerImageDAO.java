@@ -280,6 +280,26 @@ public class DiskBackedImageManagerImageDAO implements ImageDAO, DiskBackedImage
         return imageDAO.getPreProcessedImageProperties(channelImageIdx);
     }
 
+    @Override
+    public Image openPyramidPlane(String imageKey, int level, int frame, int channel, int z) throws IOException {
+        return imageDAO.openPyramidPlane(imageKey, level, frame, channel, z);
+    }
+
+    @Override
+    public void writePyramidPlane(Image plane, String imageKey, int level, int frame, int channel, int z) throws IOException {
+        imageDAO.writePyramidPlane(plane, imageKey, level, frame, channel, z);
+    }
+
+    @Override
+    public boolean hasPyramidPlane(String imageKey, int level, int frame, int channel, int z) {
+        return imageDAO.hasPyramidPlane(imageKey, level, frame, channel, z);
+    }
+
+    @Override
+    public boolean hasPyramidLevel(String imageKey, int level) {
+        return imageDAO.hasPyramidLevel(imageKey, level);
+    }
+
     protected void writeToTmpStorage(DiskBackedImage fmi) throws IOException {
         if (!fmi.isOpen()) throw new RuntimeException("Cannot store a DiskBackedImage whose image is not open");
         if (fmi instanceof TiledDiskBackedImage) {
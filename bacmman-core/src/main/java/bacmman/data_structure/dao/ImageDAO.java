@@ -40,4 +40,27 @@ public interface ImageDAO {
     void deletePreProcessedImage(int channelImageIdx, int timePoint) throws IOException;
 
     boolean isEmpty();
+
+    /**
+     * Opens a downsampled plane of a displayed image, stored next to pre-processed images (see {@link bacmman.image.ImagePyramid})
+     * @param imageKey identifier of the displayed image
+     * @param level pyramid level
+     * @return stored plane, or null if not stored. Default implementation does not store pyramid planes.
+     */
+    default Image openPyramidPlane(String imageKey, int level, int frame, int channel, int z) throws IOException {
+        return null;
+    }
+
+    default void writePyramidPlane(Image plane, String imageKey, int level, int frame, int channel, int z) throws IOException {}
+
+    default boolean hasPyramidPlane(String imageKey, int level, int frame, int channel, int z) {
+        return false;
+    }
+
+    /**
+     * @return whether at least one plane of level {@param level} of the displayed image {@param imageKey} is stored
+     */
+    default boolean hasPyramidLevel(String imageKey, int level) {
+        return false;
+    }
 }
@@ -122,6 +122,7 @@ public class LocalTIFImageDAO implements ImageDAO {
         String path = getPreProcessedImagePath(channelImageIdx, timePoint);
         File f = new File(path);
         if (f.exists()) f.delete();
+        erasePyramids();
     }
 
     @Override
@@ -153,6 +154,44 @@ public class LocalTIFImageDAO implements ImageDAO {
         //logger.trace("writing preprocessed image to path: {}", path);
         //if (f.exists()) f.delete();
         ImageWriter.writeToFile(image, path, ImageFormat.TIF);
+        erasePyramids();
+    }
+
+    @Override
+    public Image openPyramidPlane(String imageKey, int level, int frame, int channel, int z) throws IOException {
+        String path = getPyramidPlanePath(imageKey, level, frame, channel, z);
+        if (new File(path).exists()) return ImageReaderFile.openImage(path);
+        else return null;
+    }
+
+    @Override
+    public void writePyramidPlane(Image plane, String imageKey, int level, int frame, int channel, int z) {
+        String path = getPyramidPlanePath(imageKey, level, frame, channel, z);
+        new File(path).getParentFile().mkdirs();
+        ImageWriter.writeToFile(plane, path, ImageFormat.TIF);
+    }
+
+    @Override
+    public boolean hasPyramidPlane(String imageKey, int level, int frame, int channel, int z) {
+        return new File(getPyramidPlanePath(imageKey, level, frame, channel, z)).exists();
+    }
+
+    @Override
+    public boolean hasPyramidLevel(String imageKey, int level) {
+        String[] planes = Paths.get(directory, position, "pre_processed", "pyramid", imageKey).toFile().list((dir, name) -> name.startsWith("l"+level+"_"));
+        return planes != null && planes.length > 0;
+    }
+
+    /**
+     * Pyramid planes are computed from pre-processed images: they are erased when pre-processed images are modified
+     */
+    protected void erasePyramids() {
+        File dir = Paths.get(directory, position, "pre_processed", "pyramid").toFile();
+        if (dir.exists()) Utils.deleteDirectory(dir.toString());
+    }
+
+    protected String getPyramidPlanePath(String imageKey, int level, int frame, int channel, int z) {
+        return Paths.get(directory, position, "pre_processed", "pyramid", imageKey, "l"+level+"_t"+Utils.formatInteger(5, frame)+"_c"+Utils.formatInteger(2, channel)+"_z"+Utils.formatInteger(3, z)+".tif").toString();
     }
 
     protected String getPreProcessedImagePath(int channelImageIdx, int timePoint) {
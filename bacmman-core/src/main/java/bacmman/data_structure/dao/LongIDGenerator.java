@@ -17,6 +17,9 @@ import java.util.stream.*;
 public class LongIDGenerator implements Function<Integer, Long> {
     static Logger logger = LoggerFactory.getLogger(LongIDGenerator.class);
     Map<Integer, Counter> frameCounter = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(f -> new Counter(f, new int[0]));
+    int blockSize = 1;
+    volatile int generation;
+    final ThreadLocal<Map<Integer, IdBlock>> blocks = ThreadLocal.withInitial(HashMap::new);
     public LongIDGenerator() {
 
     }
@@ -46,15 +49,52 @@ public class LongIDGenerator implements Function<Integer, Long> {
         });
     }
 
+    /**
+     * When {@param blockSize} is greater than 1, each thread reserves ranges of {@param blockSize} ids per frame and then generates ids without synchronization.
+     * Unused ids of a range are lost, which only creates gaps in the ids.
+     * @param blockSize number of ids reserved at once
+     * @return this generator
+     */
+    public LongIDGenerator setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+        ++generation; // invalidate ranges reserved with previous block size
+        return this;
+    }
+
     @Override
     public Long apply(Integer frame) {
-        return (long)frame << 32 | frameCounter.get(frame).next() & 0xFFFFFFFFL;
+        if (blockSize <= 1) return toLong(frame, frameCounter.get(frame).next());
+        Map<Integer, IdBlock> threadBlocks = blocks.get();
+        IdBlock b = threadBlocks.get(frame);
+        int gen = generation;
+        if (b == null || b.generation != gen || !b.hasNext()) {
+            b = new IdBlock(frameCounter.get(frame).next(blockSize), gen);
+            threadBlocks.put(frame, b);
+        }
+        return toLong(frame, b.next());
     }
 
     public void reset() {
+        ++generation; // invalidate reserved ranges
         for (Counter c : frameCounter.values()) c.reset();
     }
 
+    static class IdBlock {
+        final int[] ids;
+        final int generation;
+        int cursor;
+        IdBlock(int[] ids, int generation) {
+            this.ids = ids;
+            this.generation = generation;
+        }
+        boolean hasNext() {
+            return cursor < ids.length;
+        }
+        int next() {
+            return ids[cursor++];
+        }
+    }
+
     public static String toString(long id) {
         return (int)(id >> 32) + "-" + (int)id;
     }
@@ -101,6 +141,11 @@ public class LongIDGenerator implements Function<Integer, Long> {
         public synchronized int next() {
             return asyncNext();
         }
+        public synchronized int[] next(int n) {
+            int[] res = new int[n];
+            for (int i = 0; i<n; ++i) res[i] = asyncNext();
+            return res;
+        }
         protected int asyncNext() {
             if (existingIds.length==0) return ++lastValue;
             if (cursor == -1) {
@@ -97,6 +97,11 @@ public interface ObjectDAO<ID> {
     List<SegmentedObject> getTrackHeads(SegmentedObject parentTrackHead, int objectClassIdx);
     
     void upsertMeasurements(Collection<SegmentedObject> objects);
+    /**
+     * Blocks until measurements submitted with {@link #upsertMeasurements(Collection)} are stored, for DAOs that store them in background
+     * @throws RuntimeException if storing measurements submitted by the calling thread failed
+     */
+    default void flushMeasurements() {}
     void upsertMeasurement(SegmentedObject o);
     void retrieveMeasurements(int... objectClassIdx);
     Measurements getMeasurements(SegmentedObject o);
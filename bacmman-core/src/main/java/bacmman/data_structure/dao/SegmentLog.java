@@ -0,0 +1,63 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.dao;
+
+import bacmman.data_structure.SegmentedObjectAccessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Master DAO storing objects in per-position, per-object-class append-only logs (see {@link SegmentLogObjectDAO}).
+ * @author Jean Ollion
+ */
+public class SegmentLog<T extends ObjectDAO<Long>> extends PersistentMasterDAOImpl<Long, T, SegmentLogSelectionDAO> {
+    static final Logger logger = LoggerFactory.getLogger(SegmentLog.class);
+
+    public SegmentLog(Path dir, SegmentedObjectAccessor accessor) {
+        super(dir,
+                (mDAO, positionName, outputDir, readOnly) -> (T)new SegmentLogObjectDAO(mDAO, positionName, outputDir, readOnly),
+                SegmentLogSelectionDAO::new,
+                accessor);
+    }
+
+    @Override
+    public boolean containsDatabase(Path outputPath) {
+        List<Path> positions;
+        try (Stream<Path> s = Files.list(outputPath)) {
+            positions = s.filter(p -> !p.getFileName().toString().equals("Selections")).collect(Collectors.toList());
+        } catch (Exception e) {
+            return false;
+        }
+        for (Path pos : positions) {
+            Path so = pos.resolve("segment_log");
+            if (!Files.exists(so)) continue;
+            try (Stream<Path> s = Files.list(so)) {
+                if (s.map(p -> p.getFileName().toString()).anyMatch(n -> n.startsWith("objects_") && n.endsWith(".log"))) return true;
+            } catch (Exception e) { }
+        }
+        return false;
+    }
+
+}
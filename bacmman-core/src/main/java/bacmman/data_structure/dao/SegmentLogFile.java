@@ -0,0 +1,457 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.dao;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of records identified by a long id, memory-mapped for reads.
+ * Each record has a fixed header (id, frame, parent id, track head id) followed by a payload. Writing a record with an existing id supersedes the previous one, and deletions are written as tombstones. Obsolete records are removed by {@link #compact()}.
+ * Headers are indexed in memory at opening (by id, frame, parent id and track head id) so that payloads are only read when needed.
+ * A crash during an append leaves an incomplete last record, which is discarded at opening.
+ * Mapped windows are remapped lazily, when a read reaches past the mapped region. They never escape synchronized methods, so they are explicitly unmapped before the file is truncated, replaced or closed (which otherwise fails on Windows as long as the buffers are not garbage-collected).
+ * @author Jean Ollion
+ */
+public class SegmentLogFile implements Closeable {
+    static final Logger logger = LoggerFactory.getLogger(SegmentLogFile.class);
+    static final byte RECORD = 1, TOMBSTONE = 2;
+    static final int HEADER_SIZE = 4 + 1 + 8 + 4 + 8 + 8; // record length, type, id, frame, parentId, trackHeadId
+    static long MAP_WINDOW = 1L << 30;
+    static int WRITE_BUFFER = 1 << 22;
+
+    final Path path;
+    final boolean readOnly;
+    FileChannel channel;
+    long size; // end of last valid record
+    long deadBytes; // size of superseded records and tombstones
+    MappedByteBuffer[] windows = new MappedByteBuffer[0];
+    long mappedSize; // end of mapped region
+    // index
+    final Long2LongOpenHashMap offsets = new Long2LongOpenHashMap();
+    final Long2IntOpenHashMap lengths = new Long2IntOpenHashMap();
+    final Long2IntOpenHashMap frames = new Long2IntOpenHashMap();
+    final Long2LongOpenHashMap parents = new Long2LongOpenHashMap();
+    final Long2LongOpenHashMap trackHeads = new Long2LongOpenHashMap();
+    final Int2ObjectOpenHashMap<LongOpenHashSet> frameIndex = new Int2ObjectOpenHashMap<>();
+    final Long2ObjectOpenHashMap<LongOpenHashSet> parentIndex = new Long2ObjectOpenHashMap<>();
+    final Long2ObjectOpenHashMap<LongOpenHashSet> trackHeadIndex = new Long2ObjectOpenHashMap<>();
+
+    public static class Record {
+        public final long id, parentId, trackHeadId;
+        public final int frame;
+        public final byte[] payload;
+        public Record(long id, int frame, long parentId, long trackHeadId, byte[] payload) {
+            this.id = id;
+            this.frame = frame;
+            this.parentId = parentId;
+            this.trackHeadId = trackHeadId;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Opens the log located at {@param path}, creating it if necessary, and indexes its records
+     * @param readOnly if true, the log is not created if it does not exist
+     */
+    public SegmentLogFile(Path path, boolean readOnly) throws IOException {
+        this.path = path;
+        this.readOnly = readOnly;
+        offsets.defaultReturnValue(-1);
+        if (readOnly) channel = FileChannel.open(path, StandardOpenOption.READ);
+        else channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    protected void index() throws IOException {
+        offsets.clear(); lengths.clear(); frames.clear(); parents.clear(); trackHeads.clear();
+        frameIndex.clear(); parentIndex.clear(); trackHeadIndex.clear();
+        deadBytes = 0;
+        long fileSize = channel.size();
+        size = fileSize;
+        remap();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long offset = 0;
+        while (offset + HEADER_SIZE <= fileSize) {
+            ByteBuffer h = read(offset, HEADER_SIZE, header);
+            int length = h.getInt();
+            if (length < HEADER_SIZE || offset + length > fileSize) break; // incomplete record
+            byte type = h.get();
+            long id = h.getLong();
+            int frame = h.getInt();
+            long parentId = h.getLong();
+            long trackHeadId = h.getLong();
+            if (type == RECORD) indexRecord(id, frame, parentId, trackHeadId, offset, length);
+            else if (type == TOMBSTONE) {
+                unindexRecord(id);
+                deadBytes += length;
+            } else break; // corrupted
+            offset += length;
+        }
+        if (offset < fileSize) {
+            logger.warn("Log: {} has an incomplete last record: {} bytes discarded", path, fileSize - offset);
+            size = offset;
+            if (!readOnly) {
+                unmapAll();
+                channel.truncate(size);
+            }
+            remap();
+        }
+    }
+
+    protected void indexRecord(long id, int frame, long parentId, long trackHeadId, long offset, int length) {
+        unindexRecord(id);
+        offsets.put(id, offset);
+        lengths.put(id, length);
+        frames.put(id, frame);
+        parents.put(id, parentId);
+        trackHeads.put(id, trackHeadId);
+        frameIndex.computeIfAbsent(frame, f -> new LongOpenHashSet()).add(id);
+        if (parentId != 0) parentIndex.computeIfAbsent(parentId, p -> new LongOpenHashSet()).add(id);
+        trackHeadIndex.computeIfAbsent(trackHeadId, t -> new LongOpenHashSet()).add(id);
+    }
+
+    protected boolean unindexRecord(long id) {
+        if (!offsets.containsKey(id)) return false;
+        offsets.remove(id);
+        deadBytes += lengths.remove(id);
+        removeFromIndex(frameIndex, frames.remove(id), id);
+        long parentId = parents.remove(id);
+        if (parentId != 0) removeFromIndex(parentIndex, parentId, id);
+        removeFromIndex(trackHeadIndex, trackHeads.remove(id), id);
+        return true;
+    }
+
+    private static void removeFromIndex(Int2ObjectOpenHashMap<LongOpenHashSet> index, int key, long id) {
+        LongOpenHashSet s = index.get(key);
+        if (s != null && s.remove(id) && s.isEmpty()) index.remove(key);
+    }
+
+    private static void removeFromIndex(Long2ObjectOpenHashMap<LongOpenHashSet> index, long key, long id) {
+        LongOpenHashSet s = index.get(key);
+        if (s != null && s.remove(id) && s.isEmpty()) index.remove(key);
+    }
+
+    protected void remap() throws IOException {
+        int n = (int)((size + MAP_WINDOW - 1) / MAP_WINDOW);
+        MappedByteBuffer[] newWindows = Arrays.copyOf(windows, n);
+        for (int i = 0; i < n; ++i) {
+            long start = i * MAP_WINDOW;
+            long length = Math.min(MAP_WINDOW, size - start);
+            if (newWindows[i] == null || newWindows[i].capacity() < length) {
+                if (newWindows[i] != null) unmap(newWindows[i]);
+                newWindows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        windows = newWindows;
+        mappedSize = size;
+    }
+
+    protected void unmapAll() {
+        MappedByteBuffer[] w = windows;
+        windows = new MappedByteBuffer[0];
+        mappedSize = 0;
+        for (MappedByteBuffer b : w) if (b != null) unmap(b);
+    }
+
+    private static boolean unmapWarned;
+
+    /**
+     * Releases the mapping of {@param buffer}, which must not be accessed afterwards. Uses the buffer's cleaner (Java 8) or Unsafe.invokeCleaner (Java 9+)
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) { // Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (c != null) c.getClass().getMethod("clean").invoke(c);
+            }
+        } catch (Exception | LinkageError e) {
+            synchronized (SegmentLogFile.class) {
+                if (!unmapWarned) logger.warn("Memory-mapped buffers cannot be unmapped explicitly on this JVM: truncating or compacting logs may fail on Windows", e);
+                unmapWarned = true;
+            }
+        }
+    }
+
+    /**
+     * @return buffer positioned at the beginning of the requested region: a view of the mapped file when the region is contained in a single window, otherwise {@param buffer} (or a new buffer if null or too small) filled from the channel
+     */
+    protected ByteBuffer read(long offset, int length, ByteBuffer buffer) throws IOException {
+        if (offset + length > mappedSize && offset + length <= size) remap(); // appended since last mapping
+        int w = (int)(offset / MAP_WINDOW);
+        long start = offset - w * MAP_WINDOW;
+        if (start + length <= MAP_WINDOW && w < windows.length && start + length <= windows[w].capacity()) {
+            ByteBuffer view = windows[w].duplicate();
+            view.position((int)start);
+            view.limit((int)start + length);
+            return view.slice();
+        }
+        if (buffer == null || buffer.capacity() < length) buffer = ByteBuffer.allocate(length);
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("Unexpected end of file: "+path);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Appends records in a single sequential write. Records with an existing id supersede previous ones, records with a null payload are tombstones.
+     * Records are indexed once written: if writing fails, the log is left unchanged.
+     */
+    public synchronized void append(List<Record> records) throws IOException {
+        if (readOnly) throw new IOException("Log is read-only: "+path);
+        if (records.isEmpty()) return;
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER);
+        long offset = size;
+        long writeOffset = size;
+        long[] offsets = new long[records.size()];
+        try {
+            for (int i = 0; i < records.size(); ++i) {
+                Record r = records.get(i);
+                int length = HEADER_SIZE + (r.payload == null ? 0 : r.payload.length);
+                if (buffer.remaining() < length) {
+                    writeOffset = write(buffer, writeOffset);
+                    if (buffer.capacity() < length) buffer = ByteBuffer.allocate(length);
+                }
+                buffer.putInt(length).put(r.payload == null ? TOMBSTONE : RECORD).putLong(r.id).putInt(r.frame).putLong(r.parentId).putLong(r.trackHeadId);
+                if (r.payload != null) buffer.put(r.payload);
+                offsets[i] = offset;
+                offset += length;
+            }
+            write(buffer, writeOffset);
+        } catch (IOException e) {
+            try {
+                channel.truncate(size); // discard partially written records, beyond mapped region
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+        for (int i = 0; i < records.size(); ++i) {
+            Record r = records.get(i);
+            int length = HEADER_SIZE + (r.payload == null ? 0 : r.payload.length);
+            if (r.payload != null) indexRecord(r.id, r.frame, r.parentId, r.trackHeadId, offsets[i], length);
+            else {
+                unindexRecord(r.id);
+                deadBytes += length;
+            }
+        }
+        size = offset;
+    }
+
+    private long write(ByteBuffer buffer, long offset) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) offset += channel.write(buffer, offset);
+        buffer.clear();
+        return offset;
+    }
+
+    /**
+     * Writes a tombstone for each existing id
+     * @return number of removed records
+     */
+    public synchronized int remove(long... ids) throws IOException {
+        List<Record> tombstones = new ArrayList<>();
+        LongOpenHashSet removed = new LongOpenHashSet();
+        for (long id : ids) {
+            if (offsets.containsKey(id) && removed.add(id)) tombstones.add(new Record(id, 0, 0, 0, null));
+        }
+        append(tombstones);
+        return tombstones.size();
+    }
+
+    /**
+     * @return payload of record {@param id} or null if there is no such record
+     */
+    public synchronized byte[] get(long id) throws IOException {
+        long offset = offsets.get(id);
+        if (offset < 0) return null;
+        int length = lengths.get(id);
+        ByteBuffer b = read(offset + HEADER_SIZE, length - HEADER_SIZE, null);
+        byte[] res = new byte[length - HEADER_SIZE];
+        b.get(res);
+        return res;
+    }
+
+    public synchronized boolean contains(long id) {
+        return offsets.containsKey(id);
+    }
+
+    public synchronized int count() {
+        return offsets.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return offsets.isEmpty();
+    }
+
+    /**
+     * @return all ids, sorted by position in the log (i.e. by write order)
+     */
+    public synchronized long[] getIds() {
+        return sortByOffset(offsets.keySet().toLongArray());
+    }
+
+    public synchronized long[] getIds(int frame) {
+        return toArray(frameIndex.get(frame));
+    }
+
+    /**
+     * @return ids of records located in frame range [{@param fromFrame}; {@param toFrame}], sorted by position in the log
+     */
+    public synchronized long[] getIds(int fromFrame, int toFrame) {
+        LongArrayList res = new LongArrayList();
+        if ((long)toFrame - fromFrame + 1 <= frameIndex.size()) {
+            for (int f = fromFrame; f <= toFrame; ++f) {
+                LongOpenHashSet s = frameIndex.get(f);
+                if (s != null) res.addAll(s);
+            }
+        } else {
+            frameIndex.int2ObjectEntrySet().forEach(e -> {
+                if (e.getIntKey() >= fromFrame && e.getIntKey() <= toFrame) res.addAll(e.getValue());
+            });
+        }
+        return sortByOffset(res.toLongArray());
+    }
+
+    public synchronized long[] getChildIds(long parentId) {
+        return toArray(parentIndex.get(parentId));
+    }
+
+    public synchronized long[] getChildIds(long[] parentIds) {
+        LongArrayList res = new LongArrayList();
+        for (long p : parentIds) {
+            LongOpenHashSet s = parentIndex.get(p);
+            if (s != null) res.addAll(s);
+        }
+        return res.toLongArray();
+    }
+
+    public synchronized long[] getTrackIds(long trackHeadId) {
+        return toArray(trackHeadIndex.get(trackHeadId));
+    }
+
+    public synchronized int getFrame(long id) {
+        return frames.get(id);
+    }
+
+    private static long[] toArray(LongOpenHashSet s) {
+        return s == null ? new long[0] : s.toLongArray();
+    }
+
+    private long[] sortByOffset(long[] ids) {
+        LongArrays.quickSort(ids, (a, b) -> Long.compare(offsets.get(a), offsets.get(b)));
+        return ids;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return proportion of the log occupied by superseded records and tombstones
+     */
+    public synchronized double getDeadProportion() {
+        return size == 0 ? 0 : (double)deadBytes / size;
+    }
+
+    public synchronized void sync() throws IOException {
+        if (!readOnly) channel.force(false);
+    }
+
+    /**
+     * Discards all records written after {@param newSize} and re-indexes the log
+     */
+    public synchronized void truncate(long newSize) throws IOException {
+        if (readOnly || newSize >= size) return;
+        unmapAll();
+        channel.truncate(newSize);
+        index();
+    }
+
+    /**
+     * Rewrites the log with only the current version of each record
+     */
+    public synchronized void compact() throws IOException {
+        if (readOnly || deadBytes == 0) return;
+        Path tmp = path.resolveSibling(path.getFileName().toString() + ".compact");
+        long[] ids = getIds();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER);
+            long writeOffset = 0;
+            for (long id : ids) {
+                int length = lengths.get(id);
+                ByteBuffer record = read(offsets.get(id), length, null);
+                if (buffer.remaining() < length) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) writeOffset += out.write(buffer, writeOffset);
+                    buffer.clear();
+                }
+                if (buffer.remaining() < length) { // larger than buffer
+                    while (record.hasRemaining()) writeOffset += out.write(record, writeOffset);
+                } else buffer.put(record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) writeOffset += out.write(buffer, writeOffset);
+            out.force(false);
+        }
+        long before = size;
+        close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index();
+        logger.debug("compacted log: {} from {} to {} bytes", path, before, size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        unmapAll();
+        if (channel != null && channel.isOpen()) channel.close();
+    }
+}
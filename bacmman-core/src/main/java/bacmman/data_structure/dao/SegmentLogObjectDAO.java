@@ -0,0 +1,684 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.dao;
+
+import bacmman.configuration.experiment.Experiment;
+import bacmman.data_structure.Measurements;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.SegmentedObjectAccessor;
+import bacmman.data_structure.SegmentedObjectUtils;
+import bacmman.utils.HashMapGetCreate;
+import bacmman.utils.JSONUtils;
+import bacmman.utils.Metrics;
+import bacmman.utils.Pair;
+import bacmman.utils.Utils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Object DAO storing objects and measurements of each object class in append-only logs (see {@link SegmentLogFile}).
+ * Objects are written sequentially after segmentation and read through memory-mapped files, using in-memory indices on frame, parent and track head.
+ * Safe mode relies on the append-only layout: rollback truncates logs to their size at last commit.
+ * @author Jean Ollion
+ */
+public class SegmentLogObjectDAO implements ObjectDAO<Long> {
+    static final Logger logger = LoggerFactory.getLogger(SegmentLogObjectDAO.class);
+    public static double AUTO_COMPACT_PROPORTION = 0.5; // logs are compacted when clearing cache if obsolete records exceed this proportion
+    final MasterDAO<Long, ? extends ObjectDAO<Long>> mDAO;
+    final String positionName;
+    final Path dir;
+    public final boolean readOnly;
+    protected boolean safeMode;
+    private java.nio.channels.FileLock lock;
+    private FileChannel lockChannel;
+    protected final Map<Integer, SegmentLogFile> objectLogs = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> openLog(ocIdx, true));
+    protected final Map<Integer, SegmentLogFile> measurementLogs = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> openLog(ocIdx, false));
+    protected final Map<Integer, Map<Long, SegmentedObject>> cache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> new ConcurrentHashMap<>());
+    protected final Map<SegmentLogFile, Long> sizeAtCommit = new HashMap<>(); // for rollback
+    protected final HashMapGetCreate.HashMapGetCreateRedirectedSync<Integer, LongIDGenerator> idGenerator = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(this::makeGenerator);
+    protected final WriteBehindQueue<Pair<Integer, SegmentLogFile.Record>> measurementQueue; // object class idx, encoded measurements
+
+    public SegmentLogObjectDAO(MasterDAO<Long, ? extends ObjectDAO<Long>> mDAO, String positionName, String outputDir, boolean readOnly) {
+        this.mDAO = mDAO;
+        this.positionName = positionName;
+        this.dir = Paths.get(outputDir, positionName, "segment_log");
+        // lock system is on a ".lock" file temporarily created in position folder
+        if (!readOnly) {
+            this.readOnly = !lock();
+        } else this.readOnly = true;
+        this.measurementQueue = WriteBehindQueue.ENABLED && !this.readOnly ? new WriteBehindQueue<>(positionName+"/measurements", this::writeMeasurements, e -> new Pair<>(e.key, e.value.id), null, WriteBehindQueue.DEFAULT_CAPACITY) : null;
+    }
+
+    protected static String getLogName(int ocIdx, boolean object) {
+        return (object ? "objects_" : "measurements_") + ocIdx + ".log";
+    }
+
+    protected SegmentLogFile openLog(int ocIdx, boolean object) {
+        Path path = dir.resolve(getLogName(ocIdx, object));
+        if (readOnly && !Files.exists(path)) return null;
+        try {
+            if (!Files.exists(dir)) Files.createDirectories(dir);
+            return new SegmentLogFile(path, readOnly);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected LongIDGenerator makeGenerator(int objectClassIdx) {
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        return new LongIDGenerator(log == null ? LongStream.empty() : LongStream.of(log.getIds()));
+    }
+
+    @Override
+    public Long generateID(int objectClassIdx, int frame) {
+        return idGenerator.get(objectClassIdx).apply(frame);
+    }
+
+    @Override
+    public MasterDAO<Long, ? extends ObjectDAO<Long>> getMasterDAO() {
+        return mDAO;
+    }
+
+    @Override
+    public Experiment getExperiment() {
+        return mDAO.getExperiment();
+    }
+
+    @Override
+    public String getPositionName() {
+        return positionName;
+    }
+
+    @Override
+    public void applyOnAllOpenedObjects(Consumer<SegmentedObject> function) {
+        for (Map<Long, SegmentedObject> objects : cache.values()) objects.values().forEach(function);
+    }
+
+    @Override
+    public void clearCache() {
+        awaitMeasurements();
+        cache.clear();
+        if (!readOnly && sizeAtCommit.isEmpty()) { // compaction is not possible while modifications may be rolled back
+            Stream.concat(objectLogs.values().stream(), measurementLogs.values().stream()).filter(Objects::nonNull)
+                .filter(l -> l.getDeadProportion() > AUTO_COMPACT_PROPORTION)
+                .forEach(l -> {
+                    try {
+                        l.compact();
+                    } catch (IOException e) {
+                        logger.error("Error compacting log: "+l.getPath(), e);
+                    }
+                });
+        }
+        closeLogs(true);
+    }
+
+    protected synchronized void closeLogs(boolean sync) {
+        for (SegmentLogFile l : Stream.concat(objectLogs.values().stream(), measurementLogs.values().stream()).filter(Objects::nonNull).collect(Collectors.toList())) {
+            try {
+                if (sync) l.sync();
+                l.close();
+            } catch (IOException e) {
+                logger.error("Error closing log: "+l.getPath(), e);
+            }
+        }
+        objectLogs.clear();
+        measurementLogs.clear();
+        sizeAtCommit.clear();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        SegmentLogFile roots = objectLogs.get(-1);
+        return roots == null || roots.isEmpty();
+    }
+
+    @Override
+    public void compactDBs(boolean onlyOpened) {
+        if (readOnly) return;
+        awaitMeasurements();
+        if (!onlyOpened) streamObjectClasses(true).forEach(oc -> {objectLogs.get(oc); measurementLogs.get(oc);});
+        for (SegmentLogFile l : Stream.concat(objectLogs.values().stream(), measurementLogs.values().stream()).filter(Objects::nonNull).collect(Collectors.toList())) {
+            try {
+                l.compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // retrieval
+    protected SegmentedObject decode(long id, byte[] payload) {
+        try {
+            return getMasterDAO().getAccess().createFromJSON(new String(payload, StandardCharsets.UTF_8), this);
+        } catch (ParseException e) {
+            throw new RuntimeException("Error decoding object: "+id, e);
+        }
+    }
+
+    /**
+     * @return objects with ids {@param ids}, from cache or decoded from the log
+     */
+    protected Stream<SegmentedObject> get(int objectClassIdx, long[] ids) {
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (log == null || ids.length == 0) return Stream.empty();
+        Map<Long, SegmentedObject> cache = this.cache.get(objectClassIdx);
+        long[] toRetrieve = LongStream.of(ids).filter(id -> !cache.containsKey(id)).toArray();
+        if (toRetrieve.length > 0) {
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.DAO_READ, "SegmentLog/objects")) {
+                Utils.parallel(LongStream.of(toRetrieve).boxed(), toRetrieve.length > 100).forEach(id -> {
+                    byte[] payload;
+                    try {
+                        payload = log.get(id);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (payload != null) cache.putIfAbsent(id, decode(id, payload));
+                });
+            }
+            Metrics.count(Metrics.STAGE.DAO_READ, "SegmentLog/objects", toRetrieve.length);
+        }
+        return LongStream.of(ids).mapToObj(cache::get).filter(Objects::nonNull);
+    }
+
+    @Override
+    public SegmentedObject getById(int objectClassIdx, Long id, int frame, Long parentTrackHeadId) {
+        return get(objectClassIdx, new long[]{id}).findAny().orElse(null);
+    }
+
+    @Override
+    public List<SegmentedObject> getChildren(SegmentedObject parent, int objectClassIdx) {
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (log == null) return new ArrayList<>();
+        return get(objectClassIdx, log.getChildIds((Long)parent.getId())).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public void setAllChildren(Collection<SegmentedObject> parentTrack, int objectClassIdx) {
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        if (log == null) {
+            for (SegmentedObject p : parentTrack) accessor.setChildren(p, new ArrayList<>(), objectClassIdx);
+            return;
+        }
+        long[] parentIds = parentTrack.stream().mapToLong(p -> (Long)p.getId()).toArray();
+        Map<Object, List<SegmentedObject>> children = get(objectClassIdx, log.getChildIds(parentIds)).collect(Collectors.groupingBy(SegmentedObject::getParentId));
+        for (SegmentedObject p : parentTrack) {
+            List<SegmentedObject> c = children.getOrDefault(p.getId(), new ArrayList<>());
+            Collections.sort(c);
+            accessor.setChildren(p, c, objectClassIdx);
+        }
+    }
+
+    /**
+     * @return objects of class {@param objectClassIdx} located in frame range [{@param fromFrame}; {@param toFrame}], in write order
+     */
+    public List<SegmentedObject> getObjects(int objectClassIdx, int fromFrame, int toFrame) {
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (log == null) return Collections.emptyList();
+        return get(objectClassIdx, log.getIds(fromFrame, toFrame)).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<SegmentedObject> getRoots() {
+        SegmentLogFile log = objectLogs.get(-1);
+        if (log == null) return Collections.emptyList();
+        return get(-1, log.getIds()).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public void setRoots(List<SegmentedObject> roots) {
+        store(roots);
+    }
+
+    @Override
+    public SegmentedObject getRoot(int timePoint) {
+        SegmentLogFile log = objectLogs.get(-1);
+        if (log == null) return null;
+        return get(-1, log.getIds(timePoint)).findAny().orElse(null);
+    }
+
+    @Override
+    public List<SegmentedObject> getTrack(SegmentedObject trackHead) {
+        SegmentLogFile log = objectLogs.get(trackHead.getStructureIdx());
+        if (log == null) return Collections.emptyList();
+        return get(trackHead.getStructureIdx(), log.getTrackIds((Long)trackHead.getId())).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public List<SegmentedObject> getTrackHeads(SegmentedObject parentTrackHead, int objectClassIdx) {
+        SegmentLogFile parentLog = objectLogs.get(parentTrackHead.getStructureIdx());
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (parentLog == null || log == null) return Collections.emptyList();
+        long[] parentIds = parentLog.getTrackIds((Long)parentTrackHead.getTrackHeadId());
+        return get(objectClassIdx, log.getChildIds(parentIds)).filter(SegmentedObject::isTrackHead).sorted().collect(Collectors.toList());
+    }
+
+    // modifications
+    protected void recordSizeForRollback(SegmentLogFile log) {
+        if (!safeMode) return;
+        synchronized (sizeAtCommit) {
+            sizeAtCommit.computeIfAbsent(log, SegmentLogFile::size);
+        }
+    }
+
+    @Override
+    public void store(SegmentedObject object) {
+        store(Collections.singletonList(object));
+    }
+
+    @Override
+    public void store(Collection<SegmentedObject> objects) {
+        if (readOnly || objects.isEmpty()) return;
+        SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        Map<Integer, List<SegmentedObject>> byOcIdx = SegmentedObjectUtils.splitByStructureIdx(objects, true);
+        for (int ocIdx : new TreeSet<>(byOcIdx.keySet())) {
+            long t0 = System.currentTimeMillis();
+            List<SegmentedObject> toStore = byOcIdx.get(ocIdx);
+            Map<Long, SegmentedObject> cache = this.cache.get(ocIdx);
+            List<SegmentLogFile.Record> records = toStore.parallelStream().map(o -> {
+                accessor.setDAO(o, this);
+                accessor.updateRegionContainer(o);
+                JSONObject json = o.toJSONEntry();
+                json.put("object", o.getRegionJSONEntry());
+                long id = (Long)o.getId();
+                Object thId = accessor.trackHeadId(o);
+                return new SegmentLogFile.Record(id, o.getFrame(), o.getParentId() == null ? 0 : (Long)o.getParentId(), thId == null ? id : (Long)thId, json.toJSONString().getBytes(StandardCharsets.UTF_8));
+            }).collect(Collectors.toList());
+            long t1 = System.currentTimeMillis();
+            SegmentLogFile log = objectLogs.get(ocIdx);
+            recordSizeForRollback(log);
+            try {
+                log.append(records);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (SegmentedObject o : toStore) cache.put((Long)o.getId(), o);
+            long t2 = System.currentTimeMillis();
+            logger.debug("Stored {} objects of class {} in {}ms serialize: {}ms write: {}ms", toStore.size(), ocIdx, t2-t0, t1-t0, t2-t1);
+            Metrics.time(Metrics.STAGE.SERIALIZATION, "SegmentLog/objects", t1-t0, TimeUnit.MILLISECONDS);
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "SegmentLog/objects", t2-t1, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "SegmentLog/objects", toStore.size());
+            upsertMeasurements(toStore.stream().filter(SegmentedObject::hasMeasurementModifications).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Removes objects from logs and cache
+     * @param deleteChildren also remove direct and indirect children
+     * @return removed objects that were present in cache
+     */
+    protected List<SegmentedObject> remove(int objectClassIdx, long[] ids, boolean deleteChildren) {
+        if (ids.length == 0) return Collections.emptyList();
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (log == null) return Collections.emptyList();
+        try {
+            recordSizeForRollback(log);
+            log.remove(ids);
+            SegmentLogFile mLog = measurementLogs.get(objectClassIdx);
+            recordSizeForRollback(mLog);
+            mLog.remove(ids);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<Long, SegmentedObject> cache = this.cache.get(objectClassIdx);
+        List<SegmentedObject> removed = LongStream.of(ids).mapToObj(cache::remove).filter(Objects::nonNull).collect(Collectors.toList());
+        if (deleteChildren) {
+            for (int cIdx : getExperiment().experimentStructure.getAllDirectChildStructures(objectClassIdx)) {
+                SegmentLogFile cLog = objectLogs.get(cIdx);
+                if (cLog != null) remove(cIdx, cLog.getChildIds(ids), true);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void deleteChildren(SegmentedObject parent, int objectClassIdx) {
+        deleteChildren(Collections.singletonList(parent), objectClassIdx);
+    }
+
+    @Override
+    public void deleteChildren(Collection<SegmentedObject> parents, int objectClassIdx) {
+        if (readOnly) return;
+        SegmentLogFile log = objectLogs.get(objectClassIdx);
+        if (log == null) return;
+        remove(objectClassIdx, log.getChildIds(parents.stream().mapToLong(p -> (Long)p.getId()).toArray()), true);
+    }
+
+    @Override
+    public void deleteObjectsByStructureIdx(int... structures) {
+        if (readOnly) return;
+        for (int oc : structures) {
+            SegmentLogFile log = objectLogs.get(oc);
+            if (log != null) remove(oc, log.getIds(), true);
+        }
+    }
+
+    @Override
+    public void deleteAllObjects() {
+        awaitMeasurements();
+        closeLogs(false);
+        cache.clear();
+        if (readOnly) return;
+        Utils.deleteDirectory(dir.toFile());
+        idGenerator.values().forEach(LongIDGenerator::reset);
+    }
+
+    @Override
+    public synchronized void erase() {
+        awaitMeasurements();
+        closeLogs(false);
+        cache.clear();
+        if (readOnly) return;
+        unlock();
+        Utils.deleteDirectory(dir.toFile());
+        idGenerator.values().forEach(LongIDGenerator::reset);
+    }
+
+    @Override
+    public void delete(SegmentedObject o, boolean deleteChildren, boolean deleteFromParent, boolean relabelSiblings) {
+        delete(Collections.singletonList(o), deleteChildren, deleteFromParent, relabelSiblings);
+    }
+
+    @Override
+    public void delete(Collection<SegmentedObject> list, boolean deleteChildren, boolean deleteFromParent, boolean relabelSiblings) {
+        if (readOnly) return;
+        SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        SegmentedObjectUtils.splitByStructureIdx(list, true).forEach((ocIdx, l) -> {
+            remove(ocIdx, l.stream().mapToLong(o -> (Long) o.getId()).toArray(), deleteChildren);
+            if (ocIdx < 0) return;
+            if (deleteFromParent) l.forEach(o -> {
+                List<SegmentedObject> siblings = accessor.getDirectChildren(o.getParent(), ocIdx);
+                if (siblings != null) siblings.remove(o);
+            });
+            if (relabelSiblings) {
+                SegmentLogFile log = objectLogs.get(ocIdx);
+                List<SegmentedObject> modified = new ArrayList<>();
+                l.stream().map(SegmentedObject::getParentId).distinct().forEach(pId -> {
+                    List<SegmentedObject> siblings = get(ocIdx, log.getChildIds((Long)pId)).sorted().collect(Collectors.toList());
+                    for (int i = 0; i < siblings.size(); ++i) {
+                        if (siblings.get(i).getIdx() != i) {
+                            accessor.setIdx(siblings.get(i), i);
+                            modified.add(siblings.get(i));
+                        }
+                    }
+                });
+                store(modified);
+            }
+        });
+    }
+
+    // measurements
+    @Override
+    public void flushMeasurements() {
+        if (measurementQueue != null) measurementQueue.flush();
+    }
+
+    /**
+     * Blocks until pending measurements are stored, without throwing errors (errors are rethrown to the thread that upserted the measurements)
+     */
+    protected void awaitMeasurements() {
+        if (measurementQueue != null) measurementQueue.await();
+    }
+
+    @Override
+    public void upsertMeasurements(Collection<SegmentedObject> objects) {
+        if (readOnly || objects.isEmpty()) return;
+        List<Pair<Integer, SegmentLogFile.Record>> records = encodeMeasurements(objects); // snapshot on the calling thread
+        if (measurementQueue != null) measurementQueue.submit(records); // stored in background
+        else writeMeasurements(records);
+    }
+
+    protected List<Pair<Integer, SegmentLogFile.Record>> encodeMeasurements(Collection<SegmentedObject> objects) {
+        List<Pair<Integer, SegmentLogFile.Record>> res = new ArrayList<>();
+        SegmentedObjectUtils.splitByStructureIdx(objects, true).forEach((ocIdx, toStore) -> {
+            long t0 = System.currentTimeMillis();
+            res.addAll(toStore.parallelStream().filter(SegmentedObject::hasMeasurements).map(o -> {
+                Measurements m = o.getMeasurements();
+                m.updateObjectProperties(o);
+                return new Pair<>(ocIdx, new SegmentLogFile.Record((Long)o.getId(), o.getFrame(), 0, 0, JSONUtils.serialize(m).getBytes(StandardCharsets.UTF_8)));
+            }).collect(Collectors.toList()));
+            toStore.forEach(o -> o.getMeasurements().modifications = false);
+            Metrics.time(Metrics.STAGE.SERIALIZATION, "SegmentLog/measurements", System.currentTimeMillis()-t0, TimeUnit.MILLISECONDS);
+        });
+        return res;
+    }
+
+    protected void writeMeasurements(List<Pair<Integer, SegmentLogFile.Record>> encoded) {
+        encoded.stream().collect(Collectors.groupingBy(e -> e.key, Collectors.mapping(e -> e.value, Collectors.toList()))).forEach((ocIdx, records) -> {
+            long t0 = System.currentTimeMillis();
+            SegmentLogFile log = measurementLogs.get(ocIdx);
+            recordSizeForRollback(log);
+            try {
+                log.append(records);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "SegmentLog/measurements", System.currentTimeMillis()-t0, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "SegmentLog/measurements", records.size());
+        });
+    }
+
+    @Override
+    public void upsertMeasurement(SegmentedObject o) {
+        if (o == null || !o.hasMeasurementModifications()) return;
+        upsertMeasurements(Collections.singletonList(o));
+    }
+
+    protected Measurements decodeMeasurements(byte[] payload) {
+        try {
+            return new Measurements(JSONUtils.parse(new String(payload, StandardCharsets.UTF_8)), positionName);
+        } catch (ParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void retrieveMeasurements(int... objectClassIdx) {
+        flushMeasurements();
+        SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        for (int ocIdx : objectClassIdx) {
+            SegmentLogFile log = measurementLogs.get(ocIdx);
+            if (log == null || log.isEmpty()) continue;
+            SegmentedObjectUtils.getAllObjectsAsStream(this, ocIdx).parallel()
+                .filter(o -> !o.hasMeasurements())
+                .forEach(o -> {
+                    try {
+                        byte[] payload = log.get((Long)o.getId());
+                        if (payload != null) accessor.setMeasurements(o, decodeMeasurements(payload));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        }
+    }
+
+    @Override
+    public Measurements getMeasurements(SegmentedObject o) { // objects with pending measurements already hold them: no need to flush
+        SegmentLogFile log = measurementLogs.get(o.getStructureIdx());
+        if (log == null) return null;
+        try {
+            byte[] payload = log.get((Long)o.getId());
+            return payload == null ? null : decodeMeasurements(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<Measurements> getMeasurements(int objectClassIdx, String... measurements) {
+        flushMeasurements();
+        SegmentLogFile log = measurementLogs.get(objectClassIdx);
+        if (log == null) return Collections.emptyList();
+        return LongStream.of(log.getIds()).parallel().mapToObj(id -> {
+            try {
+                return decodeMeasurements(log.get(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    @Override
+    public void deleteAllMeasurements() {
+        awaitMeasurements();
+        SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        applyOnAllOpenedObjects(o -> accessor.setMeasurements(o, null));
+        if (readOnly) return;
+        streamObjectClasses(true).forEach(oc -> {
+            SegmentLogFile log = measurementLogs.remove(oc);
+            try {
+                if (log != null) {
+                    synchronized (sizeAtCommit) {sizeAtCommit.remove(log);}
+                    log.close();
+                }
+                Files.deleteIfExists(dir.resolve(getLogName(oc, false)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // safe mode
+    @Override
+    public SegmentLogObjectDAO setSafeMode(boolean safeMode) {
+        this.safeMode = safeMode;
+        return this;
+    }
+
+    @Override
+    public synchronized void rollback() {
+        awaitMeasurements();
+        if (!safeMode) return;
+        synchronized (sizeAtCommit) {
+            sizeAtCommit.forEach((log, size) -> {
+                try {
+                    log.truncate(size);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            sizeAtCommit.clear();
+        }
+        cache.clear();
+    }
+
+    @Override
+    public synchronized void commit() {
+        flushMeasurements();
+        synchronized (sizeAtCommit) {
+            sizeAtCommit.clear();
+        }
+        Stream.concat(objectLogs.values().stream(), measurementLogs.values().stream()).filter(Objects::nonNull).forEach(l -> {
+            try {
+                l.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    protected IntStream streamObjectClasses(boolean includeRoot) {
+        return IntStream.range(includeRoot ? -1 : 0, getExperiment().getStructureCount());
+    }
+
+    // lock system
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+    private Path getLockedFilePath() {
+        Path p = dir.getParent();
+        if (!Files.exists(p)) {
+            try {
+                Files.createDirectories(p);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return p.resolve(".lock");
+    }
+    protected synchronized boolean lock() { // lock can only be called at creation to be consistent with readonly. to lock a readonly dao re-create it
+        if (lock!=null) return true;
+        try {
+            Path p = getLockedFilePath();
+            lockChannel = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = lockChannel.tryLock();
+            if (Files.exists(p)) p.toFile().deleteOnExit(); // shutdown hook
+        } catch (IOException | OverlappingFileLockException ex) {
+            return false;
+        }
+        if (lock==null) {
+            if (lockChannel!=null) {
+                try {
+                    lockChannel.close();
+                } catch (IOException ex) {
+                    return false;
+                }
+            }
+            return false;
+        } else return true;
+    }
+    @Override public synchronized void unlock() {
+        clearCache();
+        if (this.lock!=null) {
+            try {
+                lock.release();
+                lock = null;
+            } catch (IOException ex) {
+                logger.debug("error releasing dao lock", ex);
+            }
+        }
+        if (this.lockChannel!=null && lockChannel.isOpen()) {
+            try {
+                lockChannel.close();
+                lockChannel = null;
+            } catch (IOException ex) {
+                logger.debug("error releasing dao lock channel", ex);
+            }
+        }
+        Path p = getLockedFilePath();
+        if (Files.exists(p)) {
+            try {
+                Files.delete(p);
+            } catch (IOException ex) {
+                logger.debug("error erasing lock file", ex);
+            }
+        }
+    }
+}
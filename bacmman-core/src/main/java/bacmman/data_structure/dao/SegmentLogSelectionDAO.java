@@ -0,0 +1,188 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.dao;
+
+import bacmman.data_structure.Selection;
+import bacmman.utils.FileIO;
+import bacmman.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Selection DAO of the {@link SegmentLog} backend: each selection is stored as a json file.
+ * Selection files (.txt, .json, .csv) placed in the Selections folder are imported at first access.
+ * @author Jean Ollion
+ */
+public class SegmentLogSelectionDAO implements SelectionDAO {
+    static final Logger logger = LoggerFactory.getLogger(SegmentLogSelectionDAO.class);
+    final Path dir, storeDir;
+    final MasterDAO<?, ?> mDAO;
+    protected final Map<String, Selection> nameCache = new HashMap<>();
+    protected final boolean readOnly;
+
+    public SegmentLogSelectionDAO(MasterDAO<?, ?> mDAO, String dir, boolean readOnly) {
+        this.mDAO=mDAO;
+        this.dir = Paths.get(dir, "Selections");
+        this.storeDir = this.dir.resolve("segment_log");
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.readOnly=readOnly;
+    }
+
+    protected File getFile(String name) {
+        return storeDir.resolve(name + ".json").toFile();
+    }
+
+    private void retrieveAllSelections() {
+        nameCache.clear();
+        File[] stored = storeDir.toFile().listFiles((f, n) -> n.endsWith(".json"));
+        if (stored != null) {
+            for (File f : stored) {
+                try {
+                    for (Selection s : SelectionDAO.readJSON(f)) {
+                        s.setMasterDAO(mDAO);
+                        nameCache.put(s.getName(), s);
+                    }
+                } catch (IOException e) {
+                    logger.error("Error reading selection file: "+f, e);
+                }
+            }
+        }
+        // local files
+        File[] files = dir.toFile().listFiles((f, n)-> n.endsWith(".txt")||n.endsWith(".json")||n.endsWith(".csv"));
+        if (files == null) return;
+        for (File f : files) {
+            List<Selection> sels;
+            try {
+                sels = SelectionDAO.readFile(f);
+            } catch (IOException e) {
+                logger.error("Error reading selection file: "+f, e);
+                continue;
+            }
+            for (Selection s : sels) {
+                if (nameCache.containsKey(s.getName())) logger.info("Selection: {} found in file: {} will overwrite existing selection", s.getName(), f.getAbsolutePath());
+                s.setMasterDAO(mDAO);
+                nameCache.put(s.getName(), s);
+                if (!readOnly) write(s);
+            }
+            if (!readOnly) f.delete();
+        }
+    }
+
+    protected void write(Selection s) {
+        if (!Files.exists(storeDir)) {
+            try {
+                Files.createDirectories(storeDir);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        FileIO.writeToFile(getFile(s.getName()).getAbsolutePath(), Collections.singletonList(s), ss -> ss.toJSONEntry().toJSONString());
+    }
+
+    @Override
+    public synchronized Selection getOrCreate(String name, boolean clearIfExisting) {
+        if (nameCache.isEmpty()) retrieveAllSelections();
+        Selection res = nameCache.get(name);
+        if (res==null) {
+            res = new Selection(name, mDAO);
+            nameCache.put(name, res);
+            if (!readOnly) write(res);
+        } else if (clearIfExisting) {
+            res.clear();
+            if (!readOnly) write(res);
+        }
+        return res;
+    }
+
+    @Override
+    public synchronized List<Selection> getSelections() {
+        retrieveAllSelections();
+        return nameCache.values().stream().sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized void clearSelectionCache(String... positions) {
+        nameCache.values().forEach(s -> s.freeMemoryForPositions(positions));
+    }
+
+    @Override
+    public synchronized void store(Selection s) {
+        nameCache.put(s.getName(), s);
+        s.setMasterDAO(this.mDAO);
+        if (readOnly) {
+            logger.warn("Cannot store selection: {} for dataset: {} in read only mode. ", s, dir);
+            return;
+        }
+        write(s);
+    }
+
+    @Override
+    public synchronized void delete(String name) {
+        nameCache.remove(name);
+        if (readOnly) return;
+        getFile(name).delete();
+    }
+
+    @Override
+    public synchronized void delete(Selection o) {
+        delete(o.getName());
+    }
+
+    @Override
+    public synchronized boolean contains(String name) {
+        if (nameCache.isEmpty()) retrieveAllSelections();
+        return nameCache.get(name)!=null;
+    }
+
+    @Override
+    public synchronized void deleteAllObjects() {
+        nameCache.clear();
+        if (readOnly) return;
+        Utils.deleteDirectory(storeDir.toFile());
+    }
+
+    @Override
+    public synchronized void erase() {
+        clearCache();
+        if (readOnly) return;
+        Utils.deleteDirectory(storeDir.toFile());
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public synchronized void clearCache() {
+        this.nameCache.clear();
+    }
+}
@@ -75,6 +75,7 @@ public interface SelectionDAO {
         int selNameIdx = header.indexOf("SelectionName");
         if (posIdx < 0 || ocIdx < 0 || indicesIdx < 0 || selNameIdx < 0 ) throw new IOException("Invalid header");
         Map<String, Selection> selectionMap = new HashMapGetCreate.HashMapGetCreateRedirected<>(n -> new Selection(n, null));
+        Map<Selection, Map<String, List<String>>> indicesMap = new HashMapGetCreate.HashMapGetCreateRedirected<>(s -> new HashMapGetCreate.HashMapGetCreateRedirected<>(new HashMapGetCreate.ListFactory<>()));
         for (String l : lines) {
             String[] attr = l.split(";");
             Selection s = selectionMap.get(attr[selNameIdx]);
@@ -84,10 +85,11 @@ public interface SelectionDAO {
             } catch (NumberFormatException e) {
                 throw new IOException(e);
             }
-            if (s.isEmpty()) s.setObjectClassIdx(oc);
+            if (!indicesMap.containsKey(s)) s.setObjectClassIdx(oc);
             else if (s.getObjectClassIdx() != oc) throw new IOException("Several object classes in selection" + s.getName());
-            s.addElementString(attr[posIdx], attr[indicesIdx]);
+            indicesMap.get(s).get(attr[posIdx]).add(attr[indicesIdx]);
         }
+        indicesMap.forEach((s, indicesByPosition) -> indicesByPosition.forEach(s::addElementStrings)); // bulk insertion
         return new ArrayList<>(selectionMap.values());
     };
 
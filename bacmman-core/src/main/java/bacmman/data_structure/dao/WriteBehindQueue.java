@@ -0,0 +1,167 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind queue: submitted elements are written in background, in submission order and by batches.
+ * Elements should be immutable snapshots (e.g. encoded on the submitting thread), as they are written after {@link #submit(Collection)} returns.
+ * Elements with the same key submitted again before being written are only written once, with the last submitted value (coalescing). Submission blocks while more than {@code capacity} elements are pending.
+ * All queues share a single long-lived writer thread. Once no element is pending, {@code releaseResources} is run on the writer thread (e.g. to release thread-bound resources of the DAO).
+ * Errors that occur while writing are rethrown to the thread that submitted the elements, at its next call to {@link #submit(Collection)} or {@link #flush()}.
+ * @param <T> type of elements
+ * @author Jean Ollion
+ */
+public class WriteBehindQueue<T> {
+    static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+    public static boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("bacmman.dao.writeBehind")); // used by DAOs for measurements
+    public static int DEFAULT_CAPACITY = 100000;
+    static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "WriteBehind");
+        t.setDaemon(true);
+        return t;
+    });
+    final String name;
+    final Consumer<List<T>> writer;
+    final Function<T, ?> key;
+    final Runnable releaseResources;
+    final int capacity;
+    final LinkedHashMap<Object, Pending<T>> pending = new LinkedHashMap<>();
+    final Map<Thread, Throwable> errors = new WeakHashMap<>(); // by submitting thread
+    boolean scheduled; // true while elements are pending or being written
+
+    static class Pending<T> {
+        final T element;
+        final Thread submitter;
+        Pending(T element, Thread submitter) {
+            this.element = element;
+            this.submitter = submitter;
+        }
+    }
+
+    /**
+     * @param name name used in logs and errors
+     * @param writer writes a batch of elements, called on the writer thread
+     * @param key elements with equal keys are coalesced
+     * @param releaseResources run on the writer thread once no element is pending. Can be null
+     * @param capacity maximum number of pending elements
+     */
+    public WriteBehindQueue(String name, Consumer<List<T>> writer, Function<T, ?> key, Runnable releaseResources, int capacity) {
+        this.name = name;
+        this.writer = writer;
+        this.key = key;
+        this.releaseResources = releaseResources;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Queues {@code elements} for writing
+     * @throws RuntimeException if an error occurred while writing elements previously submitted by the calling thread
+     */
+    public synchronized void submit(Collection<T> elements) {
+        throwErrors();
+        if (elements.isEmpty()) return;
+        try {
+            while (pending.size() >= capacity) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Thread submitter = Thread.currentThread();
+        for (T e : elements) pending.put(key.apply(e), new Pending<>(e, submitter)); // already pending keys keep their position
+        if (!scheduled) {
+            scheduled = true;
+            WRITER.execute(this::drain);
+        }
+    }
+
+    /**
+     * Blocks until all submitted elements are written
+     * @throws RuntimeException if an error occurred while writing elements submitted by the calling thread
+     */
+    public synchronized void flush() {
+        await();
+        throwErrors();
+    }
+
+    /**
+     * Blocks until all submitted elements are written. Does not throw write errors, so that it can be used while releasing resources
+     */
+    public synchronized void await() {
+        try {
+            while (scheduled) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected synchronized void throwErrors() {
+        Throwable t = errors.remove(Thread.currentThread());
+        if (t != null) throw new RuntimeException("Error while writing: "+name, t);
+    }
+
+    protected void drain() {
+        while (true) {
+            List<Pending<T>> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    scheduled = false;
+                    notifyAll();
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+                notifyAll(); // release blocked submissions
+            }
+            try {
+                writer.accept(batch.stream().map(p -> p.element).collect(Collectors.toList()));
+            } catch (Throwable t) {
+                logger.error("Error while writing: "+name, t);
+                synchronized (this) {
+                    batch.stream().map(p -> p.submitter).distinct().forEach(s -> errors.merge(s, t, (t1, t2) -> {
+                        t1.addSuppressed(t2);
+                        return t1;
+                    }));
+                }
+            } finally {
+                boolean idle;
+                synchronized (this) {
+                    idle = pending.isEmpty();
+                }
+                if (idle && releaseResources != null) { // released before flush() returns
+                    try {
+                        releaseResources.run();
+                    } catch (Throwable t) {
+                        logger.error("Error while releasing resources: "+name, t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure.region_container;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.image.SimpleBoundingBox;
+import bacmman.utils.JSONUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Region container that only holds the bounds of the region: the encoded region is decoded by the actual container at the first call to {@link #getRegion()}.
+ * Allows to retrieve objects without decoding their regions, as many operations only need frame, bounds, links and measurements
+ * @author Jean Ollion
+ */
+public class RegionContainerLazy extends RegionContainer {
+    Supplier<Map> jsonSupplier;
+    volatile RegionContainer container;
+
+    /**
+     * @param bounds bounds of the region
+     * @param is2D whether the region is 2D
+     * @param jsonSupplier supplies the JSON representation of the region container. Released once the region is decoded.
+     */
+    public RegionContainerLazy(SegmentedObject segmentedObject, SimpleBoundingBox bounds, boolean is2D, Supplier<Map> jsonSupplier) {
+        super(bounds, is2D);
+        this.segmentedObject = segmentedObject;
+        this.jsonSupplier = jsonSupplier;
+    }
+
+    /**
+     * @param json JSON representation of the region container, only read for bounds until the region is needed
+     */
+    public RegionContainerLazy(SegmentedObject segmentedObject, Map json) {
+        this.segmentedObject = segmentedObject;
+        initFromJSON(json);
+    }
+
+    /**
+     * @param json JSON representation of the region container. Only bounds are parsed: the rest of the string is parsed when the region is needed
+     */
+    public RegionContainerLazy(SegmentedObject segmentedObject, String json) {
+        this.segmentedObject = segmentedObject;
+        int[] bounds = JSONUtils.findTopLevelValue(json, "bounds");
+        if (bounds == null) { // unexpected format: parse all
+            initFromJSON(parse(json));
+            return;
+        }
+        int[] is2D = JSONUtils.findTopLevelValue(json, "is2D");
+        JSONObject header = new JSONObject();
+        try {
+            header.put("bounds", JSONUtils.parseJSON(json.substring(bounds[0], bounds[1])));
+        } catch (ParseException e) {
+            throw new RuntimeException(e);
+        }
+        if (is2D != null) header.put("is2D", Boolean.parseBoolean(json.substring(is2D[0], is2D[1])));
+        super.initFromJSON(header);
+        this.jsonSupplier = () -> parse(json);
+    }
+
+    static JSONObject parse(String json) {
+        try {
+            return JSONUtils.parse(json);
+        } catch (ParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean isDecoded() {
+        return container != null;
+    }
+
+    /**
+     * @return the actual region container, decoded at first call
+     */
+    public RegionContainer getContainer() {
+        if (container == null) {
+            synchronized (this) {
+                if (container == null) {
+                    container = RegionContainer.createFromJSON(segmentedObject, jsonSupplier.get());
+                    jsonSupplier = null;
+                }
+            }
+        }
+        return container;
+    }
+
+    @Override
+    public void setSegmentedObject(SegmentedObject segmentedObject) {
+        super.setSegmentedObject(segmentedObject);
+        if (container != null) container.setSegmentedObject(segmentedObject);
+    }
+
+    @Override
+    public SimpleBoundingBox getBounds() {
+        if (container != null) return container.getBounds();
+        return super.getBounds();
+    }
+
+    @Override
+    public boolean is2D() {
+        if (container != null) return container.is2D();
+        return super.is2D();
+    }
+
+    @Override
+    public Region getRegion() {
+        return getContainer().getRegion();
+    }
+
+    @Override
+    public void update() {
+        getContainer().update();
+    }
+
+    /**
+     * Only bounds are read: the region is decoded from {@param json} at the first call to {@link #getRegion()}
+     * @param json JSON representation of the region container
+     */
+    @Override
+    public void initFromJSON(Map<String, Object> json) {
+        super.initFromJSON(json);
+        synchronized (this) {
+            container = null;
+            jsonSupplier = () -> json;
+        }
+    }
+
+    @Override
+    public JSONObject toJSON() {
+        if (container == null) {
+            Supplier<Map> supplier = jsonSupplier;
+            if (supplier != null) {
+                Map json = supplier.get();
+                if (json instanceof JSONObject) return (JSONObject) json;
+            }
+        }
+        return getContainer().toJSON();
+    }
+}
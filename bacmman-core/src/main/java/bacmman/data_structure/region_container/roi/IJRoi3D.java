@@ -183,6 +183,31 @@ public class IJRoi3D extends HashMap<Integer, Roi> implements ObjectRoi<IJRoi3D>
         return res;
     }
 
+    @Override
+    public long estimateSizeInBytes() {
+        long res = 64;
+        for (Roi r : values()) res += 48 + estimateSizeInBytes(r);
+        return res;
+    }
+
+    /**
+     * Rough estimation of the memory footprint of an ImageJ ROI: object overhead + coordinates for polygons, pixels for images, bounds perimeter for shapes
+     * @param roi
+     * @return estimated size in bytes
+     */
+    public static long estimateSizeInBytes(Roi roi) {
+        long res = 256;
+        if (roi instanceof PolygonRoi) res += 24L * ((PolygonRoi)roi).getNCoordinates(); // integer + float coordinates
+        else if (roi instanceof ImageRoi) {
+            ImageProcessor ip = ((ImageRoi)roi).getProcessor();
+            if (ip != null) res += 4L * ip.getWidth() * ip.getHeight();
+        } else if (roi instanceof ShapeRoi) {
+            Rectangle bds = roi.getBounds();
+            res += 16L * 2 * (bds.width + bds.height);
+        }
+        return res;
+    }
+
     public IJRoi3D duplicateZ(int z) {
         IJRoi3D res = new IJRoi3D(1).setIs2D(true).setFrame(frame).setLocDelta(locdx, locdy);
         res.put(0, (Roi)get(z).clone());
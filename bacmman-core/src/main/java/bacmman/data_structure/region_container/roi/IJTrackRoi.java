@@ -118,6 +118,16 @@ public class IJTrackRoi implements TrackRoi {
         }
         return this;
     }
+    @Override
+    public long estimateSizeInBytes() {
+        long res = 128;
+        for (Roi r : objects) res += IJRoi3D.estimateSizeInBytes(r);
+        for (Roi r : links) res += IJRoi3D.estimateSizeInBytes(r);
+        for (Roi r : flags) res += IJRoi3D.estimateSizeInBytes(r);
+        res += 64L * positionZT.size();
+        for (IJTrackRoi dup : sliceDuplicates.values()) res += dup.estimateSizeInBytes();
+        return res;
+    }
     public IJTrackRoi setIs2D(boolean is2D) {this.is2D=is2D; return this;}
     public IJTrackRoi duplicateForZ(int z) {
         if (!sliceDuplicates.containsKey(z)) {
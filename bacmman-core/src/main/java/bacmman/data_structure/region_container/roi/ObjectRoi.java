@@ -6,4 +6,8 @@ public interface ObjectRoi<O extends ObjectRoi<O>> {
     void setColor(Color color, boolean fill);
     void setStrokeWidth(double strokeWidth);
     O duplicate();
+    /**
+     * @return rough estimation of the memory footprint of this ROI, used to bound ROI caches
+     */
+    long estimateSizeInBytes();
 }
@@ -7,5 +7,8 @@ import java.awt.*;
 public interface TrackRoi {
     Structure.TRACK_DISPLAY getDisplayType();
     void setColor(Color color, double edgeOpacity, double fillOpacity, double arrowOpacity);
-
+    /**
+     * @return rough estimation of the memory footprint of this ROI, used to bound ROI caches
+     */
+    long estimateSizeInBytes();
 }
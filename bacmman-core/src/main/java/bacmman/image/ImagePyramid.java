@@ -0,0 +1,159 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.image;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Downsampled versions of the planes of a 5D image: planes of level l are reduced by a factor 2^l along X and Y (block average).
+ * Planes are persisted through a {@link Store} (e.g. next to pre-processed images, see {@link bacmman.data_structure.dao.ImageDAO#openPyramidPlane}) when full resolution planes are decoded, so that later displays at a coarser level do not require decoding full resolution planes.
+ * @author Jean Ollion
+ */
+public class ImagePyramid {
+    public final static Logger logger = LoggerFactory.getLogger(ImagePyramid.class);
+    public static int MIN_SIZE = 64; // smallest dimension of the coarsest level
+    final int sizeX, sizeY, maxLevel;
+    final Store store;
+    final boolean[] storedLevels;
+
+    public interface Store {
+        /**
+         * @return stored plane or null if the plane has not been stored
+         */
+        Image read(int level, int f, int c, int z) throws IOException;
+        void write(Image plane, int level, int f, int c, int z) throws IOException;
+        /**
+         * @return whether the plane has been stored
+         */
+        boolean contains(int level, int f, int c, int z);
+        /**
+         * @return whether at least one plane of level {@param level} has been stored
+         */
+        boolean contains(int level);
+    }
+
+    /**
+     *
+     * @param sizeX size along X of full resolution planes
+     * @param sizeY size along Y of full resolution planes
+     * @param store persistence of downsampled planes
+     */
+    public ImagePyramid(int sizeX, int sizeY, Store store) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.store = store;
+        int l = 0;
+        while (Math.min(sizeX, sizeY) >> (l + 1) >= MIN_SIZE) ++l;
+        this.maxLevel = l;
+        this.storedLevels = new boolean[l + 1];
+        this.storedLevels[0] = true;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * @param magnification display magnification (e.g. zoom level of an ImageJ canvas)
+     * @return coarsest level whose resolution is at least the display resolution
+     */
+    public int getLevel(double magnification) {
+        if (magnification >= 0.5 || maxLevel == 0) return 0;
+        int level = (int)Math.floor(Math.log(1 / magnification) / Math.log(2) + 1e-6);
+        return Math.min(level, maxLevel);
+    }
+
+    /**
+     * @param magnification display magnification
+     * @return coarsest stored level whose resolution is at least the display resolution, 0 if no such level has been stored
+     */
+    public int getStoredLevel(double magnification) {
+        int level = getLevel(magnification);
+        while (level > 0 && !isStored(level)) --level;
+        return level;
+    }
+
+    protected boolean isStored(int level) {
+        if (!storedLevels[level]) storedLevels[level] = store.contains(level); // levels are only added while the image is displayed
+        return storedLevels[level];
+    }
+
+    public int getSizeX(int level) {
+        return Math.max(1, sizeX >> level);
+    }
+
+    public int getSizeY(int level) {
+        return Math.max(1, sizeY >> level);
+    }
+
+    /**
+     * @return stored plane, or null if the plane has not been stored or could not be read
+     */
+    public Image getPlane(int level, int f, int c, int z) {
+        try {
+            return store.read(level, f, c, z);
+        } catch (IOException e) {
+            logger.debug("could not read pyramid plane: level={} f={} c={} z={}: {}", level, f, c, z, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the downsampled versions of {@param plane} that have not been stored yet
+     * @param plane full resolution plane
+     */
+    public void persist(Image plane, int f, int c, int z) {
+        for (int level = 1; level <= maxLevel; ++level) {
+            if (store.contains(level, f, c, z)) continue;
+            try {
+                store.write(downsample(plane, 1 << level), level, f, c, z);
+                storedLevels[level] = true;
+            } catch (IOException e) {
+                logger.debug("could not write pyramid plane: level={} f={} c={} z={}: {}", level, f, c, z, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reduces the size of a plane along X and Y by averaging blocks of {@param factor} x {@param factor} pixels. Partial blocks at the borders are ignored.
+     * @param plane 2D image
+     * @param factor downsampling factor
+     * @return downsampled plane of the same type as {@param plane}
+     */
+    public static <I extends Image<I>> I downsample(Image<I> plane, int factor) {
+        int sX = Math.max(1, plane.sizeX() / factor), sY = Math.max(1, plane.sizeY() / factor);
+        int fX = Math.min(factor, plane.sizeX()), fY = Math.min(factor, plane.sizeY());
+        I res = Image.createEmptyImage(plane.getName(), plane, new SimpleImageProperties(sX, sY, 1, plane.getScaleXY() * factor, plane.getScaleZ()));
+        double norm = 1. / (fX * fY);
+        boolean round = !plane.floatingPoint();
+        for (int y = 0; y < sY; ++y) {
+            for (int x = 0; x < sX; ++x) {
+                double sum = 0;
+                for (int dy = 0; dy < fY; ++dy) {
+                    for (int dx = 0; dx < fX; ++dx) sum += plane.getPixel(x * factor + dx, y * factor + dy, 0);
+                }
+                res.setPixel(x, y, 0, round ? Math.round(sum * norm) : sum * norm);
+            }
+        }
+        return res;
+    }
+}
@@ -53,6 +53,12 @@ public abstract class LazyImage5D<I extends Image<I>> extends Image<I> {
     public abstract boolean isImageOpen(int f, int c);
 
     public abstract I getImage(int f, int c, int z);
+
+    /**
+     * Releases plane (f, c, z) so that memory can be reclaimed: it will be generated again at next call to getImage. Default implementation does nothing.
+     */
+    public void freeImage(int f, int c, int z) {}
+
     public abstract I getImage(int f, int c);
 
     public void setChannelNames(String[] channelNames) {
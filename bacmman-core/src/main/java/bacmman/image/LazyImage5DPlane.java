@@ -12,6 +12,7 @@ import java.util.stream.IntStream;
 public class LazyImage5DPlane<I extends Image<I>> extends LazyImage5D<I> {
     I[][][] imageFCZ;
     final Function<int[], I> generatorFCZ;
+    final Object[] locks = IntStream.range(0, 32).mapToObj(i -> new Object()).toArray(); // planes are generated concurrently, with one lock per stripe of planes
     // GENERATOR GENERATES 2D IMAGES (EVEN IF Z>1)
     // IN CASE SOME CHANNELS ARE 2D AND OTHER 3D, GENERATOR IS RESPONSIBLE FOR REPEATING SLICE
     public LazyImage5DPlane(String name, I targetImageType, Function<int[], Image> generatorFCZ, int[] sizeFCZ) {
@@ -108,7 +109,7 @@ public class LazyImage5DPlane<I extends Image<I>> extends LazyImage5D<I> {
     public I getImage(int f, int c, int z) {
         if (imageFCZ.length == 1) f=0; // single frame
         if (imageFCZ[f][c][z] == null) {
-            synchronized (this) {
+            synchronized (locks[((f * imageFCZ[0].length + c) * imageFCZ[0][0].length + z) % locks.length]) {
                 if (imageFCZ[f][c][z] == null) {
                     imageFCZ[f][c][z] = generatorFCZ.apply(new int[]{f, c, z});
                     if (!imageFCZ[f][c][z].sameDimensions(getImage(0, 0, 0))) throw new RuntimeException("Plane : f="+f+" c="+c+" z="+z+" have dimensions that differ from stack");
@@ -118,6 +119,13 @@ public class LazyImage5DPlane<I extends Image<I>> extends LazyImage5D<I> {
         return imageFCZ[f][c][z];
     }
     
+    @Override
+    public void freeImage(int f, int c, int z) {
+        if (imageFCZ.length == 1) f=0; // single frame
+        if (f == 0 && c == 0 && z == 0) return; // reference plane
+        imageFCZ[f][c][z] = null;
+    }
+
     @Override
     public I getZPlane(int z) {
         return getImage(f, c, z);
@@ -134,6 +134,15 @@ public class LazyImage5DStack<I extends Image<I>> extends LazyImage5D<I> {
         return imageFC[f][c];
     }
     
+    @Override
+    public void freeImage(int f, int c, int z) {
+        if (generatorFC == null) return; // images cannot be generated again
+        if (imageFC.length == 1) f=0; // single frame
+        if (f == 0 && c == 0) return; // reference image
+        I im = imageFC[f][c];
+        if (im != null && im.sizeZ() == 1) imageFC[f][c] = null; // stacks are only released as a whole, so only 2D images are released
+    }
+
     @Override public I getImage(int f, int c, int z) {
         I im = getImage(f, c);
         if (im.sizeZ()==1) return im;
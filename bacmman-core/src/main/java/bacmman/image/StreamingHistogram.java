@@ -0,0 +1,167 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.image;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+
+/**
+ * Mergeable histogram built in a single pass over a stream of images, so that partial histograms can be computed per thread and merged.
+ * 8-bit and 16-bit images are counted exactly (bin size 1).
+ * Other images are counted in a log-bucketed sketch (256 sub-buckets per power of two, i.e. a relative error lower than 0.4%) whose range adapts to the values, so that min and max need not be known in advance.
+ * The sketch is converted to a linear {@link Histogram} at the end.
+ * @author Jean Ollion
+ */
+public class StreamingHistogram {
+    final static int SHIFT = 44; // keeps sign, exponent and 8 most significant bits of the mantissa
+    final long[] counts; // exact mode
+    final Int2LongOpenHashMap buckets; // sketch mode
+    double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    long count;
+
+    protected StreamingHistogram(int exactBins) {
+        if (exactBins > 0) {
+            counts = new long[exactBins];
+            buckets = null;
+        } else {
+            counts = null;
+            buckets = new Int2LongOpenHashMap();
+        }
+    }
+
+    /**
+     * @param refImage image with the same type as the images that will be added
+     * @return empty histogram adapted to the type of {@param refImage}
+     */
+    public static StreamingHistogram create(Image refImage) {
+        if (!refImage.floatingPoint() && refImage.byteCount() == 1) return new StreamingHistogram(256);
+        if (!refImage.floatingPoint() && refImage.byteCount() == 2) return new StreamingHistogram(65536);
+        return new StreamingHistogram(0);
+    }
+
+    public boolean isExact() {
+        return counts != null;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public StreamingHistogram add(Image image) {
+        int sizeXY = image.sizeXY();
+        for (int z = 0; z < image.sizeZ(); ++z) {
+            for (int xy = 0; xy < sizeXY; ++xy) add(image.getPixel(xy, z));
+        }
+        return this;
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) return;
+        if (value < min) min = value;
+        if (value > max) max = value;
+        ++count;
+        if (counts != null) {
+            int idx = (int)value;
+            if (idx >= 0 && idx < counts.length) counts[idx]++;
+        } else buckets.addTo(bucket(value), 1);
+    }
+
+    /**
+     * Adds the values of {@param other} to this histogram. Both histograms must have been created from the same type of image
+     * @return this histogram
+     */
+    public StreamingHistogram merge(StreamingHistogram other) {
+        if (isExact() != other.isExact()) throw new IllegalArgumentException("Cannot merge exact and sketch histograms");
+        if (counts != null) {
+            for (int i = 0; i < counts.length; ++i) counts[i] += other.counts[i];
+        } else {
+            for (Int2LongMap.Entry e : other.buckets.int2LongEntrySet()) buckets.addTo(e.getIntKey(), e.getLongValue());
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+        return this;
+    }
+
+    static int bucket(double value) {
+        if (value == 0) return 0; // also -0
+        long bits = Double.doubleToRawLongBits(Math.abs(value));
+        int idx = (int)(bits >>> SHIFT) + 1;
+        return value < 0 ? -idx : idx;
+    }
+
+    static double bucketLowerBound(int bucket) {
+        if (bucket == 0) return 0;
+        int idx = Math.abs(bucket) - 1;
+        double lo = Double.longBitsToDouble((long)idx << SHIFT);
+        double hi = Double.longBitsToDouble((long)(idx + 1) << SHIFT);
+        return bucket > 0 ? lo : -hi;
+    }
+
+    static double bucketUpperBound(int bucket) {
+        if (bucket == 0) return 0;
+        int idx = Math.abs(bucket) - 1;
+        double lo = Double.longBitsToDouble((long)idx << SHIFT);
+        double hi = Double.longBitsToDouble((long)(idx + 1) << SHIFT);
+        return bucket > 0 ? hi : -lo;
+    }
+
+    /**
+     * @param nBins number of bins of the linear histogram in sketch mode. In exact mode bin size is 1
+     * @return linear histogram. In sketch mode, the range is [min; max] and the count of each sketch bucket is distributed uniformly over the bins it overlaps
+     */
+    public Histogram toHistogram(int nBins) {
+        if (counts != null) return new Histogram(counts.clone(), 1, 0);
+        if (count == 0) return new Histogram(new long[nBins], 1, 0);
+        double binSize = HistogramFactory.getBinSize(min, max, nBins);
+        long[] data = new long[nBins];
+        if (binSize <= 0) { // single value
+            data[0] = count;
+            return new Histogram(data, 1, min);
+        }
+        double coeff = 1 / binSize;
+        for (Int2LongMap.Entry e : buckets.int2LongEntrySet()) {
+            long n = e.getLongValue();
+            double lo = Math.max(min, bucketLowerBound(e.getIntKey()));
+            double hi = Math.min(max, bucketUpperBound(e.getIntKey()));
+            int b0 = binIdx(lo, coeff, nBins);
+            int b1 = binIdx(hi, coeff, nBins);
+            if (b0 == b1 || hi <= lo) {
+                data[b0] += n;
+                continue;
+            }
+            long assigned = 0;
+            double cumFrac = 0;
+            for (int b = b0; b <= b1; ++b) {
+                double binLo = min + b * binSize, binHi = binLo + binSize;
+                cumFrac += Math.max(0, Math.min(hi, binHi) - Math.max(lo, binLo)) / (hi - lo);
+                long target = b == b1 ? n : Math.min(n, Math.round(n * cumFrac));
+                data[b] += target - assigned;
+                assigned = target;
+            }
+        }
+        return new Histogram(data, binSize, min);
+    }
+
+    private int binIdx(double value, double coeff, int nBins) {
+        int idx = (int)((value - min) * coeff);
+        if (idx < 0) return 0;
+        return Math.min(idx, nBins - 1);
+    }
+}
@@ -41,6 +41,7 @@ import bacmman.image.ImageByte;
 import bacmman.image.ImageFloat;
 import bacmman.image.ImageInt;
 import bacmman.image.ImageShort;
+import bacmman.utils.Metrics;
 import bacmman.utils.Pair;
 
 import java.nio.file.Paths;
@@ -196,6 +197,12 @@ public class ImageReaderFile implements ImageReader {
     }
 
     public Image openImage(ImageIOCoordinates coords) throws IOException {
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.IMAGE_DECODE, extension==null ? "ImageReaderFile" : extension.name())) {
+            return readImage(coords);
+        }
+    }
+
+    protected Image readImage(ImageIOCoordinates coords) throws IOException {
         if (reader==null) {
             if (!imageExists()) throw new IOException("Image not found: "+getImagePath());
             else throw new IOException("Reader not initialized");
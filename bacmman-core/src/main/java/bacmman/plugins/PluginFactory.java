@@ -19,22 +19,17 @@
 package bacmman.plugins;
 
 import bacmman.core.Core;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.Vector;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
@@ -45,13 +40,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Registry of plugins by name.
+ * Plugins are listed from the index generated at build time by the plugin index annotation processor (resource {@link #INDEX} of each module): their classes are only loaded when first used.
+ * Classpath scanning is used as a fallback for directories and jars that do not contain an index (e.g. third-party jars).
  * @author Jean Ollion
  */
 public class PluginFactory {
-
-    private final static TreeMap<String, Class> PLUGIN_NAMES_MAP_CLASS = new TreeMap<>();
-    private final static Map<Class, String> CLASS_MAP_PLUGIN_NAME = new HashMap<>();
+    public final static String INDEX = "META-INF/bacmman/plugins.index";
+    private final static TreeMap<String, PluginEntry> PLUGIN_NAMES_MAP_CLASS = new TreeMap<>();
+    private final static Map<String, String> CLASS_MAP_PLUGIN_NAME = new HashMap<>(); // class name -> plugin name
     private final static Logger logger = LoggerFactory.getLogger(PluginFactory.class);
     private final static Map<String, String> OLD_NAMES_MAP_NEW = new HashMap<String, String>(){{put("BacteriaContourAdjustment", "ContourAdjustment"); put("ColocalizationData", "PixelData"); put("DistNet2DTraining", "DiSTNet2DTraining"); put("DistNet2D", "DiSTNet2D"); put("SpotDetector", "SpotSegmenterRS"); put("SpotSegmenterRS3D", "SpotSegmenterRS"); put("DistNet2Dv2", "DistNet2D"); put("ObjectIdxTracker", "ObjectOrderTracker"); put("DLObjetClassifier", "DLObjectClassifier"); put("UnetSegmenter", "ProbabilityMapSegmenter"); put("BacteriaEDM", "EDMCellSegmenter"); put("BinaryMax", "Dilate"); put("BorderContact", "EdgeContact"); put("StatisticsAtBorder", "ContourFeature"); put("RemoveDeadPixels", "RemoveHotPixels"); put("FitRegionsToEdges", "FitMicrochannelsToEdges");}};
     public static void importIJ1Plugins() {
@@ -93,40 +90,143 @@ public class PluginFactory {
         }
     }
     private static void addPlugin(String command, Class c) {
+        addPlugin(new PluginEntry(command, c));
+    }
+    private static synchronized void addPlugin(PluginEntry entry) {
+        String command = entry.name;
         if (command.length()==0 || command.equals(" ")) return;
         if (PLUGIN_NAMES_MAP_CLASS.containsKey(command)) {
-            Class otherC = PLUGIN_NAMES_MAP_CLASS.get(c.getSimpleName());
-            if (!otherC.equals(c)) {
-                logger.warn("Duplicate class name: {} & {} (command: {} simpleName: {})", otherC.getName(), c.getName(), command, c.getSimpleName());
-                Core.userLog("Duplicate class name: "+otherC.getName()+" & "+c.getName());
+            PluginEntry other = PLUGIN_NAMES_MAP_CLASS.get(command);
+            if (!other.className.equals(entry.className)) {
+                logger.warn("Duplicate class name: {} & {} (command: {})", other.className, entry.className, command);
+                Core.userLog("Duplicate class name: "+other.className+" & "+entry.className);
             }
         } else {
-            if (CLASS_MAP_PLUGIN_NAME.containsKey(c)) {
-                logger.warn("Duplicate command for class: {} -> {} & {}", c, command, CLASS_MAP_PLUGIN_NAME.get(c));
-                Core.userLog("Duplicate command for class: "+c+" -> "+command+" & "+CLASS_MAP_PLUGIN_NAME.get(c));
+            if (CLASS_MAP_PLUGIN_NAME.containsKey(entry.className)) {
+                logger.warn("Duplicate command for class: {} -> {} & {}", entry.className, command, CLASS_MAP_PLUGIN_NAME.get(entry.className));
+                Core.userLog("Duplicate command for class: "+entry.className+" -> "+command+" & "+CLASS_MAP_PLUGIN_NAME.get(entry.className));
             } else {
-                PLUGIN_NAMES_MAP_CLASS.put(command, c);
-                CLASS_MAP_PLUGIN_NAME.put(c, command);
+                PLUGIN_NAMES_MAP_CLASS.put(command, entry);
+                CLASS_MAP_PLUGIN_NAME.put(entry.className, command);
+            }
+        }
+    }
+
+    /**
+     * Plugin registered by name. The class of plugins listed from an index is loaded at first call to {@link #getPluginClass()}
+     */
+    private static class PluginEntry {
+        final String name, className;
+        final Set<String> supertypes; // null if class is loaded
+        final ClassLoader loader;
+        volatile Class pluginClass;
+        boolean loadError;
+        PluginEntry(String name, Class pluginClass) {
+            this.name = name;
+            this.className = pluginClass.getName();
+            this.pluginClass = pluginClass;
+            this.supertypes = null;
+            this.loader = null;
+        }
+        PluginEntry(String name, String className, Set<String> supertypes, ClassLoader loader) {
+            this.name = name;
+            this.className = className;
+            this.supertypes = supertypes;
+            this.loader = loader;
+        }
+        Class getPluginClass() {
+            if (pluginClass == null && !loadError) {
+                synchronized (this) {
+                    if (pluginClass == null && !loadError) {
+                        try {
+                            pluginClass = Class.forName(className, true, loader);
+                        } catch (ClassNotFoundException | LinkageError e) {
+                            loadError = true;
+                            logger.warn("Could not load plugin class: {} ({})", className, e.toString());
+                        }
+                    }
+                }
             }
+            return pluginClass;
+        }
+        boolean isAssignableTo(Class clazz) {
+            if (supertypes != null) return supertypes.contains(clazz.getName()) && !loadError;
+            return clazz.isAssignableFrom(pluginClass);
         }
     }
+
+    /**
+     * Removes all registered plugins
+     */
+    static synchronized void clear() {
+        PLUGIN_NAMES_MAP_CLASS.clear();
+        CLASS_MAP_PLUGIN_NAME.clear();
+    }
+
     public static void findPlugins(String packageName) {
         findPlugins(packageName, false);
     }
     public static void findPlugins(String packageName, boolean includeDev) {
         logger.info("looking for plugins in package: {}", packageName);
+        long t0 = System.currentTimeMillis();
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        Set<String> indexedRoots = new HashSet<>();
         try {
-            for (Class c : getClasses(packageName)) {
+            indexedRoots.addAll(readIndices(classLoader, packageName, includeDev));
+        } catch (IOException ex) {
+            logger.warn("error reading plugin indices", ex);
+        }
+        try {
+            for (Class c : getClasses(packageName, indexedRoots)) { // fallback: classpath elements without index
                 //logger.debug("inspecting class: {}", c);
-                if (Plugin.class.isAssignableFrom(c) && !Modifier.isAbstract( c.getModifiers()) && (includeDev || !DevPlugin.class.isAssignableFrom(c)) ) { // ne check pas l'heritage indirect!!
+                if (Plugin.class.isAssignableFrom(c) && !Modifier.isAbstract( c.getModifiers()) && Modifier.isPublic(c.getModifiers()) && (includeDev || !DevPlugin.class.isAssignableFrom(c)) ) { // ne check pas l'heritage indirect!!
                     addPlugin(c.getSimpleName(), c);
                 }
             }
         } catch (ClassNotFoundException | IOException ex) {
             logger.warn("find plugins", ex);
         }
-        logger.info("total plugins found #{}", PLUGIN_NAMES_MAP_CLASS.size());
+        logger.info("total plugins found #{} in {}ms (#indexed classpath elements: {})", PLUGIN_NAMES_MAP_CLASS.size(), System.currentTimeMillis()-t0, indexedRoots.size());
+    }
+
+    /**
+     * Registers plugins listed in the index files of the classpath
+     * @return classpath roots (directory or jar path) that contain an index, that do not need to be scanned
+     */
+    private static Set<String> readIndices(ClassLoader classLoader, String packageName, boolean includeDev) throws IOException {
+        Set<String> roots = new HashSet<>();
+        if (classLoader == null || Boolean.getBoolean("bacmman.plugins.scanClasspath")) return roots;
+        Enumeration<URL> indices = classLoader.getResources(INDEX);
+        while (indices.hasMoreElements()) {
+            URL index = indices.nextElement();
+            try (InputStream is = index.openStream(); BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] entry = line.split(";");
+                    if (entry.length < 4) continue;
+                    if (packageName!=null && !entry[0].startsWith(packageName)) continue;
+                    if (!includeDev && Boolean.parseBoolean(entry[2])) continue;
+                    addPlugin(new PluginEntry(entry[1], entry[0], new HashSet<>(Arrays.asList(entry[3].split(","))), classLoader));
+                }
+            }
+            roots.add(getClasspathRoot(index, INDEX));
+        }
+        return roots;
+    }
+
+    private static String getClasspathRoot(URL resource, String resourcePath) {
+        String p = resource.getPath();
+        if (p.contains("!")) {
+            p = p.substring(p.indexOf("file:")+5, p.indexOf("!"));
+            if (!Utils.isWindows()) p = p.replaceAll("%20", " ");
+            return p;
+        }
+        String f = resource.getFile();
+        if (f.endsWith("/")) f = f.substring(0, f.length()-1);
+        int i = f.lastIndexOf(resourcePath);
+        return new File(i>=0 ? f.substring(0, i) : f).getAbsolutePath();
     }
+
     private static Iterator list(ClassLoader CL) throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException {
         Class CL_class = CL.getClass();
         while (CL_class != java.lang.ClassLoader.class) {
@@ -140,6 +240,13 @@ public class PluginFactory {
 
     // from : http://www.dzone.com/snippets/get-all-classes-within-package
     public static List<Class> getClasses(String packageName) throws ClassNotFoundException, IOException {
+        return getClasses(packageName, Collections.emptySet());
+    }
+
+    /**
+     * @param excludedRoots classpath roots (directory or jar path) that are not scanned
+     */
+    public static List<Class> getClasses(String packageName, Set<String> excludedRoots) throws ClassNotFoundException, IOException {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
         if (classLoader == null) throw new RuntimeException("Cannot get classes with null class loader");
         if (packageName==null) { //look in classes that are already loaded
@@ -164,6 +271,7 @@ public class PluginFactory {
             List<String> pathToJars = new ArrayList<>();
             while (resources.hasMoreElements()) {
                 URL resource = resources.nextElement();
+                if (excludedRoots.contains(getClasspathRoot(resource, path))) continue; // indexed
                 String p = resource.getPath();
                 if (p.contains("!")) {
                     p = p.substring(p.indexOf("file:")+5, p.indexOf("!"));
@@ -255,7 +363,7 @@ public class PluginFactory {
             try {
                 Class c = loader.loadClass(className);
                 if (Plugin.class.isAssignableFrom(c)) {
-                    PLUGIN_NAMES_MAP_CLASS.put(command, c);
+                    addPlugin(command, c);
                 }
             } catch (ClassNotFoundException ex) {
                 logger.warn("test class IJ", ex);
@@ -275,7 +383,8 @@ public class PluginFactory {
         try {
             Object res = null;
             if (PLUGIN_NAMES_MAP_CLASS.containsKey(s)) {
-                res = PLUGIN_NAMES_MAP_CLASS.get(s).getDeclaredConstructor().newInstance();
+                Class c = PLUGIN_NAMES_MAP_CLASS.get(s).getPluginClass();
+                if (c != null) res = c.getDeclaredConstructor().newInstance();
             } else if (OLD_NAMES_MAP_NEW.containsKey(s)) return getPlugin(OLD_NAMES_MAP_NEW.get(s));
             
             if (res != null && res instanceof Plugin) {
@@ -286,17 +395,21 @@ public class PluginFactory {
         }
         return null;
     }
-    
+
+    private static PluginEntry getEntry(String pluginName) {
+        PluginEntry entry = PLUGIN_NAMES_MAP_CLASS.get(pluginName);
+        if (entry==null && OLD_NAMES_MAP_NEW.containsKey(pluginName)) entry = PLUGIN_NAMES_MAP_CLASS.get(OLD_NAMES_MAP_NEW.get(pluginName));
+        return entry;
+    }
+
     public static Class getPluginClass(String className) {
-        Class plugClass = PLUGIN_NAMES_MAP_CLASS.get(className);
-        if (plugClass==null && OLD_NAMES_MAP_NEW.containsKey(className)) plugClass = PLUGIN_NAMES_MAP_CLASS.get(OLD_NAMES_MAP_NEW.get(className));
-        return plugClass;
+        PluginEntry entry = getEntry(className);
+        return entry == null ? null : entry.getPluginClass();
     }
     public static <T extends Plugin> T getPlugin(Class<T> clazz, String pluginName) {
         if ("NO SELECTION".equals(pluginName)) return null;
         try {
-            Class<? extends T> plugClass = PLUGIN_NAMES_MAP_CLASS.get(pluginName);
-            if (plugClass==null && OLD_NAMES_MAP_NEW.containsKey(pluginName)) plugClass = PLUGIN_NAMES_MAP_CLASS.get(OLD_NAMES_MAP_NEW.get(pluginName));
+            Class<? extends T> plugClass = getPluginClass(pluginName);
             if (plugClass==null) {
                 logger.info("plugin: {} of class: {} not found", pluginName, clazz);
                 return null;
@@ -312,10 +425,10 @@ public class PluginFactory {
     }
 
     public static <T extends Plugin> List<String> getPluginNames(Class<T> clazz) {
-        return PLUGIN_NAMES_MAP_CLASS.entrySet().stream().filter((e) -> (clazz.isAssignableFrom(e.getValue()))).map(Map.Entry::getKey).sorted().collect(Collectors.toList());
+        return PLUGIN_NAMES_MAP_CLASS.entrySet().stream().filter((e) -> e.getValue().isAssignableTo(clazz)).map(Map.Entry::getKey).sorted().collect(Collectors.toList());
     }
     public static <T extends Plugin> String getPluginName(Class<T> clazz) {
-        return CLASS_MAP_PLUGIN_NAME.get(clazz);
+        return CLASS_MAP_PLUGIN_NAME.get(clazz.getName());
     }
     public static boolean checkClass(String clazz) {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
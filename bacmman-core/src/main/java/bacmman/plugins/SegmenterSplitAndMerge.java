@@ -46,4 +46,12 @@ public interface SegmenterSplitAndMerge extends Segmenter {
      * @return a value representing the cost of merging the objects, NaN if none of the objects are in contact. 
      */
     double computeMergeCost(Image input, SegmentedObject parent, int objectClassIdx, List<Region> objects);
+
+    /**
+     * 
+     * @return a cache that memoises split and merge evaluations of this segmenter
+     */
+    default SegmenterSplitAndMergeCache cached() {
+        return new SegmenterSplitAndMergeCache(this);
+    }
 }
@@ -0,0 +1,258 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.image.BoundingBox;
+import bacmman.image.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Memoises results of {@link SegmenterSplitAndMerge#split(Image, SegmentedObject, int, Region, List)} and {@link SegmenterSplitAndMerge#computeMergeCost(Image, SegmentedObject, int, List)} so that identical evaluations are computed only once.
+ * Results are keyed by parent object, frame, input image and a hash of the content of the regions (voxels and bounds), so that a region and its duplicate share the same entry.
+ * Size is bounded: least recently used entries are evicted. Entries of a parent are invalidated when the pre-filtered image of the parent changes.
+ * Calls are synchronized, so the segmenter (which is in general not thread-safe) is never called concurrently.
+ * @author Jean Ollion
+ */
+public class SegmenterSplitAndMergeCache {
+    public final static Logger logger = LoggerFactory.getLogger(SegmenterSplitAndMergeCache.class);
+    public static int DEFAULT_MAX_ENTRIES = 5000;
+    final SegmenterSplitAndMerge segmenter;
+    final int maxEntries;
+    final LinkedHashMap<Key, Object> cache;
+    final Map<Object, WeakReference<Image>> preFilteredImages = new HashMap<>();
+    private final static WeakReference<Image> NO_IMAGE = new WeakReference<>(null);
+    long hits, misses;
+
+    public SegmenterSplitAndMergeCache(SegmenterSplitAndMerge segmenter) {
+        this(segmenter, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     *
+     * @param segmenter segmenter whose results are cached
+     * @param maxEntries maximal number of cached split / merge results
+     */
+    public SegmenterSplitAndMergeCache(SegmenterSplitAndMerge segmenter, int maxEntries) {
+        this.segmenter = segmenter;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.cache = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > SegmenterSplitAndMergeCache.this.maxEntries;
+            }
+        };
+    }
+
+    public SegmenterSplitAndMerge getSegmenter() {
+        return segmenter;
+    }
+
+    /**
+     * Same as {@link SegmenterSplitAndMerge#split(Image, SegmentedObject, int, Region, List)}. Regions added to {@param result} are duplicated at each call so that they can be modified
+     */
+    public synchronized double split(Image input, SegmentedObject parent, int objectClassIdx, Region o, List<Region> result) {
+        checkPreFilteredImage(parent, objectClassIdx);
+        Key key = new Key(true, parent, objectClassIdx, input, Collections.singletonList(o));
+        SplitResult res = (SplitResult)cache.get(key);
+        if (res == null) {
+            ++misses;
+            List<Region> splitObjects = new ArrayList<>();
+            double cost = segmenter.split(input, parent, objectClassIdx, o, splitObjects);
+            res = new SplitResult(cost, splitObjects);
+            cache.put(key, res);
+        } else ++hits;
+        for (Region r : res.regions) result.add(r.duplicate());
+        return res.cost;
+    }
+
+    /**
+     * Same as {@link SegmenterSplitAndMerge#computeMergeCost(Image, SegmentedObject, int, List)}: objects not in contact with the first object are removed from {@param objects}
+     */
+    public synchronized double computeMergeCost(Image input, SegmentedObject parent, int objectClassIdx, List<Region> objects) {
+        checkPreFilteredImage(parent, objectClassIdx);
+        Key key = new Key(false, parent, objectClassIdx, input, objects);
+        MergeResult res = (MergeResult)cache.get(key);
+        if (res == null) {
+            ++misses;
+            List<Region> toMerge = new ArrayList<>(objects);
+            double cost = segmenter.computeMergeCost(input, parent, objectClassIdx, toMerge);
+            boolean[] retained = new boolean[objects.size()];
+            for (int i = 0; i<retained.length; ++i) retained[i] = toMerge.contains(objects.get(i));
+            res = new MergeResult(cost, retained);
+            cache.put(key, res);
+        } else ++hits;
+        if (objects.size() == res.retained.length) { // objects are removed in reverse order so that indices remain valid
+            for (int i = res.retained.length - 1; i>=0; --i) if (!res.retained[i]) objects.remove(i);
+        }
+        return res.cost;
+    }
+
+    /**
+     * Removes all entries of {@param parent} if its pre-filtered image has changed since last call
+     */
+    protected void checkPreFilteredImage(SegmentedObject parent, int objectClassIdx) {
+        Object parentKey = getParentKey(parent);
+        Image pf = parent.getPreFilteredImageIfSet(objectClassIdx);
+        WeakReference<Image> ref = preFilteredImages.get(parentKey);
+        if (ref != null && (pf == null ? ref == NO_IMAGE : ref.get() == pf)) return; // a collected image must not be taken for an erased one
+        if (ref != null) { // pre-filtered image has changed
+            int size = cache.size();
+            cache.keySet().removeIf(k -> k.parent.equals(parentKey));
+            if (size>cache.size()) logger.debug("pre-filtered image of {} has changed: {} cached entries removed", parent, size - cache.size());
+        }
+        preFilteredImages.put(parentKey, pf == null ? NO_IMAGE : new WeakReference<>(pf));
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        preFilteredImages.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    protected static Object getParentKey(SegmentedObject parent) {
+        return parent.getId() == null ? parent : parent.getId();
+    }
+
+    /**
+     * @return hash of the content of {@param r}, independent of the order in which voxels are visited
+     */
+    public static long contentHash(Region r) {
+        long[] sum = new long[1];
+        r.loop((x, y, z) -> sum[0] += mix(((long)x << 42) ^ ((long)y << 21) ^ z));
+        return sum[0];
+    }
+
+    private static long mix(long v) { // finalizer of splitmix64
+        v = (v ^ (v >>> 30)) * 0xbf58476d1ce4e5b9L;
+        v = (v ^ (v >>> 27)) * 0x94d049bb133111ebL;
+        return v ^ (v >>> 31);
+    }
+
+    static class SplitResult {
+        final double cost;
+        final List<Region> regions;
+        SplitResult(double cost, List<Region> regions) {
+            this.cost = cost;
+            this.regions = regions;
+        }
+    }
+
+    static class MergeResult {
+        final double cost;
+        final boolean[] retained;
+        MergeResult(double cost, boolean[] retained) {
+            this.cost = cost;
+            this.retained = retained;
+        }
+    }
+
+    static class Key {
+        final boolean split;
+        final Object parent;
+        final int frame, objectClassIdx;
+        final int[] input; // dimensions and offset
+        final WeakReference<Object>[] planes; // pixel arrays of the input, compared by reference: arrays are not retained by the cache
+        final long[] regions; // for each region: content hash, bounds, landmark
+        final int hash;
+
+        Key(boolean split, SegmentedObject parent, int objectClassIdx, Image input, List<Region> regions) {
+            this.split = split;
+            this.parent = getParentKey(parent);
+            this.frame = parent.getFrame();
+            this.objectClassIdx = objectClassIdx;
+            int planeHash = 1;
+            if (input == null) {
+                this.input = new int[0];
+                this.planes = new WeakReference[0];
+            } else {
+                this.input = new int[]{input.sizeX(), input.sizeY(), input.sizeZ(), input.xMin(), input.yMin(), input.zMin()};
+                Object[] planes = input.getPixelArray();
+                this.planes = new WeakReference[planes.length];
+                for (int i = 0; i<planes.length; ++i) {
+                    this.planes[i] = new WeakReference<>(planes[i]);
+                    planeHash = 31 * planeHash + System.identityHashCode(planes[i]);
+                }
+            }
+            this.regions = new long[regions.size() * 8];
+            for (int i = 0; i<regions.size(); ++i) {
+                Region r = regions.get(i);
+                BoundingBox b = r.getBounds();
+                int off = i * 8;
+                this.regions[off] = contentHash(r);
+                this.regions[off+1] = b.xMin();
+                this.regions[off+2] = b.xMax();
+                this.regions[off+3] = b.yMin();
+                this.regions[off+4] = b.yMax();
+                this.regions[off+5] = b.zMin();
+                this.regions[off+6] = b.zMax();
+                this.regions[off+7] = (r.isAbsoluteLandMark() ? 1 : 0) + (r.is2D() ? 2 : 0);
+            }
+            int h = Boolean.hashCode(split);
+            h = 31 * h + this.parent.hashCode();
+            h = 31 * h + frame;
+            h = 31 * h + objectClassIdx;
+            h = 31 * h + Arrays.hashCode(this.input);
+            h = 31 * h + planeHash;
+            h = 31 * h + Arrays.hashCode(this.regions);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && split == other.split && frame == other.frame && objectClassIdx == other.objectClassIdx && parent.equals(other.parent) && Arrays.equals(input, other.input) && samePlanes(other) && Arrays.equals(regions, other.regions);
+        }
+
+        /**
+         * @return whether both keys reference the same pixel arrays. A collected array matches no other array
+         */
+        boolean samePlanes(Key other) {
+            if (planes.length != other.planes.length) return false;
+            for (int i = 0; i<planes.length; ++i) {
+                Object p = planes[i].get();
+                if (p == null || p != other.planes[i].get()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
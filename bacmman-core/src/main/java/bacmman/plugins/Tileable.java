@@ -0,0 +1,33 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins;
+
+import bacmman.image.Image;
+
+/**
+ * Image processing plugin whose result at a given pixel only depends on a bounded neighborhood: a large image can be processed as tiles extended by a halo, concurrently
+ * @author Jean Ollion
+ */
+public interface Tileable {
+    /**
+     * @param input image to be processed
+     * @return radius (in pixels, along X and Y axes) of the neighborhood the result at a given pixel depends on, or a negative value if the current configuration cannot be run on tiles
+     */
+    int getTileHalo(Image input);
+}
@@ -0,0 +1,49 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins;
+
+import bacmman.data_structure.RegionPopulation;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.image.Image;
+import bacmman.image.ImageMask;
+
+/**
+ * Segmenter that can be run on tiles of a large image, see {@link bacmman.processing.TiledProcessing}.
+ * Labels of each tile are stitched across tile borders, so a region must be entirely contained in the tile and its halo to be segmented as on the whole image
+ * @author Jean Ollion
+ */
+public interface TileableSegmenter extends Segmenter, Tileable {
+    /**
+     * Called once on the whole image before segmentation of tiles: computes parameters that must not be estimated independently on each tile (e.g. thresholds)
+     * @param input whole image
+     * @param objectClassIdx
+     * @param parent
+     */
+    void initTiledSegmentation(Image input, int objectClassIdx, SegmentedObject parent);
+
+    /**
+     * Segments a tile. Called concurrently on several tiles after {@link #initTiledSegmentation(Image, int, SegmentedObject)}
+     * @param tile crop of the image, extended by the halo
+     * @param tileMask crop of the parent mask, same bounds as {@param tile}
+     * @param objectClassIdx
+     * @param parent
+     * @return segmented regions, in the same landmark as {@link #runSegmenter(Image, int, SegmentedObject)}, relative to {@param tile}
+     */
+    RegionPopulation runSegmenterOnTile(Image tile, ImageMask tileMask, int objectClassIdx, SegmentedObject parent);
+}
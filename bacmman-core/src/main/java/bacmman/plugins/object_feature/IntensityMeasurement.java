@@ -99,6 +99,7 @@ public abstract class IntensityMeasurement extends SimpleObjectFeature implement
             if (core==null) {
                 core = new IntensityMeasurementCore().limitToZ(z);
                 core.setUp(intensityMap, filters==null ? null : filters.apply(intensityMap, parent.getMask()));
+                if (requiresQuantiles()) core.retainValues();
             }
             if (availableCores!=null) availableCores.put(intensityMap, z, core);
         } else core=existingCore;
@@ -21,6 +21,7 @@ package bacmman.plugins.object_feature;
 import bacmman.data_structure.Region;
 import bacmman.image.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.DoubleStream;
@@ -53,6 +54,7 @@ public class IntensityMeasurementCore {
     }
 
     int z = -1;
+    boolean retainValues;
     protected int getZ() {return z;}
     public IntensityMeasurementCore limitToZ(int z) {
         this.z = z;
@@ -61,6 +63,16 @@ public class IntensityMeasurementCore {
     public int getZPlane() {
         return z;
     }
+
+    /**
+     * Voxel values are kept when the statistics of a region are computed so that quantiles can be obtained without another pass over the region. Only applies to regions smaller than {@link #sizeLimitMedian}, quantiles of larger regions are estimated from a histogram.
+     * Should be called before the first call to {@link #getIntensityMeasurements(Region)}
+     * @return this core
+     */
+    public IntensityMeasurementCore retainValues() {
+        this.retainValues = true;
+        return this;
+    }
     public void setUp(Image intensityMap, Image transformedMap) {
         this.intensityMap=intensityMap;    
         if (transformedMap==null) this.transformedMap=intensityMap;
@@ -77,6 +89,8 @@ public class IntensityMeasurementCore {
     public class IntensityMeasurements {
         public double mean=Double.NaN, sd=Double.NaN, min=Double.NaN, max=Double.NaN, valueAtCenter=Double.NaN, median=Double.NaN, count=Double.NaN;
         Region o;
+        double[] values; // retained values, released once sorted
+        double[] sortedValues;
         
         public IntensityMeasurements(Region o) {
             this.o=o;
@@ -85,7 +99,11 @@ public class IntensityMeasurementCore {
                 return;
             }
             if (!o.getBounds().isValid()) throw new RuntimeException("invalid bounds");
-            DoubleStatistics stats = DoubleStatistics.getStats(stream());
+            DoubleStatistics stats;
+            if (retainValues && o.getBounds().volume() <= sizeLimitMedian) { // single pass over the region: statistics and quantiles are computed from the retained values
+                values = stream().toArray();
+                stats = DoubleStatistics.getStats(Arrays.stream(values));
+            } else stats = DoubleStatistics.getStats(stream());
             mean = stats.getAverage();
             sd = stats.getStandardDeviation();
             min = stats.getMin();
@@ -120,14 +138,52 @@ public class IntensityMeasurementCore {
                     Histogram h = HistogramFactory.getHistogram(this::stream);
                     if (h.count() >= sizeLimitMedian/2 ) this.median = h.getQuantiles(0.5)[0];
                 }
-                if (Double.isNaN(median)) this.median = BasicMeasurements.getQuantileValue(o, transformedMap, 0.5)[0];
+                if (Double.isNaN(median)) this.median = getQuantile(0.5);
             }
             return median;
         }
+
+        /**
+         * Exact quantile of the voxel values. Values retained during the statistics pass are used when available (see {@link #retainValues()}) otherwise the region is read again
+         * @param quantile in [0, 1]
+         * @return quantile value
+         */
+        public double getQuantile(double quantile) {
+            if (o==null || count==0) return Double.NaN;
+            if (quantile<=0) return min;
+            if (quantile>=1) return max;
+            double[] sortedValues;
+            synchronized (this) {
+                if (this.sortedValues==null && values!=null) {
+                    double[] sorted = Arrays.copyOf(values, values.length);
+                    Arrays.sort(sorted);
+                    this.sortedValues = sorted;
+                    values = null;
+                }
+                sortedValues = this.sortedValues;
+            }
+            if (sortedValues==null) return BasicMeasurements.getQuantileValue(o, transformedMap, quantile)[0];
+            double idxD = quantile * (sortedValues.length-1);
+            int idx = (int) idxD;
+            double delta = idxD - idx;
+            if (delta==0) return sortedValues[idx];
+            else return (1 - delta) * sortedValues[idx] + delta * sortedValues[idx+1];
+        }
     }
 
     public static class IntensityMeasurementCoreCollection {
         Map<Pair<Image, Integer>, IntensityMeasurementCore> cores = new HashMap<>();
+        boolean retainValues;
+
+        /**
+         * Cores added to this collection will retain voxel values, so that features computing quantiles share the single pass of the other features
+         * @param retainValues
+         * @return this collection
+         */
+        public IntensityMeasurementCoreCollection setRetainValues(boolean retainValues) {
+            this.retainValues = retainValues;
+            return this;
+        }
         public IntensityMeasurementCore get(Image image) {
             return get(image, -1);
         }
@@ -141,6 +197,7 @@ public class IntensityMeasurementCore {
 
         public void put(Image image, int z, IntensityMeasurementCore core) {
             if (z<0) z=-1;
+            if (retainValues) core.retainValues();
             cores.put(new Pair<>(image, z), core);
         }
     }
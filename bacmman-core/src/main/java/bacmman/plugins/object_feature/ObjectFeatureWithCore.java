@@ -32,4 +32,11 @@ public interface ObjectFeatureWithCore {
     void setUpOrAddCore(IntensityMeasurementCore.IntensityMeasurementCoreCollection availableCores, BiFunction<Image, ImageMask, Image> preFilters);
     int getIntensityChannel();
     Image getIntensityMap(boolean transformed);
+
+    /**
+     * @return whether this feature reads quantiles from the core, in which case voxel values are retained during the statistics pass
+     */
+    default boolean requiresQuantiles() {
+        return false;
+    }
 }
@@ -7,6 +7,7 @@ import bacmman.measurement.MeasurementKey;
 import bacmman.measurement.MeasurementKeyObject;
 import bacmman.plugins.Hint;
 import bacmman.plugins.Measurement;
+import bacmman.plugins.ThreadSafe;
 import bacmman.utils.geom.Point;
 
 import java.util.ArrayList;
@@ -16,7 +17,7 @@ import static bacmman.plugins.plugins.measurements.RelativePosition.REF_POINT.MA
 import static bacmman.plugins.plugins.measurements.RelativePosition.REF_POINT.UPPER_LEFT_CORNER;
 import static bacmman.plugins.plugins.measurements.RelativePosition.REF_POINT_TT;
 
-public class BoundingBox implements Measurement, Hint {
+public class BoundingBox implements Measurement, Hint, ThreadSafe {
     ObjectClassParameter objects = new ObjectClassParameter("Object Class");
     TextParameter prefix = new TextParameter("Prefix", "Bounds", false).setEmphasized(false).setHint("Set here the prefix of the name of the column in the extracted data table. Final column name for each axis is indicated below.");
 
@@ -121,8 +121,13 @@ public class ObjectFeatures implements Measurement, Hint {
         int structureIdx = structure.getSelectedIndex();
         IntensityMeasurementCore.IntensityMeasurementCoreCollection cores = new IntensityMeasurementCore.IntensityMeasurementCoreCollection();
         BiFunction<Image, ImageMask, Image> pf = preFilters.isEmpty() ? null : (im, mask) -> preFilters.filter(im,mask);
-        for (PluginParameter<ObjectFeature> ofp : features.getActivatedChildren()) {
-            ObjectFeature feature = ofp.instantiatePlugin();
+        List<PluginParameter<ObjectFeature>> featureParameters = features.getActivatedChildren();
+        List<ObjectFeature> featureInstances = featureParameters.stream().map(PluginParameter::instantiatePlugin).collect(Collectors.toList());
+        // features computing quantiles read them from the shared core so that each region is read only once per image
+        cores.setRetainValues(featureInstances.stream().anyMatch(f -> f instanceof ObjectFeatureWithCore && ((ObjectFeatureWithCore)f).requiresQuantiles()));
+        for (int fIdx = 0; fIdx<featureParameters.size(); ++fIdx) {
+            PluginParameter<ObjectFeature> ofp = featureParameters.get(fIdx);
+            ObjectFeature feature = featureInstances.get(fIdx);
             if (feature!=null) {
                 int[] zMinMax = new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE};
                 if (feature instanceof IntensityMeasurement && mode3D.getSelectedEnum().equals(MODE_3D.CENTER_PLANE)) {
@@ -27,6 +27,7 @@ import bacmman.measurement.MeasurementKey;
 import bacmman.measurement.MeasurementKeyObject;
 import bacmman.plugins.Hint;
 import bacmman.plugins.Measurement;
+import bacmman.plugins.ThreadSafe;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,7 +36,7 @@ import java.util.List;
  *
  * @author Jean Ollion
  */
-public class SimpleTrackMeasurements implements Measurement, Hint {
+public class SimpleTrackMeasurements implements Measurement, Hint, ThreadSafe {
     protected ObjectClassParameter structure = new ObjectClassParameter("Objects", -1, false, false);
     protected Parameter[] parameters = new Parameter[]{structure};
     
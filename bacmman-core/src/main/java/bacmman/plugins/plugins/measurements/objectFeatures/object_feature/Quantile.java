@@ -3,7 +3,6 @@ package bacmman.plugins.plugins.measurements.objectFeatures.object_feature;
 import bacmman.configuration.parameters.BoundedNumberParameter;
 import bacmman.configuration.parameters.Parameter;
 import bacmman.data_structure.Region;
-import bacmman.measurement.BasicMeasurements;
 import bacmman.plugins.object_feature.IntensityMeasurement;
 
 public class Quantile extends IntensityMeasurement {
@@ -12,7 +11,12 @@ public class Quantile extends IntensityMeasurement {
     public double performMeasurement(Region region) {
         double quantile = this.quantile.getValue().doubleValue();
         if (quantile == 0.5) return core.getIntensityMeasurements(region).getMedian();
-        return BasicMeasurements.getQuantileValue(region, core.getIntensityMap(true), quantile)[0];
+        return core.getIntensityMeasurements(region).getQuantile(quantile);
+    }
+
+    @Override
+    public boolean requiresQuantiles() {
+        return true;
     }
 
     @Override
@@ -205,6 +205,10 @@ public class SNR extends IntensityMeasurement implements Hint {
         IntensityMeasurementCore.IntensityMeasurements iParent = super.core.getIntensityMeasurements(parentObject);
         return new double[]{iParent.mean, iParent.sd};
     }
+    @Override
+    public boolean requiresQuantiles() {
+        return FOREGROUND_FORMULA.MEDIAN.equals(foregroundFormula.getSelectedEnum()) || BACKGROUND_FORMULA.MEDIAN.equals(backgroundFormula.getSelectedEnum());
+    }
     protected double getBackValue(IntensityMeasurementCore.IntensityMeasurements back) {
         switch (backgroundFormula.getSelectedEnum()) {
             case MEAN:
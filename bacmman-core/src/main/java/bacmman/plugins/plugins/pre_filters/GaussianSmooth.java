@@ -25,6 +25,7 @@ import bacmman.image.ImageMask;
 import bacmman.plugins.Filter;
 import bacmman.plugins.Hint;
 import bacmman.plugins.PreFilter;
+import bacmman.plugins.Tileable;
 import bacmman.processing.Filters;
 import bacmman.processing.ImageDerivatives;
 
@@ -32,7 +33,7 @@ import bacmman.processing.ImageDerivatives;
  *
  * @author Jean Ollion
  */
-public class GaussianSmooth implements PreFilter, Filter, Hint {
+public class GaussianSmooth implements PreFilter, Filter, Hint, Tileable {
     ScaleXYZParameter radius = new ScaleXYZParameter("Radius", 2, 1, true).setHint("Radius in pixel").setEmphasized(true);
     Parameter[] parameters = new Parameter[]{radius};
     public GaussianSmooth() {}
@@ -53,6 +54,10 @@ public class GaussianSmooth implements PreFilter, Filter, Hint {
         return ImageDerivatives.gaussianSmooth(input, ImageDerivatives.getScaleArray(radiusXY, radiusZ, input), parallel);
     }
     @Override
+    public int getTileHalo(Image input) {
+        return (int)Math.ceil(3 * radius.getScaleXY()) + 1;
+    }
+    @Override
     public Parameter[] getParameters() {
         return parameters;
     }
@@ -25,13 +25,14 @@ import bacmman.image.ImageMask;
 import bacmman.plugins.Filter;
 import bacmman.plugins.Hint;
 import bacmman.plugins.PreFilter;
+import bacmman.plugins.Tileable;
 import bacmman.processing.Filters;
 
 /**
  *
  * @author Jean Ollion
  */
-public class MeanFilter implements PreFilter, Filter, Hint {
+public class MeanFilter implements PreFilter, Filter, Hint, Tileable {
     ScaleXYZParameter radius = new ScaleXYZParameter("Radius", 2, 1, true).setHint("Radius in pixel").setEmphasized(true);
     Parameter[] parameters = new Parameter[]{radius};
     public MeanFilter() {}
@@ -52,6 +53,10 @@ public class MeanFilter implements PreFilter, Filter, Hint {
         return Filters.mean(input, null, Filters.getNeighborhood(radiusXY, radiusZ, input), parallele);
     }
     @Override
+    public int getTileHalo(Image input) {
+        return (int)Math.ceil(radius.getScaleXY());
+    }
+    @Override
     public Parameter[] getParameters() {
         return parameters;
     }
@@ -26,12 +26,13 @@ import bacmman.plugins.Hint;
 import bacmman.processing.Filters;
 import bacmman.plugins.Filter;
 import bacmman.plugins.PreFilter;
+import bacmman.plugins.Tileable;
 
 /**
  *
  * @author Jean Ollion
  */
-public class Median implements PreFilter, Filter, Hint {
+public class Median implements PreFilter, Filter, Hint, Tileable {
     ScaleXYZParameter radius = new ScaleXYZParameter("Radius", 2, 1, true).setHint("Radius in pixel").setEmphasized(true);
     Parameter[] parameters = new Parameter[]{radius};
     public Median() {}
@@ -52,6 +53,10 @@ public class Median implements PreFilter, Filter, Hint {
         return Filters.median(input, null, Filters.getNeighborhood(radiusXY, radiusZ, input), parallele);
     }
     @Override
+    public int getTileHalo(Image input) {
+        return (int)Math.ceil(radius.getScaleXY());
+    }
+    @Override
     public Parameter[] getParameters() {
         return parameters;
     }
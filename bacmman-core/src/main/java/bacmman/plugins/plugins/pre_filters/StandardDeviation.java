@@ -27,6 +27,7 @@ import bacmman.plugins.Hint;
 import bacmman.processing.Filters;
 import bacmman.plugins.Filter;
 import bacmman.plugins.PreFilter;
+import bacmman.plugins.Tileable;
 
 import static bacmman.processing.Filters.applyFilter;
 
@@ -34,7 +35,7 @@ import static bacmman.processing.Filters.applyFilter;
  *
  * @author Jean Ollion
  */
-public class StandardDeviation implements PreFilter, Filter, Hint {
+public class StandardDeviation implements PreFilter, Filter, Hint, Tileable {
     ScaleXYZParameter radius = new ScaleXYZParameter("Radius", 3, 1, true).setEmphasized(true).setHint("Radius (in pixel) defining the neighborhood in which the standard deviation is computed");
     ScaleXYZParameter medianRadius = new ScaleXYZParameter("Median Filtering Radius", 0, 1, true).setHint("Radius for median filtering, prior to sigma, in pixel. <br />0 = no median filtering");
     Parameter[] parameters = new Parameter[]{radius, medianRadius};
@@ -70,6 +71,10 @@ public class StandardDeviation implements PreFilter, Filter, Hint {
         return Filters.applyFilter(input, new ImageFloat("sigma", input), new Filters.Sigma(mask), Filters.getNeighborhood(radiusXY, radiusZ, input), parallele);
     }
     @Override
+    public int getTileHalo(Image input) {
+        return (int)Math.ceil(radius.getScaleXY()) + (medianRadius.getScaleXY()>1 ? (int)Math.ceil(medianRadius.getScaleXY()) : 0);
+    }
+    @Override
     public Parameter[] getParameters() {
         return parameters;
     }
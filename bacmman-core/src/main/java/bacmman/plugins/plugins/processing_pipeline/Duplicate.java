@@ -26,6 +26,7 @@ import bacmman.data_structure.*;
 import bacmman.image.BoundingBox;
 import bacmman.image.MutableBoundingBox;
 import bacmman.plugins.*;
+import bacmman.utils.Metrics;
 import bacmman.utils.StreamConcatenation;
 import bacmman.utils.Utils;
 
@@ -89,7 +90,9 @@ public class Duplicate extends SegmentationAndTrackingProcessingPipeline<Duplica
             parent.getChildren(structureIdx).forEach( c-> editor.resetTrackLinks(c,true, true, false));
         }
         Tracker t = getTracker();
-        t.track(structureIdx, parentTrack, editor);
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACKER, Metrics.name(t))) {
+            t.track(structureIdx, parentTrack, editor);
+        }
         
     }
     protected void segmentOnly(final int structureIdx, final List<SegmentedObject> parentTrack, SegmentedObjectFactory factory, TrackLinkEditor editor) {
@@ -22,6 +22,7 @@ import bacmman.configuration.parameters.*;
 import bacmman.data_structure.*;
 import bacmman.image.BoundingBox;
 import bacmman.plugins.*;
+import bacmman.utils.Metrics;
 import com.google.common.collect.Sets;
 
 import java.lang.reflect.Constructor;
@@ -94,7 +95,9 @@ public class ObjectClassOperation extends SegmentationAndTrackingProcessingPipel
             parent.getChildren(structureIdx).forEach( c-> editor.resetTrackLinks(c,true, true, false));
         }
         Tracker t = getTracker();
-        t.track(structureIdx, parentTrack, editor);
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACKER, Metrics.name(t))) {
+            t.track(structureIdx, parentTrack, editor);
+        }
     }
     protected void segmentOnly(final int structureIdx, final List<SegmentedObject> parentTrack, SegmentedObjectFactory factory, TrackLinkEditor editor) {
         if (parentTrack.isEmpty()) return;
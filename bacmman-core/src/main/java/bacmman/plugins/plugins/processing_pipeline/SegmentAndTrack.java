@@ -28,6 +28,7 @@ import java.util.List;
 
 import bacmman.data_structure.TrackLinkEditor;
 import bacmman.plugins.*;
+import bacmman.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,7 +70,9 @@ public class SegmentAndTrack extends SegmentationAndTrackingProcessingPipeline<S
         //logger.debug("segmentAndTrack: # prefilters: {}", preFilters.getChildCount());
         TrackerSegmenter t = getTracker();
         TrackPreFilterSequence tpf = getTrackPreFilters(true);
-        t.segmentAndTrack(structureIdx, parentTrack, tpf, postFilters, factory, editor);
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACKER, Metrics.name(t))) {
+            t.segmentAndTrack(structureIdx, parentTrack, tpf, postFilters, factory, editor);
+        }
         if (trackPostFilters.getActivatedChildCount() > 0) {
             logger.debug("executing #{} trackPostFilters for parents track: {} structure: {}", trackPostFilters.getActivatedChildCount(), parentTrack.get(0), structureIdx);
             trackPostFilters.filter(structureIdx, parentTrack, factory, editor);
@@ -88,7 +91,9 @@ public class SegmentAndTrack extends SegmentationAndTrackingProcessingPipeline<S
             parent.getChildren(structureIdx).forEach( c-> editor.resetTrackLinks(c,true, true, false));
         }
         TrackerSegmenter t = getTracker();
-        t.track(structureIdx, parentTrack, editor);
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACKER, Metrics.name(t))) {
+            t.track(structureIdx, parentTrack, editor);
+        }
         trackPostFilters.filter(structureIdx, parentTrack, factory, editor);
     }
 
@@ -18,6 +18,7 @@
  */
 package bacmman.plugins.plugins.processing_pipeline;
 
+import bacmman.configuration.parameters.BooleanParameter;
 import bacmman.configuration.parameters.Parameter;
 import bacmman.configuration.parameters.PluginParameter;
 import bacmman.data_structure.*;
@@ -35,10 +36,12 @@ import java.util.Map.Entry;
 import bacmman.image.SimpleBoundingBox;
 import bacmman.plugins.*;
 import bacmman.plugins.plugins.DisableParallelExecution;
+import bacmman.processing.TiledProcessing;
 import bacmman.utils.HashMapGetCreate;
 import java.util.stream.Collectors;
 
 import bacmman.plugins.TrackConfigurable.TrackConfigurer;
+import bacmman.utils.Metrics;
 import bacmman.utils.MultipleException;
 import bacmman.utils.ThreadRunner;
 import bacmman.utils.Utils;
@@ -57,7 +60,12 @@ import static bacmman.utils.ThreadRunner.safeMap;
 public class SegmentOnly extends SegmentationProcessingPipeline<SegmentOnly> implements ProcessingPipelineWithSegmenter, Hint {
     final static Logger logger = LoggerFactory.getLogger(SegmentOnly.class);
     protected PluginParameter<Segmenter> segmenter = new PluginParameter<>("Segmentation algorithm", Segmenter.class, false);
-    Parameter[] parameters = new Parameter[]{preFilters, trackPreFilters, segmenter, postFilters};
+    protected BooleanParameter tiledSegmentation = getTiledSegmentationParameter();
+    Parameter[] parameters = new Parameter[]{preFilters, trackPreFilters, segmenter, tiledSegmentation, postFilters};
+
+    static BooleanParameter getTiledSegmentationParameter() {
+        return new BooleanParameter("Tiled Segmentation", false).setHint("Only applies to segmenters that support it, when few images larger than "+TiledProcessing.TILE_SIZE+" pixels along X or Y are segmented. If true, each image is segmented by tiles processed in parallel. <br />Depending on the segmenter, objects larger than the overlap between tiles may be segmented differently than on the whole image");
+    }
     
     public SegmentOnly() {}
     public boolean objectClassOperations() {return false;}
@@ -77,6 +85,11 @@ public class SegmentOnly extends SegmentationProcessingPipeline<SegmentOnly> imp
     public SegmentOnly(PluginParameter<Segmenter> segmenter) {
         this.segmenter=segmenter;
     }
+
+    public SegmentOnly setTiledSegmentation(boolean tiledSegmentation) {
+        this.tiledSegmentation.setSelected(tiledSegmentation);
+        return this;
+    }
     @Override
     public String getHintText() {
         return "Performs only the segmentation (no tracking)";
@@ -119,6 +132,8 @@ public class SegmentOnly extends SegmentationProcessingPipeline<SegmentOnly> imp
             if (allParents.size() < Runtime.getRuntime().availableProcessors()) parallel = false;
             else multithread = false;
         }
+        boolean tiled = tiledSegmentation.getSelected() && stores == null && !allParents.isEmpty() && allParents.size() < Runtime.getRuntime().availableProcessors() && TileableSegmenter.class.isAssignableFrom(segmenter.getSelectedPluginClass()) && TiledProcessing.isLarge(allParents.get(0).getBounds()); // few large images: parallelize within images
+        if (tiled) parallel = false;
         //logger.debug("single frame: {} parent track size: {}", singleFrame, allParents.size());
         if (parallel) Collections.shuffle(allParents); // reduce thread blocking // TODO TEST NOW WITH STREAM
         final boolean ref2D= !allParents.isEmpty() && allParents.get(0).getRegion().is2D() && parentTrack.get(0).getExperimentStructure().sizeZ( parentTrack.get(0).getPositionName(), parentTrack.get(0).getExperimentStructure().getChannelIdx(structureIdx) )>1;
@@ -126,6 +141,7 @@ public class SegmentOnly extends SegmentationProcessingPipeline<SegmentOnly> imp
         List<RegionPopulation> pops;
         try {
             boolean multithreadF = multithread;
+            boolean tiledF = tiled;
             pops = safeMap(Utils.parallel(allParents.stream(), parallel), subParent -> {
                 SegmentedObject globalParent = subParent.getParent(parentStructureIdx);
                 Segmenter seg = segmenter.instantiatePlugin();
@@ -137,7 +153,11 @@ public class SegmentOnly extends SegmentationProcessingPipeline<SegmentOnly> imp
                     input = input.cropWithOffset(ref2D ? new MutableBoundingBox(subParent.getBounds()).copyZ(input) : subParent.getBounds());
                     accessor.setPreFilteredImage(subParent, structureIdx, input);
                 }
-                RegionPopulation pop = seg.runSegmenter(input, structureIdx, subParent);
+                RegionPopulation pop = null;
+                try (Metrics.Context c = Metrics.time(Metrics.STAGE.SEGMENTER, Metrics.name(seg))) {
+                    if (tiledF) pop = TiledProcessing.segment((TileableSegmenter)seg, input, structureIdx, subParent); // null if image is too small
+                    if (pop == null) pop = seg.runSegmenter(input, structureIdx, subParent);
+                }
                 if (subSegmentation && pop != null) pop.translate(subParent.getBounds(), true);
                 return pop;
             }).collect(Collectors.toList());
@@ -18,6 +18,7 @@
  */
 package bacmman.plugins.plugins.processing_pipeline;
 
+import bacmman.configuration.parameters.BooleanParameter;
 import bacmman.configuration.parameters.Parameter;
 import bacmman.configuration.parameters.PluginParameter;
 import bacmman.data_structure.SegmentedObject;
@@ -26,6 +27,7 @@ import java.util.List;
 import bacmman.data_structure.SegmentedObjectFactory;
 import bacmman.data_structure.TrackLinkEditor;
 import bacmman.plugins.*;
+import bacmman.utils.Metrics;
 
 /**
  *
@@ -34,7 +36,8 @@ import bacmman.plugins.*;
 public class SegmentThenTrack extends SegmentationAndTrackingProcessingPipeline<SegmentThenTrack, Tracker> implements ProcessingPipelineWithSegmenter, Hint {
     protected PluginParameter<Tracker> tracker = new PluginParameter<>("Tracker", Tracker.class, true);
     protected PluginParameter<Segmenter> segmenter = new PluginParameter<>("Segmentation algorithm", Segmenter.class, false);
-    protected Parameter[] parameters = new Parameter[]{preFilters, trackPreFilters, segmenter, postFilters, tracker, trackPostFilters};
+    protected BooleanParameter tiledSegmentation = SegmentOnly.getTiledSegmentationParameter();
+    protected Parameter[] parameters = new Parameter[]{preFilters, trackPreFilters, segmenter, tiledSegmentation, postFilters, tracker, trackPostFilters};
 
     public SegmentThenTrack() {} // for plugin instanciation
     public SegmentThenTrack(Segmenter segmenter, Tracker tracker) {
@@ -95,7 +98,7 @@ public class SegmentThenTrack extends SegmentationAndTrackingProcessingPipeline<
             return;
         }
         if (parentTrack.isEmpty()) return;
-        SegmentOnly seg = new SegmentOnly(segmenter).setPreFilters(preFilters).setTrackPreFilters(trackPreFilters).setPostFilters(postFilters);
+        SegmentOnly seg = new SegmentOnly(segmenter).setPreFilters(preFilters).setTrackPreFilters(trackPreFilters).setPostFilters(postFilters).setTiledSegmentation(tiledSegmentation.getSelected());
         seg.segmentAndTrack(structureIdx, parentTrack, factory, null);
     }
 
@@ -109,7 +112,9 @@ public class SegmentThenTrack extends SegmentationAndTrackingProcessingPipeline<
             parent.getChildren(structureIdx).forEach(c->editor.resetTrackLinks(c,true, true, false));
         }
         Tracker t = getTracker();
-        t.track(structureIdx, parentTrack, editor);
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.TRACKER, Metrics.name(t))) {
+            t.track(structureIdx, parentTrack, editor);
+        }
         
     }
 
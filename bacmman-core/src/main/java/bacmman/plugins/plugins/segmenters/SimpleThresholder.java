@@ -25,8 +25,8 @@ import bacmman.data_structure.Region;
 import bacmman.data_structure.RegionPopulation;
 import bacmman.data_structure.SegmentedObject;
 import bacmman.image.*;
-import bacmman.plugins.Segmenter;
 import bacmman.plugins.Thresholder;
+import bacmman.plugins.TileableSegmenter;
 import bacmman.plugins.plugins.thresholders.ConstantValue;
 import bacmman.processing.ImageLabeller;
 
@@ -37,7 +37,7 @@ import java.util.Arrays;
  *
  * @author Jean Ollion
  */
-public class SimpleThresholder implements Segmenter {
+public class SimpleThresholder implements TileableSegmenter {
     PluginParameter<Thresholder> threshold = new PluginParameter<>("Threshold", Thresholder.class, false).setEmphasized(true);
     BooleanParameter foregroundOverThreshold = new BooleanParameter("Foreground Over Threshold", true).setEmphasized(true);
     BooleanParameter strict = new BooleanParameter("Strict Comparison with Threshold", false);
@@ -68,6 +68,25 @@ public class SimpleThresholder implements Segmenter {
         return  new RegionPopulation(new ArrayList<>(Arrays.asList(objects)), input);
     }
 
+    // tiled segmentation
+    double tileThreshold;
+    @Override
+    public int getTileHalo(Image input) {
+        return 1; // connected components are merged at tile borders
+    }
+
+    @Override
+    public void initTiledSegmentation(Image input, int objectClassIdx, SegmentedObject parent) {
+        tileThreshold = threshold.instantiatePlugin().runThresholder(input, parent);
+    }
+
+    @Override
+    public RegionPopulation runSegmenterOnTile(Image tile, ImageMask tileMask, int objectClassIdx, SegmentedObject parent) {
+        PredicateMask maskR = new PredicateMask(tile, tileThreshold, foregroundOverThreshold.getSelected(), strict.getSelected());
+        if (!(tileMask instanceof BlankMask)) maskR = PredicateMask.and(maskR, tileMask);
+        return new RegionPopulation(new ArrayList<>(Arrays.asList(ImageLabeller.labelImage(maskR))), tile);
+    }
+
     @Override
     public Parameter[] getParameters() {
         return new Parameter[]{threshold, foregroundOverThreshold, strict};
@@ -29,6 +29,7 @@ import bacmman.plugins.plugins.thresholders.Percentile;
 import bacmman.plugins.plugins.trackers.ObjectOrderTracker;
 import bacmman.processing.Filters;
 import bacmman.processing.ImageFeatures;
+import bacmman.processing.TiledProcessing;
 import bacmman.processing.clustering.RegionCluster;
 import bacmman.processing.split_merge.SplitAndMerge;
 import bacmman.processing.split_merge.SplitAndMergeEdge;
@@ -46,7 +47,7 @@ import java.util.Set;
  *
  * @author Jean Ollion
  */
-public class WatershedSegmenter implements Segmenter, SegmenterSplitAndMerge, ObjectSplitter, TestableProcessingPlugin {
+public class WatershedSegmenter implements Segmenter, SegmenterSplitAndMerge, ObjectSplitter, TestableProcessingPlugin, TileableSegmenter {
     PreFilterSequence watershedMapFilters = new PreFilterSequence("Watershed Map").add(new ImageFeature().setFeature(ImageFeature.Feature.HessianMax).setScale(2, 2)).setEmphasized(true).setHint("Filter sequence to compute the map on which the watershed will be performed");
     BooleanParameter decreasePropagation = new BooleanParameter("Decreasing propagation", false).setEmphasized(true).setHint("Whether propagation is done from local minima towards increasing intensity or from local maxima towards decreasing intensities (local extrema and propagation are performed on watershed map)");
     ScaleXYZParameter localExtremaRadius = new ScaleXYZParameter("Local Extrema Radius", 2, 2, false).setEmphasized(true);
@@ -134,6 +135,41 @@ public class WatershedSegmenter implements Segmenter, SegmenterSplitAndMerge, Ob
         return pop;
     }
 
+    // tiled segmentation: watershed map and thresholds are computed on the whole image, seeds and propagation on tiles
+    public static int TILE_REGION_HALO = 64; // regions extending further than this from a tile border may be segmented differently than on the whole image
+    Image tileWatershedMap;
+    double tileSeedThld, tilePropThld;
+    @Override
+    public int getTileHalo(Image input) {
+        if (!foregroundSelMethod.getSelectedEnum().equals(FOREGROUND_SELECTION_METHOD.SEED_AND_PROPAGATION_THRESHOLDS) || mergeConnectedRegions.getSelected()) return -1; // regions are filtered / merged on their whole extent
+        return (int)Math.ceil(localExtremaRadius.getScaleXY()) + TILE_REGION_HALO;
+    }
+
+    @Override
+    public void initTiledSegmentation(Image input, int objectClassIdx, SegmentedObject parent) {
+        Image map = TiledProcessing.filter(input, parent.getMask(), watershedMapFilters.getTileHalo(input), watershedMapFilters::filter);
+        if (map==null) map = watershedMapFilters.filter(input, parent.getMask());
+        this.watershedMap.put(parent, map);
+        tileWatershedMap = map;
+        tileSeedThld = seedThreshlod.instantiatePlugin().runThresholder(map, parent);
+        tilePropThld = propagationThreshlod.instantiatePlugin().runThresholder(propagationThresholdOnInputImage.getSelected() ? input : map, parent);
+    }
+
+    @Override
+    public RegionPopulation runSegmenterOnTile(Image tile, ImageMask tileMask, int objectClassIdx, SegmentedObject parent) {
+        Image map = tileWatershedMap.cropWithOffset(tile.getBoundingBox());
+        boolean decrease = decreasePropagation.getSelected();
+        double radXY = localExtremaRadius.getScaleXY();
+        double radZ = localExtremaRadius.getScaleZ(map.getScaleXY(), map.getScaleZ());
+        ImageByte localExtrema = Filters.localExtrema(map, null, decrease, tileMask, Filters.getNeighborhood(radXY, radZ, map), false);
+        BoundingBox.LoopPredicate lp = decrease ? (x, y, z) -> map.getPixel(x, y, z)<tileSeedThld : (x, y, z) -> map.getPixel(x, y, z)>tileSeedThld;
+        ImageMask.loop(localExtrema, (x, y, z)->localExtrema.setPixel(x, y, z, 0), lp);
+        Image propEndMap = propagationThresholdOnInputImage.getSelected() ? tile : map;
+        WatershedTransform.WatershedConfiguration config = new WatershedTransform.WatershedConfiguration().decreasingPropagation(decrease)
+                .propagationCriterion(new WatershedTransform.ThresholdPropagation(propEndMap, tilePropThld, propagationThresholdOnInputImage.getSelected() || decrease));
+        return WatershedTransform.watershed(map, tileMask, localExtrema, config);
+    }
+
     @Override
     public Parameter[] getParameters() {
         return new Parameter[]{watershedMapFilters, decreasePropagation, localExtremaRadius, foregroundSelMethodCond, mergeCond};
@@ -26,6 +26,7 @@ import bacmman.data_structure.SegmentedObject;
 import bacmman.data_structure.SegmentedObjectImageMap;
 import bacmman.image.Image;
 import bacmman.plugins.*;
+import bacmman.processing.TiledProcessing;
 import bacmman.utils.ThreadRunner;
 
 import static bacmman.utils.Utils.parallel;
@@ -71,7 +72,11 @@ public class PreFilter implements TrackPreFilter, Hint, TestableProcessingPlugin
                 ((MultiThreaded)instance).setMultiThread(true);
             }
             Image source = preFilteredImages.getImage(o);
-            Image filtered = instance.runPreFilter(source, o.getMask(), preFilteredImages.allowInplaceModification());
+            Image filtered = null;
+            if (instance instanceof Tileable && stores==null && track.size() < Runtime.getRuntime().availableProcessors()) { // large images: parallelize within image
+                filtered = TiledProcessing.filter(source, o.getMask(), ((Tileable)instance).getTileHalo(source), (tile, mask) -> instance.runPreFilter(tile, mask, true));
+            }
+            if (filtered == null) filtered = instance.runPreFilter(source, o.getMask(), preFilteredImages.allowInplaceModification());
             preFilteredImages.set(o, filtered);
         };
         ThreadRunner.parallelExecutionBySegments(c, 0, track.size(), 100, s -> Core.waitDiskManagerFreeMemory());
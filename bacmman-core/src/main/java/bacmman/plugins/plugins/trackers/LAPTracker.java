@@ -14,6 +14,7 @@ import bacmman.processing.matching.trackmate.Spot;
 import bacmman.processing.neighborhood.Neighborhood;
 import bacmman.processing.skeleton.SparseSkeleton;
 import bacmman.utils.HashMapGetCreate;
+import bacmman.utils.ThreadRunner;
 import bacmman.utils.UnaryPair;
 import bacmman.utils.Utils;
 import bacmman.utils.geom.Point;
@@ -151,6 +152,7 @@ public class LAPTracker implements Tracker, Hint, TestableProcessingPlugin {
         logger.debug("LAP tracking: total number of objects: {}", allChildren.size());
         logger.debug("LAP tracking: {}", Utils.toStringList(map.entrySet(), e->"t:"+e.getKey()+"->"+e.getValue().size()));
         tmi.addObjects(allChildren.stream());
+        tmi.setNumThreads(ThreadRunner.getMaxCPUs());
         if (tmi.graphObjectMapper.isEmpty()) {
             logger.debug("No objects to track");
             return;
@@ -4,6 +4,7 @@ import bacmman.data_structure.SortedCoordSet;
 import bacmman.image.ImageFloat;
 import bacmman.image.ImageMask;
 import bacmman.processing.neighborhood.EllipsoidalNeighborhood;
+import bacmman.utils.IndexedMinHeap;
 import bacmman.utils.geom.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,10 +14,12 @@ public class GCDM {
     private static final double LARGE_VALUE = Double.MAX_VALUE;
     private static final double TOLERANCE = 1e-10;
     private static final ThreadLocal<double[][]> VALUE_BUCKET =  ThreadLocal.withInitial(() -> new double[3][2]); // [index][value,spacing]
+    private static final int MAX_BUFFER_SIZE = 1 << 20; // larger objects do not use the per-thread buffer so that it remains small
+    private static final ThreadLocal<IndexedMinHeap> HEAP_BUFFER = ThreadLocal.withInitial(() -> new IndexedMinHeap(0)); // reused when computing GCDM of many objects
 
     public static ImageFloat run(Point center, ImageMask mask, double scaleXY, double scaleZ) {
         ImageFloat gcdm = new ImageFloat("GCDM", mask);
-        SortedCoordSet heap = SortedCoordSet.create(gcdm, false);
+        SortedCoordSet.HeapCoordSet heap = SortedCoordSet.createHeap(gcdm, false, gcdm.sizeXYZ() <= MAX_BUFFER_SIZE ? HEAP_BUFFER.get() : null);
 
         // Initialize all pixels to large value
         ImageMask.loop(mask, (x, y, z) -> gcdm.setPixel(x, y, z, LARGE_VALUE));
@@ -62,7 +65,7 @@ public class GCDM {
         }
     }
 
-    private static void fastMarchingPropagation(SortedCoordSet heap, ImageFloat gcdm, ImageMask mask, double scaleXY, double scaleZ, boolean highConnectivity) {
+    private static void fastMarchingPropagation(SortedCoordSet.HeapCoordSet heap, ImageFloat gcdm, ImageMask mask, double scaleXY, double scaleZ, boolean highConnectivity) {
         // Define neighborhood for Fast Marching. rad 1.5 = 8 / 26 connectivity whereas rad 1 is 4 / 6 connectivity
         double rad = highConnectivity ? 1.5 : 1;
         EllipsoidalNeighborhood neigh = gcdm.sizeZ()>1?new EllipsoidalNeighborhood(rad, rad, true) : new EllipsoidalNeighborhood(rad, true);
@@ -75,12 +78,12 @@ public class GCDM {
                 long neighborCoord = heap.translate(coord, neigh.dx[i], neigh.dy[i], neigh.dz[i]);
                 if (!heap.insideMask(mask, neighborCoord)) continue;
                 double neighborValue = heap.getPixel(gcdm, neighborCoord);
-                // Only update if neighbor hasn't been processed (still has large value)
-                if (neighborValue >= LARGE_VALUE - TOLERANCE) {
+                // Only update if neighbor hasn't been processed: either far (still has large value) or trial (in heap, value can be lowered)
+                if (neighborValue >= LARGE_VALUE - TOLERANCE || heap.containsCoord(neighborCoord)) {
                     double newValue = solveEikonalEquation(heap, gcdm, mask, neigh, neighborCoord, scaleXY, scaleZ, highConnectivity);
                     if (newValue < neighborValue) {
                         heap.setPixel(gcdm, neighborCoord, newValue);
-                        heap.add(neighborCoord);
+                        heap.addOrUpdate(neighborCoord); // decrease-key if already in heap
                     }
                 }
             }
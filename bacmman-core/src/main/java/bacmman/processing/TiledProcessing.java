@@ -0,0 +1,275 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing;
+
+import bacmman.data_structure.RegionPopulation;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.image.*;
+import bacmman.plugins.TileableSegmenter;
+import bacmman.utils.ThreadRunner;
+import bacmman.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * Concurrent processing of large images as tiles extended by a halo (along X and Y axes only).
+ * The halo is sized so that the result within the core of each tile equals the result on the whole image, cores are then pasted in the result.
+ * Segmentation labels are stitched across tile borders by merging (union-find) the labels of adjacent cores that the segmentation of a tile assigns to the same region.
+ * The number of tiles processed concurrently is limited so that they fit within a fraction of the free memory
+ * @author Jean Ollion
+ */
+public class TiledProcessing {
+    public final static Logger logger = LoggerFactory.getLogger(TiledProcessing.class);
+    public static int TILE_SIZE = 1024; // size of the core of tiles along X and Y axes
+    public static int MIN_TILE_SIZE = 128;
+    public static double MEMORY_FRACTION = 0.5; // fraction of free memory that tiles processed concurrently can use
+    public static int BYTES_PER_VOXEL = 16; // estimation of the memory used by intermediate images, per voxel of a tile
+
+    /**
+     * Applies {@param filter} on tiles of {@param input}
+     * @param input
+     * @param mask mask with same bounds as {@param input}
+     * @param halo halo along X and Y axes, see {@link bacmman.plugins.Tileable#getTileHalo(Image)}
+     * @param filter function applied to (tile, tile mask). Called concurrently
+     * @return filtered image, or null if the image is too small to be split into tiles or if {@param halo} is negative
+     */
+    public static Image filter(Image input, ImageMask mask, int halo, BiFunction<Image, ImageMask, Image> filter) {
+        List<Tile> tiles = getTiles(input, halo);
+        if (tiles==null) return null;
+        List<Image> filtered = run(tiles.size(), getConcurrentTiles(tiles, input), i -> filter.apply(tiles.get(i).crop(input), tiles.get(i).crop(mask)));
+        Image output = Image.createEmptyImage(input.getName(), filtered.get(0), input);
+        for (int i = 0; i<tiles.size(); ++i) {
+            Tile t = tiles.get(i);
+            Image.pasteImageView(filtered.get(i), output, new MutableBoundingBox(t.core.xMin(), t.core.yMin(), t.core.zMin()), t.getCoreInTile());
+            filtered.set(i, null);
+        }
+        return output;
+    }
+
+    /**
+     * Segments {@param input} by tiles
+     * @param segmenter
+     * @param input
+     * @param objectClassIdx
+     * @param parent
+     * @return segmented population in the same landmark as {@link bacmman.plugins.Segmenter#runSegmenter(Image, int, SegmentedObject)}, or null if the image is too small to be split into tiles or the segmenter cannot be run on tiles with its current configuration
+     */
+    public static RegionPopulation segment(TileableSegmenter segmenter, Image input, int objectClassIdx, SegmentedObject parent) {
+        int halo = segmenter.getTileHalo(input);
+        List<Tile> tiles = getTiles(input, halo<0 ? halo : Math.max(1, halo)); // stitching requires at least one voxel of halo
+        if (tiles==null) return null;
+        ImageMask mask = parent.getMask();
+        if (mask.sizeX()!=input.sizeX() || mask.sizeY()!=input.sizeY() || mask.sizeZ()!=input.sizeZ()) return null;
+        segmenter.initTiledSegmentation(input, objectClassIdx, parent);
+        List<ImageInteger> labels = run(tiles.size(), getConcurrentTiles(tiles, input), i -> {
+            Tile t = tiles.get(i);
+            RegionPopulation pop = segmenter.runSegmenterOnTile(t.crop(input), t.crop(mask), objectClassIdx, parent);
+            return pop==null ? null : pop.getLabelMap();
+        });
+        // paste cores with distinct labels
+        int[] labelOffset = new int[tiles.size()+1];
+        for (int i = 0; i<tiles.size(); ++i) labelOffset[i+1] = labelOffset[i] + (labels.get(i)==null ? 0 : (int)labels.get(i).getMinAndMax(null)[1]);
+        ImageInt labelMap = new ImageInt("labels", input);
+        for (int i = 0; i<tiles.size(); ++i) {
+            if (labels.get(i)==null) continue;
+            Tile t = tiles.get(i);
+            ImageInteger l = labels.get(i);
+            int off = labelOffset[i];
+            BoundingBox.loop(t.core, (x, y, z) -> {
+                int v = l.getPixelInt(x - t.extended.xMin(), y - t.extended.yMin(), z);
+                if (v>0) labelMap.setPixel(x, y, z, v + off);
+            });
+        }
+        // stitch: merge labels of adjacent cores when the segmentation of the tile assigns both voxels to the same region
+        // neighbors across the border include diagonal ones, consistently with the connectivity of ImageLabeller (8 in 2D, 26 in 3D)
+        int dzMax = input.sizeZ()>1 ? 1 : 0;
+        UnionFind uf = new UnionFind(labelOffset[tiles.size()] + 1);
+        for (int i = 0; i<tiles.size(); ++i) {
+            if (labels.get(i)==null) continue;
+            Tile t = tiles.get(i);
+            ImageInteger l = labels.get(i);
+            int[][] borders = new int[][]{{t.core.xMin(), -1, 0}, {t.core.xMax(), 1, 0}, {t.core.yMin(), 0, -1}, {t.core.yMax(), 0, 1}};
+            for (int[] b : borders) {
+                boolean alongY = b[1]!=0; // border is a column
+                int dx = b[1], dy = b[2];
+                if (alongY ? (b[0]+dx<0 || b[0]+dx>=input.sizeX()) : (b[0]+dy<0 || b[0]+dy>=input.sizeY())) continue;
+                int start = alongY ? t.core.yMin() : t.core.xMin();
+                int end = alongY ? t.core.yMax() : t.core.xMax();
+                for (int z = 0; z<input.sizeZ(); ++z) {
+                    for (int c = start; c<=end; ++c) {
+                        int x = alongY ? b[0] : c;
+                        int y = alongY ? c : b[0];
+                        int v = l.getPixelInt(x - t.extended.xMin(), y - t.extended.yMin(), z);
+                        if (v==0) continue;
+                        int label = labelMap.getPixelInt(x, y, z);
+                        for (int k = -1; k<=1; ++k) { // shift along the border
+                            int nx = x + dx + (alongY ? 0 : k);
+                            int ny = y + dy + (alongY ? k : 0);
+                            if (!t.extended.containsWithOffset(nx, ny, z)) continue;
+                            for (int nz = Math.max(0, z - dzMax); nz<=Math.min(input.sizeZ()-1, z + dzMax); ++nz) {
+                                if (l.getPixelInt(nx - t.extended.xMin(), ny - t.extended.yMin(), nz)!=v) continue;
+                                int neigh = labelMap.getPixelInt(nx, ny, nz);
+                                if (neigh>0) uf.union(label, neigh);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        int count = uf.relabel();
+        ImageInteger res = ImageInteger.createEmptyLabelImage(input.getName()+"_labels", count, input);
+        BoundingBox.loop(new SimpleBoundingBox(input).resetOffset(), (x, y, z) -> {
+            int v = labelMap.getPixelInt(x, y, z);
+            if (v>0) res.setPixel(x, y, z, uf.getLabel(v));
+        });
+        logger.debug("tiled segmentation: {} tiles, {} labels before stitching, {} after", tiles.size(), labelOffset[tiles.size()], count);
+        return new RegionPopulation(res, true);
+    }
+
+    /**
+     * @param bounds
+     * @return whether an image with these bounds is split into several tiles
+     */
+    public static boolean isLarge(BoundingBox bounds) {
+        return bounds.sizeX() > TILE_SIZE || bounds.sizeY() > TILE_SIZE;
+    }
+
+    /**
+     * @param image
+     * @param halo
+     * @return tiles in coordinates relative to {@param image}, or null if halo is negative or the image is too small to be split
+     */
+    static List<Tile> getTiles(ImageProperties image, int halo) {
+        if (halo<0) return null;
+        int tileSize = TILE_SIZE;
+        long budget = getMemoryBudget();
+        while (tileSize>MIN_TILE_SIZE && (long)(tileSize + 2*halo) * (tileSize + 2*halo) * image.sizeZ() * BYTES_PER_VOXEL > budget) tileSize/=2;
+        int nX = (int)Math.ceil(image.sizeX() / (double)tileSize);
+        int nY = (int)Math.ceil(image.sizeY() / (double)tileSize);
+        if (nX * nY <= 1) return null;
+        List<Tile> res = new ArrayList<>(nX * nY);
+        for (int i = 0; i<nX; ++i) {
+            int xMin = (int)((long)i * image.sizeX() / nX);
+            int xMax = (int)((long)(i+1) * image.sizeX() / nX) - 1;
+            for (int j = 0; j<nY; ++j) {
+                int yMin = (int)((long)j * image.sizeY() / nY);
+                int yMax = (int)((long)(j+1) * image.sizeY() / nY) - 1;
+                SimpleBoundingBox core = new SimpleBoundingBox(xMin, xMax, yMin, yMax, 0, image.sizeZ()-1);
+                SimpleBoundingBox extended = new SimpleBoundingBox(Math.max(0, xMin - halo), Math.min(image.sizeX()-1, xMax + halo), Math.max(0, yMin - halo), Math.min(image.sizeY()-1, yMax + halo), 0, image.sizeZ()-1);
+                res.add(new Tile(core, extended));
+            }
+        }
+        return res;
+    }
+
+    static long getMemoryBudget() {
+        long used = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        return (long)((Utils.getTotalMemory() - used) * MEMORY_FRACTION);
+    }
+
+    static int getConcurrentTiles(List<Tile> tiles, Image input) {
+        long bytesPerTile = tiles.stream().mapToLong(t -> (long)t.extended.sizeX() * t.extended.sizeY() * t.extended.sizeZ()).max().getAsLong() * (BYTES_PER_VOXEL + input.byteCount());
+        int n = (int)Math.min(ThreadRunner.getMaxCPUs(), getMemoryBudget() / bytesPerTile);
+        return Math.max(1, Math.min(n, tiles.size()));
+    }
+
+    private static <T> List<T> run(int tileNumber, int concurrentTiles, IntFunction<T> action) {
+        ThreadRunner<T> tr = new ThreadRunner<>(() -> action, 0, tileNumber, concurrentTiles).setCollectValues(true);
+        List<T> res;
+        try {
+            res = tr.startAndJoin();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        tr.throwErrorIfNecessary();
+        return res;
+    }
+
+    static class Tile {
+        final BoundingBox core, extended; // relative to the processed image
+
+        Tile(BoundingBox core, BoundingBox extended) {
+            this.core = core;
+            this.extended = extended;
+        }
+
+        Image crop(Image image) {
+            return image.crop(extended);
+        }
+
+        ImageMask crop(ImageMask mask) {
+            ImageProperties props = new SimpleImageProperties(new SimpleBoundingBox(extended).translate(mask), mask.getScaleXY(), mask.getScaleZ());
+            if (mask instanceof BlankMask) return new BlankMask(props);
+            int sizeX = extended.sizeX();
+            return new PredicateMask(props, (x, y, z) -> mask.insideMask(x + extended.xMin(), y + extended.yMin(), z), (xy, z) -> mask.insideMask(xy % sizeX + extended.xMin(), xy / sizeX + extended.yMin(), z), props.sizeZ()==1);
+        }
+
+        BoundingBox getCoreInTile() {
+            return new SimpleBoundingBox(core).translate(new SimpleOffset(extended).reverseOffset());
+        }
+    }
+
+    static class UnionFind {
+        final int[] parent;
+        int[] labels;
+
+        UnionFind(int size) {
+            parent = new int[size];
+            for (int i = 0; i<size; ++i) parent[i] = i;
+        }
+
+        int find(int i) {
+            while (parent[i]!=i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        void union(int i, int j) {
+            int ri = find(i), rj = find(j);
+            if (ri<rj) parent[rj] = ri;
+            else if (rj<ri) parent[ri] = rj;
+        }
+
+        /**
+         * Assigns consecutive labels starting from 1 to each set, except the set of 0
+         * @return number of sets
+         */
+        int relabel() {
+            labels = new int[parent.length];
+            int count = 0;
+            for (int i = 1; i<parent.length; ++i) {
+                int r = find(i);
+                if (r==i) labels[i] = ++count;
+            }
+            for (int i = 1; i<parent.length; ++i) labels[i] = labels[find(i)];
+            return count;
+        }
+
+        int getLabel(int i) {
+            return labels[i];
+        }
+    }
+}
@@ -76,6 +76,9 @@ public class LAPLinker<S extends Spot<S>> extends ObjectGraph<S> {
         }
     }
 
+    /**
+     * @param numThreads number of threads used to link spots: in frame-to-frame linking, independent frame pairs are solved concurrently
+     */
     public void setNumThreads(int numThreads) {
         this.numThreads = numThreads;
     }
@@ -31,11 +31,13 @@ import bacmman.processing.matching.trackmate.tracking.sparselap.costfunction.Fea
 import bacmman.processing.matching.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
 import bacmman.processing.matching.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
 import bacmman.processing.matching.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.LAPJVSolver;
 
 import static bacmman.processing.matching.trackmate.tracking.TrackerKeys.*;
 import static bacmman.processing.matching.trackmate.util.TMUtils.checkMapKeys;
 import static bacmman.processing.matching.trackmate.util.TMUtils.checkParameter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -196,8 +198,14 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
 			for (S s : graph.vertexSet()) spotsFromGraph.getAndCreateIfNecessary(s.getFeature(Spot.FRAME).intValue()).add(s);
 		}
 
+		// Frame pairs are independent: they are solved concurrently while the graph is only read, and links are added to the graph afterwards, in frame order.
+		@SuppressWarnings( "unchecked" )
+		final Map< S, S >[] assignments = new Map[ framePairs.size() ];
+		@SuppressWarnings( "unchecked" )
+		final Map< S, Double >[] assignmentCosts = new Map[ framePairs.size() ];
+
 		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, framePairs.size() ) ) );
 
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger( 0 );
@@ -210,6 +218,9 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
 				@Override
 				public void run()
 				{
+					// re-used for all frame pairs processed by this thread
+					final JaqamanLinkingCostMatrixCreator.Buffer< S, S > buffer = new JaqamanLinkingCostMatrixCreator.Buffer<>();
+					final LAPJVSolver solver = new LAPJVSolver();
 					for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement() )
 					{
 						if ( !ok.get() )
@@ -237,8 +248,8 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
                                                 
 						// remove spots that have already been linked between the two time points or gaps (fwd for sources & bckwrd for targets)
 						if (!graphWasNull) {
-							sources.addAll(spotsFromGraph.getAndCreateIfNecessary(frame0));
-							targets.addAll(spotsFromGraph.getAndCreateIfNecessary(frame1));
+							sources.addAll(spotsFromGraph.getOrDefault(frame0, Collections.emptyList()));
+							targets.addAll(spotsFromGraph.getOrDefault(frame1, Collections.emptyList()));
 							Utils.removeDuplicates(sources, false);
 							Utils.removeDuplicates(targets, false);
 							removeLinkedSpots(sources, targets, frame1);
@@ -253,9 +264,9 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
 						 * Run the linker.
 						 */
 
-						final JaqamanLinkingCostMatrixCreator< S, S > creator = new JaqamanLinkingCostMatrixCreator<S, S>( sources, targets, costFunction, costThreshold, alternativeCost );
+						final JaqamanLinkingCostMatrixCreator< S, S > creator = new JaqamanLinkingCostMatrixCreator<S, S>( sources, targets, costFunction, costThreshold, alternativeCost ).setBuffer( buffer );
 
-						final JaqamanLinker< S, S > linker = new JaqamanLinker< S, S >( creator );
+						final JaqamanLinker< S, S > linker = new JaqamanLinker< S, S >( creator ).setSolver( solver );
 						if ( !linker.checkInput() || !linker.process() )
 						{
 							errorMessage = "At frame " + frame0 + " to " + frame1 + ": " + linker.getErrorMessage();
@@ -263,24 +274,8 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
 							return;
 						}
 
-						/*
-						 * Update graph.
-						 */
-
-						synchronized ( graph )
-						{
-							final Map< S, Double > costs = linker.getAssignmentCosts();
-							final Map< S, S > assignment = linker.getResult();
-							for ( final S source : assignment.keySet() )
-							{
-								final double cost = costs.get( source );
-								final S target = assignment.get( source );
-								graph.addVertex( source );
-								graph.addVertex( target );
-								final DefaultWeightedEdge edge = graph.addEdge( source, target );
-								graph.setEdgeWeight( edge, cost );
-							}
-						}
+						assignments[ i ] = linker.getResult();
+						assignmentCosts[ i ] = linker.getAssignmentCosts();
 
 						logger.setProgress( (double)progress.incrementAndGet() / framePairs.size() );
 
@@ -291,6 +286,27 @@ public class SparseLAPFrameToFrameTrackerFromExistingGraph<S extends Spot<S>> ex
 
 		logger.setStatus( "Frame to frame linking..." );
 		SimpleMultiThreading.startAndJoin( threads );
+
+		/*
+		 * Update graph.
+		 */
+
+		if ( ok.get() )
+		{
+			for ( int i = 0; i < framePairs.size(); ++i )
+			{
+				if ( assignments[ i ] == null ) continue;
+				for ( final Map.Entry< S, S > e : assignments[ i ].entrySet() )
+				{
+					final S source = e.getKey();
+					final S target = e.getValue();
+					graph.addVertex( source );
+					graph.addVertex( target );
+					final DefaultWeightedEdge edge = graph.addEdge( source, target );
+					graph.setEdgeWeight( edge, assignmentCosts[ i ].get( source ) );
+				}
+			}
+		}
 		logger.setProgress( 1d );
 		logger.setStatus( "" );
 
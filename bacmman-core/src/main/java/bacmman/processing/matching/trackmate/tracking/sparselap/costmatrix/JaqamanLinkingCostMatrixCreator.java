@@ -4,6 +4,7 @@ import bacmman.processing.matching.trackmate.tracking.sparselap.costfunction.Cos
 import bacmman.processing.matching.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -43,6 +44,29 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private double alternativeCost;
 
+	private Buffer< K, J > buffer;
+
+	/**
+	 * Accumulators of candidate links. A buffer can be re-used by successive
+	 * cost matrix creations performed by the same thread, so that they are not
+	 * re-allocated and grown for each frame pair.
+	 */
+	public static class Buffer< K, J >
+	{
+		final ArrayList< K > sources = new ArrayList< >();
+
+		final ArrayList< J > targets = new ArrayList< >();
+
+		final ResizableDoubleArray costs = new ResizableDoubleArray();
+
+		void clear()
+		{
+			sources.clear();
+			targets.clear();
+			costs.size = 0;
+		}
+	}
+
 	public JaqamanLinkingCostMatrixCreator(final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCost )
 	{
 		this.sources = sources;
@@ -52,6 +76,16 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		this.alternativeCost = alternativeCost;
 	}
 
+	/**
+	 * Sets the buffer used to accumulate candidate links. It must not be
+	 * shared by several threads.
+	 */
+	public JaqamanLinkingCostMatrixCreator< K, J > setBuffer( final Buffer< K, J > buffer )
+	{
+		this.buffer = buffer;
+		return this;
+	}
+
 	@Override
 	public boolean checkInput()
 	{
@@ -73,9 +107,22 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 	{
 		final long start = System.currentTimeMillis();
 
-		final List< K > accSources = new ArrayList< >();
-		final List< J > accTargets = new ArrayList< >();
-		final ResizableDoubleArray costs = new ResizableDoubleArray();
+		final List< K > accSources;
+		final List< J > accTargets;
+		final ResizableDoubleArray costs;
+		if ( buffer != null )
+		{
+			buffer.clear();
+			accSources = buffer.sources;
+			accTargets = buffer.targets;
+			costs = buffer.costs;
+		}
+		else
+		{
+			accSources = new ArrayList< >();
+			accTargets = new ArrayList< >();
+			costs = new ResizableDoubleArray();
+		}
 
 		for ( final K source : sources )
 		{
@@ -91,7 +138,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 				}
 			}
 		}
-		costs.trimToSize();
+		final double[] costArray = Arrays.copyOf( costs.data, costs.size ); // the buffer keeps its capacity
 
 		/*
 		 * Check if accepted source or target lists are empty and deal with it.
@@ -111,7 +158,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		else
 		{
 
-			final DefaultCostMatrixCreator< K, J > cmCreator = new DefaultCostMatrixCreator< >( accSources, accTargets, costs.data, alternativeCost );
+			final DefaultCostMatrixCreator< K, J > cmCreator = new DefaultCostMatrixCreator< >( accSources, accTargets, costArray, alternativeCost );
 			if ( !cmCreator.checkInput() || !cmCreator.process() )
 			{
 				errorMessage = cmCreator.getErrorMessage();
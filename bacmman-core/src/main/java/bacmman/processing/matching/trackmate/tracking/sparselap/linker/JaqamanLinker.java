@@ -4,7 +4,6 @@ import bacmman.processing.matching.trackmate.tracking.sparselap.costmatrix.CostM
 import bacmman.processing.matching.trackmate.Logger;
 import net.imglib2.algorithm.BenchmarkAlgorithm;
 import net.imglib2.algorithm.OutputAlgorithm;
-import net.imglib2.util.Util;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
@@ -31,6 +30,8 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	private LAPJVSolver solver;
+
 	/**
 	 * Creates a new linker for the specified cost matrix creator. See Jaqaman
 	 * <i>et al.</i>, Nature Methods, <b>2008</b>, Figure 1b.
@@ -51,6 +52,17 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		this( costMatrixCreator, Logger.VOID_LOGGER );
 	}
 
+	/**
+	 * Sets the solver used to solve the full cost matrix, so that its work
+	 * arrays can be re-used by successive linkers created by the same thread.
+	 * If not set, a new solver is created.
+	 */
+	public JaqamanLinker< K, J > setSolver( final LAPJVSolver solver )
+	{
+		this.solver = solver;
+		return this;
+	}
+
 	/**
 	 * Returns the resulting assignments from this algorithm.
 	 * <p>
@@ -117,82 +129,37 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		}
 
 		/*
-		 * Complement the cost matrix with alternative no linking cost matrix.
-		 */
-
-		logger.setStatus( "Completing the cost matrix..." );
-
-		final int nCols = tl.getNCols();
-		final int nRows = tl.getNRows();
-
-		/*
-		 * Top right
-		 */
-
-		final double[] cctr = new double[ nRows ];
-		final int[] kktr = new int[ nRows ];
-		for ( int i = 0; i < nRows; i++ )
-		{
-			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
-		}
-		final int[] numbertr = new int[ nRows ];
-		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
-
-		/*
-		 * Bottom left
-		 */
-		final double[] ccbl = new double[ nCols ];
-		final int[] kkbl = new int[ nCols ];
-		for ( int i = 0; i < kkbl.length; i++ )
-		{
-			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
-		}
-		final int[] numberbl = new int[ nCols ];
-		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
-
-		/*
-		 * Bottom right.
+		 * Complement the cost matrix with alternative no linking cost matrix:
+		 * alternative costs on the diagonals of the top right and bottom left
+		 * blocks, and transpose of the linking costs in the bottom right block.
 		 *
-		 * Alt. cost is the overall min of alternative costs. This deviate or
-		 * extend a bit the u-track code.
-		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
-		final SparseCostMatrix br = tl.transpose();
-		br.fillWith( minCost );
-
-		/*
-		 * Stitch them together
+		 * Alt. cost of the bottom right block is the overall min of alternative
+		 * costs. This deviate or extend a bit the u-track code.
+		 *
+		 * The full matrix is assembled and solved in the work arrays of the
+		 * solver.
 		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		logger.setProgress( 0.6 );
 
-		/*
-		 * Solve the full cost matrix.
-		 */
 		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
-		if ( !solver.checkInput() || !solver.process() )
+		final LAPJVSolver solver = this.solver != null ? this.solver : new LAPJVSolver();
+		if ( !solver.solveWithAlternatives( tl, i -> costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) ), j -> costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) ) ) )
 		{
 			errorMessage = solver.getErrorMessage();
 			return false;
 		}
-		final int[] assgn = solver.getResult();
+		final int[] assgn = solver.getRowAssignment();
 		assignments = new HashMap< >();
 		costs = new HashMap< >();
-		for ( int i = 0; i < assgn.length; i++ )
+		for ( int i = 0; i < matrixRows.size(); i++ )
 		{
 			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			if ( j < matrixCols.size() )
 			{
 				final K source = matrixRows.get( i );
 				final J target = matrixCols.get( j );
 				assignments.put( source, target );
 
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
+				final double cost = tl.get( i, j, Double.POSITIVE_INFINITY );
 				costs.put( source, Double.valueOf( cost ) );
 			}
 		}
@@ -0,0 +1,602 @@
+package bacmman.processing.matching.trackmate.tracking.sparselap.linker;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Re-usable Jonker-Volgenant solver for sparse linear assignment problems (same algorithm as {@link LAPJV}).
+ * <p>
+ * Cost matrices are given in compressed sparse row (CSR) format. All
+ * work arrays (assignments, dual variables, augmentation arrays, and the CSR
+ * arrays of matrices assembled by
+ * {@link #solveWithAlternatives(SparseCostMatrix, IntToDoubleFunction, IntToDoubleFunction)})
+ * only grow, so that successive solves performed by the same instance do not
+ * allocate once the largest problem has been met. An instance must not be
+ * shared by several threads.
+ * <p>
+ * When warm start is enabled (see {@link #setWarmStart(boolean)}), the column
+ * reduction is skipped and the column dual variables are initialized from the
+ * previous solve (or from {@link #setColumnDuals(double[], int)}). This is
+ * useful when similar problems with the same column layout are solved
+ * successively. Any initial dual variables lead to the optimal assignment;
+ * good ones reduce the number of augmentations.
+ *
+ * @author Jean Ollion
+ */
+public class LAPJVSolver
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[LAPJVSolver] ";
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private boolean warmStart;
+
+	private int nRows, nCols;
+
+	// algorithm work arrays
+	private int[] x = new int[ 0 ], y = new int[ 0 ], col = new int[ 0 ], colPos = new int[ 0 ], free = new int[ 0 ], pred = new int[ 0 ];
+
+	private double[] v = new double[ 0 ], d = new double[ 0 ];
+
+	// duals available for warm start
+	private double[] duals = new double[ 0 ];
+
+	private int nDuals = -1;
+
+	// row assignment returned to the caller
+	private int[] assignment = new int[ 0 ];
+
+	// CSR arrays of assembled matrices
+	private int[] rowPtr = new int[ 1 ], colIdx = new int[ 0 ], colCount = new int[ 0 ], cmRowPtr = new int[ 1 ];
+
+	private double[] costs = new double[ 0 ];
+
+	/**
+	 * @param warmStart if true, column dual variables of the next solves are
+	 *            initialized from the previous solve when the number of
+	 *            columns is the same.
+	 */
+	public LAPJVSolver setWarmStart( final boolean warmStart )
+	{
+		this.warmStart = warmStart;
+		return this;
+	}
+
+	/**
+	 * Sets the column dual variables used to warm start the next solve, e.g.
+	 * mapped from the solution of a related problem whose columns are ordered
+	 * differently. Has no effect if warm start is disabled.
+	 *
+	 * @param columnDuals
+	 *            dual variables of the columns.
+	 * @param nCols
+	 *            number of columns of the next problem.
+	 */
+	public void setColumnDuals( final double[] columnDuals, final int nCols )
+	{
+		duals = ensureCapacity( duals, nCols );
+		System.arraycopy( columnDuals, 0, duals, 0, nCols );
+		nDuals = nCols;
+	}
+
+	/**
+	 * Solves the assignment problem of a {@link SparseCostMatrix}.
+	 *
+	 * @return false if the matrix is not valid for this solver, see
+	 *         {@link #getErrorMessage()}.
+	 */
+	public boolean solve( final SparseCostMatrix cm )
+	{
+		cmRowPtr = ensureCapacity( cmRowPtr, cm.nRows + 1 );
+		cmRowPtr[ 0 ] = 0;
+		for ( int i = 0; i < cm.nRows; i++ )
+		{
+			cmRowPtr[ i + 1 ] = cm.start[ i ] + cm.number[ i ];
+		}
+		return solve( cm.nRows, cm.nCols, cmRowPtr, cm.kk, cm.cc );
+	}
+
+	/**
+	 * Solves the assignment problem of the matrix used for frame to frame
+	 * linking by Jaqaman et al.: the top-left block is the linking cost
+	 * matrix, the top-right and bottom-left blocks are diagonal matrices
+	 * containing alternative costs for sources and targets, and the
+	 * bottom-right block is the transpose of the top-left block, filled with
+	 * the minimal alternative cost. The matrix is assembled in the CSR
+	 * arrays of this solver.
+	 * <p>
+	 * Rows (resp. columns) of the result greater than or equal to the number of
+	 * rows (resp. columns) of the linking cost matrix correspond to
+	 * non-assignments.
+	 *
+	 * @param linkingCosts
+	 *            linking costs (top-left block).
+	 * @param alternativeCostForRow
+	 *            alternative cost of each row of the linking cost matrix.
+	 * @param alternativeCostForCol
+	 *            alternative cost of each column of the linking cost matrix.
+	 * @return false if the matrix is not valid for this solver, see
+	 *         {@link #getErrorMessage()}.
+	 */
+	public boolean solveWithAlternatives( final SparseCostMatrix linkingCosts, final IntToDoubleFunction alternativeCostForRow, final IntToDoubleFunction alternativeCostForCol )
+	{
+		final int nR = linkingCosts.nRows;
+		final int nC = linkingCosts.nCols;
+		final int card = linkingCosts.cardinality;
+		final int n = nR + nC;
+		final int nnz = 2 * card + nR + nC;
+		rowPtr = ensureCapacity( rowPtr, n + 1 );
+		colIdx = ensureCapacity( colIdx, nnz );
+		costs = ensureCapacity( costs, nnz );
+		colCount = ensureCapacity( colCount, nC + 1 );
+
+		double minCost = Double.POSITIVE_INFINITY;
+		int k = 0;
+		rowPtr[ 0 ] = 0;
+		// top: linking costs followed by the alternative cost of the row
+		for ( int i = 0; i < nR; i++ )
+		{
+			for ( int kk = linkingCosts.start[ i ]; kk < linkingCosts.start[ i ] + linkingCosts.number[ i ]; kk++ )
+			{
+				colIdx[ k ] = linkingCosts.kk[ kk ];
+				costs[ k++ ] = linkingCosts.cc[ kk ];
+			}
+			final double alt = alternativeCostForRow.applyAsDouble( i );
+			minCost = Math.min( minCost, alt );
+			colIdx[ k ] = nC + i;
+			costs[ k++ ] = alt;
+			rowPtr[ i + 1 ] = k;
+		}
+		// bottom: rows are built from the pattern of the transposed linking cost matrix (counting sort on columns)
+		Arrays.fill( colCount, 0, nC + 1, 0 );
+		for ( int kk = 0; kk < card; kk++ )
+		{
+			colCount[ linkingCosts.kk[ kk ] + 1 ]++;
+		}
+		for ( int j = 0; j < nC; j++ )
+		{
+			final double alt = alternativeCostForCol.applyAsDouble( j );
+			minCost = Math.min( minCost, alt );
+			final int rowStart = rowPtr[ nR + j ];
+			colIdx[ rowStart ] = j;
+			costs[ rowStart ] = alt;
+			rowPtr[ nR + j + 1 ] = rowStart + 1 + colCount[ j + 1 ];
+			colCount[ j + 1 ] = rowStart + 1; // becomes the insertion index of row nR + j
+		}
+		for ( int i = 0; i < nR; i++ ) // rows of the linking matrix are visited in ascending order, so columns of transposed rows are sorted
+		{
+			for ( int kk = linkingCosts.start[ i ]; kk < linkingCosts.start[ i ] + linkingCosts.number[ i ]; kk++ )
+			{
+				final int idx = colCount[ linkingCosts.kk[ kk ] + 1 ]++;
+				colIdx[ idx ] = nC + i;
+				costs[ idx ] = minCost;
+			}
+		}
+		return solve( n, n, rowPtr, colIdx, costs );
+	}
+
+	/**
+	 * Solves the assignment problem of a matrix in compressed sparse row
+	 * format. Column indices must be sorted within each row.
+	 *
+	 * @param nRows
+	 *            number of rows. Must not exceed the number of columns.
+	 * @param nCols
+	 *            number of columns.
+	 * @param rowPtr
+	 *            costs of row <code>i</code> are stored at indices
+	 *            <code>rowPtr[i]</code> (inclusive) to
+	 *            <code>rowPtr[i+1]</code> (exclusive).
+	 * @param colIdx
+	 *            column index of each cost.
+	 * @param cc
+	 *            costs, must be strictly positive.
+	 * @return false if the matrix is not valid for this solver, see
+	 *         {@link #getErrorMessage()}.
+	 */
+	public boolean solve( final int nRows, final int nCols, final int[] rowPtr, final int[] colIdx, final double[] cc )
+	{
+		final long start = System.currentTimeMillis();
+		if ( nRows > nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "This solver converges only if the cost matrix has more rows than column. Found " + nRows + " rows and " + nCols + " columns.";
+			return false;
+		}
+		for ( int k = 0; k < rowPtr[ nRows ]; k++ )
+		{
+			if ( cc[ k ] <= 0 )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accept strictly positive costs. Found " + cc[ k ] + ".";
+				return false;
+			}
+		}
+		this.nRows = nRows;
+		this.nCols = nCols;
+		x = ensureCapacity( x, nRows );
+		free = ensureCapacity( free, nRows );
+		assignment = ensureCapacity( assignment, nRows );
+		y = ensureCapacity( y, nCols );
+		col = ensureCapacity( col, nCols );
+		colPos = ensureCapacity( colPos, nCols );
+		pred = ensureCapacity( pred, nCols );
+		v = ensureCapacity( v, nCols );
+		d = ensureCapacity( d, nCols );
+		Arrays.fill( x, 0, nRows, 0 );
+		Arrays.fill( y, 0, nCols, 0 );
+		for ( int j = 0; j < nCols; j++ )
+		{
+			col[ j ] = j;
+			colPos[ j ] = j;
+		}
+
+		int f = 0;
+		if ( warmStart && nDuals == nCols && validDuals( nCols ) )
+		{
+			// all rows are free, dual variables are those of the previous solve
+			System.arraycopy( duals, 0, v, 0, nCols );
+			for ( int i = 0; i < nRows; i++ )
+			{
+				free[ f++ ] = i;
+			}
+		}
+		else
+		{
+			f = reduce( rowPtr, colIdx, cc );
+		}
+
+		if ( f > 0 )
+		{
+			augmentingRowReduction( f, rowPtr, colIdx, cc );
+		}
+
+		for ( int i = 0; i < nRows; i++ )
+		{
+			assignment[ i ] = x[ i ] - 1;
+		}
+		duals = ensureCapacity( duals, nCols );
+		System.arraycopy( v, 0, duals, 0, nCols );
+		nDuals = nCols;
+		processingTime = System.currentTimeMillis() - start;
+		return true;
+	}
+
+	/**
+	 * Column reduction and reduction transfer.
+	 *
+	 * @return the number of free rows, stored in the <code>free</code> array.
+	 */
+	private int reduce( final int[] rowPtr, final int[] kk, final double[] cc )
+	{
+		Arrays.fill( v, 0, nCols, Double.MAX_VALUE );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = rowPtr[ i ]; k < rowPtr[ i + 1 ]; k++ )
+			{
+				final int j = kk[ k ];
+				if ( cc[ k ] < v[ j ] )
+				{
+					v[ j ] = cc[ k ];
+					y[ j ] = i + 1;
+				}
+			}
+		}
+
+		for ( int j = nCols - 1; j >= 0; j-- )
+		{
+			final int i = y[ j ] - 1;
+			if ( x[ i ] == 0 )
+			{
+				x[ i ] = j + 1;
+			}
+			else
+			{
+				if ( x[ i ] > 0 )
+				{
+					x[ i ] = -x[ i ];
+				}
+				y[ j ] = 0;
+			}
+		}
+
+		int f = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			if ( x[ i ] == 0 )
+			{
+				// unassigned row in free-array
+				free[ f++ ] = i;
+			}
+			else if ( x[ i ] < 0 )
+			{
+				// no reduction transfer possible
+				x[ i ] = -x[ i ];
+			}
+			else
+			{
+				// reduction transfer from assigned row
+				final int j1 = x[ i ] - 1;
+				double min = Double.MAX_VALUE;
+				for ( int k = rowPtr[ i ]; k < rowPtr[ i + 1 ]; k++ )
+				{
+					final int j = kk[ k ];
+					if ( j != j1 )
+					{
+						if ( cc[ k ] - v[ j ] < min )
+						{
+							min = cc[ k ] - v[ j ];
+						}
+					}
+				}
+				v[ j1 ] -= min;
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Augmenting row reduction followed by augmentation of the remaining free
+	 * rows.
+	 */
+	private void augmentingRowReduction( int f, final int[] rowPtr, final int[] kk, final double[] cc )
+	{
+		for ( int count = 0; count < 2; count++ )
+		{
+			int k = 0;
+			final int f0 = f;
+			f = 0;
+			while ( k < f0 )
+			{
+				final int i = free[ k++ ];
+				double v0 = Double.MAX_VALUE;
+				int j0 = 0, j1 = -1;
+				double vj = Double.MAX_VALUE;
+				for ( int kj = rowPtr[ i ]; kj < rowPtr[ i + 1 ]; kj++ )
+				{
+					final int j = kk[ kj ];
+					final double h = cc[ kj ] - v[ j ];
+					if ( h < vj )
+					{
+						if ( h > v0 )
+						{
+							vj = h;
+							j1 = j;
+						}
+						else
+						{
+							vj = v0;
+							v0 = h;
+							j1 = j0;
+							j0 = j;
+						}
+					}
+				}
+				int i0 = y[ j0 ] - 1;
+				if ( v0 < vj )
+				{
+					v[ j0 ] -= vj - v0;
+				}
+				else
+				{
+					if ( i0 >= 0 )
+					{
+						j0 = j1;
+						i0 = y[ j1 ] - 1;
+					}
+				}
+				if ( i0 >= 0 )
+				{
+					if ( v0 < vj )
+					{
+						free[ --k ] = i0;
+					}
+					else
+					{
+						free[ f++ ] = i0;
+					}
+				}
+				x[ i ] = j0 + 1;
+				y[ j0 ] = i + 1;
+			}
+		}
+		augment( f, rowPtr, kk, cc );
+	}
+
+	private void augment( final int f0, final int[] rowPtr, final int[] kk, final double[] cc )
+	{
+		for ( int f = 0; f < f0; f++ )
+		{
+			final int i1 = free[ f ];
+			int low = 0, up = 0;
+			// initialize d- and pred-array
+			Arrays.fill( d, 0, nCols, Double.MAX_VALUE );
+			for ( int k = rowPtr[ i1 ]; k < rowPtr[ i1 + 1 ]; k++ )
+			{
+				final int j = kk[ k ];
+				d[ j ] = cc[ k ] - v[ j ];
+				pred[ j ] = i1;
+			}
+			int last;
+			int i, j = -1;
+			double min;
+			LOOP: do
+			{
+				// find new columns with new value for minimum d
+				{
+					last = low;
+					min = d[ col[ up++ ] ];
+					for ( int k = up; k < nCols; k++ )
+					{
+						j = col[ k ];
+						final double h = d[ j ];
+						if ( h <= min )
+						{
+							if ( h < min )
+							{
+								up = low;
+								min = h;
+							}
+							swap( k, up++ );
+						}
+					}
+					for ( int h = low; h < up; h++ )
+					{
+						j = col[ h ];
+						if ( y[ j ] == 0 )
+						{
+							break LOOP;
+						}
+					}
+				}
+				// scan a row
+				do
+				{
+					final int j1 = col[ low++ ];
+					i = y[ j1 ] - 1;
+
+					final int kj1 = Arrays.binarySearch( kk, rowPtr[ i ], rowPtr[ i + 1 ], j1 );
+					if ( kj1 < 0 )
+					{
+						continue;
+					}
+
+					final double u1 = cc[ kj1 ] - v[ j1 ] - min;
+					// only the costs of the row are visited: columns that are not yet scanned are those located after up in col
+					for ( int kj = rowPtr[ i ]; kj < rowPtr[ i + 1 ]; kj++ )
+					{
+						j = kk[ kj ];
+						final int k = colPos[ j ];
+						if ( k < up )
+						{
+							continue;
+						}
+
+						final double h = cc[ kj ] - v[ j ] - u1;
+						if ( h < d[ j ] )
+						{
+							d[ j ] = h;
+							pred[ j ] = i;
+							if ( h == min )
+							{
+								if ( y[ j ] == 0 )
+								{
+									break LOOP;
+								}
+								swap( k, up++ );
+							}
+						}
+					}
+				}
+				while ( low != up );
+			}
+			while ( low == up );
+
+			// updating of column pieces
+			for ( int k = 0; k < last; k++ )
+			{
+				final int j0 = col[ k ];
+				v[ j0 ] += d[ j0 ] - min;
+			}
+
+			// augmentation
+			do
+			{
+				i = pred[ j ];
+				y[ j ] = i + 1;
+				final int k = j;
+				j = x[ i ] - 1;
+				x[ i ] = k + 1;
+			}
+			while ( i1 != i );
+		}
+	}
+
+	private void swap( final int k1, final int k2 )
+	{
+		final int j1 = col[ k1 ];
+		final int j2 = col[ k2 ];
+		col[ k1 ] = j2;
+		colPos[ j2 ] = k1;
+		col[ k2 ] = j1;
+		colPos[ j1 ] = k2;
+	}
+
+	/**
+	 * The augmenting row reduction pushes the dual variable of the only column
+	 * of a row to an extreme value: such dual variables are not used for warm
+	 * start.
+	 */
+	private boolean validDuals( final int nCols )
+	{
+		for ( int j = 0; j < nCols; j++ )
+		{
+			if ( Double.isNaN( duals[ j ] ) || Math.abs( duals[ j ] ) > 1e100 ) { return false; }
+		}
+		return true;
+	}
+
+	private static int[] ensureCapacity( final int[] array, final int size )
+	{
+		return array.length >= size ? array : new int[ Math.max( size, array.length + ( array.length >> 1 ) ) ];
+	}
+
+	private static double[] ensureCapacity( final double[] array, final int size )
+	{
+		return array.length >= size ? array : new double[ Math.max( size, array.length + ( array.length >> 1 ) ) ];
+	}
+
+	/**
+	 * Returns the row assignment of the last solve: the row <code>i</code> is
+	 * associated to the column <code>getRowAssignment()[i]</code>. The array
+	 * is a work array of this solver: it is overwritten by the next solve and
+	 * its length may be larger than the number of rows.
+	 */
+	public int[] getRowAssignment()
+	{
+		return assignment;
+	}
+
+	/**
+	 * @return the dual variables of the columns of the last solve. The array is
+	 *         a work array of this solver, its length may be larger than the
+	 *         number of columns.
+	 */
+	public double[] getColumnDuals()
+	{
+		return duals;
+	}
+
+	public int getNRows()
+	{
+		return nRows;
+	}
+
+	public int getNCols()
+	{
+		return nCols;
+	}
+
+	/**
+	 * @return the cost of assigning row <code>i</code> to column
+	 *         <code>j</code> in the last matrix assembled by
+	 *         {@link #solveWithAlternatives(SparseCostMatrix, IntToDoubleFunction, IntToDoubleFunction)},
+	 *         or <code>missingValue</code> if there is no such cost.
+	 */
+	public double getAssembledCost( final int i, final int j, final double missingValue )
+	{
+		final int k = Arrays.binarySearch( colIdx, rowPtr[ i ], rowPtr[ i + 1 ], j );
+		return k < 0 ? missingValue : costs[ k ];
+	}
+
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+}
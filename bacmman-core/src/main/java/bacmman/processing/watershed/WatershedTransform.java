@@ -143,7 +143,7 @@ public class WatershedTransform {
         this.decreasingPropagation = config.decreasingPropagation;
         this.lowConnectivity = config.lowConnectivity;
         this.prop = config.prop;
-        heap = SortedCoordSet.create(watershedMap, decreasingPropagation);
+        heap = SortedCoordSet.create(watershedMap, decreasingPropagation, mask.count()); // propagation is limited to the mask
         this.mask=mask;
         this.watershedMap=watershedMap;
         spots = new HashMap<>(regionalExtrema.size()+1);
@@ -40,6 +40,7 @@ import bacmman.utils.Utils;
  */
 public class Console implements PlugIn {
     static final String WATCH_DIR_KEY = "watch_dir";
+    static final String WORKERS_KEY = "daemon_workers";
     Daemon d;
     ConsoleProgressLogger ui = new ConsoleProgressLogger();
     public static void main(String[] args) {
@@ -103,8 +104,8 @@ public class Console implements PlugIn {
     }
     
     private boolean promptCommand() {
-        ui.setMessage("Current Watch Dir: "+PropertyUtils.get(WATCH_DIR_KEY, "NONE"));
-        String c = prompt("Type \"R\" to run daemon \"S\" to set watch directory \"q\" to exit shell:");
+        ui.setMessage("Current Watch Dir: "+PropertyUtils.get(WATCH_DIR_KEY, "NONE")+ " Workers: "+PropertyUtils.get(WORKERS_KEY, 1));
+        String c = prompt("Type \"R\" to run daemon \"S\" to set watch directory \"W\" to set number of workers \"q\" to exit shell:");
         if (c.equals("S")) {
            String dir = this.prompt("Type watch directory");
            if (dir!=null && new File(dir).isDirectory()) {
@@ -112,6 +113,15 @@ public class Console implements PlugIn {
                PropertyUtils.set(WATCH_DIR_KEY, dir);
            }
            return false;
+        } else if (c.equals("W")) {
+            String n = this.prompt("Type number of concurrent workers");
+            try {
+                int workers = Integer.parseInt(n);
+                if (workers>0) PropertyUtils.set(WORKERS_KEY, workers);
+            } catch (NumberFormatException e) {
+                ui.setMessage("Invalid number: "+n);
+            }
+            return false;
         } else if (c.equals("R")) {
             runDaemon();
             return false;
@@ -132,7 +142,7 @@ public class Console implements PlugIn {
         } else {
             ui.setMessage("Watch Directory: "+watchDir);
         }
-        d = new Daemon(ui);
+        d = new Daemon(ui).setWorkers(PropertyUtils.get(WORKERS_KEY, 1));
         d.watchDirectory(watchDir);
     }
     
@@ -0,0 +1,276 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+
+/**
+ * Primitive binary min-heap of (double key, long item) pairs, indexed by item so that membership test and decrease-key are O(1) and O(log n).
+ * Items are unique. Items with equal keys are ordered by increasing item value.
+ * Items are typically pixel coordinates in [0; capacity): positions are then indexed in an array when the heap is expected to hold a large fraction of the item range, otherwise in a hash map, so that memory is proportional to the content and not to the image.
+ * Buffers are kept when the heap is cleared, so that a heap can be reused (e.g. one per thread) to process many objects
+ * @author Jean Ollion
+ */
+public class IndexedMinHeap {
+    public static int MAX_ARRAY_INDEX = 1 << 24; // larger item ranges are indexed with a hash map
+    public static int MIN_ARRAY_INDEX = 1 << 12; // smaller item ranges are always indexed with an array
+    public static int MAX_SPARSITY = 8; // item ranges larger than MAX_SPARSITY times the expected number of items are indexed with a hash map
+    double[] keys;
+    long[] items;
+    int size;
+    int[] positionArray;
+    Long2IntOpenHashMap positionMap;
+
+    /**
+     * @param capacity exclusive upper bound of the items, or a negative value if unknown
+     */
+    public IndexedMinHeap(long capacity) {
+        this(capacity, capacity);
+    }
+
+    /**
+     * @param capacity exclusive upper bound of the items, or a negative value if unknown
+     * @param expectedSize expected maximal number of items in the heap, or a negative value if unknown
+     */
+    public IndexedMinHeap(long capacity, long expectedSize) {
+        keys = new double[16];
+        items = new long[16];
+        ensureCapacity(capacity, expectedSize);
+    }
+
+    /**
+     * Clears the heap and allows items in [0; {@param capacity}), which may all be in the heap
+     * @param capacity exclusive upper bound of the items, or a negative value if unknown
+     * @return this heap
+     */
+    public IndexedMinHeap ensureCapacity(long capacity) {
+        return ensureCapacity(capacity, capacity);
+    }
+
+    /**
+     * Clears the heap and allows items in [0; {@param capacity})
+     * @param capacity exclusive upper bound of the items, or a negative value if unknown
+     * @param expectedSize expected maximal number of items in the heap, or a negative value if unknown
+     * @return this heap
+     */
+    public IndexedMinHeap ensureCapacity(long capacity, long expectedSize) {
+        clear();
+        boolean dense = capacity <= MIN_ARRAY_INDEX || (expectedSize >= 0 && expectedSize * MAX_SPARSITY >= capacity);
+        if (capacity >= 0 && capacity <= MAX_ARRAY_INDEX && dense) {
+            positionMap = null;
+            if (positionArray == null || positionArray.length < capacity) {
+                positionArray = new int[(int)capacity];
+                Arrays.fill(positionArray, -1);
+            }
+        } else {
+            positionArray = null;
+            if (positionMap == null) {
+                positionMap = expectedSize > 0 ? new Long2IntOpenHashMap((int)Math.min(expectedSize, MIN_ARRAY_INDEX)) : new Long2IntOpenHashMap();
+                positionMap.defaultReturnValue(-1);
+            }
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long item) {
+        return position(item) >= 0;
+    }
+
+    /**
+     * @return key of {@param item} or NaN if it is not in the heap
+     */
+    public double getKey(long item) {
+        int pos = position(item);
+        return pos < 0 ? Double.NaN : keys[pos];
+    }
+
+    /**
+     * Adds {@param item} if it is not present
+     * @return true if the item was added
+     */
+    public boolean add(long item, double key) {
+        if (contains(item)) return false;
+        if (size == items.length) {
+            int newLength = items.length * 2;
+            items = Arrays.copyOf(items, newLength);
+            keys = Arrays.copyOf(keys, newLength);
+        }
+        items[size] = item;
+        keys[size] = key;
+        setPosition(item, size);
+        siftUp(size++);
+        return true;
+    }
+
+    /**
+     * Lowers the key of an item present in the heap
+     * @return true if the key was lowered
+     */
+    public boolean decreaseKey(long item, double key) {
+        int pos = position(item);
+        if (pos < 0 || !(key < keys[pos])) return false;
+        keys[pos] = key;
+        siftUp(pos);
+        return true;
+    }
+
+    /**
+     * Adds {@param item} or lowers its key if it is already present with a larger key
+     * @return true if the heap was modified
+     */
+    public boolean addOrDecreaseKey(long item, double key) {
+        int pos = position(item);
+        if (pos < 0) return add(item, key);
+        if (!(key < keys[pos])) return false;
+        keys[pos] = key;
+        siftUp(pos);
+        return true;
+    }
+
+    public long peek() {
+        if (size == 0) throw new IllegalStateException("Empty heap");
+        return items[0];
+    }
+
+    public double peekKey() {
+        if (size == 0) throw new IllegalStateException("Empty heap");
+        return keys[0];
+    }
+
+    /**
+     * Removes the item with the lowest key
+     * @return the removed item
+     */
+    public long poll() {
+        long res = peek();
+        removeAt(0);
+        return res;
+    }
+
+    public boolean remove(long item) {
+        int pos = position(item);
+        if (pos < 0) return false;
+        removeAt(pos);
+        return true;
+    }
+
+    public void removeIf(LongPredicate filter) {
+        int newSize = 0;
+        for (int i = 0; i < size; ++i) {
+            if (filter.test(items[i])) setPosition(items[i], -1);
+            else {
+                items[newSize] = items[i];
+                keys[newSize] = keys[i];
+                setPosition(items[newSize], newSize);
+                ++newSize;
+            }
+        }
+        size = newSize;
+        for (int i = (size >>> 1) - 1; i >= 0; --i) siftDown(i); // heapify
+    }
+
+    /**
+     * Removes all items. Buffers are kept.
+     */
+    public void clear() {
+        if (positionArray != null) for (int i = 0; i < size; ++i) positionArray[(int)items[i]] = -1;
+        if (positionMap != null) positionMap.clear();
+        size = 0;
+    }
+
+    /**
+     * @return items in heap order (not sorted)
+     */
+    public LongStream stream() {
+        return Arrays.stream(items, 0, size);
+    }
+
+    private void removeAt(int pos) {
+        setPosition(items[pos], -1);
+        --size;
+        if (pos == size) return;
+        items[pos] = items[size];
+        keys[pos] = keys[size];
+        setPosition(items[pos], pos);
+        if (pos > 0 && less(pos, (pos - 1) >>> 1)) siftUp(pos);
+        else siftDown(pos);
+    }
+
+    private boolean less(int i, int j) {
+        return keys[i] < keys[j] || (keys[i] == keys[j] && items[i] < items[j]);
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(pos, parent)) break;
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) break;
+            if (child + 1 < size && less(child + 1, child)) ++child;
+            if (!less(child, pos)) break;
+            swap(pos, child);
+            pos = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long item = items[i];
+        double key = keys[i];
+        items[i] = items[j];
+        keys[i] = keys[j];
+        items[j] = item;
+        keys[j] = key;
+        setPosition(items[i], i);
+        setPosition(items[j], j);
+    }
+
+    private int position(long item) {
+        if (positionArray != null) return item >= 0 && item < positionArray.length ? positionArray[(int)item] : -1;
+        else return positionMap.get(item);
+    }
+
+    private void setPosition(long item, int pos) {
+        if (positionArray != null) {
+            if (item < 0 || item >= positionArray.length) throw new IllegalArgumentException("Item "+item+" out of heap capacity: "+positionArray.length);
+            positionArray[(int)item] = pos;
+        } else {
+            if (pos < 0) positionMap.remove(item);
+            else positionMap.put(item, pos);
+        }
+    }
+}
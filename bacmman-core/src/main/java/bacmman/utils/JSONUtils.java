@@ -243,6 +243,76 @@ public class JSONUtils {
         Object res= new JSONParser().parse(s);
         return (JSONAware)res;
     }
+    /**
+     * Locates the value associated to {@param key} in the top-level object of {@param json}, without parsing it
+     * @param json JSON representation of an object
+     * @param key key of the top-level object (without escaped characters)
+     * @return start (inclusive) and end (exclusive) indices of the value in {@param json}, or null if the key is not found
+     */
+    public static int[] findTopLevelValue(String json, String key) {
+        int depth = 0;
+        int i = 0;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                int end = skipString(json, i);
+                if (depth == 1 && end - i - 2 == key.length() && json.startsWith(key, i + 1)) {
+                    int j = skipWhiteSpaces(json, end);
+                    if (j < json.length() && json.charAt(j) == ':') { // string is a key
+                        int start = skipWhiteSpaces(json, j + 1);
+                        return new int[]{start, skipValue(json, start)};
+                    }
+                }
+                i = end;
+            } else {
+                if (c == '{' || c == '[') ++depth;
+                else if (c == '}' || c == ']') --depth;
+                ++i;
+            }
+        }
+        return null;
+    }
+
+    private static int skipString(String json, int start) { // start is the index of the opening quote
+        int i = start + 1;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '\\') i += 2;
+            else if (c == '"') return i + 1;
+            else ++i;
+        }
+        return json.length();
+    }
+
+    private static int skipWhiteSpaces(String json, int start) {
+        int i = start;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) ++i;
+        return i;
+    }
+
+    private static int skipValue(String json, int start) {
+        char c = json.charAt(start);
+        if (c == '"') return skipString(json, start);
+        int i = start;
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < json.length()) {
+                c = json.charAt(i);
+                if (c == '"') {
+                    i = skipString(json, i);
+                    continue;
+                }
+                if (c == '{' || c == '[') ++depth;
+                else if (c == '}' || c == ']') --depth;
+                ++i;
+                if (depth == 0) return i;
+            }
+            return i;
+        }
+        while (i < json.length() && ",}] \t\r\n".indexOf(json.charAt(i)) < 0) ++i; // number, boolean or null
+        return i;
+    }
+
     public static <T extends JSONSerializable> T parse(Class<T> clazz, String s) throws ParseException {
         if (Measurements.class.equals(clazz)) {
             throw new IllegalArgumentException("Cannot create measurement only from JSON need position name");
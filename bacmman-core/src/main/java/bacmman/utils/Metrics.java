@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.utils;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight registry of timers, counters and histograms for the processing hot paths.
+ * Metrics are recorded in the current scope of the calling thread (see {@link #push(String)} / {@link #pop()}) so that a report can be emitted per position and per task. Threads without scope record in a global scope.
+ * Work delegated to other threads is recorded in the scope of the submitting thread when wrapped with {@link #inCurrentScope(Runnable)} (this is done by {@link ThreadRunner}).
+ * Recording is thread-safe and only costs a map lookup and a few atomic updates, so it can be called from parallel processing at plugin-call granularity.
+ * Set system property "bacmman.metrics" to false to disable recording, and "bacmman.metrics.jfr" to true to also emit a Java Flight Recorder event for each timed call.
+ * @author Jean Ollion
+ */
+public class Metrics {
+    public final static Logger logger = LoggerFactory.getLogger(Metrics.class);
+    public enum STAGE {PRE_FILTER, TRACK_PRE_FILTER, SEGMENTER, POST_FILTER, TRACKER, TRACK_POST_FILTER, MEASUREMENT, DAO_READ, DAO_WRITE, SERIALIZATION, IMAGE_DECODE, DL_ENGINE}
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("bacmman.metrics"));
+    private static final boolean jfr = Boolean.getBoolean("bacmman.metrics.jfr") && MetricsJFR.isAvailable();
+    private static final Metrics GLOBAL = new Metrics("global", null);
+    private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<>();
+
+    final String scope;
+    final Metrics parent;
+    final long startNanos = System.nanoTime();
+    final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    Metrics(String scope, Metrics parent) {
+        this.scope = scope;
+        this.parent = parent;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return current scope of the calling thread
+     */
+    public static Metrics getCurrent() {
+        Metrics res = CURRENT.get();
+        return res == null ? GLOBAL : res;
+    }
+
+    /**
+     * Opens a new scope on the calling thread: all metrics recorded by this thread until the corresponding {@link #pop()} are stored in this scope
+     * @param scope name of the scope (e.g. position name)
+     * @return the new scope
+     */
+    public static Metrics push(String scope) {
+        Metrics res = new Metrics(scope, getCurrent());
+        CURRENT.set(res);
+        return res;
+    }
+
+    /**
+     * Closes the current scope of the calling thread and merges its metrics into the parent scope
+     * @return the closed scope, or an empty scope if no scope was opened by the calling thread
+     */
+    public static Metrics pop() {
+        Metrics res = CURRENT.get();
+        if (res == null) return new Metrics(GLOBAL.scope, null);
+        res.parent.merge(res);
+        if (res.parent == GLOBAL) CURRENT.remove();
+        else CURRENT.set(res.parent);
+        return res;
+    }
+
+    /**
+     * @param action action that may be run on another thread
+     * @return action that records metrics in the current scope of the calling thread, whatever the thread it is run on
+     */
+    public static Runnable inCurrentScope(Runnable action) {
+        Metrics scope = CURRENT.get();
+        if (scope == null) return action;
+        return () -> {
+            Metrics previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                action.run();
+            } finally { // pooled threads do not retain the scope
+                if (previous == null) CURRENT.remove();
+                else CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * @see #inCurrentScope(Runnable)
+     */
+    public static <T> Consumer<T> inCurrentScope(Consumer<T> action) {
+        Metrics scope = CURRENT.get();
+        if (scope == null) return action;
+        return t -> {
+            Metrics previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                action.accept(t);
+            } finally {
+                if (previous == null) CURRENT.remove();
+                else CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Starts a timer. Intended use: {@code try (Metrics.Context c = Metrics.time(STAGE.SEGMENTER, name)) { ... }}
+     * @param stage processing stage
+     * @param name name of the plugin / operation
+     * @return context that records the elapsed time when closed
+     */
+    public static Context time(STAGE stage, String name) {
+        if (!enabled) return NO_OP;
+        return new Context(getCurrent().timer(stage, name), jfr ? MetricsJFR.begin(stage, name) : null);
+    }
+
+    public static <T> T time(STAGE stage, String name, Supplier<T> function) {
+        try (Context c = time(stage, name)) {
+            return function.get();
+        }
+    }
+
+    public static void time(STAGE stage, String name, Runnable function) {
+        try (Context c = time(stage, name)) {
+            function.run();
+        }
+    }
+
+    /**
+     * Records a duration that was measured by the caller, e.g. when timing code that already logs its own elapsed time
+     * @param stage processing stage
+     * @param name name of the plugin / operation
+     * @param duration elapsed time
+     * @param unit unit of {@param duration}
+     */
+    public static void time(STAGE stage, String name, long duration, TimeUnit unit) {
+        if (!enabled) return;
+        getCurrent().timer(stage, name).record(unit.toNanos(duration));
+    }
+
+    public static void count(STAGE stage, String name, long n) {
+        if (!enabled) return;
+        getCurrent().counters.computeIfAbsent(key(stage, name), k -> new Counter()).add(n);
+    }
+
+    public static void record(STAGE stage, String name, long value) {
+        if (!enabled) return;
+        getCurrent().histograms.computeIfAbsent(key(stage, name), k -> new Histogram()).record(value);
+    }
+
+    public static String name(Object plugin) {
+        return plugin == null ? "null" : plugin.getClass().getSimpleName();
+    }
+
+    Timer timer(STAGE stage, String name) {
+        return timers.computeIfAbsent(key(stage, name), k -> new Timer());
+    }
+
+    static String key(STAGE stage, String name) {
+        return stage.name() + "/" + name;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public boolean isEmpty() {
+        return timers.isEmpty() && counters.isEmpty() && histograms.isEmpty();
+    }
+
+    void merge(Metrics other) {
+        other.timers.forEach((k, t) -> timers.computeIfAbsent(k, kk -> new Timer()).merge(t));
+        other.counters.forEach((k, c) -> counters.computeIfAbsent(k, kk -> new Counter()).add(c.get()));
+        other.histograms.forEach((k, h) -> histograms.computeIfAbsent(k, kk -> new Histogram()).merge(h));
+    }
+
+    /**
+     * @return summary of the scope: { scope, wallTimeMs, timers: {stage: {name: {...}}}, counters: {stage: {name: value}}, histograms: {stage: {name: {...}}} }
+     */
+    public JSONObject toJSONEntry() {
+        JSONObject res = new JSONObject();
+        res.put("scope", scope);
+        res.put("wallTimeMs", (System.nanoTime() - startNanos) / 1e6);
+        res.put("timers", byStage(timers, Timer::toJSONEntry));
+        res.put("counters", byStage(counters, Counter::get));
+        res.put("histograms", byStage(histograms, h -> h.toJSONEntry(1)));
+        return res;
+    }
+
+    private static <M> JSONObject byStage(Map<String, M> metrics, Function<M, Object> toJSON) {
+        TreeMap<String, JSONObject> res = new TreeMap<>();
+        new TreeMap<>(metrics).forEach((k, m) -> {
+            int i = k.indexOf('/');
+            res.computeIfAbsent(k.substring(0, i), s -> new JSONObject()).put(k.substring(i+1), toJSON.apply(m));
+        });
+        JSONObject json = new JSONObject();
+        json.putAll(res);
+        return json;
+    }
+
+    public static class Context implements AutoCloseable {
+        final Timer timer;
+        final Object jfrEvent;
+        final long start;
+        Context(Timer timer, Object jfrEvent) {
+            this.timer = timer;
+            this.jfrEvent = jfrEvent;
+            this.start = System.nanoTime();
+        }
+        @Override
+        public void close() {
+            if (timer == null) return;
+            timer.record(System.nanoTime() - start);
+            if (jfrEvent != null) MetricsJFR.commit(jfrEvent);
+        }
+    }
+    private final static Context NO_OP = new Context(null, null);
+
+    public static class Counter {
+        final LongAdder count = new LongAdder();
+        public void add(long n) {
+            count.add(n);
+        }
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    public static class Timer {
+        final Histogram durations = new Histogram();
+        public void record(long nanos) {
+            durations.record(nanos);
+        }
+        void merge(Timer other) {
+            durations.merge(other.durations);
+        }
+        public long getCount() {
+            return durations.getCount();
+        }
+        public JSONObject toJSONEntry() {
+            return durations.toJSONEntry(1e-6); // nanoseconds to milliseconds
+        }
+    }
+
+    /**
+     * Log-linear histogram of positive long values: 4 linear sub-buckets per power of two, i.e. a relative error lower than 12.5%
+     */
+    public static class Histogram {
+        final static int SUB_BUCKETS = 4;
+        final AtomicLongArray buckets = new AtomicLongArray(256);
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value < min.get()) min.accumulateAndGet(value, Math::min);
+            if (value > max.get()) max.accumulateAndGet(value, Math::max);
+        }
+
+        void merge(Histogram other) {
+            for (int i = 0; i<buckets.length(); ++i) {
+                long n = other.buckets.get(i);
+                if (n>0) buckets.addAndGet(i, n);
+            }
+            count.add(other.count.sum());
+            sum.add(other.sum.sum());
+            min.accumulateAndGet(other.min.get(), Math::min);
+            max.accumulateAndGet(other.max.get(), Math::max);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int)value;
+            int exp = 63 - Long.numberOfLeadingZeros(value); // >= 2
+            int sub = (int)((value >>> (exp - 2)) & (SUB_BUCKETS - 1));
+            return SUB_BUCKETS + (exp - 2) * SUB_BUCKETS + sub;
+        }
+
+        static double bucketCenter(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exp = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            double lower = (double)((SUB_BUCKETS + sub) * (1L << (exp - 2)));
+            return lower + (1L << (exp - 2)) / 2.;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getQuantile(double quantile) {
+            long n = count.sum();
+            if (n == 0) return Double.NaN;
+            long rank = (long)Math.ceil(quantile * n);
+            if (rank < 1) rank = 1;
+            long cum = 0;
+            for (int i = 0; i<buckets.length(); ++i) {
+                cum += buckets.get(i);
+                if (cum >= rank) return Math.min(Math.max(bucketCenter(i), min.get()), max.get());
+            }
+            return max.get();
+        }
+
+        public JSONObject toJSONEntry(double scale) {
+            JSONObject res = new JSONObject();
+            long n = count.sum();
+            res.put("count", n);
+            if (n == 0) return res;
+            res.put("total", sum.sum() * scale);
+            res.put("mean", (double)sum.sum() / n * scale);
+            res.put("min", min.get() * scale);
+            res.put("p50", getQuantile(0.5) * scale);
+            res.put("p90", getQuantile(0.9) * scale);
+            res.put("p99", getQuantile(0.99) * scale);
+            res.put("max", max.get() * scale);
+            return res;
+        }
+    }
+}
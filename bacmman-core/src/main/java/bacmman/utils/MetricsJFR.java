@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder integration of {@link Metrics}. This class is only loaded when JFR events are enabled, so that JFR is not required at runtime.
+ * @author Jean Ollion
+ */
+class MetricsJFR {
+    static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object begin(Metrics.STAGE stage, String name) {
+        ProcessingEvent event = new ProcessingEvent();
+        if (!event.isEnabled()) return null;
+        event.stage = stage.name();
+        event.operation = name;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event) {
+        ((ProcessingEvent)event).commit();
+    }
+
+    @Name("bacmman.Processing")
+    @Label("Processing Stage")
+    @Category("BACMMAN")
+    static class ProcessingEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Operation")
+        String operation;
+    }
+}
@@ -210,9 +210,10 @@ public class ThreadRunner<T> {
         int idx=0;
         for (T e : array) {
             final int i = idx;
+            Runnable run = Metrics.inCurrentScope(() -> action.run(e, i));
             completion.submit(()->{
                 try {
-                    action.run(e, i);
+                    run.run();
                 } catch (Throwable ex) {
                     return new Pair(e.toString(), ex);
                 }
@@ -262,10 +263,11 @@ public class ThreadRunner<T> {
         while(it.hasNext()) {
             T e = it.next();
             final int i = count;
+            Runnable run = Metrics.inCurrentScope(() -> action.run(e, i));
             completion.submit(()->{
                 try {
                     //if (pcb!=null) pcb.log("will run process: "+i+" -> "+e);
-                    action.run(e, i);
+                    run.run();
                     //if (pcb!=null) pcb.log("has run process: "+i+" -> "+e);
                 } catch (Throwable ex) {
                     //logger.debug("error on: "+e, ex);
@@ -297,9 +299,10 @@ public class ThreadRunner<T> {
     }
     public static <T> void executeAndThrowErrors(Stream<T> stream, Consumer<T> action) {
         MultipleException e = new MultipleException();
+        Consumer<T> scopedAction = Metrics.inCurrentScope(action);
         stream.forEach(t -> {
             try {
-                action.accept(t);
+                scopedAction.accept(t);
             } catch (MultipleException me) {
                 synchronized(e) {e.addExceptions(me.getExceptions());}
             } catch(Throwable ex) {
@@ -1675,7 +1675,7 @@ public class DiSTNet2D implements TrackerSegmenter, TestableProcessingPlugin, Hi
                     return res;
                 };
             case SPLIT_IN_TWO:
-                SegmenterSplitAndMerge seg = getSegmenter(prediction);
+                SegmenterSplitAndMergeCache seg = getSegmenter(prediction).cached(); // a same object can be split several times during post-processing
                 WatershedObjectSplitter ws = TrackPostProcessing.ALTERNATIVE_SPLIT.DISABLED.equals(alternativeSplit)? null : new WatershedObjectSplitter(1, TrackPostProcessing.ALTERNATIVE_SPLIT.BRIGHT_OBJECTS.equals(alternativeSplit));
                 return toSplit -> {
                     List<Region> res = new ArrayList<>();
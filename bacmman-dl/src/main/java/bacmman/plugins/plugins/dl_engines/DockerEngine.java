@@ -134,6 +134,13 @@ public class DockerEngine implements DLEngine, DLMetadataConfigurable, Hint {
 
     @Override
     public synchronized Image[][][] process(Image[][]... inputNC) {
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.DL_ENGINE, Metrics.name(this))) {
+            if (inputNC.length>0) Metrics.count(Metrics.STAGE.DL_ENGINE, Metrics.name(this), inputNC[0].length);
+            return processInputs(inputNC);
+        }
+    }
+
+    protected Image[][][] processInputs(Image[][]... inputNC) {
         if (containerID == null) throw new RuntimeException("Engine not initialized (no container)");
         if (!dockerGateway.isContainerRunning(containerID)) { // restart container
             containerID = null;
@@ -228,7 +228,7 @@ public class DistNet implements TrackerSegmenter, TestableProcessingPlugin, Hint
         int maxFrame = objectsF.keySet().stream().mapToInt(i->i).max().getAsInt();
         double maxCorrectionCost = this.correctionMaxCost.getValue().doubleValue();
         double divisionCost = this.divisionCost.getValue().doubleValue();
-        SegmenterSplitAndMerge seg = getSegmenter();
+        SegmenterSplitAndMergeCache seg = getSegmenter().cached(); // same merge costs are evaluated several times
         ToDoubleFunction<List<SegmentedObject>> computeMergeCost = toMergeL -> {
             SegmentedObject parent = toMergeL.get(0).getParent();
             List<Region> regions = toMergeL.stream().map(SegmentedObject::getRegion).collect(Collectors.toList());
@@ -139,6 +139,8 @@ public class GUI extends javax.swing.JFrame implements ProgressLogger {
     private ConfigurationTreeGenerator testConfigurationTreeGenerator;
     
     // enable/disable components
+    private BooleanParameter persistPyramids = new BooleanParameter("Persist Downsampled Images", false).setHint("If this option is set, downsampled planes of pre-processed images and kymographs are saved in the folder pre_processed/pyramid of each position when they are displayed at full resolution. <br>Once saved, they are displayed instead of full resolution planes when the image is zoomed out, which avoids decoding full resolution planes. Pixel values and measurements still use full resolution planes. <br>Downsampled planes are erased when pre-processed images are modified.");
+    private IntegerParameter roiCacheSize = new IntegerParameter("ROI Cache Size", 0).setLowerBound(0).setHint("Maximum memory (in MB) used to cache ROIs of objects and tracks. When this limit is reached, least recently used ROIs are removed from the cache (displayed ROIs are never removed). <br />0 = automatic: 1/8 of maximal memory, up to 512MB");
     private NumberParameter openImageLimit = new BoundedNumberParameter("Open Image Limit", 0, 5, 0, null);
     private ChoiceParameter interactiveImageType = new ChoiceParameter("Default Interactive Image Type", new String[]{"AUTOMATIC", "KYMOGRAPH", "HYPERSTACK"}, "AUTOMATIC", false).setHint("Default Interactive image type, for testing. Automatic: determines with the aspect ratio of the parent image: for rather square images will be opened as hyperstacks");
     private ChoiceParameter hyperstackMode = new ChoiceParameter("Default Hyperstack Mode", new String[]{"HYPERSTACK", "IMAGE5D"}, "HYPERSTACK", false).setHint("If IMAGE5D is chosen, hyperstack will be open using the image 5D plugin, allowing to display color image. Note that with this mode the whole image needs to be loaded in memory");
@@ -567,6 +569,19 @@ public class GUI extends javax.swing.JFrame implements ProgressLogger {
         ConfigurationTreeGenerator.addToMenu(processingWindow, memoryMenu);
         processingWindow.addListener(p->Core.PRE_PROCESSING_WINDOW = p.getIntValue());
         Core.PRE_PROCESSING_WINDOW = processingWindow.getIntValue();
+        PropertyUtils.setPersistent(roiCacheSize, "roi_cache_size");
+        ConfigurationTreeGenerator.addToMenu(roiCacheSize, memoryMenu);
+        ImageWindowManagerFactory.getImageManager().setRoiCacheSize(roiCacheSize.getIntValue());
+        roiCacheSize.addListener(p->ImageWindowManagerFactory.getImageManager().setRoiCacheSize(p.getIntValue()));
+        PropertyUtils.setPersistent(persistPyramids, "persist_pyramid");
+        ConfigurationTreeGenerator.addToMenu(persistPyramids, memoryMenu);
+        ImageWindowManagerFactory.getImageManager().setPersistPyramids(persistPyramids.getSelected());
+        persistPyramids.addListener(p->ImageWindowManagerFactory.getImageManager().setPersistPyramids(p.getSelected()));
+        JMenuItem memoryUsage = new javax.swing.JMenuItem();
+        memoryUsage.setText("Display Memory Usage");
+        memoryUsage.setToolTipText("Display memory used by the JVM and usage statistics of ROI caches");
+        memoryUsage.addActionListener(evt -> displayMemoryUsage());
+        memoryMenu.add(memoryUsage);
 
         // tensorflow
         PropertyUtils.setPersistent(tfPerProcessGpuMemoryFraction, PropertyUtils.TF_GPU_MEM);
@@ -1319,6 +1334,12 @@ public class GUI extends javax.swing.JFrame implements ProgressLogger {
         setMessage("Max Memory: "+String.format("%.3f", Runtime.getRuntime().maxMemory()/1000000000d)+"Gb");
     } // end of constructor
 
+    public void displayMemoryUsage() {
+        Runtime rt = Runtime.getRuntime();
+        setMessage("Used Memory: "+String.format("%.3f / %.3f", (rt.totalMemory() - rt.freeMemory())/1000000000d, rt.maxMemory()/1000000000d)+"Gb");
+        setMessage(ImageWindowManagerFactory.getImageManager().getRoiCacheBudget().toString());
+    }
+
     public void ensureTrainTab() {
         if (dockerTraining == null) dockerTraining = new DockerTrainingWindow(Core.getCore().getDockerGateway(), ProgressCallback.get(this));
         if (!tabIndex.contains(TAB.TRAINING.name())) {
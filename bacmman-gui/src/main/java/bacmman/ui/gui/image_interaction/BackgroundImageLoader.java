@@ -4,73 +4,179 @@ import bacmman.image.ImageCoordinate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 
+/**
+ * Loads planes of a virtual stack around the displayed position, in the background.
+ * Planes are prioritized as follows: other channels and neighbouring Z-planes of the displayed frame, then following frames in the scrolling direction (further when scrolling faster), then a few frames in the opposite direction. When scrolling fast, following frames come first.
+ * Planes are decoded in parallel by a small pool of low-priority daemon threads shared by all loaders.
+ * @author Jean Ollion
+ */
 public class BackgroundImageLoader {
     static Logger logger = LoggerFactory.getLogger(BackgroundImageLoader.class);
-    final Supplier<Set<ImageCoordinate>> loadedPosition;
+    public static int N_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    public static double LOOKAHEAD_SECONDS = 1; // frames that will be reached within this delay at current scrolling speed are prefetched
+    public static int MIN_LOOKAHEAD = 2;
+    public static double SCROLLING_SPEED = 2; // in frames per second: above this speed, next frames are loaded before other planes of the displayed frame
+    private static ExecutorService executor;
+    final Predicate<ImageCoordinate> isLoaded;
     final Consumer<ImageCoordinate> loadFunction;
+    final IntSupplier maxPlanes;
+    final int sizeF, sizeC, sizeZ;
+    final Set<ImageCoordinate> pending = ConcurrentHashMap.newKeySet();
+    final Object lock = new Object();
     Thread daemon;
     ImageCoordinate currentPosition;
-    final int cacheSize, maxFrames;
-    final long waitTime;
-    final Object lock;
-    public BackgroundImageLoader(Supplier<Set<ImageCoordinate>> loadedPosition, Consumer<ImageCoordinate> loadFunction, Object lock, int maxFrames, int cacheSize, long latency) {
-        this.loadedPosition = loadedPosition;
+    List<ImageCoordinate> window = Collections.emptyList();
+    Set<ImageCoordinate> windowSet = Collections.emptySet();
+    int direction = 1;
+    double velocity; // in frames per second
+    long lastFrameChange;
+
+    /**
+     *
+     * @param isLoaded whether a plane is already loaded
+     * @param loadFunction loads a plane, must be thread-safe
+     * @param sizeF number of frames
+     * @param sizeC number of channels
+     * @param sizeZ number of z-planes
+     * @param maxPlanes maximal number of planes that can be prefetched (e.g. given by the memory budget of the cache)
+     */
+    public BackgroundImageLoader(Predicate<ImageCoordinate> isLoaded, Consumer<ImageCoordinate> loadFunction, int sizeF, int sizeC, int sizeZ, IntSupplier maxPlanes) {
+        this.isLoaded = isLoaded;
         this.loadFunction = loadFunction;
-        this.cacheSize = cacheSize;
-        this.maxFrames=maxFrames;
-        this.lock=lock;
-        this.waitTime=latency;
+        this.sizeF = sizeF;
+        this.sizeC = sizeC;
+        this.sizeZ = sizeZ;
+        this.maxPlanes = maxPlanes;
         daemon = new Thread(this::run);
         daemon.setPriority(1);
         daemon.setDaemon(true);
         daemon.setName("BackgroundImageLoader-"+daemon.getName());
         daemon.start();
     }
+
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(N_THREADS, r -> {
+                Thread t = new Thread(r, "BackgroundImageDecoder-"+count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return executor;
+    }
+
     protected void run() {
         while(true) {
+            List<ImageCoordinate> next;
             synchronized (lock) {
-                ImageCoordinate nextPosition = getNextPosition();
+                next = getNextPositions(N_THREADS - pending.size());
                 try {
-                    if (nextPosition == null) {
-                        lock.wait();
-                    } else {
-                        loadFunction.accept(nextPosition);
+                    if (next.isEmpty()) {
+                        lock.wait(); // notified when position changes or when a plane is loaded
+                        continue;
                     }
                 } catch (InterruptedException e) {
                     return;
                 }
+                pending.addAll(next);
             }
-            try {
-                Thread.sleep(waitTime); // give priority to main process
-            } catch (InterruptedException e) {
-                return;
+            for (ImageCoordinate fcz : next) {
+                getExecutor().submit(() -> {
+                    try {
+                        if (isWanted(fcz)) loadFunction.accept(fcz);
+                    } catch (Throwable t) {
+                        logger.debug("error while loading plane: "+fcz, t);
+                    } finally {
+                        pending.remove(fcz);
+                        synchronized (lock) {
+                            lock.notifyAll();
+                        }
+                    }
+                });
             }
+            if (Thread.currentThread().isInterrupted()) return;
         }
     }
-    protected ImageCoordinate getNextPosition() {
-        if (currentPosition == null) return null;
-        Set<ImageCoordinate> loadedPositions = loadedPosition.get();
-        ImageCoordinate res = currentPosition.duplicate();
-        for (int i = 0; i<=cacheSize/2; ++i) {
-            res.setFrame(currentPosition.getFrame()+i+1);
-            if (res.getFrame()<maxFrames && !loadedPositions.contains(res)) return res;
-            res.setFrame(currentPosition.getFrame()-i-1);
-            if (res.getFrame()>=0 && !loadedPositions.contains(res)) return res;
+
+    protected boolean isWanted(ImageCoordinate fcz) {
+        synchronized (lock) {
+            return windowSet.contains(fcz);
         }
-        return null;
     }
+
+    protected List<ImageCoordinate> getNextPositions(int n) {
+        if (n <= 0 || currentPosition == null) return Collections.emptyList();
+        List<ImageCoordinate> res = new ArrayList<>(n);
+        for (ImageCoordinate fcz : window) {
+            if (pending.contains(fcz) || isLoaded.test(fcz)) continue;
+            res.add(fcz);
+            if (res.size() == n) break;
+        }
+        return res;
+    }
+
+    /**
+     * Computes the prioritized list of planes to load around {@param pos}
+     */
+    protected List<ImageCoordinate> computeWindow(ImageCoordinate pos) {
+        int maxP = Math.max(0, maxPlanes.getAsInt() - 1);
+        LinkedHashSet<ImageCoordinate> res = new LinkedHashSet<>();
+        int ahead = Math.max(MIN_LOOKAHEAD, (int)Math.ceil(velocity * LOOKAHEAD_SECONDS));
+        int behind = Math.max(1, ahead / 4);
+        boolean scrolling = velocity >= SCROLLING_SPEED;
+        if (scrolling) addFrames(pos, direction, 1, ahead, res); // next frames have priority over other planes of current frame
+        // same frame: other channels and neighbouring z-planes
+        for (int c = 0; c < sizeC; ++c) if (c != pos.getChannel()) res.add(new ImageCoordinate(pos.getFrame(), c, pos.getZ()));
+        for (int dz = 1; dz <= 2; ++dz) {
+            if (pos.getZ() + dz < sizeZ) res.add(new ImageCoordinate(pos.getFrame(), pos.getChannel(), pos.getZ() + dz));
+            if (pos.getZ() - dz >= 0) res.add(new ImageCoordinate(pos.getFrame(), pos.getChannel(), pos.getZ() - dz));
+        }
+        if (!scrolling) addFrames(pos, direction, 1, ahead, res);
+        addFrames(pos, -direction, 1, behind, res);
+        res.remove(pos);
+        List<ImageCoordinate> list = new ArrayList<>(res);
+        if (list.size() > maxP) return list.subList(0, maxP);
+        return list;
+    }
+
+    protected void addFrames(ImageCoordinate pos, int direction, int from, int to, Collection<ImageCoordinate> res) {
+        for (int d = from; d <= to; ++d) {
+            int f = pos.getFrame() + direction * d;
+            if (f >= 0 && f < sizeF) res.add(new ImageCoordinate(f, pos.getChannel(), pos.getZ()));
+        }
+    }
+
     public void setPosition(ImageCoordinate fcz) {
         //logger.debug("setting position: {} (was {})", fcz, currentPosition);
-        if (fcz.equals(this.currentPosition)) return;
         synchronized (lock) {
-            currentPosition = fcz;
+            if (fcz.equals(this.currentPosition)) return;
+            long time = System.nanoTime();
+            if (currentPosition != null && fcz.getFrame() != currentPosition.getFrame()) { // update scrolling direction and speed
+                int df = fcz.getFrame() - currentPosition.getFrame();
+                double dt = (time - lastFrameChange) / 1e9;
+                if (dt > 1 || Integer.signum(df) != direction) velocity = 0; // scrolling restarts
+                velocity = 0.5 * velocity + 0.5 * Math.abs(df) / Math.max(dt, 1e-3);
+                direction = Integer.signum(df);
+                lastFrameChange = time;
+            } else if (currentPosition == null) lastFrameChange = time;
+            currentPosition = fcz.duplicate();
+            window = computeWindow(currentPosition);
+            windowSet = new HashSet<>(window);
             lock.notifyAll();
         }
     }
+
     public void interrupt() {
         daemon.interrupt();
     }
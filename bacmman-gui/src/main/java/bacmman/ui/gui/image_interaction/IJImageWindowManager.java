@@ -20,6 +20,7 @@ package bacmman.ui.gui.image_interaction;
 
 import bacmman.configuration.experiment.Structure;
 import bacmman.data_structure.*;
+import bacmman.data_structure.dao.ImageDAO;
 import bacmman.data_structure.region_container.RegionContainerIjRoi;
 import bacmman.data_structure.region_container.roi.IJRoi3D;
 import bacmman.data_structure.region_container.roi.IJTrackRoi;
@@ -39,6 +40,7 @@ import java.awt.Component;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.event.*;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
@@ -120,7 +122,11 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
             @Override
             public void mouseReleased(MouseEvent e) {
                 //logger.debug("tool : {}", IJ.getToolName());
-                if (IJ.getToolName().equals("zoom") || IJ.getToolName().equals("hand") || IJ.getToolName().equals("multipoint") || IJ.getToolName().equals("point")) return;            
+                if (IJ.getToolName().equals("zoom") || IJ.getToolName().equals("hand")) {
+                    SwingUtilities.invokeLater(() -> refreshOverlay(image)); // visible area may have changed
+                    return;
+                }
+                if (IJ.getToolName().equals("multipoint") || IJ.getToolName().equals("point")) return;
                 boolean ctrl = e.isControlDown();
                 boolean shift = e.isShiftDown();
                 boolean alt = e.isAltDown();
@@ -440,6 +446,8 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
         //MouseListener[] mls = canvas.getMouseListeners();
         //for (MouseListener m : mls) canvas.removeMouseListener(m);
         canvas.addMouseListener(ml); // put in front
+        canvas.addMouseWheelListener(e -> SwingUtilities.invokeLater(() -> refreshOverlay(image))); // zoom / scroll
+        addWindowClosedListener(image, () -> overlayModels.remove(image));
         //for (MouseListener m : mls) canvas.addMouseListener(m);
     }
     private static boolean intersect(SegmentedObject seg, Offset offset, FloatPolygon selection, int sliceZ) {
@@ -500,6 +508,50 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
         } else return Collections.emptyMap();
     }
 
+    @Override
+    protected void enablePyramid(Image image, String position, String pyramidKey) {
+        IJVirtualStack stack = getVirtualStack(image);
+        ImagePlus ip = displayer.getImage(image);
+        if (stack == null || ip.getCanvas() == null || !persistPyramids || pyramidKey == null) return; // planes are only downsampled once, when persisted
+        if (GUI.getDBConnection() == null || GUI.getDBConnection().getExperiment().getPosition(position) == null) return;
+        ImageDAO dao = GUI.getDBConnection().getExperiment().getPosition(position).getImageDAO();
+        if (dao == null) return;
+        ImagePyramid.Store store = new ImagePyramid.Store() {
+            @Override
+            public Image read(int level, int f, int c, int z) throws IOException {
+                return dao.openPyramidPlane(pyramidKey, level, f, c, z);
+            }
+            @Override
+            public void write(Image plane, int level, int f, int c, int z) throws IOException {
+                dao.writePyramidPlane(plane, pyramidKey, level, f, c, z);
+            }
+            @Override
+            public boolean contains(int level, int f, int c, int z) {
+                return dao.hasPyramidPlane(pyramidKey, level, f, c, z);
+            }
+            @Override
+            public boolean contains(int level) {
+                return dao.hasPyramidLevel(pyramidKey, level);
+            }
+        };
+        if (!stack.enablePyramid(store)) return;
+        // zoom can be changed with zoom tool, mouse wheel or keyboard
+        ImageCanvas canvas = ip.getCanvas();
+        canvas.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (IJ.getToolName().equals("zoom")) SwingUtilities.invokeLater(stack::updateResolution);
+            }
+        });
+        canvas.addMouseWheelListener(e -> SwingUtilities.invokeLater(stack::updateResolution));
+        canvas.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyReleased(KeyEvent e) {
+                SwingUtilities.invokeLater(stack::updateResolution);
+            }
+        });
+    }
+
     protected IJVirtualStack getVirtualStack(Image image) {
         ImagePlus ip = displayer.getImage(image);
         if (ip == null) return null;
@@ -650,14 +702,49 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
         updateOverlay(image);
         displayer.updateImageRoiDisplay(image);
     }
-    void updateOverlay(Image image) { // TODO explore option to call this at every frame change and add only ROIs related to current frame
+    protected final Map<Image, IJOverlayModel> overlayModels = Collections.synchronizedMap(new HashMap<>());
+
+    protected IJOverlayModel getOverlayModel(Image image, ImagePlus ip) {
+        synchronized (overlayModels) {
+            IJOverlayModel model = overlayModels.get(image);
+            if (model == null || model.getImage() != ip) {
+                IJVirtualStack stack = getVirtualStack(image);
+                model = new IJOverlayModel(ip, stack != null && !(ip instanceof sc.fiji.i5d.Image5D)); // frame changes are only notified by virtual stacks
+                overlayModels.put(image, model);
+                if (stack != null) stack.appendSetFrameCallback(f -> refreshOverlay(image), false);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Updates the overlay after a change of frame or of the visible area, without re-synchronizing displayed ROIs
+     */
+    protected void refreshOverlay(Image image) {
+        IJOverlayModel model = overlayModels.get(image);
+        if (model != null && model.update()) {
+            ImagePlus ip = model.getImage();
+            if (ip.getCanvas() != null) ip.getCanvas().repaint();
+        }
+    }
+
+    void updateOverlay(Image image) { // only ROIs of the current frame located around the visible area are added to the overlay
         ImagePlus ip = displayer.getImage(image);
         if (ip == null) return;
-        ip.setOverlay(new Overlay()); // reset overlay
-        for (IJRoi3D roi : displayedObjectRois.get(image)) addObjectToOverlay(ip, roi);
-        for (IJRoi3D roi : displayedLabileObjectRois.get(image)) addObjectToOverlay(ip, roi);
-        for (IJTrackRoi roi : displayedTrackRois.get(image)) addTrackToOverlay(ip, roi);
-        for (IJTrackRoi roi : displayedLabileTrackRois.get(image)) addTrackToOverlay(ip, roi);
+        IJOverlayModel model = getOverlayModel(image, ip);
+        Set<Object> displayed = Collections.newSetFromMap(new IdentityHashMap<>());
+        displayed.addAll(displayedObjectRois.get(image));
+        displayed.addAll(displayedLabileObjectRois.get(image));
+        displayed.addAll(displayedTrackRois.get(image));
+        displayed.addAll(displayedLabileTrackRois.get(image));
+        model.retain(displayed);
+        for (Object roi : displayed) {
+            if (model.contains(roi)) continue;
+            if (roi instanceof IJRoi3D) model.add(roi, getObjectOverlayRois(ip, (IJRoi3D)roi), true);
+            else model.add(roi, getTrackOverlayRois(ip, (IJTrackRoi)roi), false);
+        }
+        model.invalidate(); // displayed ROIs may have been re-coloured
+        model.update();
     }
 
     @Override
@@ -665,12 +752,7 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
         // do nothing: roi added to overlay at update display
     }
 
-    void addObjectToOverlay(ImagePlus image, IJRoi3D roi) {
-        Overlay o = image.getOverlay();
-        if (o==null) {
-            o=new Overlay();
-            image.setOverlay(o);
-        }
+    List<Roi> getObjectOverlayRois(ImagePlus image, IJRoi3D roi) {
         if (image.getNSlices()>1 && roi.is2D()) {
             roi.duplicateROIUntilZ(image.getNSlices());
         }
@@ -678,10 +760,8 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
             if (image.getNSlices()>1) roi.setZToPosition();
             else if (image.getNFrames()>1) roi.setTToPosition();
         } else roi.setHyperstackPosition();
-        for (Roi r : roi.values()) {
-            r.setStrokeWidth(ROI_STROKE_WIDTH);
-            o.add((Roi)r.clone());
-        }
+        for (Roi r : roi.values()) r.setStrokeWidth(ROI_STROKE_WIDTH);
+        return new ArrayList<>(roi.values());
     }
 
     @Override
@@ -771,18 +851,12 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
     public void displayTrack(ImagePlus image, IJTrackRoi roi) {
         // do nothing -> track is added at update display call
     }
-    void addTrackToOverlay(ImagePlus image, IJTrackRoi roi) {
-        Overlay o = image.getOverlay();
-        if (o==null) {
-            o=new Overlay();
-            image.setOverlay(o);
-        }
+    List<Roi> getTrackOverlayRois(ImagePlus image, IJTrackRoi roi) {
         if (!image.isDisplayedHyperStack()) {
             if (image.getNSlices()>1) roi.setZToPosition();
             else if (image.getNFrames()>1) roi.setTToPosition();
         } else roi.setHyperstackPosition();
-        Overlay finalO = o;
-        roi.getRois().forEach(finalO::add);
+        List<Roi> res = roi.getRois().collect(Collectors.toList());
         if (roi.is2D() && image.getNSlices()>1) {
             for (int z = 1; z<image.getNSlices(); ++z) {
                 IJTrackRoi dup = roi.duplicateForZ(z);
@@ -790,9 +864,10 @@ public class IJImageWindowManager extends ImageWindowManager<ImagePlus, IJRoi3D,
                     if (image.getNSlices() > 1) dup.setZToPosition();
                     else if (image.getNFrames() > 1) dup.setTToPosition();
                 } else roi.setHyperstackPosition();
-                dup.getRois().forEach(finalO::add);
+                dup.getRois().forEach(res::add);
             }
         }
+        return res;
     }
 
     @Override
@@ -0,0 +1,256 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.ui.gui.image_interaction;
+
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Overlay content of an ImagePlus, indexed by frame and by spatial bucket.
+ * Only ROIs located in the current frame and around the visible part of the image are added to the ImageJ overlay, and the overlay is updated incrementally when ROIs are added / removed or when the frame or viewport change.
+ * @author Jean Ollion
+ */
+public class IJOverlayModel {
+    public final static Logger logger = LoggerFactory.getLogger(IJOverlayModel.class);
+    public static int BUCKET_SIZE = 256;
+    final static int MAX_BUCKETS = 64; // ROIs spanning more buckets are displayed whenever their frame is displayed
+    final static int LARGE = (1<<20) - 1;
+    final ImagePlus image;
+    final boolean frameCulling;
+    final Map<Object, List<Element>> sources = new IdentityHashMap<>();
+    final Map<Long, Set<Element>> buckets = new HashMap<>();
+    Set<Element> displayed = Collections.newSetFromMap(new IdentityHashMap<>());
+    Overlay overlay;
+    boolean modified = true;
+    int lastFrame = -1;
+    Rectangle lastView;
+
+    static class Element {
+        final Roi source;
+        final boolean duplicate;
+        final long[] keys;
+        Roi roi;
+        Element(Roi source, boolean duplicate, long[] keys) {
+            this.source = source;
+            this.duplicate = duplicate;
+            this.keys = keys;
+        }
+        Roi getRoi() {
+            if (roi == null || (duplicate && (!Objects.equals(roi.getStrokeColor(), source.getStrokeColor()) || !Objects.equals(roi.getFillColor(), source.getFillColor())))) { // source modified
+                roi = duplicate ? (Roi)source.clone() : source;
+            }
+            return roi;
+        }
+    }
+
+    /**
+     * @param image displayed image
+     * @param frameCulling whether the model is notified at each frame change (see {@link #update()}). If false, ROIs of all frames are added to the overlay
+     */
+    public IJOverlayModel(ImagePlus image, boolean frameCulling) {
+        this.image = image;
+        this.frameCulling = frameCulling;
+    }
+
+    public ImagePlus getImage() {
+        return image;
+    }
+
+    public synchronized boolean contains(Object source) {
+        return sources.containsKey(source);
+    }
+
+    /**
+     * Adds the ROIs of {@param source} to the model. ROIs are displayed at next call to {@link #update()}
+     * @param source object / track ROI
+     * @param rois ROIs of source, with their position set
+     * @param duplicate if true, a copy of each ROI is added to the overlay
+     */
+    public synchronized void add(Object source, Collection<Roi> rois, boolean duplicate) {
+        if (sources.containsKey(source)) remove(source);
+        List<Element> elements = new ArrayList<>(rois.size());
+        for (Roi r : rois) {
+            if (r == null) continue;
+            Element e = new Element(r, duplicate, getKeys(r));
+            for (long k : e.keys) buckets.computeIfAbsent(k, kk -> new HashSet<>()).add(e);
+            elements.add(e);
+        }
+        sources.put(source, elements);
+        modified = true;
+    }
+
+    public synchronized void remove(Object source) {
+        List<Element> elements = sources.remove(source);
+        if (elements == null) return;
+        for (Element e : elements) {
+            for (long k : e.keys) {
+                Set<Element> b = buckets.get(k);
+                if (b != null) {
+                    b.remove(e);
+                    if (b.isEmpty()) buckets.remove(k);
+                }
+            }
+        }
+        modified = true;
+    }
+
+    /**
+     * Forces the next call to {@link #update()} to check displayed ROIs: ROIs of sources may have been modified in place (e.g. re-coloured), which is not notified to the model, and duplicated ROIs are then replaced
+     */
+    public synchronized void invalidate() {
+        modified = true;
+    }
+
+    /**
+     * Removes all sources that are not contained in {@param currentSources}
+     */
+    public synchronized void retain(Set<Object> currentSources) {
+        List<Object> toRemove = new ArrayList<>();
+        for (Object s : sources.keySet()) if (!currentSources.contains(s)) toRemove.add(s);
+        toRemove.forEach(this::remove);
+    }
+
+    protected int getFrame(Roi r) {
+        if (!frameCulling) return 0;
+        return image.isDisplayedHyperStack() ? r.getTPosition() : r.getPosition();
+    }
+
+    protected int getCurrentFrame() {
+        if (!frameCulling) return 0;
+        return image.isDisplayedHyperStack() ? image.getT() : image.getCurrentSlice();
+    }
+
+    protected static long key(int frame, int bx, int by) {
+        return ((long)frame << 40) | ((long)bx << 20) | by;
+    }
+
+    protected long[] getKeys(Roi r) {
+        int frame = getFrame(r);
+        Rectangle bds = r.getBounds();
+        int bx0 = Math.max(0, bds.x) / BUCKET_SIZE, bx1 = Math.max(0, bds.x + bds.width) / BUCKET_SIZE;
+        int by0 = Math.max(0, bds.y) / BUCKET_SIZE, by1 = Math.max(0, bds.y + bds.height) / BUCKET_SIZE;
+        if ((bx1 - bx0 + 1) * (by1 - by0 + 1) > MAX_BUCKETS) return new long[]{key(frame, LARGE, LARGE)};
+        long[] res = new long[(bx1 - bx0 + 1) * (by1 - by0 + 1)];
+        int i = 0;
+        for (int bx = bx0; bx<=bx1; ++bx) {
+            for (int by = by0; by<=by1; ++by) res[i++] = key(frame, bx, by);
+        }
+        return res;
+    }
+
+    /**
+     * @return visible area of the image, or null if the whole image is visible
+     */
+    protected Rectangle getVisibleArea() {
+        ImageCanvas canvas = image.getCanvas();
+        if (canvas == null) return null;
+        Rectangle src = canvas.getSrcRect();
+        if (src == null || (src.width >= image.getWidth() && src.height >= image.getHeight())) return null;
+        return src;
+    }
+
+    /**
+     * @return {@param area} extended by half of its size in each direction, so that small pan do not require an update
+     */
+    protected static Rectangle extend(Rectangle area) {
+        int m = Math.max(area.width, area.height) / 2;
+        return new Rectangle(area.x - m, area.y - m, area.width + 2 * m, area.height + 2 * m);
+    }
+
+    protected Set<Element> getVisibleElements(int frame, Rectangle view) {
+        Set<Element> res = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] frames = frame == 0 ? new int[]{0} : new int[]{0, frame};
+        if (view == null) {
+            for (Map.Entry<Long, Set<Element>> b : buckets.entrySet()) {
+                int f = (int)(b.getKey() >>> 40);
+                if (f == 0 || f == frame || !frameCulling) res.addAll(b.getValue());
+            }
+            return res;
+        }
+        int bx0 = Math.max(0, view.x) / BUCKET_SIZE, bx1 = Math.max(0, view.x + view.width) / BUCKET_SIZE;
+        int by0 = Math.max(0, view.y) / BUCKET_SIZE, by1 = Math.max(0, view.y + view.height) / BUCKET_SIZE;
+        for (int f : frames) {
+            Set<Element> large = buckets.get(key(f, LARGE, LARGE));
+            if (large != null) res.addAll(large);
+            for (int bx = bx0; bx<=bx1; ++bx) {
+                for (int by = by0; by<=by1; ++by) {
+                    Set<Element> b = buckets.get(key(f, bx, by));
+                    if (b != null) res.addAll(b);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Updates the overlay of the image so that it contains the ROIs of the current frame that intersect the visible area
+     * @return true if the overlay was modified
+     */
+    public synchronized boolean update() {
+        Overlay o = image.getOverlay();
+        if (o == null || o != overlay) { // overlay was reset
+            if (o == null) {
+                o = new Overlay();
+                image.setOverlay(o);
+            } else o.clear();
+            overlay = o;
+            displayed.clear();
+            modified = true;
+        }
+        int frame = getCurrentFrame();
+        Rectangle visible = getVisibleArea();
+        if (!modified && frame == lastFrame && (lastView == null || (visible != null && lastView.contains(visible)))) return false;
+        Rectangle view = visible == null ? null : extend(visible);
+        Set<Element> target = getVisibleElements(frame, view);
+        int removed = 0;
+        for (Element e : displayed) if (!target.contains(e)) ++removed;
+        if (removed > displayed.size() / 2) { // faster to rebuild
+            o.clear();
+            for (Element e : target) o.add(e.getRoi());
+        } else {
+            for (Element e : displayed) {
+                if (!target.contains(e)) o.remove(e.roi);
+                else if (e.duplicate) { // replace if source was modified
+                    Roi r = e.roi;
+                    if (r != e.getRoi()) {
+                        o.remove(r);
+                        o.add(e.roi);
+                    }
+                }
+            }
+            for (Element e : target) if (!displayed.contains(e)) o.add(e.getRoi());
+        }
+        displayed = target;
+        lastFrame = frame;
+        lastView = view;
+        modified = false;
+        return true;
+    }
+
+    public synchronized int size() {
+        return sources.size();
+    }
+}
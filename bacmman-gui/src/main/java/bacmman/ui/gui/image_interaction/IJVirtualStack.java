@@ -19,11 +19,13 @@
 package bacmman.ui.gui.image_interaction;
 
 import bacmman.image.ImageCoordinate;
+import bacmman.image.ImagePyramid;
 import bacmman.image.LazyImage5D;
 import bacmman.processing.ImageOperations;
 import bacmman.ui.gui.Utils;
 import ij.ImagePlus;
 import ij.VirtualStack;
+import ij.gui.Roi;
 import ij.measure.Calibration;
 import ij.process.ImageProcessor;
 import bacmman.image.wrappers.IJImageWrapper;
@@ -38,6 +40,10 @@ import java.awt.*;
 import java.awt.image.ColorModel;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.*;
 import java.util.stream.IntStream;
 
@@ -57,10 +63,20 @@ public class IJVirtualStack extends VirtualStack {
     int lastChannel=-1;
     boolean virtual = true;
     final int sizeF, sizeC;
-    final LinkedList<ImageCoordinate> cacheQueue = new LinkedList<>();
-    final Map<ImageCoordinate, ImageProcessor> cachedImages = new HashMap<>();
-    public static int N_CACHED_FRAMES = 20; // TODO cache = memory limit
+    final LinkedHashMap<ImageCoordinate, ImageProcessor> cachedImages = new LinkedHashMap<>(16, 0.75f, true); // access order: least recently used first
+    final Map<ImageCoordinate, Object> loadingLocks = new ConcurrentHashMap<>();
+    long cachedBytes;
+    public static long CACHE_SIZE = Long.getLong("bacmman.virtualStack.cacheMB", Math.min(1024, Runtime.getRuntime().maxMemory() / 16000000)) * 1000000; // memory limit of cached planes in bytes, per stack
+    public static int MIN_CACHED_PLANES = 4;
+    final long planeBytes;
     BackgroundImageLoader backgroundImageLoader;
+    ImagePyramid pyramid;
+    volatile int level; // pyramid level of cached planes
+    final Set<ImageCoordinate> pendingPersistence = ConcurrentHashMap.newKeySet(); // full resolution planes waiting to be downsampled and persisted
+    public static int MAX_PENDING_PERSISTENCE = 4; // further planes are not retained for persistence: they will be persisted when decoded again
+    private static ExecutorService pyramidWriter;
+    ImageCoordinate fullResolutionFCZ;
+    ImageProcessor fullResolutionIP; // full resolution plane of the last measurement or pixel readout performed while a pyramid level is displayed
     public IJVirtualStack(Image image) {
         super(image.sizeX(), image.sizeY(), null, "");
         this.source= image;
@@ -77,21 +93,89 @@ public class IJVirtualStack extends VirtualStack {
         getFCZ = IJImageWrapper.getStackIndexFunctionRev(new int[]{sizeF, sizeC, image.sizeZ()});
         logger.debug("create virtual stack for: {}, frames: {}, channels: {} z: {}", image.getName(), sizeF, sizeC, image.sizeZ());
         for (int n = 0; n<sizeF * sizeC * image.sizeZ(); ++n) super.addSlice("");
-        backgroundImageLoader = new BackgroundImageLoader(this::getLoadedPositions, this::getProcessor, cachedImages, sizeF, 2, 1000);
+        planeBytes = (long)image.sizeX() * image.sizeY() * Math.max(1, image.byteCount());
+        backgroundImageLoader = new BackgroundImageLoader(this::isLoaded, this::load, sizeF, sizeC, image.sizeZ(), this::getMaxCachedPlanes);
     }
 
     public void flush() {
         if (backgroundImageLoader!=null) backgroundImageLoader.interrupt();
-        cachedImages.clear();
-        cacheQueue.clear();
+        synchronized (cachedImages) {
+            cachedImages.clear();
+            cachedBytes = 0;
+            fullResolutionFCZ = null;
+            fullResolutionIP = null;
+        }
     }
 
     public Set<ImageCoordinate> getLoadedPositions() {
-        return Collections.unmodifiableSet(this.cachedImages.keySet());
+        synchronized (cachedImages) {
+            return new HashSet<>(this.cachedImages.keySet());
+        }
+    }
+
+    public boolean isLoaded(ImageCoordinate fcz) {
+        synchronized (cachedImages) {
+            return cachedImages.containsKey(fcz);
+        }
+    }
+
+    protected int getMaxCachedPlanes() {
+        long bytes = Math.max(1, planeBytes >> (2 * level)); // planes of pyramid level l are cached at their reduced size
+        return (int)Math.max(MIN_CACHED_PLANES, Math.min(Integer.MAX_VALUE, CACHE_SIZE / bytes));
+    }
+
+    /**
+     * Enables display of downsampled planes when the image is zoomed out, see {@link #updateResolution()}. Downsampled planes are persisted through {@param store} on a background thread when full resolution planes are decoded, and only persisted levels are displayed.
+     * @param store persistence of downsampled planes
+     * @return whether the image is large enough to be downsampled
+     */
+    public boolean enablePyramid(ImagePyramid.Store store) {
+        if (!(source instanceof LazyImage5D) || store == null) return false;
+        pyramid = new ImagePyramid(source.sizeX(), source.sizeY(), store);
+        if (pyramid.getMaxLevel() == 0) pyramid = null;
+        return pyramid != null;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Selects the pyramid level from the current magnification of the canvas, among persisted levels. If the level changes, cached planes are dropped and the current plane is re-loaded at the new level.
+     * @return true if the level changed
+     */
+    public boolean updateResolution() {
+        if (pyramid == null || imp == null || imp.getCanvas() == null || !virtual) return false;
+        int newLevel = pyramid.getStoredLevel(imp.getCanvas().getMagnification());
+        if (newLevel == level) return false;
+        logger.debug("image: {} pyramid level {} -> {}", source.getName(), level, newLevel);
+        synchronized (cachedImages) {
+            level = newLevel;
+            cachedImages.clear();
+            cachedBytes = 0;
+            fullResolutionFCZ = null;
+            fullResolutionIP = null;
+        }
+        ImageProcessor ip = getProcessor(imp.getCurrentSlice());
+        imp.getProcessor().setPixels(ip.getPixels());
+        imp.updateAndDraw();
+        return true;
     }
 
     public void generateImagePlus() {
-        imp = new ImagePlus();
+        imp = new ImagePlus() { // when a pyramid level is displayed, pixel readout and measurements use full resolution values
+            @Override
+            public int[] getPixel(int x, int y) {
+                if (IJVirtualStack.this.level == 0) return super.getPixel(x, y);
+                return getFullResolutionImagePlus(this).getPixel(x, y);
+            }
+
+            @Override
+            public ImageStatistics getStatistics(int mOptions, int nBins, double histMin, double histMax) {
+                if (IJVirtualStack.this.level == 0) return super.getStatistics(mOptions, nBins, histMin, histMax);
+                return getFullResolutionImagePlus(this).getStatistics(mOptions, nBins, histMin, histMax);
+            }
+        };
         imp.setTitle(source.getName());
         imp.setOpenAsHyperStack(true);
         imp.setStack(this, sizeC, source.sizeZ(), sizeF); // calls get processor
@@ -186,62 +270,163 @@ public class IJVirtualStack extends VirtualStack {
         long t1 = System.currentTimeMillis();
         ImageProcessor res = getProcessor(fcz);
         long t2 = System.currentTimeMillis();
-        synchronized (cacheQueue) { // put in front
-            cacheQueue.remove(fcz);
-            cacheQueue.add(fcz);
-            if (N_CACHED_FRAMES>0) {
-                List<ImageCoordinate> toRemove = new ArrayList<>();
-                while (cacheQueue.size() > N_CACHED_FRAMES) {
-                    toRemove.add(cacheQueue.pollFirst());
+        if (backgroundImageLoader!=null) backgroundImageLoader.setPosition(fcz);
+        long t3 = System.currentTimeMillis();
+        //logger.debug("callbacks: {} get image: {} inform background loader: {}", t1-t0, t2-t1, t3-t2);
+        return res;
+    }
+
+    protected ImageProcessor getProcessor(ImageCoordinate fcz) {
+        boolean firstProcessor;
+        synchronized (cachedImages) {
+            firstProcessor = cachedImages.isEmpty();
+        }
+        Image[] loaded = new Image[1];
+        ImageProcessor cached = load(fcz, loaded);
+        boolean downsampled = cached.getWidth() != getWidth() || cached.getHeight() != getHeight();
+        ImageProcessor ip = downsampled ? cached.resize(getWidth(), getHeight()) : cached; // ImageJ requires all planes to have the same size
+        setDisplayRange(fcz.getChannel(), () -> loaded[0] != null ? loaded[0] : IJImageWrapper.wrap(new ImagePlus("", cached)), ip);
+        return firstProcessor && !downsampled ? ip.duplicate() : ip; // first image processor is used to display others
+    }
+
+    protected void load(ImageCoordinate fcz) {
+        load(fcz, null);
+    }
+
+    /**
+     * Gets a plane from the cache or decodes it. Different planes can be decoded concurrently.
+     * @param fcz coordinate of the plane
+     * @param loaded if not null and the plane was decoded, the decoded image is set at index 0
+     * @return image processor of the plane. Planes of a pyramid level are cached and returned at their reduced size
+     */
+    protected ImageProcessor load(ImageCoordinate fcz, Image[] loaded) {
+        ImageProcessor ip;
+        synchronized (cachedImages) {
+            ip = cachedImages.get(fcz); // also marks the plane as recently used
+        }
+        if (ip != null) return ip;
+        Object lock = loadingLocks.computeIfAbsent(fcz, k -> new Object());
+        try {
+            synchronized (lock) {
+                synchronized (cachedImages) {
+                    ip = cachedImages.get(fcz);
                 }
-                if (!toRemove.isEmpty()) {
-                    synchronized (cachedImages) {
-                        toRemove.forEach(cachedImages::remove);
-                    }
+                if (ip != null) return ip;
+                int level = this.level;
+                Image toConvert = level > 0 ? pyramid.getPlane(level, fcz.getFrame(), fcz.getChannel(), fcz.getZ()) : null;
+                if (toConvert != null) {
+                    ip = IJImageWrapper.getImagePlus(toConvert).getProcessor();
+                    ip.setInterpolationMethod(ImageProcessor.NONE);
+                } else { // full resolution, also when the plane has not been persisted at the current level
+                    toConvert = getFullResolutionPlane(fcz);
+                    if (pyramid != null && virtual) persistInBackground(toConvert, fcz);
+                    ip = IJImageWrapper.getImagePlus(toConvert).getProcessor();
                 }
+                if (loaded != null) loaded[0] = toConvert;
+                putInCache(fcz, ip, level);
+                return ip;
             }
+        } finally {
+            loadingLocks.remove(fcz, lock);
         }
-        long t3 = System.currentTimeMillis();
-        if (backgroundImageLoader!=null) backgroundImageLoader.setPosition(fcz);
-        long t4 = System.currentTimeMillis();
-        //logger.debug("callbacks: {} get image: {} put in front: {} inform background loader: {}", t1-t0, t2-t1, t3-t2, t4-t3);
-        return res;
     }
 
-    protected ImageProcessor getProcessor(ImageCoordinate fcz) {
-        ImageProcessor ip = cachedImages.get(fcz);
-        boolean displaySet = false;
-        boolean firstProcessor = false;
+    static synchronized ExecutorService getPyramidWriter() {
+        if (pyramidWriter == null) {
+            pyramidWriter = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "PyramidWriter");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+        return pyramidWriter;
+    }
+
+    /**
+     * Downsamples and persists {@param plane} on a background thread so that display is not delayed. At most {@link #MAX_PENDING_PERSISTENCE} planes are retained at the same time
+     */
+    protected void persistInBackground(Image plane, ImageCoordinate fcz) {
+        ImagePyramid pyramid = this.pyramid;
+        if (pendingPersistence.size() >= MAX_PENDING_PERSISTENCE || !pendingPersistence.add(fcz)) return;
+        try {
+            getPyramidWriter().submit(() -> {
+                try {
+                    pyramid.persist(plane, fcz.getFrame(), fcz.getChannel(), fcz.getZ());
+                } catch (Throwable t) {
+                    logger.debug("error while persisting pyramid plane: "+fcz, t);
+                } finally {
+                    pendingPersistence.remove(fcz);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPersistence.remove(fcz);
+        }
+    }
+
+    protected Image getFullResolutionPlane(ImageCoordinate fcz) {
+        if (source instanceof LazyImage5D) {
+            //logger.debug("getting image from lazy image: {}", fcz);
+            return ((LazyImage5D)source).getImage(fcz.getFrame(), fcz.getChannel(), fcz.getZ());
+        } else return source.getZPlane(fcz.getZ());
+    }
+
+    /**
+     * @param displayed displayed image
+     * @return image of the full resolution plane currently displayed, with the ROI and calibration of {@param displayed}
+     */
+    protected ImagePlus getFullResolutionImagePlus(ImagePlus displayed) {
+        ImageCoordinate fcz = getFCZ.apply(displayed.getCurrentSlice());
+        ImageProcessor ip;
+        synchronized (cachedImages) {
+            ip = fcz.equals(fullResolutionFCZ) ? fullResolutionIP : null;
+        }
         if (ip == null) {
+            ip = IJImageWrapper.getImagePlus(getFullResolutionPlane(fcz)).getProcessor();
             synchronized (cachedImages) {
-                firstProcessor = cachedImages.isEmpty();
-                ip = cachedImages.get(fcz);
-                if (ip == null) {
-                    Image toConvert;
-                    if (source instanceof LazyImage5D) {
-                        //logger.debug("getting image from lazy image: {}", fcz);
-                        toConvert = ((LazyImage5D)source).getImage(fcz.getFrame(), fcz.getChannel(), fcz.getZ());
-                    } else {
-                        toConvert = source.getZPlane(fcz.getZ());
-                    }
-                    ip = IJImageWrapper.getImagePlus(toConvert).getProcessor();
-                    setDisplayRange(fcz.getChannel(), toConvert, ip);
-                    displaySet = true;
-                    cachedImages.put(fcz, ip);
-                }
+                fullResolutionFCZ = fcz;
+                fullResolutionIP = ip;
+            }
+        }
+        ImagePlus res = new ImagePlus(displayed.getTitle(), ip);
+        res.setCalibration(displayed.getCalibration());
+        Roi roi = displayed.getRoi();
+        if (roi != null) res.setRoi((Roi)roi.clone()); // setRoi would otherwise attach the displayed ROI to res
+        return res;
+    }
+
+    protected void putInCache(ImageCoordinate fcz, ImageProcessor ip, int level) {
+        List<ImageCoordinate> evicted = new ArrayList<>();
+        synchronized (cachedImages) {
+            if (level != this.level) return; // level changed during loading
+            ImageProcessor old = cachedImages.put(fcz, ip);
+            if (old != null) cachedBytes -= getSizeInBytes(old);
+            cachedBytes += getSizeInBytes(ip);
+            Iterator<Map.Entry<ImageCoordinate, ImageProcessor>> it = cachedImages.entrySet().iterator();
+            while (cachedBytes > CACHE_SIZE && cachedImages.size() > MIN_CACHED_PLANES && it.hasNext()) {
+                Map.Entry<ImageCoordinate, ImageProcessor> e = it.next();
+                if (e.getKey().equals(fcz)) continue;
+                cachedBytes -= getSizeInBytes(e.getValue());
+                evicted.add(e.getKey());
+                it.remove();
             }
         }
-        if (!displaySet) setDisplayRange(fcz.getChannel(), null, ip);
-        return firstProcessor ? ip.duplicate() : ip; // first image processor is used to display others
+        if (virtual && source instanceof LazyImage5D) { // also release decoded planes so that memory is actually freed
+            for (ImageCoordinate c : evicted) ((LazyImage5D)source).freeImage(c.getFrame(), c.getChannel(), c.getZ());
+        }
+    }
+
+    protected static long getSizeInBytes(ImageProcessor ip) {
+        int bytes = ip.getBitDepth() == 24 ? 4 : ip.getBitDepth() / 8;
+        return (long)ip.getWidth() * ip.getHeight() * bytes;
     }
 
-    protected void setDisplayRange(int nextChannel, Image nextImage, ImageProcessor nextIP) {
+    protected void setDisplayRange(int nextChannel, Supplier<Image> nextImage, ImageProcessor nextIP) {
         if (imp ==null || !channelWiseDisplayRange) return;
         if (nextChannel!=lastChannel) {
             if (lastChannel>=0) displayRange.put(lastChannel, new double[]{imp.getDisplayRangeMin(), imp.getDisplayRangeMax()}); // record display for last channel
             if (!displayRange.containsKey(nextChannel)) {
-                if (nextImage == null) return;
-                double[] minAndMax = ImageDisplayer.getDisplayRange(nextImage, null);
+                double[] minAndMax = ImageDisplayer.getDisplayRange(nextImage.get(), null);
                 //logger.debug("getting display range for channel {} -> {}", nextChannel, minAndMax);
                 displayRange.put(nextChannel, minAndMax);
             }
@@ -96,6 +96,7 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
     double TRACK_ARROW_STROKE_WIDTH = 3;
     double ROI_STROKE_WIDTH = 0.5;
     public static double TRACK_LINK_MIN_SIZE = 23;
+    boolean persistPyramids = false;
     final ImageDisplayer<I> displayer;
     int interactiveObjectClassIdx;
     int displayedImageNumber = 20;
@@ -108,10 +109,12 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
     protected final LinkedList<String> activePositions = new LinkedList<>();
 
     // displayed objects 
-    protected final Map<String, Map<ObjectDisplay, O>> objectRoiCache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new HashMapGetCreate.MapFactory<>());
-    protected final Map<String, Map<ObjectDisplay, O>> persistentObjectRoiCache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new HashMapGetCreate.MapFactory<>());
-    protected final Map<String, Map<List<ObjectDisplay>, T>> kymographTrackRoiCache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new HashMapGetCreate.MapFactory<>());
-    protected final Map<String, Map<List<ObjectDisplay>, T>> hyperstackTrackRoiCache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new HashMapGetCreate.MapFactory<>());
+    // ROI caches are bounded together (system properties bacmman.roiCache.maxMB and bacmman.roiCache.maxEntries), displayed ROIs are never evicted
+    protected final RoiCache.Budget roiCacheBudget = new RoiCache.Budget(getDefaultRoiCacheSize() * 1000000, Long.getLong("bacmman.roiCache.maxEntries", 1000000));
+    protected final RoiCache<ObjectDisplay, O> objectRoiCache = new RoiCache<>("objects", roiCacheBudget, O::estimateSizeInBytes, this::isObjectRoiDisplayed);
+    protected final RoiCache<ObjectDisplay, O> persistentObjectRoiCache = new RoiCache<>("persistent objects", roiCacheBudget, O::estimateSizeInBytes, this::isObjectRoiDisplayed);
+    protected final RoiCache<List<ObjectDisplay>, T> kymographTrackRoiCache = new RoiCache<>("kymograph tracks", roiCacheBudget, T::estimateSizeInBytes, this::isTrackRoiDisplayed);
+    protected final RoiCache<List<ObjectDisplay>, T> hyperstackTrackRoiCache = new RoiCache<>("hyperstack tracks", roiCacheBudget, T::estimateSizeInBytes, this::isTrackRoiDisplayed);
     protected final Map<Image, Set<O>> displayedLabileObjectRois = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new SetFactory<>());
     protected final Map<Image, Set<O>> displayedObjectRois = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new SetFactory<>());
     protected final Map<Image, Set<T>> displayedLabileTrackRois = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(new HashMapGetCreate.SetFactory<>());
@@ -123,6 +126,51 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
     public ImageWindowManager(ImageDisplayer<I> displayer) {
         this.displayer=displayer;
     }
+
+    public RoiCache.Budget getRoiCacheBudget() {
+        return roiCacheBudget;
+    }
+
+    /**
+     * @return default memory limit of ROI caches in MB: 1/8 of max memory, up to 512MB
+     */
+    public static long getDefaultRoiCacheSize() {
+        return Long.getLong("bacmman.roiCache.maxMB", Math.min(512, Runtime.getRuntime().maxMemory() / 8000000));
+    }
+
+    /**
+     * @param sizeMB memory limit of ROI caches in MB. If zero, the default limit is used
+     */
+    public void setRoiCacheSize(int sizeMB) {
+        roiCacheBudget.setMaxBytes((sizeMB > 0 ? sizeMB : getDefaultRoiCacheSize()) * 1000000);
+    }
+
+    protected boolean isObjectRoiDisplayed(O roi) {
+        return isDisplayed(displayedObjectRois, roi) || isDisplayed(displayedLabileObjectRois, roi);
+    }
+
+    protected boolean isTrackRoiDisplayed(T roi) {
+        return isDisplayed(displayedTrackRois, roi) || isDisplayed(displayedLabileTrackRois, roi);
+    }
+
+    protected static <R> boolean isDisplayed(Map<Image, Set<R>> displayed, R roi) {
+        synchronized (displayed) {
+            for (Set<R> rois : displayed.values()) if (rois.contains(roi)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes cached ROIs of {@param position} once no interactive image of this position is open anymore
+     * @param position
+     */
+    protected void releaseRoiCaches(String position) {
+        if (interactiveImageMapImages.keySet().stream().anyMatch(ii -> ii.getParent().getPositionName().equals(position))) return;
+        persistentObjectRoiCache.remove(position);
+        hyperstackTrackRoiCache.remove(position);
+        kymographTrackRoiCache.remove(position);
+        objectRoiCache.remove(position);
+    }
     static Class<? extends InteractiveImage> defaultInteractiveType;
     public static void setDefaultInteractiveType(String type) {
         if (type == null) defaultInteractiveType = null;
@@ -137,6 +185,9 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
     public void setRoiStrokeWidth(double width) {
         this.ROI_STROKE_WIDTH = width;
     }
+    public void setPersistPyramids(boolean persist) {
+        this.persistPyramids = persist;
+    }
     public void setArrowStrokeWidth(double width) {
         this.TRACK_ARROW_STROKE_WIDTH = width;
     }
@@ -231,7 +282,7 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
 
     public void flush() {
         stopAllRunningWorkers();
-        if (!objectRoiCache.isEmpty()) logger.debug("flush: will remove {} rois", objectRoiCache.size());
+        if (!objectRoiCache.isEmpty()) logger.debug("flush: will remove {} rois of {} positions", objectRoiCache.getRoiCount(), objectRoiCache.size());
         objectRoiCache.clear();
         persistentObjectRoiCache.clear();
         hyperstackTrackRoiCache.clear();
@@ -352,6 +403,7 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
         source.setChannelNames(xp.getChannelImagesAsString(preProcessed));
         source.setChannelColors(xp.getChannelColorAsString(preProcessed).toArray(String[]::new));
         I image = getDisplayer().displayImage(source);
+        enablePyramid(source, position, preProcessed ? "pre_processed" : null);
         addWindowClosedListener(image, ()-> {
             if (!preProcessed) displayedRawInputImages.remove(position);
             else displayedPrePocessedImages.remove(position);
@@ -394,6 +446,7 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
         activePositions.remove(i.getParent().getPositionName());
         activePositions.add(i.getParent().getPositionName());
         addMouseListener(image);
+        enablePyramid(image, i.getParent().getPositionName(), i.getPyramidKey());
         addWindowClosedListener(image, ()-> {
             interactiveImageMapImages.get(i).remove(image);
             if (interactiveImageMapImages.get(i).isEmpty()) {
@@ -409,6 +462,7 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
             displayedObjectRois.remove(image);
             displayedLabileTrackRois.remove(image);
             displayedTrackRois.remove(image);
+            releaseRoiCaches(i.getParent().getPositionName());
         });
         long t2 = System.currentTimeMillis();
         GUI.updateRoiDisplayForSelections(image, i);
@@ -540,6 +594,14 @@ public abstract class ImageWindowManager<I, O extends ObjectRoi<O>, T extends Tr
     }
 
     public abstract void addMouseListener(Image image);
+
+    /**
+     * Enables display of downsampled planes when {@param image} is zoomed out
+     * @param image displayed image
+     * @param position position of the image
+     * @param pyramidKey identifier used to persist downsampled planes next to pre-processed images (if persistence is enabled), null if they should not be persisted
+     */
+    protected void enablePyramid(Image image, String position, String pyramidKey) {}
     public abstract void addWindowListener(I image, WindowListener wl);
     public void addWindowClosedListener(Image image, Runnable closeFunction) {
         I im = displayer.getImage(image);
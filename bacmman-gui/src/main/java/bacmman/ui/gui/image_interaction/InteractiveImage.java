@@ -87,6 +87,13 @@ public abstract class InteractiveImage {
     public abstract void addObjectsWithinBounds(BoundingBox selection, int objectClassIdx, int slice, List<ObjectDisplay> list);
     public abstract BoundingBox getObjectOffset(SegmentedObject object, int slice);
     public abstract LazyImage5D generateImage();
+
+    /**
+     * @return identifier used to persist downsampled planes of the generated image next to pre-processed images, or null if they should not be persisted
+     */
+    public String getPyramidKey() {
+        return null;
+    }
     public abstract ImageProperties getImageProperties();
 
     public abstract Stream<ObjectDisplay> getObjectDisplay(int objectClassIdx, int slice);
@@ -0,0 +1,289 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.ui.gui.image_interaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-position cache of ROIs with least-recently-used eviction.
+ * All caches sharing a {@link Budget} are bounded together, in number of entries and in estimated memory footprint.
+ * ROIs for which the pinned predicate holds (typically ROIs currently displayed) are never evicted.
+ * @author Jean Ollion
+ */
+public class RoiCache<K, V> {
+    public final static Logger logger = LoggerFactory.getLogger(RoiCache.class);
+    final static double EVICTION_TARGET = 0.9; // when limits are exceeded, entries are evicted until usage is below this proportion of limits
+    final static double EVICTION_BACKOFF = 1.1; // when pinned entries prevent reaching the target, next eviction only occurs once usage has grown by this factor
+    final String name;
+    final Budget budget;
+    final ToLongFunction<V> weigher;
+    final Predicate<V> pinned;
+    final Map<String, PositionCache> positions = new HashMap<>();
+
+    public RoiCache(String name, Budget budget, ToLongFunction<V> weigher, Predicate<V> pinned) {
+        this.name = name;
+        this.budget = budget;
+        this.weigher = weigher;
+        this.pinned = pinned;
+        budget.caches.add(this);
+    }
+
+    /**
+     * @param position position name
+     * @return cache associated to {@param position}, created if necessary
+     */
+    public synchronized Map<K, V> get(String position) {
+        return positions.computeIfAbsent(position, PositionCache::new);
+    }
+
+    public synchronized void remove(String position) {
+        PositionCache c = positions.remove(position);
+        if (c!=null) {
+            c.clear();
+            budget.resetHighWaterMark(); // pinned entries were released
+        }
+    }
+
+    public synchronized void clear() {
+        for (PositionCache c : positions.values()) c.clear();
+        positions.clear();
+        budget.resetHighWaterMark();
+    }
+
+    public synchronized boolean isEmpty() {
+        return positions.values().stream().allMatch(Map::isEmpty);
+    }
+
+    /**
+     * @return number of positions
+     */
+    public synchronized int size() {
+        return positions.size();
+    }
+
+    /**
+     * @return number of ROIs of all positions
+     */
+    public synchronized int getRoiCount() {
+        return positions.values().stream().mapToInt(Map::size).sum();
+    }
+
+    synchronized List<PositionCache> getPositionCaches() {
+        return new ArrayList<>(positions.values());
+    }
+
+    class PositionCache extends LinkedHashMap<K, V> {
+        final String position;
+        final Map<K, Long> weights = new HashMap<>();
+        long bytes;
+
+        PositionCache(String position) {
+            super(16, 0.75f, true);
+            this.position = position;
+        }
+
+        @Override
+        public synchronized V get(Object key) {
+            V res = super.get(key);
+            if (res == null) budget.misses.incrementAndGet();
+            else budget.hits.incrementAndGet();
+            return res;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V old;
+            synchronized (this) {
+                syncWeights();
+                old = super.put(key, value);
+                long w = weigher.applyAsLong(value);
+                Long oldW = weights.put(key, w);
+                bytes += w - (oldW == null ? 0 : oldW);
+                budget.add(w - (oldW == null ? 0 : oldW), oldW == null ? 1 : 0);
+            }
+            if (budget.isExceeded()) budget.evict(this); // outside of lock on this cache: budget locks caches in turn
+            return old;
+        }
+
+        @Override
+        public synchronized V remove(Object key) {
+            V res = super.remove(key);
+            Long w = weights.remove(key);
+            if (w!=null) {
+                bytes -= w;
+                budget.add(-w, -1);
+            }
+            return res;
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            budget.add(-bytes, -weights.size());
+            weights.clear();
+            bytes = 0;
+        }
+
+        /**
+         * Entries removed through views (keySet, entrySet...) are not notified: weights are re-synchronized when an inconsistency is detected
+         */
+        synchronized void syncWeights() {
+            if (weights.size() == super.size()) return;
+            Iterator<Map.Entry<K, Long>> it = weights.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, Long> e = it.next();
+                if (!containsKey(e.getKey())) {
+                    bytes -= e.getValue();
+                    budget.add(-e.getValue(), -1);
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Removes least recently used entries that are not pinned, until budget usage is below target
+         * @return number of evicted entries
+         */
+        synchronized int evict() {
+            syncWeights();
+            int count = 0;
+            Iterator<Map.Entry<K, V>> it = entrySet().iterator();
+            while (it.hasNext() && !budget.isBelowTarget()) {
+                Map.Entry<K, V> e = it.next();
+                if (pinned.test(e.getValue())) continue;
+                it.remove();
+                Long w = weights.remove(e.getKey());
+                if (w != null) {
+                    bytes -= w;
+                    budget.add(-w, -1);
+                }
+                ++count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Limits shared by several {@link RoiCache}, and usage statistics
+     */
+    public static class Budget {
+        final List<RoiCache<?, ?>> caches = new ArrayList<>();
+        final AtomicLong bytes = new AtomicLong(), entries = new AtomicLong();
+        final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+        volatile long maxBytes, maxEntries;
+        volatile long highWaterBytes, highWaterEntries; // usage left by the last eviction that could not reach the target
+
+        public Budget(long maxBytes, long maxEntries) {
+            this.maxBytes = maxBytes;
+            this.maxEntries = maxEntries;
+        }
+
+        public Budget setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            resetHighWaterMark();
+            if (isExceeded()) evict(null);
+            return this;
+        }
+
+        public Budget setMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+            resetHighWaterMark();
+            if (isExceeded()) evict(null);
+            return this;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public long getBytes() {
+            sync();
+            return bytes.get();
+        }
+
+        public long getEntries() {
+            sync();
+            return entries.get();
+        }
+
+        void add(long bytes, long entries) {
+            this.bytes.addAndGet(bytes);
+            this.entries.addAndGet(entries);
+        }
+
+        /**
+         * @return whether limits are exceeded. If the last eviction was stopped by pinned entries, limits are considered exceeded only once usage has grown by {@link RoiCache#EVICTION_BACKOFF}, so that all entries are not scanned again at each insertion
+         */
+        boolean isExceeded() {
+            long b = bytes.get(), e = entries.get();
+            return (b > maxBytes && b > highWaterBytes * EVICTION_BACKOFF) || (e > maxEntries && e > highWaterEntries * EVICTION_BACKOFF);
+        }
+
+        void resetHighWaterMark() {
+            highWaterBytes = 0;
+            highWaterEntries = 0;
+        }
+
+        boolean isBelowTarget() {
+            return bytes.get() <= maxBytes * EVICTION_TARGET && entries.get() <= maxEntries * EVICTION_TARGET;
+        }
+
+        void sync() {
+            for (RoiCache<?, ?> c : caches) for (RoiCache<?, ?>.PositionCache pc : c.getPositionCaches()) pc.syncWeights();
+        }
+
+        /**
+         * Evicts entries, first from {@param first} then from all other caches
+         * @param first cache in which an entry was just inserted, may be null
+         */
+        synchronized void evict(RoiCache<?, ?>.PositionCache first) {
+            if (!isExceeded()) return; // a concurrent eviction already occurred
+            int count = 0;
+            if (first != null) count += first.evict();
+            if (!isBelowTarget()) {
+                for (RoiCache<?, ?> c : caches) {
+                    for (RoiCache<?, ?>.PositionCache pc : c.getPositionCaches()) {
+                        if (pc == first) continue;
+                        count += pc.evict();
+                        if (isBelowTarget()) break;
+                    }
+                    if (isBelowTarget()) break;
+                }
+            }
+            evictions.addAndGet(count);
+            if (!isBelowTarget()) {
+                highWaterBytes = bytes.get();
+                highWaterEntries = entries.get();
+                logger.debug("ROI cache limit exceeded by displayed ROIs: {}", this);
+            } else resetHighWaterMark();
+        }
+
+        @Override
+        public String toString() {
+            long h = hits.get(), m = misses.get();
+            return String.format("ROI cache: %d ROIs, %.1f / %.0f MB, hit rate: %.1f%%, evicted: %d", getEntries(), getBytes() / 1e6, maxBytes / 1e6, h + m == 0 ? 0 : 100. * h / (h + m), evictions.get());
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package bacmman.ui.gui.image_interaction;
 
+import bacmman.data_structure.Selection;
 import bacmman.data_structure.SegmentedObject;
 import bacmman.data_structure.SegmentedObjectAccessor;
 import bacmman.image.*;
@@ -73,6 +74,25 @@ public abstract class TimeLapseInteractiveImage extends InteractiveImage {
         return data.maxSizeZ;
     }
 
+    @Override
+    public String getPyramidKey() {
+        if (!defaultImageSupplier || view != null) return null; // only images generated from pre-processed images are persisted
+        SegmentedObject last = data.parentTrack.get(data.parentTrack.size()-1);
+        return getClass().getSimpleName() + "_oc" + parentStructureIdx + "_" + Selection.indicesString(parent) + "_" + last.getFrame() + "_" + data.nSlices + "_" + Long.toHexString(getParentBoundsHash());
+    }
+
+    /**
+     * @return hash of the bounds of all parents: the generated image changes when a parent is re-segmented, so downsampled planes persisted for other bounds must not be used
+     */
+    protected long getParentBoundsHash() {
+        long hash = 1;
+        for (SegmentedObject p : data.parentTrack) {
+            BoundingBox b = p.getBounds();
+            for (int v : new int[]{p.getFrame(), b.xMin(), b.xMax(), b.yMin(), b.yMax(), b.zMin(), b.zMax()}) hash = 31 * hash + v;
+        }
+        return hash;
+    }
+
     protected abstract BoundingBox[] makeTrackOffset(int sliceIdx);
     protected abstract SimpleInteractiveImage[] makeTrackObjects(int sliceIdx);
 
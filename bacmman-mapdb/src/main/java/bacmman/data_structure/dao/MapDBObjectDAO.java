@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOError;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.*;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -41,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import bacmman.utils.HashMapGetCreate;
 import bacmman.utils.JSONUtils;
+import bacmman.utils.Metrics;
 import bacmman.utils.Pair;
 import bacmman.utils.Utils;
 
@@ -72,6 +74,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     protected boolean safeMode;
     private java.nio.channels.FileLock lock;
     private FileChannel lockChannel;
+    protected final WriteBehindQueue<Pair<Integer, Pair<String, String>>> measurementQueue; // object class idx, (id, encoded measurements)
     public MapDBObjectDAO(MasterDAO<String, ? extends ObjectDAO<String>> mDAO, String positionName, String outputDir, boolean readOnly) {
         this.mDAO=mDAO;
         this.positionName=positionName;
@@ -80,6 +83,22 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
         if (!readOnly) {
             this.readOnly = !lock();
         } else this.readOnly = true;
+        this.measurementQueue = WriteBehindQueue.ENABLED && !this.readOnly ? new WriteBehindQueue<>(positionName+"/measurements", this::writeMeasurements, e -> new Pair<>(e.key, e.value.key), null, WriteBehindQueue.DEFAULT_CAPACITY) : null;
+    }
+
+    /**
+     * Blocks until measurements submitted with {@link #upsertMeasurements(Collection)} are stored and committed
+     */
+    @Override
+    public void flushMeasurements() {
+        if (measurementQueue != null) measurementQueue.flush();
+    }
+
+    /**
+     * Blocks until pending measurements are stored, without throwing errors (errors are rethrown to the thread that upserted the measurements)
+     */
+    protected void awaitMeasurements() {
+        if (measurementQueue != null) measurementQueue.await();
     }
 
     @Override
@@ -234,6 +253,8 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
                     objectMap.putAll(objectMapToAdd);
                     long t1 = System.currentTimeMillis();
                     logger.debug("#{} (already: {}) objects from structure: {}, time {}", objectMap.size(), objectMap.size()-objectMapToAdd.size(), key.value, t1-t0);
+                    Metrics.time(Metrics.STAGE.DAO_READ, "MapDB/objects", t1-t0, TimeUnit.MILLISECONDS);
+                    Metrics.count(Metrics.STAGE.DAO_READ, "MapDB/objects", objectMapToAdd.size());
                 } else {
                     long t0 = System.currentTimeMillis();
                     try {
@@ -251,6 +272,9 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
                         cache.put(key, objectMap);
                         long t2 = System.currentTimeMillis();
                         logger.debug("#{} objects from structure: {}, time to retrieve: {}, time to parse: {}", allStrings.size(), key.value, t1-t0, t2-t1);
+                        Metrics.time(Metrics.STAGE.DAO_READ, "MapDB/objects", t1-t0, TimeUnit.MILLISECONDS);
+                        Metrics.time(Metrics.STAGE.SERIALIZATION, "MapDB/objects", t2-t1, TimeUnit.MILLISECONDS);
+                        Metrics.count(Metrics.STAGE.DAO_READ, "MapDB/objects", allStrings.size());
                     } catch(IOError|AssertionError|Exception e) {
                         logger.error("Corrupted DATA for structure: "+key.value+" parent: "+key, e);
                         allObjectsRetrievedInCache.put(key, true);
@@ -420,6 +444,8 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
             Collections.sort(res);
             long t1 = System.currentTimeMillis();
             //logger.debug("getChildren: collected: {} object in {}ms", res.size(), t1-t0);
+            Metrics.time(Metrics.STAGE.DAO_READ, "MapDB/objects", t1-t0, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_READ, "MapDB/objects", res.size());
             return res;
         }
     }
@@ -492,6 +518,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
     @Override
     public void clearCache() {
+        awaitMeasurements();
         //logger.debug("{} parent: {} xp: {} clearing cache for Dao: {} / objects: {}, measurements: {}", this.hashCode(), this.mDAO.hashCode(), this.mDAO.getExperiment().hashCode(), this.positionName, this.dbS.keySet(), this.measurementdbS.keySet());
         applyOnAllOpenedObjects(o->{
             getMasterDAO().getAccess().flushImages(o);
@@ -514,6 +541,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
 
     protected void deleteAllObjects(boolean unlock) {
+        awaitMeasurements();
         closeAllObjectFiles(false);
         closeAllMeasurementFiles(false);
         cache.clear();
@@ -541,6 +569,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
 
     public void closeAllFiles(boolean commit) {
+        awaitMeasurements();
         closeAllObjectFiles(commit);
         closeAllMeasurementFiles(commit);
     }
@@ -696,6 +725,8 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
             });
             long t2 = System.currentTimeMillis();
             logger.debug("stored: #{} objects of OC: {} to: {} in {}ms",toStore.size(), key.value, objects.iterator().next().getParent()==null ? "" : objects.iterator().next().getParent().getTrackHead(), t2-t0);
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "MapDB/objects", t2-t0, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "MapDB/objects", toStore.size());
             toStore.stream().peek((object) -> {
                 if (object.hasMeasurementModifications()) upserMeas.add(object);
             }).forEachOrdered((object) -> {
@@ -838,28 +869,48 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     @Override
     public void upsertMeasurements(Collection<SegmentedObject> objects) {
         if (readOnly) return;
+        List<Pair<Integer, Pair<String, String>>> toStore = encodeMeasurements(objects); // snapshot on the calling thread
+        if (measurementQueue != null) measurementQueue.submit(toStore); // stored and committed in background
+        else writeMeasurements(toStore);
+    }
+
+    protected List<Pair<Integer, Pair<String, String>>> encodeMeasurements(Collection<SegmentedObject> objects) {
         Map<Integer, List<SegmentedObject>> bySIdx = SegmentedObjectUtils.splitByStructureIdx(objects, true);
+        List<Pair<Integer, Pair<String, String>>> res = new ArrayList<>();
         for (int i : bySIdx.keySet()) {
-            Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(i);
             List<SegmentedObject> toStore = bySIdx.get(i);
             long t0 = System.currentTimeMillis();
             toStore.parallelStream().forEach(o -> o.getMeasurements().updateObjectProperties(o));
             long t1 = System.currentTimeMillis();
-            Map<String, String> serializedObjects = toStore.parallelStream().collect(Collectors.toMap(o -> (String)o.getId(), o->JSONUtils.serialize(o.getMeasurements())));
+            res.addAll(toStore.parallelStream().map(o -> new Pair<>(i, new Pair<>((String)o.getId(), JSONUtils.serialize(o.getMeasurements())))).collect(Collectors.toList()));
+            toStore.forEach(o -> o.getMeasurements().modifications=false);
             long t2 = System.currentTimeMillis();
+            logger.debug("encodeMeas: update {}, serialize: {}", t1-t0, t2-t1);
+            Metrics.time(Metrics.STAGE.SERIALIZATION, "MapDB/measurements", t2-t0, TimeUnit.MILLISECONDS);
+        }
+        return res;
+    }
+
+    protected void writeMeasurements(List<Pair<Integer, Pair<String, String>>> encoded) {
+        Map<Integer, List<Pair<Integer, Pair<String, String>>>> bySIdx = encoded.stream().collect(Collectors.groupingBy(e -> e.key));
+        for (int i : bySIdx.keySet()) {
+            Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(i);
+            Map<String, String> serializedObjects = bySIdx.get(i).stream().collect(Collectors.toMap(e -> e.value.key, e -> e.value.value));
+            long t0 = System.currentTimeMillis();
             mDB.value.putAll(serializedObjects);
-            long t3 = System.currentTimeMillis();
-            toStore.forEach(o -> o.getMeasurements().modifications=false);
-            long t4 = System.currentTimeMillis();
+            long t1 = System.currentTimeMillis();
             mDB.key.commit();
-            long t5 = System.currentTimeMillis();
-            logger.debug("upsertMeas: update {}, serialize: {}, store: {}, commit {}", t1-t0, t2-t1, t3-t2, t5-t4);
+            long t2 = System.currentTimeMillis();
+            logger.debug("upsertMeas: store: {}, commit {}", t1-t0, t2-t1);
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "MapDB/measurements", t2-t0, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "MapDB/measurements", serializedObjects.size());
         }
     }
 
     @Override
     public void upsertMeasurement(SegmentedObject o) {
         if (readOnly) return;
+        flushMeasurements(); // a queued older version of the measurements would otherwise overwrite this one
         o.getMeasurements().updateObjectProperties(o);
         Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(o.getStructureIdx());
         mDB.value.put((String)o.getId(), JSONUtils.serialize(o.getMeasurements()));
@@ -869,6 +920,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
 
     @Override
     public List<Measurements> getMeasurements(int structureIdx, String... measurements) {
+        flushMeasurements();
         Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(structureIdx);
         if (mDB==null) return Collections.emptyList();
         return MapDBUtils.getValues(mDB.value).stream().map((s) -> {
@@ -881,6 +933,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
     @Override
     public Measurements getMeasurements(SegmentedObject o) {
+        flushMeasurements();
         Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(o.getStructureIdx());
         if (mDB==null) return null;
         try {
@@ -895,6 +948,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
     @Override
     public void retrieveMeasurements(int... structureIdx) {
+        flushMeasurements();
         SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
         for (int sIdx : structureIdx) {
             Pair<DB, HTreeMap<String, String>> mDB = measurementdbS.get(sIdx);
@@ -917,6 +971,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
 
     @Override
     public void deleteAllMeasurements() {
+        awaitMeasurements();
         closeAllMeasurementFiles(false);
         deleteMeasurementsFromOpenObjects(); // also in opened structureObjects
         if (readOnly) return;
@@ -1029,6 +1084,7 @@ public class MapDBObjectDAO implements ObjectDAO<String> {
     }
     @Override
     public void commit() {
+        flushMeasurements();
         for (int objectClassIdx : this.dbS.keySet()) {
             this.dbS.get(objectClassIdx).commit();
         }
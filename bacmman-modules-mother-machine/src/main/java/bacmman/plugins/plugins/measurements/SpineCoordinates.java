@@ -26,6 +26,7 @@ import bacmman.data_structure.SegmentedObject;
 import bacmman.data_structure.SegmentedObjectUtils;
 import bacmman.processing.bacteria_spine.BacteriaSpineCoord;
 import bacmman.processing.bacteria_spine.BacteriaSpineLocalizer;
+import bacmman.processing.bacteria_spine.SpineCache;
 import bacmman.measurement.MeasurementKey;
 import bacmman.measurement.MeasurementKeyObject;
 import bacmman.plugins.Measurement;
@@ -105,7 +106,7 @@ public class SpineCoordinates implements Measurement, MultiThreaded, Hint {
             if (sMb!=null) spotMapBacteria.putAll(sMb);
         });
         MultipleException me = new MultipleException();
-        Map<SegmentedObject, BacteriaSpineLocalizer> bacteriaMapLocalizer = Utils.toMapWithNullValues(Utils.parallel(spotMapBacteria.values().stream(), true), b->b, Utils.applyREx(b-> new BacteriaSpineLocalizer(b.getRegion())), true, me);
+        Map<SegmentedObject, BacteriaSpineLocalizer> bacteriaMapLocalizer = Utils.toMapWithNullValues(Utils.parallel(spotMapBacteria.values().stream(), true), b->b, Utils.applyREx(b-> SpineCache.getInstance().getLocalizer(b)), true, me);
         Utils.parallel(spotMapBacteria.entrySet().stream(), parallel).forEach(e-> {
             Point center = e.getKey().getRegion().getCenter();
             if (center==null) center = e.getKey().getRegion().getGeomCenter(false);
@@ -92,7 +92,7 @@ public class SpineFeatures implements Measurement, MultiThreaded, Hint, HintSimp
         int objectClassIdx = bacteria.getSelectedClassIdx();
         List<SegmentedObject> parentTrack = SegmentedObjectUtils.getTrack(parentTrackHead);
         Utils.parallel(parentTrack.stream().flatMap(p->p.getChildren(objectClassIdx)), parallel).forEach(e-> {
-            double[] lengthAndWidth = BacteriaSpineFactory.getSpineLengthAndWidth(e.getRegion());
+            double[] lengthAndWidth = BacteriaSpineFactory.getSpineLengthAndWidth(e);
             e.getMeasurements().setValue("SpineLength", lengthAndWidth[0]*scale);
             e.getMeasurements().setValue("SpineWidth", lengthAndWidth[1]*scale);
         });
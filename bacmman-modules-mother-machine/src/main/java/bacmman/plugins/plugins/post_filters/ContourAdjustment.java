@@ -360,12 +360,12 @@ public class ContourAdjustment implements PostFilter, TestableProcessingPlugin {
     }
 
     protected static CoordCollection getSortedCoordinatesFromContour(Region r, Image sortImage, boolean darkBackground) {
-        SortedCoordSet heap = SortedCoordSet.create(sortImage, !darkBackground);
+        ImageMask mask = r.getMask();
+        SortedCoordSet heap = SortedCoordSet.create(sortImage, !darkBackground, mask.count()); // propagation is limited to the mask
         Offset off = r.getBounds();
         for (Voxel v : r.getContour()) heap.add(heap.toCoord(v.x-off.xMin(), v.y-off.yMin(), v.z-off.zMin()));
         CoordCollection coords = CoordCollection.create(heap.sizeX(), heap.sizeY(), heap.sizeZ());
         EllipsoidalNeighborhood neigh = sortImage.sizeZ()>1?new EllipsoidalNeighborhood(1.5, 1, true) : new EllipsoidalNeighborhood(1, true);
-        ImageMask mask = r.getMask();
         ImageByte seen = new ImageByte("seen", mask);
         while (!heap.isEmpty()) {
             long c = heap.pollFirst();
@@ -24,11 +24,13 @@ import bacmman.data_structure.*;
 import bacmman.plugins.*;
 import bacmman.processing.bacteria_spine.BacteriaSpineCoord;
 import bacmman.processing.bacteria_spine.BacteriaSpineLocalizer;
+import bacmman.processing.bacteria_spine.SpineCache;
 import bacmman.measurement.MeasurementExtractor;
 import bacmman.plugins.plugins.processing_pipeline.SegmentOnly;
 import bacmman.processing.bacteria_spine.SpineOverlayDrawer;
 import bacmman.utils.HashMapGetCreate;
 import bacmman.utils.MultipleException;
+import bacmman.utils.ThreadRunner;
 import bacmman.utils.Utils;
 import bacmman.utils.geom.Point;
 
@@ -208,8 +210,8 @@ public class NestedSpotTracker implements TrackerSegmenter, TestableProcessingPl
         });
         //Map<SegmentedObject, BacteriaSpineLocalizer> lMap = parallele(parentWithSpine.stream(), true).collect(Collectors.toMap(b->b, b->new BacteriaSpineLocalizer(b.getRegion()))); // spine are long to compute: better performance when computed all at once
         MultipleException me = new MultipleException();
-        Map<SegmentedObject, BacteriaSpineLocalizer> lMap = Utils.toMapWithNullValues(Utils.parallel(parentWithSpine.stream(), true), b->b, Utils.applyREx(b-> new BacteriaSpineLocalizer(b.getRegion())), true, me);  // spine are long to compute: better performances when computed all at once
-        final HashMapGetCreate<SegmentedObject, BacteriaSpineLocalizer> localizerMap = HashMapGetCreate.getRedirectedMap(Utils.applyCollectEx((SegmentedObject s) -> new BacteriaSpineLocalizer(s.getRegion()), me), HashMapGetCreate.Syncronization.SYNC_ON_KEY);
+        Map<SegmentedObject, BacteriaSpineLocalizer> lMap = Utils.toMapWithNullValues(Utils.parallel(parentWithSpine.stream(), true), b->b, Utils.applyREx(b-> SpineCache.getInstance().getLocalizer(b)), true, me);  // spine are long to compute: better performances when computed all at once
+        final HashMapGetCreate<SegmentedObject, BacteriaSpineLocalizer> localizerMap = HashMapGetCreate.getRedirectedMap(Utils.applyCollectEx((SegmentedObject s) -> SpineCache.getInstance().getLocalizer(s), me), HashMapGetCreate.Syncronization.SYNC_ON_KEY);
         localizerMap.putAll(lMap);
         
         LAPLinker<NestedSpot> tmi = new LAPLinker<>((o, frame) -> {
@@ -229,6 +231,7 @@ public class NestedSpotTracker implements TrackerSegmenter, TestableProcessingPl
         Map<Integer, List<SegmentedObject>> objectsF = SegmentedObjectUtils.getChildrenByFrame(parentTrack, structureIdx);
         long t0 = System.currentTimeMillis();
         tmi.addObjects(objectsF);
+        tmi.setNumThreads(ThreadRunner.getMaxCPUs());
         long t1 = System.currentTimeMillis();
         if (LQSpots || logger.isDebugEnabled()) {
             int lQCount = 0;
@@ -36,6 +36,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -111,6 +112,7 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
     // tracking-related attributes
     protected enum Flag {error, correctionMerge, correctionSplit;}
     final static boolean performSeveralIntervalsInParallel = false;
+    static boolean speculativeScenarioEvaluation = true; // correction scenarios are first evaluated in parallel without modifying current state, in order to pre-compute split / merge costs
     final FrameRangeLock lock= performSeveralIntervalsInParallel ? new FrameRangeLock() : null;
     Map<Integer, List<Region>> populations;
     Map<Region, TrackAttribute> objectAttributeMap;
@@ -123,6 +125,8 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
         if (applyToSegmenter!=null) applyToSegmenter.apply(parentsByF.get(f), s);
         return s;
     });
+    // split / merge results memoised per frame: scenarios sharing an operation only call the segmenter once
+    HashMapGetCreate<Integer, SegmenterSplitAndMergeCache> splitAndMergeCache = new HashMapGetCreate<>(f -> segmenters.getAndCreateIfNecessary(f).cached());
     int minF, maxFExcluded;
     double maxGR, minGR, costLim, cumCostLim;
     double[] baseGrowthRate;
@@ -322,6 +326,7 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
                 }
             });
             if (correctionStep) snapshot("End of Correction", false);
+            splitAndMergeCache.clear();
         }
         // 3) final assignment without correction, noticing all errors
         for (int t = minF+1; t<maxFExcluded; ++t)  setAssignmentToTrackAttributes(t, true);
@@ -496,6 +501,36 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
             return false;
         };
     }
+
+    protected SegmenterSplitAndMergeCache getSplitAndMergeCache(int frame) {
+        synchronized (splitAndMergeCache) {
+            return splitAndMergeCache.getAndCreateIfNecessary(frame);
+        }
+    }
+
+    /**
+     * Splits {@param o} using the segmenter of {@param frame}. Result is memoised. Can be called concurrently: calls to the segmenter of a given frame are serialized
+     * @param frame
+     * @param o object to split
+     * @param result list in which resulting objects are added
+     * @return split cost
+     */
+    protected double split(int frame, Region o, List<Region> result) {
+        Image input = getParent(frame).getPreFilteredImage(structureIdx);
+        if (input.sizeZ()>1 && o.is2D()) input = input.getZPlane(input.sizeZ()/2);
+        return getSplitAndMergeCache(frame).split(input, getParent(frame), structureIdx, o, result);
+    }
+
+    /**
+     * Computes merge cost of {@param objects} using the segmenter of {@param frame}. Result is memoised. Can be called concurrently: calls to the segmenter of a given frame are serialized
+     * @param frame
+     * @param objects objects to merge. As in {@link SegmenterSplitAndMerge#computeMergeCost(Image, SegmentedObject, int, List)}, objects not in contact with the first object are removed from the list
+     * @return merge cost
+     */
+    protected double computeMergeCost(int frame, List<Region> objects) {
+        return getSplitAndMergeCache(frame).computeMergeCost(getParent(frame).getPreFilteredImage(structureIdx), getParent(frame), structureIdx, objects);
+    }
+
     protected SegmentedObject getParent(int frame) {
         return getParent(frame, false);
     }
@@ -1053,10 +1088,9 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
      * @return frame range (minimal/maximal+1 ) where correction has been performed
      */
     private FrameRange performCorrectionSplitAfterOrMergeBefore(Assignment a, int frame, FrameRange limit) {
-        List<CorrectionScenario> allScenarios = new ArrayList<>();
+        List<Supplier<CorrectionScenario>> scenarios = new ArrayList<>();
         
-        MergeScenario m = new MergeScenario(this, a.prevObjects, frame-1);
-        allScenarios.add(m.getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim)); // merge scenario
+        scenarios.add(() -> new MergeScenario(this, a.prevObjects, frame-1)); // merge scenario
         
         // sub-merge scenarios
         if (a.prevObjects.size()>4) { // limit to scenario with objects from same line
@@ -1064,21 +1098,28 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
             objectsByLine.removeIf(l->l.size()<=1);
             for (List<Region> l : objectsByLine) {
                 if (l.size()==1) throw new IllegalArgumentException("merge 1");
-                m = new MergeScenario(this, l, frame-1);
-                allScenarios.add(m.getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim)); // merge scenario
+                scenarios.add(() -> new MergeScenario(this, l, frame-1)); // merge scenario
             }
         } else { // all combinations
             for (int objectNumber = 2; objectNumber<a.prevObjects.size(); ++objectNumber) {
                 for (int idx = 0; idx<=a.prevObjects.size()-objectNumber; ++idx) {
-                    m = new MergeScenario(this, a.prevObjects.subList(idx, idx+objectNumber), frame-1);
-                    allScenarios.add(m.getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim));
+                    List<Region> l = a.prevObjects.subList(idx, idx+objectNumber);
+                    scenarios.add(() -> new MergeScenario(this, l, frame-1));
                 }
             }
         }
-        for (Region r : a.nextObjects) {
-            SplitScenario ss =new SplitScenario(BacteriaClosedMicrochannelTrackerLocalCorrections.this, r, frame);
-            allScenarios.add(ss.getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim));
+        for (Region r : a.nextObjects) scenarios.add(() -> new SplitScenario(this, r, frame));
+        if (speculativeScenarioEvaluation && scenarios.size()>1) { // scenarios are independent: split / merge costs are computed in parallel and memoised
+            parallel(scenarios.stream(), true).forEach(s -> {
+                try {
+                    s.get().getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim, true);
+                } catch (RuntimeException e) { // scenario will be evaluated again below
+                    if (debugCorr) logger.debug("error during speculative evaluation of scenario", e);
+                }
+            });
         }
+        List<CorrectionScenario> allScenarios = new ArrayList<>(scenarios.size());
+        for (Supplier<CorrectionScenario> s : scenarios) allScenarios.add(s.get().getWholeScenario(limit, maxCorrectionLength, costLim, cumCostLim));
         return getBestScenario(allScenarios, a.ta.verboseLevel);
     }
     /**
@@ -1122,7 +1163,12 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
         final Map<CorrectionScenario, ObjectAndAttributeSave> saveMap = new HashMap<>(scenarios.size());
         final Map<CorrectionScenario, Integer> errorMap = new HashMap<>(scenarios.size());
 
-        for (CorrectionScenario c : scenarios) {
+        // scenarios are tried by increasing cost: once a scenario without error is found, following scenarios cannot be better
+        List<CorrectionScenario> sortedScenarios = new ArrayList<>(scenarios);
+        sortedScenarios.sort(Comparator.comparingDouble(c -> c.cost));
+        List<CorrectionScenario> testedScenarios = new ArrayList<>(scenarios.size());
+        for (CorrectionScenario c : sortedScenarios) {
+            testedScenarios.add(c);
             c.applyScenario();
             for (int f = c.frameMin; f<=c.frameMax+1; ++f) setAssignmentToTrackAttributes(f, false); // performs the assignment
             int err = getErrorNumber(fMin, fMax+1);
@@ -1132,8 +1178,9 @@ public class BacteriaClosedMicrochannelTrackerLocalCorrections implements Tracke
             if (debugCorr && verboseLevel<verboseLevelLimit) logger.debug("compare corrections: errors current: {}, scenario: {}:  errors: {}, cost: {} frames [{};{}] err by frame: {}",currentErrors, c, errorMap.get(c), c.cost, c.frameMin, c.frameMax, getErrorByFrame.get());
             //saveCur.restore(c.frameMin-1, c.frameMax+1, true);
             saveCur.restoreAll(true);
+            if (err==0) break;
         }
-        CorrectionScenario best = Collections.min(scenarios, (CorrectionScenario o1, CorrectionScenario o2) -> {
+        CorrectionScenario best = Collections.min(testedScenarios, (CorrectionScenario o1, CorrectionScenario o2) -> {
             int comp = Integer.compare(errorMap.get(o1), errorMap.get(o2)); // min errors
             if (comp==0) comp = Double.compare(o1.cost, o2.cost); // min cost if same error number
             return comp;
@@ -35,6 +35,14 @@ public abstract class CorrectionScenario {
             this.tracker= tracker;
         }
         protected abstract CorrectionScenario getNextScenario();
+        /**
+         * 
+         * @param speculative if true, current state of the tracker must not be modified: null is returned if next scenario cannot be determined without modifying it
+         * @return next scenario
+         */
+        protected CorrectionScenario getNextScenario(boolean speculative) {
+            return getNextScenario();
+        }
         /**
          * 
          * @param lengthLimit if >0 limits the length of the scenario
@@ -43,6 +51,17 @@ public abstract class CorrectionScenario {
          * @return 
          */
         public CorrectionScenario getWholeScenario(FrameRange limit, int lengthLimit, double costLimit, double cumulativeCostLimit) {
+            return getWholeScenario(limit, lengthLimit, costLimit, cumulativeCostLimit, false);
+        }
+        /**
+         *
+         * @param lengthLimit if >0 limits the length of the scenario
+         * @param costLimit if >0 cost limit per operation
+         * @param cumulativeCostLimit if >0 cost limit for the whole scenario
+         * @param speculative if true, current state of the tracker is not modified (the scenario can be truncated) and this method can be called concurrently. Used to pre-compute split / merge costs
+         * @return
+         */
+        public CorrectionScenario getWholeScenario(FrameRange limit, int lengthLimit, double costLimit, double cumulativeCostLimit, boolean speculative) {
             ArrayList<CorrectionScenario> res = new ArrayList<>();
             CorrectionScenario cur = this;
             if (cur instanceof MergeScenario && ((MergeScenario)cur).listO.isEmpty()) return new MultipleScenario(tracker, Collections.emptyList());
@@ -53,7 +72,7 @@ public abstract class CorrectionScenario {
                 //if (cur.cost > costLimit) return new MultipleScenario(tracker, Collections.emptyList()); // if cost is beyond cost limit -> should scenario be considered ?
                 if (cumulativeCostLimit>0 && sum>cumulativeCostLimit) return new MultipleScenario(tracker, Collections.emptyList());
                 if (lengthLimit>0 && res.size()>=lengthLimit) return new MultipleScenario(tracker, Collections.emptyList());
-                cur = cur.getNextScenario();
+                cur = cur.getNextScenario(speculative);
             }
             if (res.size()==1) return res.get(0);
             Collections.sort(res, (s1, s2)->Integer.compare(s1.frameMax, s2.frameMax));
@@ -81,7 +81,7 @@ public abstract class ObjectModifier extends CorrectionScenario {
             super(frame);
             this.source=source;
             values = new ArrayList(2);
-            cost = tracker.segmenters.getAndCreateIfNecessary(frame).split(tracker.getParent(frame).getPreFilteredImage(tracker.structureIdx), tracker.getParent(frame), tracker.structureIdx, source, values);
+            cost = tracker.getSplitAndMergeCache(frame).split(tracker.getParent(frame).getPreFilteredImage(tracker.structureIdx), tracker.getParent(frame), tracker.structureIdx, source, values);
             if (Double.isInfinite(cost) || Double.isNaN(cost) || values.size()!=2) {
                 cost = Double.POSITIVE_INFINITY;
                 values.clear();
@@ -114,7 +114,7 @@ public abstract class ObjectModifier extends CorrectionScenario {
         public Merge(int frame, Pair<Region, Region> source) {
             super(frame);
             this.source = source;
-            cost = tracker.segmenters.getAndCreateIfNecessary(frame).computeMergeCost(tracker.getParent(frame).getPreFilteredImage(tracker.structureIdx), tracker.getParent(frame), tracker.structureIdx, listSource());
+            cost = tracker.computeMergeCost(frame, listSource());
             value = Region.merge(false, source.key, source.value).setLabel(source.key.getLabel());
         }
         public Merge(int frame, Pair<Region, Region> source, Region value, double cost) {
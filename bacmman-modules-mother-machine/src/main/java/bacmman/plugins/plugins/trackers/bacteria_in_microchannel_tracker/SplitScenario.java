@@ -19,7 +19,6 @@
 package bacmman.plugins.plugins.trackers.bacteria_in_microchannel_tracker;
 
 import bacmman.data_structure.Region;
-import bacmman.image.Image;
 import bacmman.plugins.Plugin;
 import bacmman.plugins.plugins.trackers.ObjectOrderTracker;
 import bacmman.utils.Pair;
@@ -46,9 +45,7 @@ public class SplitScenario extends CorrectionScenario {
             super(frame, frame, tracker);
             this.o=o;
             splitObjects= new ArrayList<>();
-            Image input = tracker.getParent(frame).getPreFilteredImage(tracker.structureIdx);
-            if (input.sizeZ()>1 && o.is2D()) input = input.getZPlane(input.sizeZ()/2);
-            cost = tracker.segmenters.getAndCreateIfNecessary(frame).split(input, tracker.getParent(frame), tracker.structureIdx, o, splitObjects);
+            cost = tracker.split(frame, o, splitObjects);
             idx = tracker.populations.get(frame).indexOf(o);
             if (idx<0) throw new IllegalArgumentException("Error SplitScenario at frame: "+frame+" object with bounds: "+o.getBounds()+ " not found");
             if (debugCorr) Plugin.logger.debug("Split scenario: tp: {}, idx: {}, cost: {} # objects: {}", frame, idx, cost, splitObjects.size());
@@ -59,18 +56,20 @@ public class SplitScenario extends CorrectionScenario {
             TreeMap<Pair<Double, Region>, List<Region>> res = new TreeMap(comp);
             for (Region oo : objects) {
                 List<Region> so= new ArrayList<>();
-                Image input = tracker.getParent(frameMin).getPreFilteredImage(tracker.structureIdx);
-                if (input.sizeZ()>1 && oo.is2D()) input = input.getZPlane(input.sizeZ()/2);
-                double c = tracker.segmenters.getAndCreateIfNecessary(frameMin).split(input, tracker.getParent(frameMin), tracker.structureIdx, oo, so);
+                double c = tracker.split(frameMin, oo, so);
                 if (so.size()>=2 && Double.isFinite(c) && !Double.isNaN(c)) res.put(new Pair(c, oo), so);
             }
             return res;
         }
-        @Override protected SplitScenario getNextScenario() { // until next division event OR reach end of channel & division with 2n sister lost
+        @Override protected SplitScenario getNextScenario() {
+            return getNextScenario(false);
+        }
+        @Override protected SplitScenario getNextScenario(boolean speculative) { // until next division event OR reach end of channel & division with 2n sister lost
             if (frameMin == tracker.maxFExcluded-1) return null;
             TrackAttribute ta = tracker.objectAttributeMap.get(o);
             if (ta==null) return null;
             if (ta.next==null) {
+                if (speculative) return null; // assignment would modify track attributes
                 if (debugCorr) Plugin.logger.debug("getNextScenario: assign @:{}", frameMin+1);
                 tracker.setAssignmentToTrackAttributes(frameMin+1, false);
             }
@@ -19,6 +19,7 @@
 package bacmman.processing.bacteria_spine;
 
 import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
 import bacmman.data_structure.Voxel;
 import bacmman.processing.EDT;
 import bacmman.processing.neighborhood.EllipsoidalNeighborhood;
@@ -719,16 +720,33 @@ public class BacteriaSpineFactory {
     }
     public static double getSpineLength(Region r) {
         try {
-            PointContainer2<?, Double>[] spine = BacteriaSpineFactory.createSpine(r).spine;
-            if (spine==null || spine.length == 1) return Double.NaN;
-            return spine[spine.length-1].getContent2();
+            return getSpineLength(SpineCache.getInstance().getSpine(r));
         } catch (Throwable t) {
             return Double.NaN;
         }
     }
+    public static double getSpineLength(SpineResult spineResult) {
+        PointContainer2<?, Double>[] spine = spineResult.spine;
+        if (spine==null || spine.length == 1) return Double.NaN;
+        return spine[spine.length-1].getContent2();
+    }
     public static double[] getSpineLengthAndWidth(Region r) {
         try {
-            PointContainer2<Vector, Double>[] spine = BacteriaSpineFactory.createSpine(r).spine;
+            return getSpineLengthAndWidth(SpineCache.getInstance().getSpine(r));
+        } catch (Throwable t) {
+            return new double[]{Double.NaN, Double.NaN};
+        }
+    }
+    public static double[] getSpineLengthAndWidth(SegmentedObject o) {
+        try {
+            return getSpineLengthAndWidth(SpineCache.getInstance().getSpine(o));
+        } catch (Throwable t) {
+            return new double[]{Double.NaN, Double.NaN};
+        }
+    }
+    public static double[] getSpineLengthAndWidth(SpineResult spineResult) {
+        try {
+            PointContainer2<Vector, Double>[] spine = spineResult.spine;
             if (spine==null || spine.length==1) return new double[]{Double.NaN, Double.NaN};
             double width = ArrayUtil.quantile(Arrays.stream(spine).mapToDouble(s->s.getContent1().norm()).sorted(), spine.length, 0.5);
             double length = spine[spine.length-1].getContent2();
@@ -54,13 +54,18 @@ public class BacteriaSpineLocalizer {
     public static double precision = 1E-2;
     public static double OUT_OF_BOUND_TOLERANCE=3; 
     public BacteriaSpineLocalizer(Region bacteria) throws BacteriaSpineFactory.InvalidObjectException {
+        this(bacteria, BacteriaSpineFactory.createSpine(bacteria));
+    }
+
+    /**
+     * @param bacteria region
+     * @param spine spine of {@param bacteria}, e.g. shared through {@link SpineCache}. It is not modified
+     */
+    public BacteriaSpineLocalizer(Region bacteria, BacteriaSpineFactory.SpineResult spine) {
         this.bacteria=bacteria;
-        //long t0 = System.currentTimeMillis();
-        spine = BacteriaSpineFactory.createSpine(bacteria);
-        //long t1 = System.currentTimeMillis();
+        this.spine = spine;
         if (spine==null || spine.spine == null || spine.spine.length==1) length = Double.NaN;
         else length = spine.spine[spine.spine.length-1].getContent2();
-        //logger.debug("spine creation: {} ms", t1-t0);
     }
 
     public BacteriaSpineLocalizer setTestMode(boolean testMode) {
@@ -0,0 +1,264 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing.bacteria_spine;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.image.SimpleBoundingBox;
+import bacmman.utils.JSONUtils;
+import bacmman.utils.geom.PointContainer2;
+import bacmman.utils.geom.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Shared cache of bacteria spines, so that measurements and trackers computing the spine of the same bacterium within one run only compute it once.
+ * Entries are keyed by region identity (weak reference) and contour smoothing, and are invalidated when the shape of the region changes (bounds, size, landmark).
+ * The cache is bounded by the total number of spine and contour points: least recently used entries are evicted first.
+ * When persistence is enabled (system property "bacmman.spine.persist" or {@link #setPersist(boolean)}), the spine of a segmented object is also stored as an attribute so that later runs can skip its computation.
+ * @author Jean Ollion
+ */
+public class SpineCache {
+    public static final Logger logger = LoggerFactory.getLogger(SpineCache.class);
+    public final static String SPINE_ATTRIBUTE = "Spine";
+    public final static String SPINE_KEY_ATTRIBUTE = "SpineKey";
+    public final static double DEFAULT_CONTOUR_SMOOTH_SIGMA = 2;
+    private final static SpineCache INSTANCE = new SpineCache(500000);
+
+    final LinkedHashMap<RegionKey, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    final ReferenceQueue<Region> queue = new ReferenceQueue<>();
+    long maxWeight, weight;
+    boolean persist = Boolean.getBoolean("bacmman.spine.persist");
+
+    public static SpineCache getInstance() {
+        return INSTANCE;
+    }
+
+    public SpineCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param maxWeight maximum total number of spine and contour points held by the cache
+     */
+    public synchronized SpineCache setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+        return this;
+    }
+
+    public SpineCache setPersist(boolean persist) {
+        this.persist = persist;
+        return this;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        purge();
+        return cache.size();
+    }
+
+    /**
+     * Shared spine of {@param bacteria}, computed with default contour smoothing. The result must not be modified.
+     */
+    public BacteriaSpineFactory.SpineResult getSpine(Region bacteria) throws BacteriaSpineFactory.InvalidObjectException {
+        return getEntry(bacteria, DEFAULT_CONTOUR_SMOOTH_SIGMA, null).getSpine();
+    }
+
+    /**
+     * Shared spine of {@param bacteria}. The result must not be modified.
+     */
+    public BacteriaSpineFactory.SpineResult getSpine(Region bacteria, double contourSmoothSigma) throws BacteriaSpineFactory.InvalidObjectException {
+        return getEntry(bacteria, contourSmoothSigma, null).getSpine();
+    }
+
+    /**
+     * Shared spine of the region of {@param bacteria}. If persistence is enabled, the spine is read from / written to the attributes of {@param bacteria}
+     */
+    public BacteriaSpineFactory.SpineResult getSpine(SegmentedObject bacteria) throws BacteriaSpineFactory.InvalidObjectException {
+        return getEntry(bacteria.getRegion(), DEFAULT_CONTOUR_SMOOTH_SIGMA, bacteria).getSpine();
+    }
+
+    /**
+     * @return localizer backed by the shared spine of {@param bacteria}
+     */
+    public BacteriaSpineLocalizer getLocalizer(Region bacteria) throws BacteriaSpineFactory.InvalidObjectException {
+        return new BacteriaSpineLocalizer(bacteria, getSpine(bacteria));
+    }
+
+    public BacteriaSpineLocalizer getLocalizer(SegmentedObject bacteria) throws BacteriaSpineFactory.InvalidObjectException {
+        return new BacteriaSpineLocalizer(bacteria.getRegion(), getSpine(bacteria));
+    }
+
+    protected Entry getEntry(Region bacteria, double contourSmoothSigma, SegmentedObject object) {
+        String version = getVersion(bacteria);
+        RegionKey key = new RegionKey(bacteria, contourSmoothSigma, null);
+        synchronized (this) {
+            Entry e = cache.get(key);
+            if (e != null && e.version.equals(version)) return e;
+        }
+        // computation is performed outside the lock so that spines of distinct bacteria are computed in parallel
+        Entry e = new Entry(version);
+        boolean persistent = object != null && contourSmoothSigma == DEFAULT_CONTOUR_SMOOTH_SIGMA;
+        if (persistent) e.spine = readSpine(object, version);
+        if (e.spine == null) {
+            try {
+                e.spine = BacteriaSpineFactory.createSpine(bacteria, contourSmoothSigma);
+            } catch (BacteriaSpineFactory.InvalidObjectException ex) {
+                e.error = ex;
+            }
+            if (persistent && persist && e.spine != null) writeSpine(object, e.spine, version);
+        }
+        synchronized (this) {
+            purge();
+            Entry previous = cache.put(new RegionKey(bacteria, contourSmoothSigma, queue), e);
+            if (previous != null) weight -= previous.weight();
+            weight += e.weight();
+            evict();
+        }
+        return e;
+    }
+
+    private void evict() {
+        Iterator<Entry> it = cache.values().iterator();
+        while (weight > maxWeight && cache.size() > 1 && it.hasNext()) { // keep at least the last inserted entry
+            weight -= it.next().weight();
+            it.remove();
+        }
+    }
+
+    private void purge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            Entry e = cache.remove(ref);
+            if (e != null) weight -= e.weight();
+        }
+    }
+
+    /**
+     * @return a signature of the shape of the region: spine is recomputed when it changes
+     */
+    protected static String getVersion(Region r) {
+        return r.getBounds().toString() + (r.isAbsoluteLandMark() ? "A" : "R") + (r.is2D() ? "2" : "3") + (int) r.size();
+    }
+
+    /**
+     * Compact encoding of the spine: for each vertebra: x, y, direction x, direction y, curvilinear coordinate
+     */
+    protected static float[] encode(BacteriaSpineFactory.SpineResult spine) {
+        float[] res = new float[spine.spine.length * 5];
+        for (int i = 0; i < spine.spine.length; ++i) {
+            PointContainer2<Vector, Double> v = spine.spine[i];
+            res[5 * i] = v.get(0);
+            res[5 * i + 1] = v.get(1);
+            res[5 * i + 2] = v.getContent1().get(0);
+            res[5 * i + 3] = v.getContent1().get(1);
+            res[5 * i + 4] = v.getContent2().floatValue();
+        }
+        return res;
+    }
+
+    protected static BacteriaSpineFactory.SpineResult decode(float[] encoded, Region bacteria) {
+        PointContainer2<Vector, Double>[] spine = new PointContainer2[encoded.length / 5];
+        for (int i = 0; i < spine.length; ++i) {
+            spine[i] = new PointContainer2<>(new Vector(encoded[5 * i + 2], encoded[5 * i + 3]), (double) encoded[5 * i + 4], encoded[5 * i], encoded[5 * i + 1]);
+        }
+        return new BacteriaSpineFactory.SpineResult().setBounds(new SimpleBoundingBox(bacteria.getBounds())).setSpine(spine);
+    }
+
+    protected static BacteriaSpineFactory.SpineResult readSpine(SegmentedObject object, String version) {
+        if (!version.equals(object.getAttribute(SPINE_KEY_ATTRIBUTE, ""))) return null;
+        Object encoded = object.getAttribute(SPINE_ATTRIBUTE);
+        if (!(encoded instanceof List) || ((List) encoded).isEmpty()) return null;
+        try {
+            return decode(JSONUtils.fromFloatArray((List) encoded), object.getRegion());
+        } catch (RuntimeException e) {
+            logger.debug("could not decode spine of {}: {}", object, e.getMessage());
+            return null;
+        }
+    }
+
+    protected static void writeSpine(SegmentedObject object, BacteriaSpineFactory.SpineResult spine, String version) {
+        if (spine.spine == null) return;
+        object.setAttributeArray(SPINE_ATTRIBUTE, encode(spine));
+        object.setAttribute(SPINE_KEY_ATTRIBUTE, version);
+    }
+
+    protected static class Entry { // must not reference the region, otherwise the weak key is never cleared
+        final String version;
+        BacteriaSpineFactory.SpineResult spine;
+        BacteriaSpineFactory.InvalidObjectException error;
+
+        Entry(String version) {
+            this.version = version;
+        }
+
+        BacteriaSpineFactory.SpineResult getSpine() throws BacteriaSpineFactory.InvalidObjectException {
+            if (error != null) throw error;
+            return spine;
+        }
+
+        long weight() {
+            long w = 1;
+            if (spine != null) {
+                if (spine.spine != null) w += spine.spine.length;
+                if (spine.contour != null) w += spine.contour.size();
+            }
+            return w;
+        }
+    }
+
+    /**
+     * Identity key on a weakly referenced region
+     */
+    protected static class RegionKey extends WeakReference<Region> {
+        final int hash;
+        final double contourSmoothSigma;
+
+        RegionKey(Region region, double contourSmoothSigma, ReferenceQueue<Region> queue) {
+            super(region, queue);
+            this.hash = 31 * System.identityHashCode(region) + Double.hashCode(contourSmoothSigma);
+            this.contourSmoothSigma = contourSmoothSigma;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RegionKey)) return false;
+            RegionKey other = (RegionKey) o;
+            Region r = get();
+            return r != null && r == other.get() && contourSmoothSigma == other.contourSmoothSigma;
+        }
+    }
+}
@@ -48,6 +48,13 @@ public class MeasurementBox {
         return this;
     }
 
+    /**
+     * @return a copy sharing the encoded measurements (which are replaced, not modified, by {@link #update(Measurements)})
+     */
+    public MeasurementBox duplicate() {
+        return new MeasurementBox(id, objectClassIdx, positionName, jsonMap);
+    }
+
     public long getId() {
         return id;
     }
@@ -2,6 +2,8 @@ package bacmman.data_structure;
 
 import bacmman.data_structure.dao.ObjectBoxDAO;
 import bacmman.data_structure.dao.ObjectDAO;
+import bacmman.image.BoundingBox;
+import bacmman.image.SimpleBoundingBox;
 import bacmman.utils.CompressionUtils;
 import bacmman.utils.JSONUtils;
 import io.objectbox.annotation.*;
@@ -40,11 +42,13 @@ public class SegmentedObjectBox {
     byte[] jsonRegion;
     @Uid(19)
     String jsonAttributes;
+    @Uid(20)
+    int[] bounds; // xMin, xMax, yMin, yMax, zMin, zMax, is2D : allows to retrieve objects without decoding regions
     @Transient
     volatile SegmentedObject object;
 
     public SegmentedObjectBox() {}
-    public SegmentedObjectBox(long id, int frame, int idx, long parentId, long trackHeadId, long previousId, long nextId, byte[] jsonRegion, String jsonAttributes) {
+    public SegmentedObjectBox(long id, int frame, int idx, long parentId, long trackHeadId, long previousId, long nextId, byte[] jsonRegion, String jsonAttributes, int[] bounds) {
         this.id = id;
         this.frame = frame;
         this.idx = idx;
@@ -54,10 +58,11 @@ public class SegmentedObjectBox {
         this.nextId = nextId;
         this.jsonRegion = jsonRegion;
         this.jsonAttributes = jsonAttributes;
+        this.bounds = bounds;
     }
 
     public SegmentedObjectBox duplicate() {
-        return new SegmentedObjectBox(id, frame, idx, parentId, trackHeadId, previousId, nextId, jsonRegion, jsonAttributes);
+        return new SegmentedObjectBox(id, frame, idx, parentId, trackHeadId, previousId, nextId, jsonRegion, jsonAttributes, bounds);
     }
 
     public SegmentedObjectBox(SegmentedObject object) {
@@ -80,6 +85,8 @@ public class SegmentedObjectBox {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            BoundingBox bds = object.getBounds();
+            bounds = new int[]{bds.xMin(), bds.xMax(), bds.yMin(), bds.yMax(), bds.zMin(), bds.zMax(), object.is2D() ? 1 : 0};
         }
         //jsonRegion = object.getRegionJSONEntry().toJSONString();
         JSONObject attributes = object.getAttributesJSONEntry();
@@ -128,12 +135,10 @@ public class SegmentedObjectBox {
                     object.id = id;
                     object.parentId = parentId==0 ? null : parentId;
                     //logger.debug("create SO from SOB: frame {} oc{} idx {} region {}", frame, objectClassIdx, idx, jsonRegion);
-                    try {
-                        String jsonRegionS = CompressionUtils.decompressToString(jsonRegion, true);
-                        object.initRegionFromJSONEntry(JSONUtils.parse(jsonRegionS));
-                    } catch (IOException | ParseException e) {
-                        throw new RuntimeException(e);
-                    }
+                    if (bounds != null && bounds.length == 7) { // region is decoded at first call to getRegion
+                        byte[] region = jsonRegion;
+                        object.initRegionLazily(new SimpleBoundingBox(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]), bounds[6] == 1, () -> decodeRegion(region));
+                    } else object.initRegionFromJSONEntry(decodeRegion(jsonRegion)); // stored before bounds were stored
                     //object.initRegionFromJSONEntry(JSONUtils.parse(jsonRegion));
                     if (jsonAttributes != null) {
                         try {
@@ -152,6 +157,15 @@ public class SegmentedObjectBox {
         return object;
     }
 
+    static JSONObject decodeRegion(byte[] jsonRegion) {
+        try {
+            String jsonRegionS = CompressionUtils.decompressToString(jsonRegion, true);
+            return JSONUtils.parse(jsonRegionS);
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void setIdx(int idx) {
         this.idx = idx;
         if (object != null) object.setIdx(idx);
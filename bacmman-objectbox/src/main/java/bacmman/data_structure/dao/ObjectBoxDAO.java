@@ -3,6 +3,8 @@ package bacmman.data_structure.dao;
 import bacmman.configuration.experiment.Experiment;
 import bacmman.data_structure.*;
 import bacmman.utils.HashMapGetCreate;
+import bacmman.utils.Metrics;
+import bacmman.utils.Pair;
 import bacmman.utils.StreamConcatenation;
 import bacmman.utils.Utils;
 import io.objectbox.Box;
@@ -12,7 +14,6 @@ import io.objectbox.exception.DbException;
 import io.objectbox.query.Query;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntComparators;
-import it.unimi.dsi.fastutil.longs.LongArrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +26,7 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -35,6 +37,8 @@ import java.util.stream.Stream;
 public class ObjectBoxDAO implements ObjectDAO<Long> {
     static final Logger logger = LoggerFactory.getLogger(ObjectBoxDAO.class);
     static int batchSize = 1000000;
+    static int bulkIdBlockSize = 1024;
+    static int bulkTransactionSize = 50000;
     final MasterDAO<Long, ? extends ObjectDAO<Long>> mDAO;
     final String positionName;
     final Path dir;
@@ -43,6 +47,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     protected final Map<Integer, Box<SegmentedObjectBox>> objectBoxes = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(this::makeObjectBox);
     protected final Map<Integer, Box<MeasurementBox>> measurementBoxes = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(this::makeMeasurementBox);
 
+    protected final Map<Integer, ObjectQueries> queries = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> objectBoxes.get(ocIdx)==null ? null : new ObjectQueries(objectBoxes.get(ocIdx)));
     protected final Map<Integer, Map<Long, SegmentedObjectBox>> cache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> new ConcurrentHashMap<>());
     protected final Map<Integer, Map<Long, MeasurementBox>> measurementCache = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> new HashMap<>());
     protected final Map<Integer, Map<Long, SegmentedObjectBox>> toRestoreAtRollback = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> new HashMap<>());
@@ -50,8 +55,13 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     public final boolean readOnly;
     protected boolean safeMode;
+    protected boolean bulkIngestion = Boolean.getBoolean("bacmman.objectbox.bulkIngestion");
+    // object classes that were empty at the last commit: stored objects are all new so rollback only needs their ids
+    // recorded at commit for opened boxes, otherwise computed before the first modification following the commit
+    protected final Map<Integer, Boolean> emptyAtCommit = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(ocIdx -> isEmpty(objectBoxes.get(ocIdx)));
     private java.nio.channels.FileLock lock;
     private FileChannel lockChannel;
+    protected final WriteBehindQueue<MeasurementBox> measurementQueue;
     protected final HashMapGetCreate.HashMapGetCreateRedirectedSync<Integer, LongIDGenerator> idGenerator = new HashMapGetCreate.HashMapGetCreateRedirectedSync<>(this::makeGenerator);
 
     public ObjectBoxDAO(MasterDAO<Long, ? extends ObjectDAO<Long>> mDAO, String positionName, String outputDir, boolean readOnly) {
@@ -62,6 +72,19 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         if (!readOnly) {
             this.readOnly = !lock();
         } else this.readOnly = true;
+        this.measurementQueue = WriteBehindQueue.ENABLED && !this.readOnly ? new WriteBehindQueue<>(positionName+"/measurements", this::writeMeasurements, mb -> new Pair<>(mb.getObjectClassIdx(), mb.getId()), this::closeThreadResources, WriteBehindQueue.DEFAULT_CAPACITY) : null;
+    }
+
+    @Override
+    public void flushMeasurements() {
+        if (measurementQueue != null) measurementQueue.flush();
+    }
+
+    /**
+     * Blocks until pending measurements are stored, without throwing errors (errors are rethrown to the thread that upserted the measurements)
+     */
+    protected void awaitMeasurements() {
+        if (measurementQueue != null) measurementQueue.await();
     }
 
     protected BoxStore makeStore(int ocIdx, boolean object) {
@@ -114,7 +137,19 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     }
 
     protected LongIDGenerator makeGenerator(int objectClassIdx) {
-        return new LongIDGenerator(getAllIdsAsStream(objectBoxes.get(objectClassIdx)));
+        return new LongIDGenerator(getAllIdsAsStream(objectBoxes.get(objectClassIdx))).setBlockSize(bulkIngestion ? bulkIdBlockSize : 1);
+    }
+
+    /**
+     * In bulk ingestion mode, ids are reserved by ranges for each thread and objects are written in large explicit transactions.
+     * Intended for the first processing of a position, when large numbers of objects are created at once
+     * @param bulkIngestion whether to enable bulk ingestion
+     * @return this dao
+     */
+    public ObjectBoxDAO setBulkIngestion(boolean bulkIngestion) {
+        this.bulkIngestion = bulkIngestion;
+        idGenerator.values().forEach(g -> g.setBlockSize(bulkIngestion ? bulkIdBlockSize : 1));
+        return this;
     }
 
     @Override
@@ -143,6 +178,8 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public void clearCache() {
+        awaitMeasurements();
+        closeQueries();
         cache.clear();
         measurementCache.clear();
         objectBoxes.clear();
@@ -222,7 +259,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     public List<SegmentedObject> getChildren(SegmentedObject parent, int objectClassIdx) {
         if (readOnly && objectBoxes.get(objectClassIdx)==null) return Collections.emptyList();
         try {
-            return get(objectClassIdx, getChildrenQuery(objectClassIdx, (Long) parent.getId()), null, true).collect(Collectors.toList());
+            return get(objectClassIdx, queries.get(objectClassIdx).children((Long) parent.getId())).sorted().collect(Collectors.toList());
         } finally {
             objectStores.get(objectClassIdx).closeThreadResources();
         }
@@ -232,12 +269,26 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     public void setAllChildren(Collection<SegmentedObject> parentTrack, int objectClassIdx) {
         if (readOnly && objectStores.get(objectClassIdx)==null) return;
         SegmentedObjectAccessor accessor = getMasterDAO().getAccess();
+        Map<Long, List<SegmentedObject>> children = prefetchChildren(parentTrack, objectClassIdx);
+        for (SegmentedObject p : parentTrack) {
+            accessor.setChildren(p, children.getOrDefault((Long)p.getId(), new ArrayList<>()), objectClassIdx);
+        }
+    }
+
+    /**
+     * Retrieves the children of all objects of {@param parentTrack} with a single query and stores them in the cache
+     * @param parentTrack parent objects
+     * @param objectClassIdx object class of the children
+     * @return children sorted by index, grouped by parent id
+     */
+    public Map<Long, List<SegmentedObject>> prefetchChildren(Collection<SegmentedObject> parentTrack, int objectClassIdx) {
+        if (parentTrack.isEmpty() || readOnly && objectStores.get(objectClassIdx)==null) return Collections.emptyMap();
+        long[] parentIds = parentTrack.stream().mapToLong(p -> (Long)p.getId()).toArray();
         try {
-            objectStores.get(objectClassIdx).runInReadTx(() -> {
-                for (SegmentedObject p : parentTrack) {
-                    accessor.setChildren(p, getChildren(p, objectClassIdx), objectClassIdx);
-                }
-            });
+            long[] ids = objectStores.get(objectClassIdx).callInReadTx(() -> queries.get(objectClassIdx).children(parentIds));
+            Map<Long, List<SegmentedObject>> res = get(objectClassIdx, ids).collect(Collectors.groupingBy(o -> (Long)o.getParentId()));
+            res.values().forEach(Collections::sort);
+            return res;
         } finally {
             objectStores.get(objectClassIdx).closeThreadResources();
         }
@@ -255,9 +306,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         try {
             objectStores.get(objectClassIdx).runInReadTx(() -> {
                 for (SegmentedObject parent : parents) {
-                    Query<SegmentedObjectBox> query = getChildrenQuery(objectClassIdx, (Long)parent.getId());
-                    idList.add(query.findIds());
-                    query.close();
+                    idList.add(queries.get(objectClassIdx).children((Long)parent.getId()));
                 }
             });
             long[] ids = idList.size()==1 ? idList.get(0) : idList.stream().flatMapToLong(LongStream::of).toArray();
@@ -286,7 +335,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     }
     @Override
     public synchronized void erase() {
-        clearCache();
+        clearCache(); // also waits for pending measurements
         closeThreadResources();
         if (readOnly) return;
         unlock();
@@ -296,6 +345,8 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public void deleteAllObjects() {
+        awaitMeasurements();
+        closeQueries();
         closeThreadResources();
         cache.clear();
         measurementCache.clear();
@@ -308,6 +359,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         }
         objectStores.clear();
         objectBoxes.clear();
+        emptyAtCommit.clear();
         deleteAllMeasurements();
         // reset counter
         idGenerator.values().forEach(LongIDGenerator::reset);
@@ -333,7 +385,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
                     List<Stream<SegmentedObjectBox>> siblingList = new ArrayList<>();
                     objectStores.get(ocIdx).runInReadTx(() -> {
                         for (long pId : parentIds) {
-                            siblingList.add(getB(ocIdx, getChildrenQuery(ocIdx, pId), null));
+                            siblingList.add(getB(ocIdx, queries.get(ocIdx).children(pId)));
                         }
                     });
                     List<SegmentedObjectBox> modifiedObjects = new ArrayList<>();
@@ -392,9 +444,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
                 try {
                     objectStores.get(cIdx).runInTx(() -> {
                         for (long pId : ids) {
-                            Query<SegmentedObjectBox> query = getChildrenQuery(cIdx, pId);
-                            long[] cIds = query.findIds();
-                            query.close();
+                            long[] cIds = queries.get(cIdx).children(pId);
                             deleteTransaction(cIds, cIdx, true, false);
                         }
                     });
@@ -438,26 +488,16 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
                 }
 
                 t1 = System.currentTimeMillis();
-                if (safeMode) { // record modifications
-                    Set<Long> toRemove = toRemoveAtRollback.get(ocIdx);
-                    Map<Long, SegmentedObjectBox> toRestore = toRestoreAtRollback.get(ocIdx);
-                    objectStores.get(ocIdx).runInReadTx(() -> {
-                        for (SegmentedObjectBox b : toStore) {
-                            if (!toRemove.contains(b.getId())) {
-                                SegmentedObjectBox oldB = db.get(b.getId());
-                                if (oldB != null) toRestore.put(b.getId(), oldB); // modified
-                                else toRemove.add(b.getId()); // newly created
-                            } // was created after previous commit so needs to be removed
-                        }
-                    });
-                }
-                // store
+                // store (modifications are recorded in put for rollback)
                 put(ocIdx, toStore);
             } finally {
                 objectStores.get(ocIdx).closeThreadResources();
             }
             long t2 = System.currentTimeMillis();
             logger.debug("Stored {} objects of class {} in {}ms create objects: {}ms store: {}ms", toStoreSO.size(), ocIdx, t2-t0, t1-t0, t2-t1);
+            Metrics.time(Metrics.STAGE.SERIALIZATION, "ObjectBox/objects", t1-t0, TimeUnit.MILLISECONDS);
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "ObjectBox/objects", t2-t1, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "ObjectBox/objects", toStoreSO.size());
             upsertMeasurements(toStoreMeas);
         }
     }
@@ -468,7 +508,11 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         if (safeMode) { // save non modified version of objects
             Set<Long> toRemove = toRemoveAtRollback.get(objectClassIdx);
             Map<Long, SegmentedObjectBox> toRestore = toRestoreAtRollback.get(objectClassIdx);
-            objectStores.get(objectClassIdx).runInReadTx(() -> {
+            if (emptyAtCommit.get(objectClassIdx)) { // all objects were created after previous commit: no need to read previous versions
+                for (SegmentedObjectBox b : toStore) {
+                    if (!toRestore.containsKey(b.getId())) toRemove.add(b.getId());
+                }
+            } else objectStores.get(objectClassIdx).runInReadTx(() -> {
                 for (SegmentedObjectBox b : toStore) {
                     if (!toRemove.contains(b.getId()) && !toRestore.containsKey(b.getId())) {
                         SegmentedObjectBox oldB = db.get(b.getId());
@@ -480,11 +524,17 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         }
         logger.debug("will put: {} objects", toStore.size());
         //db.put(toStore);
-        db.putBatched(toStore, Math.min(toStore.size(), batchSize));
+        if (bulkIngestion && toStore.size() > bulkTransactionSize) { // single transaction, written by chunks to limit the size of native buffers
+            List<SegmentedObjectBox> list = toStore instanceof List ? (List<SegmentedObjectBox>)toStore : new ArrayList<>(toStore);
+            objectStores.get(objectClassIdx).runInTx(() -> {
+                for (int i = 0; i<list.size(); i+=bulkTransactionSize) db.put(list.subList(i, Math.min(list.size(), i+bulkTransactionSize)));
+            });
+        } else db.putBatched(toStore, Math.min(toStore.size(), batchSize));
     }
 
     protected void remove(int objectClassIdx, long[] ids) {
         if (safeMode) {
+            emptyAtCommit.get(objectClassIdx); // record state before modification
             Map<Long, SegmentedObjectBox> toRestore = toRestoreAtRollback.get(objectClassIdx);
             Set<Long> toRemove = toRemoveAtRollback.get(objectClassIdx);
             long[] idsToRestore = LongStream.of(ids).filter(id -> !toRestore.containsKey(id) && !toRemove.contains(id)).toArray();
@@ -511,16 +561,21 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public SegmentedObject getRoot(int timePoint) {
-        return getFirst(-1, objectBoxes.get(-1)
-                .query(SegmentedObjectBox_.frame.equal(timePoint))
-                .build());
+        if (readOnly && objectBoxes.get(-1)==null) return null;
+        try {
+            long[] ids = queries.get(-1).frame(timePoint);
+            if (ids.length == 0) return null;
+            return getById(-1, ids[0], timePoint, null);
+        } finally {
+            objectStores.get(-1).closeThreadResources();
+        }
     }
 
     @Override
     public List<SegmentedObject> getTrack(SegmentedObject trackHead) {
         if (readOnly && objectBoxes.get(trackHead.getStructureIdx())==null) return Collections.emptyList();
         try {
-            return get(trackHead.getStructureIdx(), getTrackQuery(trackHead.getStructureIdx(), (Long)trackHead.getId()) , null,true).collect(Collectors.toList());
+            return get(trackHead.getStructureIdx(), queries.get(trackHead.getStructureIdx()).track((Long)trackHead.getId())).sorted().collect(Collectors.toList());
         } finally {
             objectStores.get(trackHead.getStructureIdx()).closeThreadResources();
         }
@@ -530,10 +585,12 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     public List<SegmentedObject> getTrackHeads(SegmentedObject parentTrackHead, int objectClassIdx) {
         if (readOnly && objectBoxes.get(objectClassIdx)==null) return Collections.emptyList();
         try {
-            long[] th = getTrackQuery(parentTrackHead.getStructureIdx(), (Long) parentTrackHead.getTrackHeadId()).findIds();
-            LongArrays.unstableSort(th);
-            return get(objectClassIdx, objectBoxes.get(objectClassIdx).query().build(), o -> o.isTrackHead() && LongArrays.binarySearch(th, o.getParentId()) >= 0, true).collect(Collectors.toList());
+            long[] parentIds = queries.get(parentTrackHead.getStructureIdx()).track((Long) parentTrackHead.getTrackHeadId());
+            if (parentIds.length == 0) return Collections.emptyList();
+            return getB(objectClassIdx, queries.get(objectClassIdx).children(parentIds)).filter(SegmentedObjectBox::isTrackHead)
+                    .map(o -> o.getSegmentedObject(objectClassIdx, this)).sorted().collect(Collectors.toList());
         } finally {
+            objectStores.get(parentTrackHead.getStructureIdx()).closeThreadResources();
             objectStores.get(objectClassIdx).closeThreadResources();
         }
     }
@@ -542,37 +599,54 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     @Override
     public void upsertMeasurements(Collection<SegmentedObject> objects) {
         if (readOnly) return;
+        List<MeasurementBox> toStore = encodeMeasurements(objects); // snapshot on the calling thread
+        if (measurementQueue != null) measurementQueue.submit(toStore); // stored in background
+        else writeMeasurements(toStore);
+    }
+
+    protected List<MeasurementBox> encodeMeasurements(Collection<SegmentedObject> objects) {
         Map<Integer, List<SegmentedObject>> bySIdx = SegmentedObjectUtils.splitByStructureIdx(objects, true);
+        List<MeasurementBox> res = new ArrayList<>();
         bySIdx.forEach((ocIdx, toStore) -> {
             Map<Long, MeasurementBox> cache = measurementCache.get(ocIdx);
             long t0 = System.currentTimeMillis();
             toStore.parallelStream().forEach(o -> o.getMeasurements().updateObjectProperties(o));
             long t1 = System.currentTimeMillis();
-            List<MeasurementBox> toStoreBox;
             synchronized (cache) {
-                toStoreBox = toStore.parallelStream().filter(SegmentedObject::hasMeasurements).map(o -> {
+                res.addAll(toStore.parallelStream().filter(SegmentedObject::hasMeasurements).map(o -> {
                     MeasurementBox mb = cache.get(o.getId());
                     if (mb == null) mb = new MeasurementBox(o.getMeasurements());
                     else mb.update(o.getMeasurements());
-                    return mb;
-                }).collect(Collectors.toList());
+                    return mb.duplicate(); // cached box can be updated while the copy is stored
+                }).collect(Collectors.toList()));
             }
+            toStore.forEach(o -> o.getMeasurements().modifications=false);
             long t2 = System.currentTimeMillis();
+            logger.debug("encode {} Measurements: update {}, serialize: {}", toStore.size(), t1-t0, t2-t1);
+            Metrics.time(Metrics.STAGE.SERIALIZATION, "ObjectBox/measurements", t2-t0, TimeUnit.MILLISECONDS);
+        });
+        return res;
+    }
+
+    protected void writeMeasurements(List<MeasurementBox> boxes) {
+        boxes.stream().collect(Collectors.groupingBy(MeasurementBox::getObjectClassIdx)).forEach((ocIdx, toStoreBox) -> {
+            long t0 = System.currentTimeMillis();
             try {
-                //measurementBoxes.get(ocIdx).put(toStoreBox);
                 measurementBoxes.get(ocIdx).putBatched(toStoreBox, Math.min(toStoreBox.size(), batchSize));
             } finally {
                 measurementBoxes.get(ocIdx).closeThreadResources();
             }
-            long t3 = System.currentTimeMillis();
-            toStore.forEach(o -> o.getMeasurements().modifications=false);
-            logger.debug("upsert {} Measurements: update {}, serialize: {}, store: {}", toStoreBox.size(), t1-t0, t2-t1, t3-t2);
+            long t1 = System.currentTimeMillis();
+            logger.debug("upsert {} Measurements: store: {}", toStoreBox.size(), t1-t0);
+            Metrics.time(Metrics.STAGE.DAO_WRITE, "ObjectBox/measurements", t1-t0, TimeUnit.MILLISECONDS);
+            Metrics.count(Metrics.STAGE.DAO_WRITE, "ObjectBox/measurements", toStoreBox.size());
         });
     }
 
     @Override
     public void upsertMeasurement(SegmentedObject o) {
         if (o==null || !o.hasMeasurementModifications()) return;
+        flushMeasurements(); // a queued older version of the measurements would otherwise overwrite this one
         Map<Long, MeasurementBox> cache = measurementCache.get(o.getStructureIdx());
         MeasurementBox mb;
         synchronized (cache) {
@@ -591,6 +665,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public void retrieveMeasurements(int... structureIdx) {
+        flushMeasurements();
         for (int ocIdx : structureIdx) {
             try {
                 for (long[] ids : getAllIds(objectBoxes.get(ocIdx))) {
@@ -604,7 +679,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     }
 
     @Override
-    public Measurements getMeasurements(SegmentedObject o) {
+    public Measurements getMeasurements(SegmentedObject o) { // objects with pending measurements already hold them: no need to flush
         Map<Long, MeasurementBox> mcache = measurementCache.get(o.getStructureIdx());
         MeasurementBox mb = mcache.get(o.getId());
         if (mb == null) {
@@ -628,6 +703,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public List<Measurements> getMeasurements(int ocIdx, String... measurements) {
+        flushMeasurements();
         try {
             List<long[]> idsL = getAllIds(objectBoxes.get(ocIdx));
             List<Measurements> res = new ArrayList<>();
@@ -641,6 +717,7 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public void deleteAllMeasurements() {
+        awaitMeasurements();
         closeThreadResources();
         for (int oc : streamObjectClasses(true).toArray()) {
             BoxStore s = measurementStores.get(oc);
@@ -662,12 +739,14 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public ObjectBoxDAO setSafeMode(boolean safeMode) {
+        if (safeMode && !this.safeMode) recordEmptyAtCommit(); // objects may have been stored since last commit
         this.safeMode = safeMode;
         return this;
     }
 
     @Override
     public synchronized void rollback() {
+        awaitMeasurements();
         if (!safeMode) return;
         toRestoreAtRollback.forEach((ocIdx, objects) -> {
             //objectBoxes.get(ocIdx).put(objects.values());
@@ -685,8 +764,23 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
 
     @Override
     public void commit() {
+        flushMeasurements();
         toRemoveAtRollback.clear();
         toRestoreAtRollback.clear();
+        recordEmptyAtCommit();
+    }
+
+    protected void recordEmptyAtCommit() {
+        synchronized (emptyAtCommit) {
+            emptyAtCommit.clear();
+            objectBoxes.forEach((ocIdx, box) -> {
+                if (box != null) emptyAtCommit.put(ocIdx, box.isEmpty());
+            });
+        }
+    }
+
+    protected static boolean isEmpty(Box<?> box) {
+        return box == null || box.isEmpty();
     }
 
     // helper methods
@@ -744,7 +838,11 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         if (readOnly && box==null) return Stream.empty();
         synchronized (cache) {
             long[] toRetrieve = LongStream.of(ids).filter(id -> !cache.containsKey(id)).toArray();
-            List<SegmentedObjectBox> retrieved = box.get(toRetrieve);
+            List<SegmentedObjectBox> retrieved;
+            try (Metrics.Context c = Metrics.time(Metrics.STAGE.DAO_READ, "ObjectBox/objects")) {
+                retrieved = box.get(toRetrieve);
+            }
+            Metrics.count(Metrics.STAGE.DAO_READ, "ObjectBox/objects", retrieved.size());
             for (SegmentedObjectBox b : retrieved) cache.put(b.getId(), b);
             return LongStream.of(ids).mapToObj(cache::get);
         }
@@ -776,7 +874,11 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
         if (box != null) {
             synchronized (cache) {
                 long[] toRetrieve = LongStream.of(ids).filter(id -> !cache.containsKey(id)).toArray();
-                List<MeasurementBox> retrieved = box.get(toRetrieve);
+                List<MeasurementBox> retrieved;
+                try (Metrics.Context c = Metrics.time(Metrics.STAGE.DAO_READ, "ObjectBox/measurements")) {
+                    retrieved = box.get(toRetrieve);
+                }
+                Metrics.count(Metrics.STAGE.DAO_READ, "ObjectBox/measurements", retrieved.size());
                 for (MeasurementBox b : retrieved) cache.put(b.getId(), b);
             }
         }
@@ -784,15 +886,60 @@ public class ObjectBoxDAO implements ObjectDAO<Long> {
     }
 
     // queries
-    protected Query<SegmentedObjectBox> getChildrenQuery(int objectClassIdx, long pId) {
-        return objectBoxes.get(objectClassIdx)
-                .query(SegmentedObjectBox_.parentId.equal(pId))
-                .build();
-    }
-    protected Query<SegmentedObjectBox> getTrackQuery(int objectClassIdx, long trackHeadId) {
-        return objectBoxes.get(objectClassIdx)
-                .query(SegmentedObjectBox_.trackHeadId.equal(trackHeadId))
-                .build();
+    protected void closeQueries() {
+        synchronized (queries) {
+            queries.values().stream().filter(Objects::nonNull).forEach(ObjectQueries::close);
+            queries.clear();
+        }
+    }
+
+    /**
+     * Queries on indexed properties (parentId, trackHeadId, frame), compiled once per object class and reused by binding parameters.
+     * A compiled query holds its parameters: each thread uses its own copy (see {@link Query#copy()}), so that queries of different threads are not serialized. Copies are weakly referenced by their thread and are all closed by {@link #close()}.
+     */
+    protected static class ObjectQueries {
+        final Query<SegmentedObjectBox> children, childrenOf, track, frame;
+        final Map<Thread, ObjectQueries> threadCopies;
+        ObjectQueries(Box<SegmentedObjectBox> box) {
+            children = box.query(SegmentedObjectBox_.parentId.equal(0)).build();
+            childrenOf = box.query(SegmentedObjectBox_.parentId.oneOf(new long[]{0})).build();
+            track = box.query(SegmentedObjectBox_.trackHeadId.equal(0)).build();
+            frame = box.query(SegmentedObjectBox_.frame.equal(0)).build();
+            threadCopies = new WeakHashMap<>();
+        }
+        private ObjectQueries(ObjectQueries template) {
+            children = template.children.copy();
+            childrenOf = template.childrenOf.copy();
+            track = template.track.copy();
+            frame = template.frame.copy();
+            threadCopies = null;
+        }
+        protected ObjectQueries get() {
+            synchronized (threadCopies) {
+                return threadCopies.computeIfAbsent(Thread.currentThread(), t -> new ObjectQueries(this));
+            }
+        }
+        public long[] children(long parentId) {
+            return get().children.setParameter(SegmentedObjectBox_.parentId, parentId).findIds();
+        }
+        public long[] children(long[] parentIds) {
+            return get().childrenOf.setParameters(SegmentedObjectBox_.parentId, parentIds).findIds();
+        }
+        public long[] track(long trackHeadId) {
+            return get().track.setParameter(SegmentedObjectBox_.trackHeadId, trackHeadId).findIds();
+        }
+        public long[] frame(int frame) {
+            return get().frame.setParameter(SegmentedObjectBox_.frame, frame).findIds();
+        }
+        public void close() {
+            if (threadCopies != null) {
+                synchronized (threadCopies) {
+                    threadCopies.values().forEach(ObjectQueries::close);
+                    threadCopies.clear();
+                }
+            }
+            for (Query<SegmentedObjectBox> q : Arrays.asList(children, childrenOf, track, frame)) q.close();
+        }
     }
 
     protected IntStream streamObjectClasses(boolean includeRoot) {
@@ -0,0 +1,115 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins.index;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Generates the plugin index of a module (see PluginFactory): one line per concrete public class implementing bacmman.plugins.Plugin, with format:
+ * className;pluginName;dev;supertype1,supertype2,...
+ * where supertypes contains all classes and interfaces the plugin is assignable to, so that plugins can be listed by type without loading their class.
+ * In case of incremental compilation, entries of the previous index are kept for classes that were not re-compiled.
+ * @author Jean Ollion
+ */
+@SupportedAnnotationTypes("*")
+public class PluginIndexProcessor extends AbstractProcessor {
+    public static final String INDEX = "META-INF/bacmman/plugins.index";
+    static final String PLUGIN = "bacmman.plugins.Plugin";
+    static final String DEV_PLUGIN = "bacmman.plugins.DevPlugin";
+    final Map<String, String> entries = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!entries.isEmpty()) writeIndex();
+            return false;
+        }
+        TypeElement plugin = processingEnv.getElementUtils().getTypeElement(PLUGIN);
+        if (plugin == null) return false; // module does not depend on bacmman-core
+        for (Element e : roundEnv.getRootElements()) inspect(e, plugin.asType());
+        return false;
+    }
+
+    protected void inspect(Element e, TypeMirror plugin) {
+        if (!e.getKind().equals(ElementKind.CLASS) && !e.getKind().equals(ElementKind.INTERFACE)) return;
+        TypeElement type = (TypeElement)e;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getModifiers().contains(Modifier.STATIC)) inspect(member, plugin);
+        }
+        if (!e.getKind().equals(ElementKind.CLASS) || e.getModifiers().contains(Modifier.ABSTRACT) || !e.getModifiers().contains(Modifier.PUBLIC)) return;
+        if (!processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type.asType()), processingEnv.getTypeUtils().erasure(plugin))) return;
+        Set<String> supertypes = new TreeSet<>();
+        collectSupertypes(type.asType(), supertypes);
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        boolean dev = supertypes.contains(DEV_PLUGIN);
+        entries.put(className, className + ";" + type.getSimpleName() + ";" + dev + ";" + String.join(",", supertypes));
+    }
+
+    protected void collectSupertypes(TypeMirror type, Set<String> supertypes) {
+        if (!type.getKind().equals(TypeKind.DECLARED)) return;
+        TypeElement e = (TypeElement)((DeclaredType)type).asElement();
+        if (!supertypes.add(processingEnv.getElementUtils().getBinaryName(e).toString())) return;
+        for (TypeMirror s : processingEnv.getTypeUtils().directSupertypes(type)) collectSupertypes(s, supertypes);
+    }
+
+    protected void writeIndex() {
+        try { // keep entries of classes that were not compiled in this run
+            FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int i = line.indexOf(';');
+                    if (i > 0 && processingEnv.getElementUtils().getTypeElement(line.substring(0, i).replace('$', '.')) != null) entries.putIfAbsent(line.substring(0, i), line);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) { } // no previous index
+        try {
+            FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer writer = index.openWriter()) {
+                for (String line : entries.values()) writer.write(line + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not write plugin index: " + e);
+        }
+    }
+}
@@ -37,7 +37,11 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
@@ -79,6 +83,11 @@ public class TestDataStructure {
         structureObjectTestStore("ObjectBox");
     }
 
+    @Test
+    public void structureObjectTestStoreSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        structureObjectTestStore("SegmentLog");
+    }
+
     @Test
     public void structureObjectTestMapDB() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
         structureObjectTest("MapDB");
@@ -89,6 +98,116 @@ public class TestDataStructure {
         structureObjectTest("ObjectBox");
     }
 
+    @Test
+    public void structureObjectTestSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        structureObjectTest("SegmentLog");
+    }
+
+    @Test
+    public void measurementUpsertTestMapDB() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        measurementUpsertTest("MapDB");
+    }
+
+    @Test
+    public void measurementUpsertTestObjectBox() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        measurementUpsertTest("ObjectBox");
+    }
+
+    @Test
+    public void measurementUpsertTestSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        measurementUpsertTest("SegmentLog");
+    }
+
+    @Test
+    public void queryTestObjectBox() throws Exception {
+        queryTest("ObjectBox");
+    }
+
+    /**
+     * Checks that queries (which may be compiled once and reused, see ObjectBoxDAO) return correct results after clearCache, from other threads, and after deleteAllObjects
+     */
+    public void queryTest(String type) throws Exception {
+        MasterDAO db = generateDB(type);
+        Experiment xp = new Experiment("test");
+        xp.setImportImageMethod(Experiment.IMPORT_METHOD.SINGLE_FILE);
+        xp.setOutputDirectory(testFolder.newFolder("testDB").getAbsolutePath());
+        xp.getStructures().insert(new Structure("S0", -1, 0));
+        String f = "test";
+        xp.createPosition(f);
+        db.setExperiment(xp, true);
+        ObjectDAO<?> dao = db.getDao(f);
+        storeTracks(dao, 3, 1);
+        assertEquals("children", 1, dao.getChildren(dao.getRoot(1), 0).size());
+        assertEquals("track", 3, dao.getTrack(dao.getChildren(dao.getRoot(0), 0).get(0)).size());
+        assertEquals("track heads", 1, dao.getTrackHeads(dao.getRoot(0), 0).size());
+
+        dao.clearCache();
+        assertEquals("roots after clear cache", 3, dao.getRoots().size());
+        assertEquals("children after clear cache", 1, dao.getChildren(dao.getRoot(1), 0).size());
+        assertEquals("track after clear cache", 3, dao.getTrack(dao.getChildren(dao.getRoot(0), 0).get(0)).size());
+        ObjectDAO<?> dao2 = dao;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals("children from other thread", 1, executor.submit(() -> dao2.getChildren(dao2.getRoot(2), 0).size()).get().intValue());
+        } finally {
+            executor.shutdown();
+        }
+
+        SegmentedObject oldRoot = dao.getRoot(0);
+        dao.deleteAllObjects();
+        assertTrue("no roots after delete", dao.getRoots().isEmpty());
+        assertTrue("no children after delete", dao.getChildren(oldRoot, 0).isEmpty());
+        storeTracks(dao, 2, 2);
+        assertEquals("roots after delete and store", 2, dao.getRoots().size());
+        assertEquals("children after delete and store", 2, dao.getChildren(dao.getRoot(1), 0).size());
+        assertEquals("track heads after delete and store", 2, dao.getTrackHeads(dao.getRoot(0), 0).size());
+    }
+
+    private static void storeTracks(ObjectDAO<?> dao, int frames, int childrenPerFrame) {
+        List<SegmentedObject> roots = new ArrayList<>(frames);
+        List<SegmentedObject> children = new ArrayList<>(frames * childrenPerFrame);
+        for (int t = 0; t<frames; ++t) {
+            SegmentedObject root = new SegmentedObject(t, new BlankMask(10, 10, 1, 0, 0, 0, 1, 1), dao);
+            if (t>0) roots.get(t-1).setTrackLinks(root, true, true);
+            roots.add(root);
+            for (int i = 0; i<childrenPerFrame; ++i) {
+                SegmentedObject c = new SegmentedObject(t, 0, i, new Region(new BlankMask(1, 1, 1, i, 0, 0, 1, 1), i+1, false), root);
+                if (t>0) children.get((t-1) * childrenPerFrame + i).setTrackLinks(c, true, true);
+                children.add(c);
+            }
+        }
+        dao.store(roots);
+        dao.store(children);
+    }
+
+    public void measurementUpsertTest(String type) throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        MasterDAO db = generateDB(type);
+        Experiment xp = new Experiment("test");
+        xp.setImportImageMethod(Experiment.IMPORT_METHOD.SINGLE_FILE);
+        xp.setOutputDirectory(testFolder.newFolder("testDB").getAbsolutePath());
+        xp.getStructures().insert(new Structure("S0", -1, 0));
+        String f = "test";
+        xp.createPosition(f);
+        db.setExperiment(xp, true);
+        ObjectDAO<?> dao = db.getDao(f);
+        SegmentedObject root = new SegmentedObject(0, new BlankMask(1, 1, 1, 0, 0, 0, 1, 1), dao);
+        SegmentedObject o = new SegmentedObject(0, 0, 0, new Region(new BlankMask(1, 1, 1), 1, false), root);
+        dao.store(root);
+        dao.store(o);
+        o.getMeasurements().setValue("test", 1);
+        dao.upsertMeasurements(Collections.singletonList(o)); // may be queued
+        o.getMeasurements().setValue("test", 2);
+        dao.upsertMeasurement(o);
+        assertEquals("value after single upsert", 2, dao.getMeasurements(o).getValueAsDouble("test"), 0);
+        o.getMeasurements().setValue("test", 3);
+        dao.upsertMeasurements(Collections.singletonList(o));
+        assertEquals("value after upsert", 3, dao.getMeasurements(o).getValueAsDouble("test"), 0);
+        db.clearCache(true, true, true);
+        dao = db.getDao(f);
+        SegmentedObject fetched = dao.getRoots().get(0).getChildren(0).findFirst().get();
+        assertEquals("stored value", 3, dao.getMeasurements(fetched).getValueAsDouble("test"), 0);
+    }
+
     public void structureObjectTestStore(String type) throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
         MasterDAO db = generateDB(type);
         Experiment xp = new Experiment("test");
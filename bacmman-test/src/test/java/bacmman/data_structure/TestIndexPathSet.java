@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestIndexPathSet {
+
+    @Test
+    public void testParse() {
+        IndexPathSet s = IndexPathSet.parse(Arrays.asList("3-1-2", "0-0-1", "3-1-2", "0-10-0"));
+        assertEquals("duplicates removed", 3, s.size());
+        assertEquals("sorted", Arrays.asList("0-0-1", "0-10-0", "3-1-2"), s.toStringList());
+        assertArrayEquals("parse single", new int[]{12, 0, 3}, Selection.parseIndices("12-0-3"));
+        assertTrue("contains", s.contains(new int[]{0, 10, 0}));
+        assertFalse("not contains", s.contains(new int[]{0, 10, 1}));
+    }
+
+    @Test
+    public void testSetOperations() {
+        Random r = new Random(0);
+        List<String> l1 = new ArrayList<>(), l2 = new ArrayList<>();
+        for (int i = 0; i<1000; ++i) l1.add(r.nextInt(20)+"-"+r.nextInt(5)+"-"+r.nextInt(10)+"-"+r.nextInt(3));
+        for (int i = 0; i<1000; ++i) l2.add(r.nextInt(20)+"-"+r.nextInt(5)+"-"+r.nextInt(10)+"-"+r.nextInt(3));
+        IndexPathSet s1 = IndexPathSet.parse(l1), s2 = IndexPathSet.parse(l2);
+        Set<String> union = new HashSet<>(l1);
+        union.addAll(l2);
+        Set<String> inter = new HashSet<>(l1);
+        inter.retainAll(l2);
+        Set<String> diff = new HashSet<>(l1);
+        diff.removeAll(l2);
+        assertEquals("union", union, new HashSet<>(s1.union(s2).toStringList()));
+        assertEquals("intersection", inter, new HashSet<>(s1.intersection(s2).toStringList()));
+        assertEquals("difference", diff, new HashSet<>(s1.difference(s2).toStringList()));
+        Set<String> parents = new HashSet<>();
+        for (String s : l1) parents.add(Selection.getParent(s, 2));
+        assertEquals("parents", parents, new HashSet<>(s1.getParents(2).toStringList()));
+    }
+
+    @Test
+    public void testJSONCompatibility() {
+        JSONObject json = new JSONObject();
+        JSONObject objects = new JSONObject();
+        JSONArray indices = new JSONArray();
+        indices.addAll(Arrays.asList("1-0", "0-2", "0-1"));
+        objects.put("pos0", indices);
+        objects.put("pos1", "4-3"); // single object stored by R
+        json.put("objects", objects);
+        json.put("name", "sel");
+        json.put("objectClassIdx", 0);
+        Selection sel = new Selection();
+        sel.initFromJSONEntry(json);
+        assertEquals("count", 4, sel.count());
+        assertEquals("elements pos0", new HashSet<>(Arrays.asList("1-0", "0-2", "0-1")), sel.getElementStrings("pos0"));
+        Selection sel2 = new Selection();
+        sel2.initFromJSONEntry(sel.toJSONEntry());
+        assertEquals("elements after serialization", sel.getAllElementStrings(), sel2.getAllElementStrings());
+    }
+}
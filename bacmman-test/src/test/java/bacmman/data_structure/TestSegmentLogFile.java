@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure;
+
+import bacmman.data_structure.dao.SegmentLogFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestSegmentLogFile {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    static SegmentLogFile.Record record(long id, int frame, long parentId, String payload) {
+        return new SegmentLogFile.Record(id, frame, parentId, id, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String get(SegmentLogFile log, long id) throws IOException {
+        byte[] p = log.get(id);
+        return p == null ? null : new String(p, StandardCharsets.UTF_8);
+    }
+
+    Path newLog() throws IOException {
+        return testFolder.newFolder().toPath().resolve("objects_0.log");
+    }
+
+    @Test
+    public void testAppendAndReopen() throws IOException {
+        Path path = newLog();
+        try (SegmentLogFile log = new SegmentLogFile(path, false)) {
+            log.append(Arrays.asList(record(1, 0, 10, "a"), record(2, 0, 10, "b"), record(3, 1, 11, "c")));
+            assertEquals("read after append", "b", get(log, 2));
+            log.append(Arrays.asList(record(2, 0, 10, "b2"), record(4, 2, 11, "d")));
+            assertEquals("superseded record", "b2", get(log, 2));
+            assertEquals("read after second append", "d", get(log, 4));
+            assertEquals("count", 4, log.count());
+            assertEquals("removed", 1, log.remove(1, 1, 5));
+            assertNull("removed record", log.get(1));
+            assertArrayEquals("frame range", new long[]{3, 4}, log.getIds(1, 2));
+            assertArrayEquals("children", new long[]{3, 4}, Arrays.stream(log.getChildIds(11)).sorted().toArray());
+            assertTrue("dead bytes", log.getDeadProportion() > 0);
+        }
+        try (SegmentLogFile log = new SegmentLogFile(path, true)) {
+            assertEquals("count after reopen", 3, log.count());
+            assertArrayEquals("ids after reopen, in write order", new long[]{3, 2, 4}, log.getIds());
+            assertEquals("superseded record after reopen", "b2", get(log, 2));
+            assertNull("removed record after reopen", log.get(1));
+        }
+    }
+
+    @Test
+    public void testTruncateAndCompact() throws IOException {
+        Path path = newLog();
+        try (SegmentLogFile log = new SegmentLogFile(path, false)) {
+            List<SegmentLogFile.Record> records = new ArrayList<>();
+            for (int i = 1; i<=100; ++i) records.add(record(i, i, 0, "payload"+i));
+            log.append(records);
+            long size = log.size();
+            for (int i = 1; i<=50; ++i) assertEquals("read before truncate", "payload"+i, get(log, i));
+            log.append(Arrays.asList(record(1, 1, 0, "modified"), record(101, 101, 0, "new")));
+            log.truncate(size); // rollback
+            assertEquals("size after truncate", size, log.size());
+            assertEquals("record restored by truncate", "payload1", get(log, 1));
+            assertNull("record discarded by truncate", log.get(101));
+            log.remove(1, 2, 3);
+            log.append(Arrays.asList(record(4, 4, 0, "modified4")));
+            log.compact();
+            assertEquals("no dead bytes after compact", 0, log.getDeadProportion(), 0);
+            assertEquals("count after compact", 97, log.count());
+            assertEquals("modified record after compact", "modified4", get(log, 4));
+            assertEquals("record after compact", "payload100", get(log, 100));
+            log.append(Arrays.asList(record(102, 102, 0, "after compact")));
+            assertEquals("append after compact", "after compact", get(log, 102));
+        }
+        assertFalse("temporary file removed", Files.exists(path.resolveSibling(path.getFileName().toString() + ".compact")));
+    }
+
+    @Test
+    public void testIncompleteLastRecord() throws IOException {
+        Path path = newLog();
+        try (SegmentLogFile log = new SegmentLogFile(path, false)) {
+            log.append(Arrays.asList(record(1, 0, 0, "a"), record(2, 0, 0, "b")));
+        }
+        long validSize = Files.size(path);
+        try (FileChannel c = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) { // simulate a crash during an append
+            ByteBuffer b = ByteBuffer.allocate(13);
+            b.putInt(1000).put((byte)1).putLong(3);
+            b.flip();
+            c.write(b);
+        }
+        try (SegmentLogFile log = new SegmentLogFile(path, false)) {
+            assertEquals("incomplete record discarded", validSize, log.size());
+            assertEquals("count", 2, log.count());
+            log.append(Arrays.asList(record(3, 1, 0, "c")));
+            assertEquals("append after discarded record", "c", get(log, 3));
+        }
+        try (SegmentLogFile log = new SegmentLogFile(path, true)) {
+            assertEquals("count after reopen", 3, log.count());
+            assertEquals("record after reopen", "b", get(log, 2));
+        }
+    }
+}
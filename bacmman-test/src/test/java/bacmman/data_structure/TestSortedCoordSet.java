@@ -0,0 +1,84 @@
+/* 
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure;
+
+import bacmman.image.ImageFloat;
+import bacmman.utils.IndexedMinHeap;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestSortedCoordSet {
+
+    @Test
+    public void testHeapOrderMatchesTree() {
+        Random r = new Random(0);
+        for (int sizeZ : new int[]{1, 3}) {
+            ImageFloat image = new ImageFloat("", 80, 60, sizeZ);
+            for (int z = 0; z<sizeZ; ++z) for (int xy = 0; xy<image.sizeXY(); ++xy) image.setPixel(xy, z, r.nextInt(10)); // many equal values
+            for (boolean reverse : new boolean[]{false, true}) {
+                for (long maxSize : new long[]{image.sizeXYZ(), 10}) { // position index in an array or in a hash map
+                    SortedCoordSet tree = SortedCoordSet.createTree(image, reverse);
+                    SortedCoordSet heap = SortedCoordSet.create(image, reverse, maxSize);
+                    for (int i = 0; i<200; ++i) {
+                        long c = r.nextInt(image.sizeXYZ());
+                        assertEquals("add", tree.add(c), heap.add(c));
+                    }
+                    tree.removeIf(c -> c % 7 == 0);
+                    heap.removeIf(c -> c % 7 == 0);
+                    assertEquals("size", tree.size(), heap.size());
+                    while (!tree.isEmpty()) assertEquals("poll order", tree.pollFirst(), heap.pollFirst());
+                    assertTrue("empty", heap.isEmpty());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecreaseKey() {
+        IndexedMinHeap heap = new IndexedMinHeap(100);
+        for (int i = 0; i<100; ++i) heap.add(i, 100 - i);
+        assertFalse("no duplicates", heap.add(5, 0));
+        assertTrue("decrease", heap.decreaseKey(50, -1));
+        assertFalse("no increase", heap.decreaseKey(51, 1000));
+        assertEquals("min after decrease", 50, heap.poll());
+        heap.remove(99);
+        double last = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        while (!heap.isEmpty()) {
+            double k = heap.peekKey();
+            assertTrue("sorted", k >= last);
+            last = k;
+            heap.poll();
+            ++count;
+        }
+        assertEquals("count", 98, count);
+        heap.ensureCapacity(10);
+        assertTrue("reuse", heap.add(3, 1) && !heap.contains(50));
+        heap.ensureCapacity(1L << 20, 100); // sparse: hash map index
+        assertTrue("reuse sparse", heap.add(1000000, 1) && heap.add(3, 2) && !heap.contains(50));
+        assertEquals("sparse min", 1000000, heap.poll());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.data_structure;
+
+import bacmman.data_structure.dao.WriteBehindQueue;
+import bacmman.utils.Pair;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestWriteBehindQueue {
+
+    static List<Pair<Integer, Integer>> elements(int from, int to, int value) {
+        return IntStream.range(from, to).mapToObj(i -> new Pair<>(i, value)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testOrderAndFlush() {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindQueue<Pair<Integer, Integer>> q = new WriteBehindQueue<>("test", b -> b.forEach(p -> written.add(p.key)), p -> p.key, null, 10);
+        for (int i = 0; i<100; i+=7) q.submit(elements(i, Math.min(100, i+7), 0));
+        q.flush();
+        assertEquals("all elements written in submission order", IntStream.range(0, 100).boxed().collect(Collectors.toList()), written);
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<Pair<Integer, Integer>>> batches = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindQueue<Pair<Integer, Integer>> q = new WriteBehindQueue<>("test", b -> {
+            batches.add(b);
+            firstBatch.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, p -> p.key, null, 100);
+        q.submit(elements(0, 2, 0));
+        firstBatch.await(); // writer is blocked on first batch
+        q.submit(elements(0, 3, 1));
+        q.submit(elements(1, 2, 2));
+        release.countDown();
+        q.flush();
+        assertEquals("batches", 2, batches.size());
+        assertEquals("first batch", elements(0, 2, 0), batches.get(0));
+        List<Pair<Integer, Integer>> expected = Arrays.asList(new Pair<>(0, 1), new Pair<>(1, 2), new Pair<>(2, 1));
+        assertEquals("pending elements coalesced with last value, keeping first position", expected, batches.get(1));
+    }
+
+    @Test
+    public void testErrorRethrownToSubmitter() throws InterruptedException {
+        WriteBehindQueue<Pair<Integer, Integer>> q = new WriteBehindQueue<>("test", b -> {
+            if (b.stream().anyMatch(p -> p.value < 0)) throw new IllegalStateException("write error");
+        }, p -> p.key, null, 100);
+        q.submit(elements(0, 5, -1));
+        q.await(); // does not throw
+        AtomicReference<Throwable> otherThreadError = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                q.flush();
+            } catch (Throwable t) {
+                otherThreadError.set(t);
+            }
+        });
+        other.start();
+        other.join();
+        assertNull("error not thrown to other threads", otherThreadError.get());
+        try {
+            q.flush();
+            fail("error should be thrown to submitting thread");
+        } catch (RuntimeException e) {
+            assertTrue("cause", e.getCause() instanceof IllegalStateException);
+        }
+        q.submit(elements(0, 5, 0));
+        q.flush(); // error was consumed
+    }
+
+    @Test
+    public void testReleaseResourcesOnWriterThread() {
+        Set<Thread> writerThreads = Collections.synchronizedSet(new HashSet<>());
+        Set<Thread> releaseThreads = Collections.synchronizedSet(new HashSet<>());
+        WriteBehindQueue<Pair<Integer, Integer>> q = new WriteBehindQueue<>("test", b -> writerThreads.add(Thread.currentThread()), p -> p.key, () -> releaseThreads.add(Thread.currentThread()), 100);
+        for (int i = 0; i<5; ++i) {
+            q.submit(elements(0, 10, i));
+            q.flush();
+        }
+        assertEquals("single long-lived writer thread", 1, writerThreads.size());
+        assertEquals("resources released on writer thread", writerThreads, releaseThreads);
+    }
+}
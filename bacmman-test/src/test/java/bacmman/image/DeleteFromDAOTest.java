@@ -29,14 +29,17 @@ import bacmman.configuration.experiment.Structure;
 import bacmman.data_structure.Processor.MEASUREMENT_MODE;
 import bacmman.data_structure.dao.MemoryMasterDAO;
 import bacmman.data_structure.dao.MasterDAO;
+import bacmman.data_structure.dao.ObjectBoxDAO;
 import bacmman.data_structure.dao.ObjectDAO;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -117,6 +120,13 @@ public class DeleteFromDAOTest {
         dao.eraseAll();
     }
 
+    @Test
+    public void deleteTestSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        MasterDAO dao = generateDB("SegmentLog");
+        deleteTest(dao);
+        dao.eraseAll();
+    }
+
 
     public void deleteTest(MasterDAO masterDAO) throws IOException {
         String prefix = "DAO type: "+masterDAO.getClass().getSimpleName()+"; ";
@@ -225,6 +235,11 @@ public class DeleteFromDAOTest {
         testDeleteMass("ObjectBox");
     }
 
+    @Test
+    public void testDeleteMassSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        testDeleteMass("SegmentLog");
+    }
+
     public void testDeleteMass(String dbType) throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
         MasterDAO db = generateDB(dbType);
         String f = "testField";
@@ -296,6 +311,11 @@ public class DeleteFromDAOTest {
         testDeleteAndRelabel("ObjectBox");
     }
 
+    @Test
+    public void testDeleteAndRelabelSegmentLog() throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
+        testDeleteAndRelabel("SegmentLog");
+    }
+
     public void testDeleteAndRelabel(String dbType) throws IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, IllegalAccessException {
         MasterDAO db = generateDB(dbType);
         String f = "testField";
@@ -344,6 +364,74 @@ public class DeleteFromDAOTest {
         assertEquals("delete single, relabel stored", 0, root.getChildren(0).collect(Collectors.toList()).get(0).getIdx());
     }
     
+    @Test
+    public void testSafeModeBulkIngestionObjectBox() throws Exception {
+        MasterDAO db = generateDB("ObjectBox");
+        String f = "testField";
+        Experiment xp = new Experiment("");
+        xp.setImportImageMethod(Experiment.IMPORT_METHOD.SINGLE_FILE);
+        File output = testFolder.newFolder();
+        xp.setPath(Paths.get(output.getParent()));
+        xp.setOutputDirectory(output.getAbsolutePath());
+        xp.getStructures().insert(new Structure("MicroChannel", -1, 0));
+        xp.createPosition(f);
+        db.setExperiment(xp, true);
+
+        Field transactionSize = ObjectBoxDAO.class.getDeclaredField("bulkTransactionSize");
+        transactionSize.setAccessible(true);
+        int defaultTransactionSize = transactionSize.getInt(null);
+        transactionSize.setInt(null, 10); // store by chunks
+        try {
+            ObjectBoxDAO dao = ((ObjectBoxDAO)db.getDao(f)).setBulkIngestion(true);
+            dao.setSafeMode(true);
+            SegmentedObject root = getAccessor().createRoot(0, new BlankMask(1, 1, 1), dao);
+            dao.store(root);
+            dao.store(createChildren(root, 0, 30));
+            dao.commit();
+            assertEquals("stored", 31, countObjects(db, SegmentedObject.class));
+
+            // new objects are removed at rollback
+            root = dao.getRoots().get(0);
+            dao.store(createChildren(root, 30, 20));
+            assertEquals("stored before rollback", 51, countObjects(db, SegmentedObject.class));
+            dao.rollback();
+            assertEquals("new objects removed at rollback", 31, countObjects(db, SegmentedObject.class));
+
+            // deleted and relabeled objects are restored at rollback
+            root = dao.getRoots().get(0);
+            dao.delete(root.getChildren(0).limit(5).collect(Collectors.toList()), true, true, true);
+            assertEquals("deleted before rollback", 26, countObjects(db, SegmentedObject.class));
+            dao.rollback();
+            root = dao.getRoots().get(0);
+            List<SegmentedObject> children = root.getChildren(0).collect(Collectors.toList());
+            assertEquals("deleted objects restored at rollback", 30, children.size());
+            for (int i = 0; i<children.size(); ++i) assertEquals("relabeled objects restored at rollback", i, children.get(i).getIdx());
+            assertEquals("unique ids", 30, children.stream().map(SegmentedObject::getId).collect(Collectors.toCollection(HashSet::new)).size());
+
+            // objects stored while not in safe mode are not considered as new once safe mode is enabled
+            dao.setSafeMode(false);
+            dao.deleteAllObjects();
+            root = getAccessor().createRoot(0, new BlankMask(1, 1, 1), dao);
+            dao.store(root);
+            dao.store(createChildren(root, 0, 30));
+            dao.setSafeMode(true);
+            root = dao.getRoots().get(0);
+            dao.delete(root.getChildren(0).limit(5).collect(Collectors.toList()), true, true, true);
+            dao.rollback();
+            assertEquals("objects stored out of safe mode kept at rollback", 31, countObjects(db, SegmentedObject.class));
+            dao.erase();
+        } finally {
+            transactionSize.setInt(null, defaultTransactionSize);
+        }
+    }
+
+    private static List<SegmentedObject> createChildren(SegmentedObject parent, int offset, int count) {
+        Region o = new Region(new BlankMask(1, 1, 1), 1, false);
+        List<SegmentedObject> children = new ArrayList<>(count);
+        for (int i = 0; i<count; ++i) children.add(new SegmentedObject(0, 0, offset + i, o, parent));
+        return children;
+    }
+
     private static int countObjects(MasterDAO db, Class clazz) {
         if (db instanceof MemoryMasterDAO) {
             ArrayList<SegmentedObject> allObjects = new ArrayList<SegmentedObject>();
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.image;
+
+import bacmman.data_structure.dao.LocalTIFImageDAO;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestImagePyramid {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void testDownsample() {
+        ImageFloat plane = new ImageFloat("plane", 7, 5, 1);
+        BoundingBox.loop(plane, (x, y, z) -> plane.setPixel(x, y, z, x + 10 * y));
+        ImageFloat res = ImagePyramid.downsample(plane, 2);
+        assertEquals("size X (partial blocks are ignored)", 3, res.sizeX());
+        assertEquals("size Y (partial blocks are ignored)", 2, res.sizeY());
+        assertEquals("scale", plane.getScaleXY() * 2, res.getScaleXY(), 1e-9);
+        assertEquals("block average", (0 + 1 + 10 + 11) / 4., res.getPixel(0, 0, 0), 1e-6);
+        assertEquals("block average", (4 + 5 + 14 + 15) / 4., res.getPixel(2, 0, 0), 1e-6);
+        assertEquals("block average", (22 + 23 + 32 + 33) / 4., res.getPixel(1, 1, 0), 1e-6);
+
+        ImageShort planeS = new ImageShort("plane", 4, 4, 1);
+        BoundingBox.loop(planeS, (x, y, z) -> planeS.setPixel(x, y, z, x + 10 * y));
+        ImageShort resS = ImagePyramid.downsample(planeS, 4);
+        assertEquals("single block", 1, resS.sizeX() * resS.sizeY());
+        assertEquals("integer types are rounded", 17, resS.getPixel(0, 0, 0), 0); // average: 16.5
+    }
+
+    @Test
+    public void testGetLevel() {
+        ImagePyramid pyramid = new ImagePyramid(512, 600, null);
+        assertEquals("max level: coarsest level is at least MIN_SIZE", 3, pyramid.getMaxLevel());
+        assertEquals("size of level", 64, pyramid.getSizeX(3));
+        assertEquals("size of level", 75, pyramid.getSizeY(3));
+        assertEquals("full resolution when not zoomed out", 0, pyramid.getLevel(1));
+        assertEquals("full resolution down to magnification 0.5", 0, pyramid.getLevel(0.5));
+        assertEquals("level resolution is at least display resolution", 1, pyramid.getLevel(0.3));
+        assertEquals("level resolution is at least display resolution", 2, pyramid.getLevel(0.25));
+        assertEquals("level is bounded by max level", 3, pyramid.getLevel(0.01));
+        assertEquals("small images are not downsampled", 0, new ImagePyramid(100, 100, null).getLevel(0.01));
+    }
+
+    @Test
+    public void testPersist() {
+        Map<String, Image> stored = new HashMap<>();
+        ImagePyramid pyramid = new ImagePyramid(256, 256, new MapStore(stored));
+        assertEquals("max level", 2, pyramid.getMaxLevel());
+        assertEquals("no level stored", 0, pyramid.getStoredLevel(0.1));
+        ImageByte plane = new ImageByte("plane", 256, 256, 1);
+        pyramid.persist(plane, 1, 0, 0);
+        assertEquals("all levels are stored", 2, stored.size());
+        assertEquals("stored level", 2, pyramid.getStoredLevel(0.1));
+        assertEquals("stored plane size", 64, pyramid.getPlane(2, 1, 0, 0).sizeX());
+        assertNull("plane of other frame is not stored", pyramid.getPlane(2, 0, 0, 0));
+    }
+
+    @Test
+    public void testLocalTIFImageDAOStore() throws IOException {
+        LocalTIFImageDAO dao = new LocalTIFImageDAO("pos", testFolder.newFolder().getAbsolutePath(), c -> false);
+        String key = "Kymograph_oc0_0_10_1";
+        assertFalse("no level stored", dao.hasPyramidLevel(key, 1));
+        assertNull("no plane stored", dao.openPyramidPlane(key, 1, 2, 0, 0));
+        ImageShort plane = new ImageShort("plane", 8, 6, 1);
+        BoundingBox.loop(plane, (x, y, z) -> plane.setPixel(x, y, z, x + 10 * y));
+        dao.writePyramidPlane(plane, key, 1, 2, 0, 0);
+        assertTrue("plane stored", dao.hasPyramidPlane(key, 1, 2, 0, 0));
+        assertFalse("other frame not stored", dao.hasPyramidPlane(key, 1, 3, 0, 0));
+        assertTrue("level stored", dao.hasPyramidLevel(key, 1));
+        assertFalse("other level not stored", dao.hasPyramidLevel(key, 2));
+        assertFalse("other image not stored", dao.hasPyramidLevel(key + "_other", 1));
+        Image read = dao.openPyramidPlane(key, 1, 2, 0, 0);
+        assertNotNull("plane read", read);
+        TestImageView.compareImages(plane, read, 0);
+
+        dao.writePreProcessedImage(new ImageShort("pp", 8, 6, 1), 0, 0);
+        assertFalse("pyramid planes are erased when pre-processed images are modified", dao.hasPyramidPlane(key, 1, 2, 0, 0));
+    }
+
+    static class MapStore implements ImagePyramid.Store {
+        final Map<String, Image> planes;
+        MapStore(Map<String, Image> planes) {
+            this.planes = planes;
+        }
+        static String key(int level, int f, int c, int z) {
+            return level + "_" + f + "_" + c + "_" + z;
+        }
+        @Override
+        public Image read(int level, int f, int c, int z) {
+            return planes.get(key(level, f, c, z));
+        }
+        @Override
+        public void write(Image plane, int level, int f, int c, int z) {
+            planes.put(key(level, f, c, z), plane);
+        }
+        @Override
+        public boolean contains(int level, int f, int c, int z) {
+            return planes.containsKey(key(level, f, c, z));
+        }
+        @Override
+        public boolean contains(int level) {
+            return planes.keySet().stream().anyMatch(k -> k.startsWith(level + "_"));
+        }
+    }
+}
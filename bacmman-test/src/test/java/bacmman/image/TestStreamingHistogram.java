@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestStreamingHistogram {
+
+    @Test
+    public void testByte() {
+        Random r = new Random(0);
+        ImageByte im1 = new ImageByte("", 50, 40, 3);
+        ImageByte im2 = new ImageByte("", 50, 40, 3);
+        BoundingBox.loop(im1, (x, y, z) -> im1.setPixel(x, y, z, r.nextInt(256)));
+        BoundingBox.loop(im2, (x, y, z) -> im2.setPixel(x, y, z, r.nextInt(256)));
+        testExact(im1, im2, 256);
+    }
+
+    @Test
+    public void testShort() {
+        Random r = new Random(1);
+        ImageShort im1 = new ImageShort("", 50, 40, 3);
+        ImageShort im2 = new ImageShort("", 50, 40, 3);
+        BoundingBox.loop(im1, (x, y, z) -> im1.setPixel(x, y, z, 1000 + r.nextInt(3000)));
+        BoundingBox.loop(im2, (x, y, z) -> im2.setPixel(x, y, z, r.nextInt(65536)));
+        testExact(im1, im2, 65536);
+    }
+
+    private static void testExact(Image im1, Image im2, int nBins) {
+        StreamingHistogram h1 = StreamingHistogram.create(im1).add(im1);
+        StreamingHistogram h2 = StreamingHistogram.create(im2).add(im2);
+        assertTrue("exact mode", h1.isExact());
+        Histogram ref1 = HistogramFactory.getHistogram(Stream.of(im1), 1, nBins, 0);
+        assertArrayEquals("single image", ref1.getData(), h1.toHistogram(nBins).getData());
+        Histogram ref = HistogramFactory.getHistogram(Stream.of(im1, im2), 1, nBins, 0);
+        Histogram histo = h1.merge(h2).toHistogram(nBins);
+        assertEquals("min", 0, histo.getMin(), 0);
+        assertEquals("bin size", 1, histo.getBinSize(), 0);
+        assertEquals("count", im1.sizeXYZ() + im2.sizeXYZ(), h1.count());
+        assertArrayEquals("merged", ref.getData(), histo.getData());
+    }
+
+    @Test
+    public void testFloat() {
+        Random r = new Random(2);
+        ImageFloat im1 = new ImageFloat("", 50, 40, 3);
+        ImageFloat im2 = new ImageFloat("", 50, 40, 3);
+        BoundingBox.loop(im1, (x, y, z) -> im1.setPixel(x, y, z, r.nextGaussian() * 20 - 10)); // negative values
+        BoundingBox.loop(im2, (x, y, z) -> im2.setPixel(x, y, z, r.nextGaussian() * 30 + 100));
+        im1.setPixel(0, 0, 0, 0);
+        im2.setPixel(0, 0, 0, 1e-3);
+        int nBins = 100;
+        StreamingHistogram h1 = StreamingHistogram.create(im1).add(im1);
+        StreamingHistogram h2 = StreamingHistogram.create(im2).add(im2);
+        assertTrue("sketch mode", !h1.isExact());
+
+        // merging partial histograms is equivalent to a single pass
+        StreamingHistogram single = StreamingHistogram.create(im1).add(im1).add(im2);
+        StreamingHistogram merged = h1.merge(h2);
+        assertEquals("count", im1.sizeXYZ() + im2.sizeXYZ(), merged.count());
+        Histogram histo = merged.toHistogram(nBins);
+        assertArrayEquals("merge vs single pass", single.toHistogram(nBins).getData(), histo.getData());
+
+        // same range as the exact histogram, and counts differ only by values redistributed within the relative precision of the sketch
+        Supplier<DoubleStream> values = () -> DoubleStream.concat(im1.stream(), im2.stream());
+        Histogram ref = HistogramFactory.getHistogram(values, nBins);
+        assertEquals("min", ref.getMin(), histo.getMin(), 1e-6);
+        assertEquals("bin size", ref.getBinSize(), histo.getBinSize(), 1e-6);
+        long[] data = histo.getData();
+        long[] refData = ref.getData();
+        assertEquals("bin count", refData.length, data.length);
+        long total = merged.count();
+        long cum = 0, refCum = 0;
+        for (int i = 0; i<nBins; ++i) {
+            cum += data[i];
+            refCum += refData[i];
+            assertTrue("cumulated count at bin: "+i+" "+cum+" vs "+refCum, Math.abs(cum - refCum) <= total * 0.005);
+        }
+        assertEquals("total count", total, cum);
+        double[] q = histo.getQuantiles(0.1, 0.5, 0.9);
+        double[] refQ = ref.getQuantiles(0.1, 0.5, 0.9);
+        for (int i = 0; i<q.length; ++i) assertEquals("quantile: "+i, refQ[i], q[i], ref.getBinSize());
+    }
+}
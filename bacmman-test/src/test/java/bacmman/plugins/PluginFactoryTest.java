@@ -19,10 +19,20 @@
 package bacmman.plugins;
 
 import bacmman.configuration.parameters.PluginParameter;
+import bacmman.plugins.plugins.transformations.SaturateHistogram;
+import org.junit.After;
 import org.junit.Assert;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  *
  * @author Jean Ollion
@@ -46,4 +56,54 @@ public class PluginFactoryTest {
         
         
     }
+
+    static final List<Class<? extends Plugin>> PLUGIN_TYPES = Arrays.asList(Plugin.class, Segmenter.class, Tracker.class, ProcessingPipeline.class, Measurement.class, Transformation.class, PreFilter.class, PostFilter.class, TrackPreFilter.class, TrackPostFilter.class, Thresholder.class, ObjectSplitter.class);
+    static final String SCAN_PROPERTY = "bacmman.plugins.scanClasspath";
+
+    @After
+    public void restorePlugins() {
+        System.clearProperty(SCAN_PROPERTY);
+        PluginFactory.clear();
+        PluginFactory.findPlugins("bacmman.plugins.plugins");
+        PluginFactory.findPlugins("bacmman.dummy_plugins");
+    }
+
+    @Test
+    public void testIndexMatchesClasspathScan() {
+        assertNotNull("plugin index generated at build time", Thread.currentThread().getContextClassLoader().getResource(PluginFactory.INDEX));
+        Map<String, Map<String, String>> indexed = findPlugins("bacmman.plugins.plugins", false, false);
+        Map<String, Map<String, String>> scanned = findPlugins("bacmman.plugins.plugins", false, true);
+        assertFalse("plugins found", indexed.get(Plugin.class.getName()).isEmpty());
+        for (Class<? extends Plugin> type : PLUGIN_TYPES) {
+            assertEquals("plugins of type: "+type.getSimpleName(), scanned.get(type.getName()), indexed.get(type.getName()));
+        }
+    }
+
+    @Test
+    public void testDevPluginsFiltered() {
+        String devPlugin = SaturateHistogram.class.getSimpleName();
+        assertTrue("dev plugin", DevPlugin.class.isAssignableFrom(SaturateHistogram.class));
+        for (boolean scan : new boolean[]{false, true}) {
+            String mode = scan ? "classpath scan" : "index";
+            assertFalse(mode+": dev plugin filtered", findPlugins("bacmman.plugins.plugins", false, scan).get(Plugin.class.getName()).containsKey(devPlugin));
+            assertTrue(mode+": dev plugin included", findPlugins("bacmman.plugins.plugins", true, scan).get(Plugin.class.getName()).containsKey(devPlugin));
+        }
+    }
+
+    /**
+     * @return for each type of {@link #PLUGIN_TYPES}: plugin name -> class name, found in a registry populated only from {@param packageName}
+     */
+    static Map<String, Map<String, String>> findPlugins(String packageName, boolean includeDev, boolean scanClasspath) {
+        if (scanClasspath) System.setProperty(SCAN_PROPERTY, "true");
+        else System.clearProperty(SCAN_PROPERTY);
+        PluginFactory.clear();
+        PluginFactory.findPlugins(packageName, includeDev);
+        Map<String, Map<String, String>> res = new TreeMap<>();
+        for (Class<? extends Plugin> type : PLUGIN_TYPES) {
+            Map<String, String> classes = new TreeMap<>();
+            for (String name : PluginFactory.getPluginNames(type)) classes.put(name, PluginFactory.getPluginClass(name).getName());
+            res.put(type.getName(), classes);
+        }
+        return res;
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins;
+
+import bacmman.configuration.parameters.NumberParameter;
+import bacmman.configuration.parameters.PluginParameter;
+import bacmman.plugins.plugins.measurements.BoundingBox;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestPluginParameterCachedInstance {
+
+    @Test
+    public void testCachedInstance() {
+        PluginFactory.findPlugins("bacmman.dummy_plugins");
+        PluginParameter<Segmenter> segmenter = new PluginParameter<>("Segmenter", Segmenter.class, false);
+        segmenter.setPlugin("DummySegmenter");
+        Segmenter s1 = segmenter.getCachedInstance();
+        assertNotNull("instance", s1);
+        assertSame("same instance", s1, segmenter.getCachedInstance());
+
+        long version = segmenter.getVersion();
+        Segmenter other = segmenter.instantiatePlugin();
+        ((NumberParameter)other.getParameters()[0]).setValue(5); // parameters of other instances are not part of the tree
+        assertEquals("instance creation does not modify version", version, segmenter.getVersion());
+        assertSame("same instance after instance creation", s1, segmenter.getCachedInstance());
+
+        ((NumberParameter)segmenter.getParameters().get(0)).setValue(3);
+        assertNotEquals("edition modifies version", version, segmenter.getVersion());
+        Segmenter s2 = segmenter.getCachedInstance();
+        assertNotSame("new instance after edition", s1, s2);
+        assertEquals("new instance is configured", 3, ((NumberParameter)s2.getParameters()[0]).getValue().intValue());
+        assertSame("same instance", s2, segmenter.getCachedInstance());
+
+        ((NumberParameter)segmenter.getParameters().get(0)).setValue(3); // same value
+        assertSame("same instance when content is unchanged", s2, segmenter.getCachedInstance());
+    }
+
+    @Test
+    public void testInstancePerThread() throws Exception {
+        PluginFactory.findPlugins("bacmman.dummy_plugins");
+        PluginParameter<Segmenter> segmenter = new PluginParameter<>("Segmenter", Segmenter.class, false);
+        segmenter.setPlugin("DummySegmenter");
+        Segmenter s1 = segmenter.getCachedInstance();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Segmenter[]> other = executor.submit(() -> new Segmenter[]{segmenter.getCachedInstance(), segmenter.getCachedInstance()});
+            Segmenter[] s2 = other.get();
+            assertNotNull("instance in other thread", s2[0]);
+            assertNotSame("distinct instance per thread for non thread-safe plugin", s1, s2[0]);
+            assertSame("same instance within a thread", s2[0], s2[1]);
+            assertSame("same instance within a thread", s1, segmenter.getCachedInstance());
+
+            ((NumberParameter)segmenter.getParameters().get(0)).setValue(4);
+            Segmenter s3 = executor.submit(segmenter::getCachedInstance).get();
+            assertNotSame("per-thread instances are released after edition", s2[0], s3);
+            assertEquals("new per-thread instance is configured", 4, ((NumberParameter)s3.getParameters()[0]).getValue().intValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadSafeInstanceShared() throws Exception {
+        PluginFactory.findPlugins("bacmman.plugins.plugins.measurements");
+        PluginParameter<Measurement> measurement = new PluginParameter<>("Measurement", Measurement.class, false);
+        measurement.setPlugin("BoundingBox");
+        Measurement m1 = measurement.getCachedInstance();
+        assertTrue("thread safe plugin", m1 instanceof BoundingBox && m1 instanceof ThreadSafe);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertSame("thread safe plugin instance is shared by all threads", m1, executor.submit(measurement::getCachedInstance).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
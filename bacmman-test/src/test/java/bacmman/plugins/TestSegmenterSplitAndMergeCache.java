@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins;
+
+import bacmman.configuration.parameters.Parameter;
+import bacmman.data_structure.Region;
+import bacmman.data_structure.RegionPopulation;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.SegmentedObjectAccessor;
+import bacmman.image.BlankMask;
+import bacmman.image.Image;
+import bacmman.image.ImageFloat;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestSegmenterSplitAndMergeCache {
+
+    @Test
+    public void testSplit() {
+        CountingSegmenter seg = new CountingSegmenter();
+        SegmenterSplitAndMergeCache cache = seg.cached();
+        SegmentedObject parent = getParent();
+        Image input = new ImageFloat("", 20, 10, 1);
+        Region r = new Region(new BlankMask(8, 4, 1, 2, 3, 0, 1, 1), 1, true);
+        List<Region> res1 = new ArrayList<>();
+        double c1 = cache.split(input, parent, 0, r, res1);
+        List<Region> res2 = new ArrayList<>();
+        double c2 = cache.split(input, parent, 0, r.duplicate(), res2); // same content
+        assertEquals("segmenter called once", 1, seg.splitCount);
+        assertEquals("same cost", c1, c2, 0);
+        assertEquals("same result size", res1.size(), res2.size());
+        for (int i = 0; i<res1.size(); ++i) {
+            assertNotSame("results are duplicated", res1.get(i), res2.get(i));
+            assertEquals("same bounds", res1.get(i).getBounds(), res2.get(i).getBounds());
+        }
+        cache.split(input, parent, 0, new Region(new BlankMask(8, 4, 1, 3, 3, 0, 1, 1), 1, true), new ArrayList<>());
+        assertEquals("different region", 2, seg.splitCount);
+        cache.split(new ImageFloat("", 20, 10, 1), parent, 0, r, new ArrayList<>());
+        assertEquals("different input", 3, seg.splitCount);
+        cache.split(input, getParent(), 0, r, new ArrayList<>());
+        assertEquals("different parent", 4, seg.splitCount);
+    }
+
+    @Test
+    public void testMerge() {
+        CountingSegmenter seg = new CountingSegmenter();
+        SegmenterSplitAndMergeCache cache = seg.cached();
+        SegmentedObject parent = getParent();
+        Image input = new ImageFloat("", 20, 10, 1);
+        Region r1 = new Region(new BlankMask(2, 4, 1, 0, 0, 0, 1, 1), 1, true);
+        Region r2 = new Region(new BlankMask(2, 4, 1, 2, 0, 0, 1, 1), 2, true);
+        Region r3 = new Region(new BlankMask(2, 4, 1, 10, 0, 0, 1, 1), 3, true);
+        List<Region> l1 = new ArrayList<>(Arrays.asList(r1, r2, r3));
+        cache.computeMergeCost(input, parent, 0, l1);
+        assertEquals("object not in contact removed", Arrays.asList(r1, r2), l1);
+        List<Region> l2 = new ArrayList<>(Arrays.asList(r1.duplicate(), r2.duplicate(), r3.duplicate()));
+        List<Region> expected = new ArrayList<>(l2.subList(0, 2));
+        cache.computeMergeCost(input, parent, 0, l2);
+        assertEquals("segmenter called once", 1, seg.mergeCount);
+        assertEquals("object not in contact removed from memoised result", expected, l2);
+    }
+
+    @Test
+    public void testBoundedSize() {
+        CountingSegmenter seg = new CountingSegmenter();
+        SegmenterSplitAndMergeCache cache = new SegmenterSplitAndMergeCache(seg, 5);
+        SegmentedObject parent = getParent();
+        Image input = new ImageFloat("", 20, 10, 1);
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i<10; ++i) regions.add(new Region(new BlankMask(4, 4, 1, i, 0, 0, 1, 1), 1, true));
+        for (Region r : regions) cache.split(input, parent, 0, r, new ArrayList<>());
+        assertEquals("size is bounded", 5, cache.size());
+        cache.split(input, parent, 0, regions.get(9), new ArrayList<>());
+        assertEquals("recent entry kept", 10, seg.splitCount);
+        cache.split(input, parent, 0, regions.get(0), new ArrayList<>());
+        assertEquals("eldest entry evicted", 11, seg.splitCount);
+    }
+
+    @Test
+    public void testPreFilteredImageInvalidation() {
+        CountingSegmenter seg = new CountingSegmenter();
+        SegmenterSplitAndMergeCache cache = seg.cached();
+        SegmentedObjectAccessor accessor = getAccessor();
+        SegmentedObject parent = getParent(), otherParent = getParent();
+        Image input = new ImageFloat("", 20, 10, 1);
+        Region r = new Region(new BlankMask(8, 4, 1, 2, 3, 0, 1, 1), 1, true);
+        Image pf = new ImageFloat("", 20, 10, 1);
+        accessor.setPreFilteredImage(parent, 0, pf);
+        cache.split(input, parent, 0, r, new ArrayList<>());
+        cache.split(input, otherParent, 0, r, new ArrayList<>());
+        assertEquals("one evaluation per parent", 2, seg.splitCount);
+        accessor.setPreFilteredImage(parent, 0, pf);
+        cache.split(input, parent, 0, r, new ArrayList<>());
+        assertEquals("same pre-filtered image: entry kept", 2, seg.splitCount);
+
+        accessor.setPreFilteredImage(parent, 0, new ImageFloat("", 20, 10, 1));
+        cache.split(input, parent, 0, r, new ArrayList<>());
+        assertEquals("pre-filtered image changed: entry removed", 3, seg.splitCount);
+        cache.split(input, otherParent, 0, r, new ArrayList<>());
+        assertEquals("entries of other parents are kept", 3, seg.splitCount);
+        assertEquals("one entry per parent", 2, cache.size());
+
+        accessor.setPreFilteredImage(parent, 0, null);
+        cache.split(input, parent, 0, r, new ArrayList<>());
+        assertEquals("pre-filtered image erased: entry removed", 4, seg.splitCount);
+    }
+
+    @Test
+    public void testInputIdentity() {
+        CountingSegmenter seg = new CountingSegmenter();
+        SegmenterSplitAndMergeCache cache = seg.cached();
+        SegmentedObject parent = getParent();
+        Region r = new Region(new BlankMask(8, 4, 1, 2, 3, 0, 1, 1), 1, true);
+        ImageFloat input = new ImageFloat("", 20, 10, 1);
+        cache.split(input, parent, 0, r, new ArrayList<>());
+        cache.split(input.duplicate(), parent, 0, r, new ArrayList<>());
+        assertEquals("input with same content but other pixel arrays", 2, seg.splitCount);
+        cache.split(new ImageFloat("", 20, input.getPixelArray()), parent, 0, r, new ArrayList<>());
+        assertEquals("input sharing pixel arrays", 2, seg.splitCount);
+    }
+
+    private static SegmentedObjectAccessor getAccessor() {
+        try {
+            Constructor<SegmentedObjectAccessor> constructor = SegmentedObjectAccessor.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create accessor", e);
+        }
+    }
+
+    static SegmentedObject getParent() {
+        return new SegmentedObject(0, 0, 0, new Region(new BlankMask(20, 10, 1), 1, true), null);
+    }
+
+    static class CountingSegmenter implements SegmenterSplitAndMerge {
+        int splitCount, mergeCount;
+        @Override
+        public double split(Image input, SegmentedObject parent, int objectClassIdx, Region o, List<Region> result) {
+            ++splitCount;
+            int half = o.getBounds().sizeX() / 2;
+            result.add(new Region(new BlankMask(half, o.getBounds().sizeY(), 1, o.getBounds().xMin(), o.getBounds().yMin(), 0, 1, 1), 1, true));
+            result.add(new Region(new BlankMask(o.getBounds().sizeX() - half, o.getBounds().sizeY(), 1, o.getBounds().xMin() + half, o.getBounds().yMin(), 0, 1, 1), 2, true));
+            return 1;
+        }
+
+        @Override
+        public double computeMergeCost(Image input, SegmentedObject parent, int objectClassIdx, List<Region> objects) {
+            ++mergeCount;
+            int xMax = objects.get(0).getBounds().xMax();
+            objects.removeIf(r -> r.getBounds().xMin() > xMax + 1);
+            return 2;
+        }
+
+        @Override
+        public RegionPopulation runSegmenter(Image input, int objectClassIdx, SegmentedObject parent) {
+            return null;
+        }
+
+        @Override
+        public Parameter[] getParameters() {
+            return new Parameter[0];
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.plugins.plugins.trackers.bacteria_in_microchannel_tracker;
+
+import bacmman.configuration.experiment.ChannelImage;
+import bacmman.configuration.experiment.Experiment;
+import bacmman.configuration.experiment.Structure;
+import bacmman.configuration.parameters.Parameter;
+import bacmman.data_structure.MasterDAOFactory;
+import bacmman.data_structure.Processor;
+import bacmman.data_structure.Region;
+import bacmman.data_structure.RegionPopulation;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.Voxel;
+import bacmman.data_structure.dao.MasterDAO;
+import bacmman.data_structure.dao.ObjectDAO;
+import bacmman.image.Image;
+import bacmman.image.ImageByte;
+import bacmman.image.io.ImageFormat;
+import bacmman.image.io.ImageWriter;
+import bacmman.plugins.PluginFactory;
+import bacmman.plugins.SegmenterSplitAndMerge;
+import bacmman.plugins.plugins.processing_pipeline.SegmentAndTrack;
+import bacmman.plugins.plugins.segmenters.SimpleThresholder;
+import bacmman.plugins.plugins.thresholders.ConstantValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Speculative (parallel) evaluation of correction scenarios must not change tracking results
+ * @author Jean Ollion
+ */
+public class TestSpeculativeScenarioEvaluation {
+    static {
+        MasterDAOFactory.findModules("bacmman.data_structure.dao");
+        PluginFactory.findPlugins("bacmman.plugins.plugins");
+    }
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    static final int SIZE_X = 16, SIZE_Y = 100, X_MIN = 4, X_MAX = 11;
+    static final double THRESHOLD = 50;
+
+    @Test
+    public void testSpeculativeScenarioEvaluation() throws Exception {
+        MasterDAO db = generateDB(25);
+        boolean speculative = BacteriaClosedMicrochannelTrackerLocalCorrections.speculativeScenarioEvaluation;
+        try {
+            BacteriaClosedMicrochannelTrackerLocalCorrections.speculativeScenarioEvaluation = true;
+            List<String> withSpeculation = process(db);
+            BacteriaClosedMicrochannelTrackerLocalCorrections.speculativeScenarioEvaluation = false;
+            List<String> withoutSpeculation = process(db);
+            assertTrue("objects segmented", withoutSpeculation.size() > 25);
+            assertEquals("same objects and links", withoutSpeculation, withSpeculation);
+        } finally {
+            BacteriaClosedMicrochannelTrackerLocalCorrections.speculativeScenarioEvaluation = speculative;
+        }
+    }
+
+    private MasterDAO generateDB(int frameNumber) throws Exception {
+        MasterDAO db = MasterDAOFactory.getDAO(Paths.get(testFolder.newFolder().getAbsolutePath()), "MapDB");
+        db.setConfigurationReadOnly(false);
+        db.lockPositions();
+        Experiment xp = new Experiment("test");
+        xp.setImportImageMethod(Experiment.IMPORT_METHOD.SINGLE_FILE);
+        File base = testFolder.newFolder("testDB");
+        xp.setPath(Paths.get(base.getAbsolutePath()));
+        xp.setOutputDirectory(new File(base, "Output").getAbsolutePath());
+        xp.getChannelImages().insert(new ChannelImage("ChannelImage"));
+        xp.getStructures().removeAllElements();
+        Structure bacteria = new Structure("Bacteria", -1, 0);
+        xp.getStructures().insert(bacteria);
+        bacteria.setProcessingPipeline(new SegmentAndTrack(new BacteriaClosedMicrochannelTrackerLocalCorrections().setSegmenter(new GapSegmenter())));
+
+        File folder = testFolder.newFolder("images");
+        ImageWriter.writeToFile(folder.getAbsolutePath(), "channel", ImageFormat.OMETIF, generateImages(new Random(0), frameNumber));
+        Processor.importFiles(xp, true, false, null, folder.getAbsolutePath());
+        db.setExperiment(xp, true);
+        Processor.preProcessImages(db, 0.5);
+        xp.getPosition(0).createRootObjects(db.getDao("channel"));
+        return db;
+    }
+
+    /**
+     * @return one string per bacteria with bounds and track links, ordered by frame and index
+     */
+    private static List<String> process(MasterDAO db) {
+        Processor.processAndTrackStructures(db, true);
+        ObjectDAO<?> dao = db.getDao("channel");
+        dao.clearCache();
+        List<String> res = new ArrayList<>();
+        for (SegmentedObject root : dao.getRoots()) {
+            for (SegmentedObject b : dao.getChildren(root, 0)) {
+                SegmentedObject prev = b.getPrevious();
+                SegmentedObject th = b.getTrackHead();
+                res.add(b.getFrame() + "-" + b.getIdx() + " " + b.getBounds() + " prev: " + (prev==null ? "none" : prev.getFrame() + "-" + prev.getIdx()) + " th: " + th.getFrame() + "-" + th.getIdx());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Growing and dividing bacteria in a channel closed at y=0: bright cells separated by dark gaps. Cells close to division have a dimmer constriction row, that is sometimes dark enough to produce an over-segmentation that the tracker has to correct
+     */
+    static ImageByte[][] generateImages(Random r, int frameNumber) {
+        List<Double> lengths = new ArrayList<>();
+        lengths.add(14d);
+        lengths.add(18d);
+        lengths.add(23d);
+        lengths.add(16d);
+        ImageByte[][] images = new ImageByte[frameNumber][1];
+        for (int f = 0; f<frameNumber; ++f) {
+            ImageByte image = new ImageByte("f"+f, SIZE_X, SIZE_Y, 1);
+            for (int xy = 0; xy<image.sizeXY(); ++xy) image.setPixel(xy, 0, 10);
+            int y = 2;
+            for (double length : lengths) {
+                int l = (int)length;
+                for (int yy = y; yy<Math.min(y + l, SIZE_Y); ++yy) {
+                    int value = 200;
+                    if (l>=22 && yy==y+l/2) value = r.nextDouble()<0.3 ? 30 : 100;
+                    for (int x = X_MIN; x<=X_MAX; ++x) image.setPixel(x, yy, 0, value);
+                }
+                y += l + 2;
+                if (y>=SIZE_Y) break;
+            }
+            images[f][0] = image;
+            List<Double> next = new ArrayList<>();
+            for (double length : lengths) {
+                double l = length * 1.06;
+                if (l>=26) {
+                    next.add(l/2);
+                    next.add(l/2);
+                } else next.add(l);
+            }
+            lengths = next;
+        }
+        return images;
+    }
+
+    /**
+     * Thresholds the image, splits objects at their darkest row and merges objects separated by a single row.
+     * Objects are in the referential of the root object, which has no offset, so that coordinates of voxels can be used to read the image
+     */
+    public static class GapSegmenter implements SegmenterSplitAndMerge {
+        @Override
+        public RegionPopulation runSegmenter(Image input, int objectClassIdx, SegmentedObject parent) {
+            return SimpleThresholder.run(input, new ConstantValue(THRESHOLD), parent, true, false);
+        }
+
+        static double rowMean(Image input, int y) {
+            double sum = 0;
+            for (int x = X_MIN; x<=X_MAX; ++x) sum += input.getPixel(x, y, 0);
+            return sum / (X_MAX - X_MIN + 1);
+        }
+
+        @Override
+        public double split(Image input, SegmentedObject parent, int objectClassIdx, Region o, List<Region> result) {
+            int yMin = o.getBounds().yMin(), yMax = o.getBounds().yMax();
+            if (yMax - yMin < 4) return Double.NaN;
+            int splitY = yMin + 2;
+            for (int y = yMin + 3; y<=yMax - 2; ++y) if (rowMean(input, y) < rowMean(input, splitY)) splitY = y;
+            Set<Voxel> upper = new HashSet<>(), lower = new HashSet<>();
+            for (Voxel v : o.getVoxels()) {
+                if (v.y < splitY) upper.add(v);
+                else if (v.y > splitY) lower.add(v);
+            }
+            result.add(new Region(upper, 1, true, o.getScaleXY(), o.getScaleZ()));
+            result.add(new Region(lower, 2, true, o.getScaleXY(), o.getScaleZ()));
+            return (rowMean(input, splitY) - THRESHOLD) / THRESHOLD;
+        }
+
+        @Override
+        public double computeMergeCost(Image input, SegmentedObject parent, int objectClassIdx, List<Region> objects) {
+            if (objects.size()<2) return Double.NaN;
+            objects.sort((r1, r2) -> Integer.compare(r1.getBounds().yMin(), r2.getBounds().yMin()));
+            double maxGapCost = 0;
+            int i = 1;
+            for (; i<objects.size(); ++i) {
+                int gapY = objects.get(i-1).getBounds().yMax() + 1;
+                if (objects.get(i).getBounds().yMin() != gapY + 1) break; // not in contact
+                maxGapCost = Math.max(maxGapCost, 3 * (THRESHOLD - rowMean(input, gapY)) / THRESHOLD);
+            }
+            objects.subList(i, objects.size()).clear();
+            return objects.size()<2 ? Double.NaN : maxGapCost;
+        }
+
+        @Override
+        public Parameter[] getParameters() {
+            return new Parameter[0];
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing;
+
+import bacmman.configuration.experiment.Experiment;
+import bacmman.data_structure.RegionPopulation;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.SegmentedObjectAccessor;
+import bacmman.data_structure.dao.MemoryMasterDAO;
+import bacmman.data_structure.dao.UUID;
+import bacmman.image.*;
+import bacmman.plugins.PluginFactory;
+import bacmman.plugins.plugins.pre_filters.GaussianSmooth;
+import bacmman.plugins.plugins.segmenters.SimpleThresholder;
+import bacmman.test_utils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tiled processing must give the same result as processing the whole image
+ * @author Jean Ollion
+ */
+public class TestTiledProcessing {
+    static {PluginFactory.findPlugins("bacmman.plugins.plugins");}
+    int tileSize;
+
+    @Before
+    public void setTileSize() {
+        tileSize = TiledProcessing.TILE_SIZE;
+        TiledProcessing.TILE_SIZE = 16;
+    }
+
+    @After
+    public void resetTileSize() {
+        TiledProcessing.TILE_SIZE = tileSize;
+    }
+
+    static <T extends Image<T>> T randomImage(T image, int maxValue, long seed) {
+        Random r = new Random(seed);
+        for (int z = 0; z<image.sizeZ(); ++z) {
+            for (int xy = 0; xy<image.sizeXY(); ++xy) image.setPixel(xy, z, r.nextInt(maxValue + 1));
+        }
+        return image;
+    }
+
+    static SegmentedObject getRoot(Image image) {
+        SegmentedObjectAccessor accessor = getAccessor();
+        MemoryMasterDAO<String, ?> db = new MemoryMasterDAO<>(accessor, UUID.generator());
+        Experiment xp = new Experiment("test");
+        xp.createPosition("pos");
+        db.setExperiment(xp, true);
+        return accessor.createRoot(0, new BlankMask(image.sizeX(), image.sizeY(), image.sizeZ()), db.getDao("pos"));
+    }
+
+    private static SegmentedObjectAccessor getAccessor() {
+        try {
+            Constructor<SegmentedObjectAccessor> constructor = SegmentedObjectAccessor.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+            throw new RuntimeException("Could not create accessor", e);
+        }
+    }
+
+    static void assertSameRegions(String message, Image input, SimpleThresholder segmenter) {
+        SegmentedObject root = getRoot(input);
+        RegionPopulation whole = segmenter.runSegmenter(input, 0, root);
+        RegionPopulation tiled = TiledProcessing.segment(segmenter, input, 0, root);
+        assertNotNull(message+": image split into tiles", tiled);
+        assertEquals(message+": region count", whole.getRegions().size(), tiled.getRegions().size());
+        ImageInteger expected = whole.getLabelMap();
+        ImageInteger actual = tiled.getLabelMap();
+        Map<Integer, Integer> labelMap = new HashMap<>(), reverseLabelMap = new HashMap<>();
+        for (int z = 0; z<input.sizeZ(); ++z) {
+            for (int y = 0; y<input.sizeY(); ++y) {
+                for (int x = 0; x<input.sizeX(); ++x) {
+                    int e = expected.getPixelInt(x, y, z), a = actual.getPixelInt(x, y, z);
+                    String loc = message+" @ "+x+";"+y+";"+z;
+                    assertEquals(loc+" foreground", e>0, a>0);
+                    if (e==0) continue;
+                    assertEquals(loc+" same region", a, labelMap.computeIfAbsent(e, l -> a).intValue());
+                    assertEquals(loc+" same region (reverse)", e, reverseLabelMap.computeIfAbsent(a, l -> e).intValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSimpleThresholderDiagonalConnections() {
+        // cores of tiles are [0;15] and [16;31] along X and Y axes
+        ImageByte image2D = new ImageByte("", 32, 32, 1);
+        image2D.setPixel(15, 15, 0, 255); // corner of 4 tiles
+        image2D.setPixel(16, 16, 0, 255);
+        image2D.setPixel(15, 3, 0, 255); // along a vertical border
+        image2D.setPixel(16, 4, 0, 255);
+        image2D.setPixel(20, 15, 0, 255); // along a horizontal border
+        image2D.setPixel(21, 16, 0, 255);
+        assertSameRegions("2D diagonal", image2D, new SimpleThresholder(128));
+        assertEquals("2D diagonal region count", 3, new SimpleThresholder(128).runSegmenter(image2D, 0, getRoot(image2D)).getRegions().size());
+        ImageByte image3D = new ImageByte("", 32, 32, 3);
+        image3D.setPixel(15, 5, 0, 255); // across a border and along Z
+        image3D.setPixel(16, 5, 1, 255);
+        image3D.setPixel(15, 15, 1, 255); // corner of 4 tiles and along Z
+        image3D.setPixel(16, 16, 2, 255);
+        assertSameRegions("3D diagonal", image3D, new SimpleThresholder(128));
+    }
+
+    @Test
+    public void testSimpleThresholder() {
+        assertSameRegions("2D", randomImage(new ImageByte("", 70, 50, 1), 255, 0), new SimpleThresholder(150));
+        assertSameRegions("3D", randomImage(new ImageByte("", 40, 40, 3), 255, 1), new SimpleThresholder(180));
+    }
+
+    @Test
+    public void testGaussianSmooth() {
+        for (int sizeZ : new int[]{1, 5}) {
+            Image input = randomImage(new ImageFloat("", 70, 50, sizeZ), 255, sizeZ);
+            GaussianSmooth filter = new GaussianSmooth(2, 1);
+            Image expected = filter.runPreFilter(input, new BlankMask(input), false);
+            Image tiled = TiledProcessing.filter(input, new BlankMask(input), filter.getTileHalo(input), (tile, mask) -> filter.runPreFilter(tile, mask, false));
+            assertNotNull("image split into tiles", tiled);
+            TestUtils.assertImage("sizeZ="+sizeZ, expected, tiled, 1e-3f);
+        }
+    }
+}
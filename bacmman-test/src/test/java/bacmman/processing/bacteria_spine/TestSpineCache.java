@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing.bacteria_spine;
+
+import bacmman.configuration.experiment.Experiment;
+import bacmman.data_structure.Region;
+import bacmman.data_structure.SegmentedObject;
+import bacmman.data_structure.SegmentedObjectAccessor;
+import bacmman.data_structure.dao.MemoryMasterDAO;
+import bacmman.data_structure.dao.UUID;
+import bacmman.image.BlankMask;
+import bacmman.image.ImageByte;
+import bacmman.image.SimpleOffset;
+import bacmman.utils.geom.PointContainer2;
+import bacmman.utils.geom.Vector;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestSpineCache {
+
+    static Region createBacteria() {
+        ImageByte mask = new ImageByte("bacteria", 40, 14, 1);
+        for (int y = 0; y<mask.sizeY(); ++y) {
+            for (int x = 0; x<mask.sizeX(); ++x) {
+                double dx = (x - 20) / 16., dy = (y - 7) / 5.;
+                if (dx * dx + dy * dy <= 1) mask.setPixel(x, y, 0, 1);
+            }
+        }
+        return new Region(mask, 1, true);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        SpineCache cache = new SpineCache(100000);
+        Region r = createBacteria();
+        BacteriaSpineFactory.SpineResult spine = cache.getSpine(r);
+        assertNotNull("spine computed", spine.spine);
+        assertSame("unchanged region: cached spine", spine, cache.getSpine(r));
+        assertEquals("one entry", 1, cache.size());
+        assertNotSame("other contour smoothing: other entry", spine, cache.getSpine(r, 1));
+        assertEquals("one entry per contour smoothing", 2, cache.size());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        SpineCache cache = new SpineCache(100000);
+        Region r = createBacteria();
+        BacteriaSpineFactory.SpineResult spine = cache.getSpine(r);
+        r.translate(new SimpleOffset(5, 0, 0));
+        BacteriaSpineFactory.SpineResult translated = cache.getSpine(r);
+        assertNotSame("bounds changed: spine is re-computed", spine, translated);
+        assertEquals("bounds changed: spine bounds", r.getBounds().xMin(), translated.bounds.xMin());
+        assertEquals("invalidated entry is replaced", 1, cache.size());
+        r.setIsAbsoluteLandmark(true);
+        assertNotSame("landmark changed: spine is re-computed", translated, cache.getSpine(r));
+        assertEquals("invalidated entry is replaced", 1, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Region a = createBacteria(), b = createBacteria(), c = createBacteria();
+        long w = new SpineCache(100000).getEntry(a, SpineCache.DEFAULT_CONTOUR_SMOOTH_SIGMA, null).weight();
+        assertTrue("weight counts spine and contour points", w > 1);
+        SpineCache cache = new SpineCache(2 * w);
+        BacteriaSpineFactory.SpineResult spineA = cache.getSpine(a);
+        BacteriaSpineFactory.SpineResult spineB = cache.getSpine(b);
+        assertEquals("entries within weight limit", 2, cache.size());
+        cache.getSpine(a); // a becomes the most recently used entry
+        BacteriaSpineFactory.SpineResult spineC = cache.getSpine(c);
+        assertEquals("least recently used entry is evicted", 2, cache.size());
+        assertSame("recently used entry is kept", spineA, cache.getSpine(a));
+        assertSame("last inserted entry is kept", spineC, cache.getSpine(c));
+        assertNotSame("evicted entry is re-computed", spineB, cache.getSpine(b));
+
+        cache.setMaxWeight(1);
+        assertEquals("last inserted entry is always kept", 1, cache.size());
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        Region r = createBacteria();
+        BacteriaSpineFactory.SpineResult spine = new SpineCache(100000).getSpine(r);
+        assertSameSpine("decoded spine", spine, SpineCache.decode(SpineCache.encode(spine), r));
+
+        SegmentedObjectAccessor accessor = getAccessor();
+        MemoryMasterDAO<String, ?> db = new MemoryMasterDAO<>(accessor, UUID.generator());
+        Experiment xp = new Experiment("test");
+        xp.createPosition("pos");
+        db.setExperiment(xp, true);
+        SegmentedObject root = accessor.createRoot(0, new BlankMask(40, 14, 1), db.getDao("pos"));
+        SegmentedObject bacteria = new SegmentedObject(0, 0, 0, r, root);
+        new SpineCache(100000).setPersist(true).getSpine(bacteria);
+        assertNotNull("spine persisted as attribute", bacteria.getAttribute(SpineCache.SPINE_ATTRIBUTE));
+        assertEquals("version persisted as attribute", SpineCache.getVersion(r), bacteria.getAttribute(SpineCache.SPINE_KEY_ATTRIBUTE, ""));
+        BacteriaSpineFactory.SpineResult read = SpineCache.readSpine(bacteria, SpineCache.getVersion(r));
+        assertNotNull("spine read from attribute", read);
+        assertSameSpine("spine read from attribute", spine, read);
+        assertNull("spine of another version is not read", SpineCache.readSpine(bacteria, "other"));
+    }
+
+    static void assertSameSpine(String message, BacteriaSpineFactory.SpineResult expected, BacteriaSpineFactory.SpineResult actual) {
+        assertEquals(message+": vertebra number", expected.spine.length, actual.spine.length);
+        for (int i = 0; i<expected.spine.length; ++i) {
+            PointContainer2<Vector, Double> e = expected.spine[i], a = actual.spine[i];
+            assertEquals(message+": x @"+i, e.get(0), a.get(0), 1e-5);
+            assertEquals(message+": y @"+i, e.get(1), a.get(1), 1e-5);
+            assertEquals(message+": direction x @"+i, e.getContent1().get(0), a.getContent1().get(0), 1e-5);
+            assertEquals(message+": direction y @"+i, e.getContent1().get(1), a.getContent1().get(1), 1e-5);
+            assertEquals(message+": curvilinear coordinate @"+i, e.getContent2(), a.getContent2(), 1e-4);
+        }
+    }
+
+    private static SegmentedObjectAccessor getAccessor() {
+        try {
+            Constructor<SegmentedObjectAccessor> constructor = SegmentedObjectAccessor.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Could not create accessor", e);
+        }
+    }
+}
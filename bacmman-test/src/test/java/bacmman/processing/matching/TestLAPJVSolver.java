@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing.matching;
+
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.LAPJVSolver;
+import bacmman.processing.matching.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestLAPJVSolver {
+
+    @Test
+    public void testOptimalAssignment() {
+        Random r = new Random(0);
+        LAPJVSolver solver = new LAPJVSolver();
+        for (int it = 0; it < 300; ++it) {
+            int nR = 1 + r.nextInt(4), nC = 1 + r.nextInt(4);
+            double alt = 0.5 + r.nextDouble() * 2;
+            SparseCostMatrix m = randomLinkingCosts(r, nR, nC);
+            assertTrue(solver.solveWithAlternatives(m, i -> alt, j -> alt));
+            int n = nR + nC;
+            assertEquals("optimal cost", bruteForceMinCost(solver, n, 0, new boolean[n]), assignmentCost(solver, n), 1e-9);
+        }
+    }
+
+    @Test
+    public void testWarmStart() {
+        Random r = new Random(1);
+        LAPJVSolver cold = new LAPJVSolver();
+        LAPJVSolver warm = new LAPJVSolver().setWarmStart(true);
+        for (int it = 0; it < 300; ++it) {
+            int nR = 1 + r.nextInt(30), nC = 1 + r.nextInt(30);
+            double alt = 0.5 + r.nextDouble() * 3;
+            SparseCostMatrix m = randomLinkingCosts(r, nR, nC);
+            double[] perturbed = m.getCosts().clone();
+            for (int k = 0; k < perturbed.length; ++k) perturbed[k] = Math.max(0.05, perturbed[k] + r.nextGaussian() * 0.2);
+            assertTrue(warm.solveWithAlternatives(withCosts(m, perturbed), i -> alt, j -> alt));
+            assertTrue(warm.solveWithAlternatives(m, i -> alt, j -> alt)); // warm-started from the solution of the perturbed problem
+            assertTrue(cold.solveWithAlternatives(m, i -> alt, j -> alt));
+            int n = nR + nC;
+            assertEquals("same optimal cost", assignmentCost(cold, n), assignmentCost(warm, n), 1e-9);
+        }
+    }
+
+    private static SparseCostMatrix randomLinkingCosts(Random r, int nR, int nC) {
+        List<Double> costs = new ArrayList<>();
+        List<Integer> cols = new ArrayList<>();
+        int[] number = new int[nR];
+        for (int i = 0; i < nR; ++i) {
+            for (int j = 0; j < nC; ++j) {
+                if (r.nextDouble() < 0.3 || j == i % nC || i == j % nR) { // each row and each column has at least one cost
+                    costs.add(0.1 + r.nextDouble() * 4);
+                    cols.add(j);
+                    ++number[i];
+                }
+            }
+        }
+        return new SparseCostMatrix(costs.stream().mapToDouble(d -> d).toArray(), cols.stream().mapToInt(i -> i).toArray(), number, nC);
+    }
+
+    private static SparseCostMatrix withCosts(SparseCostMatrix m, double[] costs) { // same structure, other costs
+        int[] cols = new int[costs.length];
+        int[] number = new int[m.getNRows()];
+        int k = 0;
+        for (int i = 0; i < m.getNRows(); ++i) {
+            for (int j = 0; j < m.getNCols(); ++j) {
+                if (!Double.isNaN(m.get(i, j, Double.NaN))) {
+                    cols[k++] = j;
+                    ++number[i];
+                }
+            }
+        }
+        return new SparseCostMatrix(costs, cols, number, m.getNCols());
+    }
+
+    private static double assignmentCost(LAPJVSolver solver, int n) {
+        double cost = 0;
+        boolean[] assigned = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            int j = solver.getRowAssignment()[i];
+            assertFalse("column assigned once", assigned[j]);
+            assigned[j] = true;
+            cost += solver.getAssembledCost(i, j, Double.POSITIVE_INFINITY);
+        }
+        return cost;
+    }
+
+    private static double bruteForceMinCost(LAPJVSolver solver, int n, int row, boolean[] used) {
+        if (row == n) return 0;
+        double min = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < n; ++j) {
+            if (used[j]) continue;
+            double c = solver.getAssembledCost(row, j, Double.POSITIVE_INFINITY);
+            if (Double.isInfinite(c)) continue;
+            used[j] = true;
+            min = Math.min(min, c + bruteForceMinCost(solver, n, row + 1, used));
+            used[j] = false;
+        }
+        return min;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.processing.matching;
+
+import bacmman.data_structure.Region;
+import bacmman.data_structure.Voxel;
+import bacmman.processing.matching.trackmate.Spot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestLAPLinker {
+
+    @Test
+    public void testConcurrentFrameToFrameLinking() {
+        Map<Region, double[]> coords = new HashMap<>();
+        List<List<Region>> regionsByFrame = generateTracks(new Random(0), 20, 40, 200, coords);
+        LAPLinker<LAPLinker.SpotImpl> single = link(regionsByFrame, coords, 1, 4);
+        LAPLinker<LAPLinker.SpotImpl> parallel = link(regionsByFrame, coords, 4, 4);
+        Set<String> links = getLinks(single);
+        assertTrue("links created", links.size() > regionsByFrame.size() * 20);
+        assertEquals("same links", links, getLinks(parallel));
+
+        // linking from existing graph: only spots not already linked are considered
+        assertTrue("ftf from existing graph, single thread", single.processFTF(50));
+        assertTrue("ftf from existing graph, parallel", parallel.processFTF(50));
+        Set<String> links2 = getLinks(single);
+        assertTrue("links added", links2.size() > links.size());
+        assertEquals("same links from existing graph", links2, getLinks(parallel));
+    }
+
+    private static LAPLinker<LAPLinker.SpotImpl> link(List<List<Region>> regionsByFrame, Map<Region, double[]> coords, int numThreads, double distance) {
+        LAPLinker<LAPLinker.SpotImpl> linker = new LAPLinker<>((o, frame) -> {
+            double[] c = coords.get(o);
+            LAPLinker.SpotImpl s = new LAPLinker.SpotImpl(c[0], c[1], 0, 1, 1);
+            s.getFeatures().put(Spot.FRAME, (double)frame);
+            return s;
+        });
+        for (int f = 0; f<regionsByFrame.size(); ++f) linker.addObjects(regionsByFrame.get(f).stream(), f);
+        linker.setNumThreads(numThreads);
+        assertTrue("ftf with "+numThreads+" threads", linker.processFTF(distance));
+        return linker;
+    }
+
+    /**
+     * @return edges as strings: label of source region, label of target region and weight
+     */
+    private static Set<String> getLinks(LAPLinker<LAPLinker.SpotImpl> linker) {
+        return linker.getEdges().stream().map(e -> {
+            Region s = linker.graphObjectMapper.getRegion(linker.graph.getEdgeSource(e));
+            Region t = linker.graphObjectMapper.getRegion(linker.graph.getEdgeTarget(e));
+            return s.getLabel() + ">" + t.getLabel() + ":" + linker.graph.getEdgeWeight(e);
+        }).collect(Collectors.toSet());
+    }
+
+    /**
+     * Random walks that may appear and disappear, with unique labels. Spot coordinates are not integers so that there are no ties between link costs
+     */
+    private static List<List<Region>> generateTracks(Random r, int nFrames, int nTracks, int size, Map<Region, double[]> coords) {
+        double[][] positions = new double[nTracks][2];
+        for (double[] p : positions) {
+            p[0] = r.nextDouble() * size;
+            p[1] = r.nextDouble() * size;
+        }
+        int label = 1;
+        List<List<Region>> res = new ArrayList<>(nFrames);
+        for (int f = 0; f<nFrames; ++f) {
+            List<Region> regions = new ArrayList<>(nTracks);
+            for (double[] p : positions) {
+                p[0] += (r.nextDouble() - 0.5) * 4;
+                p[1] += (r.nextDouble() - 0.5) * 4;
+                if (r.nextDouble() < 0.1) { // gap or new object
+                    p[0] = r.nextDouble() * size;
+                    p[1] = r.nextDouble() * size;
+                    continue;
+                }
+                Region region = new Region(new Voxel((int)p[0], (int)p[1], 0), label++, true, 1, 1);
+                coords.put(region, new double[]{p[0], p[1]});
+                regions.add(region);
+            }
+            res.add(regions);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.ui.gui.image_interaction;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestIJOverlayModel {
+
+    static ImagePlus getImage(int frames) {
+        ImageStack stack = new ImageStack(1024, 1024);
+        for (int f = 0; f<frames; ++f) stack.addSlice(new ByteProcessor(1024, 1024));
+        return new ImagePlus("", stack);
+    }
+
+    static Roi getRoi(int x, int y, int size, int position) {
+        Roi r = new Roi(x, y, size, size);
+        r.setPosition(position);
+        return r;
+    }
+
+    static Set<Roi> getContent(Overlay o) {
+        return new HashSet<>(Arrays.asList(o.toArray()));
+    }
+
+    static Set<Roi> set(Roi... rois) {
+        return new HashSet<>(Arrays.asList(rois));
+    }
+
+    @Test
+    public void testFrameCulling() {
+        ImagePlus image = getImage(3);
+        IJOverlayModel model = new IJOverlayModel(image, true);
+        Roi r1 = getRoi(10, 10, 5, 1), r2 = getRoi(300, 300, 5, 2), r2b = getRoi(600, 10, 5, 2), all = getRoi(50, 50, 5, 0);
+        model.add("o1", Collections.singletonList(r1), false);
+        model.add("o2", Arrays.asList(r2, r2b), false);
+        model.add("all", Collections.singletonList(all), false);
+        assertTrue("first update", model.update());
+        assertEquals("frame 1", set(r1, all), getContent(image.getOverlay()));
+        assertFalse("nothing changed", model.update());
+        image.setSlice(2);
+        assertTrue("frame changed", model.update());
+        assertEquals("frame 2", set(r2, r2b, all), getContent(image.getOverlay()));
+        model.remove("o2");
+        model.update();
+        assertEquals("source removed", set(all), getContent(image.getOverlay()));
+        model.add("o2", Collections.singletonList(r2), false);
+        model.retain(new HashSet<>(Arrays.asList("o1", "o2")));
+        assertEquals("retained sources", 2, model.size());
+        model.update();
+        assertEquals("frame 2 after retain", set(r2), getContent(image.getOverlay()));
+        image.setOverlay(null);
+        model.update();
+        assertEquals("overlay reset", set(r2), getContent(image.getOverlay()));
+
+        IJOverlayModel noCulling = new IJOverlayModel(image, false);
+        noCulling.add("o1", Collections.singletonList(r1), false);
+        noCulling.add("o2", Arrays.asList(r2, r2b), false);
+        image.setOverlay(null);
+        noCulling.update();
+        assertEquals("no frame culling", set(r1, r2, r2b), getContent(image.getOverlay()));
+    }
+
+    @Test
+    public void testViewportCulling() {
+        ImagePlus image = getImage(1);
+        Rectangle[] visible = new Rectangle[]{new Rectangle(0, 0, 100, 100)};
+        IJOverlayModel model = new IJOverlayModel(image, true) {
+            @Override
+            protected Rectangle getVisibleArea() {
+                return visible[0];
+            }
+        };
+        Roi near = getRoi(10, 10, 5, 1), far = getRoi(700, 700, 5, 1), large = getRoi(-5000, -5000, 10000, 1);
+        model.add("near", Collections.singletonList(near), false);
+        model.add("far", Collections.singletonList(far), false);
+        model.add("large", Collections.singletonList(large), false);
+        model.update();
+        assertEquals("top left visible", set(near, large), getContent(image.getOverlay()));
+        visible[0] = new Rectangle(10, 10, 100, 100);
+        assertFalse("small pan within extended viewport", model.update());
+        visible[0] = new Rectangle(650, 650, 100, 100);
+        assertTrue("viewport changed", model.update());
+        assertEquals("bottom right visible", set(far, large), getContent(image.getOverlay()));
+        visible[0] = null;
+        assertTrue("zoom out", model.update());
+        assertEquals("whole image visible", set(near, far, large), getContent(image.getOverlay()));
+    }
+
+    @Test
+    public void testDuplicate() {
+        ImagePlus image = getImage(1);
+        IJOverlayModel model = new IJOverlayModel(image, true);
+        Roi r = getRoi(10, 10, 5, 1);
+        r.setStrokeColor(Color.RED);
+        model.add("o", Collections.singletonList(r), true);
+        model.update();
+        Roi[] displayed = image.getOverlay().toArray();
+        assertEquals("one roi", 1, displayed.length);
+        assertNotSame("roi is duplicated", r, displayed[0]);
+        assertEquals("same color", Color.RED, displayed[0].getStrokeColor());
+        r.setStrokeColor(Color.BLUE); // source re-coloured in place by the image window manager
+        assertFalse("in-place modification not notified", model.update());
+        model.invalidate();
+        assertTrue("invalidated", model.update());
+        displayed = image.getOverlay().toArray();
+        assertEquals("still one roi", 1, displayed.length);
+        assertEquals("color updated", Color.BLUE, displayed[0].getStrokeColor());
+        r.setStrokeColor(Color.GREEN);
+        model.add("o", Collections.singletonList(r), true); // source replaced
+        model.update();
+        displayed = image.getOverlay().toArray();
+        assertEquals("one roi after replacement", 1, displayed.length);
+        assertEquals("color of replaced source", Color.GREEN, displayed[0].getStrokeColor());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.ui.gui.image_interaction;
+
+import bacmman.image.Image;
+import bacmman.image.ImageByte;
+import bacmman.image.ImageCoordinate;
+import ij.process.ImageProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestIJVirtualStackCache {
+    static final int SIZE_XY = 32, SIZE_Z = 8;
+    long cacheSize;
+    int minCachedPlanes;
+
+    @Before
+    public void setCacheSize() {
+        cacheSize = IJVirtualStack.CACHE_SIZE;
+        minCachedPlanes = IJVirtualStack.MIN_CACHED_PLANES;
+    }
+
+    @After
+    public void resetCacheSize() {
+        IJVirtualStack.CACHE_SIZE = cacheSize;
+        IJVirtualStack.MIN_CACHED_PLANES = minCachedPlanes;
+    }
+
+    /**
+     * @return 8-bit image in which each plane is filled with its z-coordinate + 1
+     */
+    static ImageByte getImage() {
+        ImageByte image = new ImageByte("", SIZE_XY, SIZE_XY, SIZE_Z);
+        for (int z = 0; z<SIZE_Z; ++z) {
+            for (int xy = 0; xy<image.sizeXY(); ++xy) image.setPixel(xy, z, z + 1);
+        }
+        return image;
+    }
+
+    static ImageCoordinate plane(int z) {
+        return new ImageCoordinate(0, 0, z);
+    }
+
+    static Set<ImageCoordinate> planes(int... z) {
+        return Arrays.stream(z).mapToObj(TestIJVirtualStackCache::plane).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        IJVirtualStack.CACHE_SIZE = 3 * SIZE_XY * SIZE_XY;
+        IJVirtualStack.MIN_CACHED_PLANES = 1;
+        IJVirtualStack stack = new IJVirtualStack(getImage());
+        try {
+            for (int z = 0; z<5; ++z) assertEquals("plane value", z + 1, stack.load(plane(z), null).get(0, 0));
+            assertEquals("cache limited in bytes", planes(2, 3, 4), stack.getLoadedPositions());
+            assertEquals("cached bytes", IJVirtualStack.CACHE_SIZE, stack.cachedBytes);
+            ImageProcessor ip2 = stack.load(plane(2), null); // marks plane 2 as recently used
+            stack.load(plane(5), null);
+            assertEquals("least recently used plane evicted", planes(2, 4, 5), stack.getLoadedPositions());
+            assertSame("cached plane returned", ip2, stack.load(plane(2), null));
+            assertEquals("decoded again after eviction", 4, stack.load(plane(3), null).get(0, 0));
+            stack.flush();
+            assertTrue("flushed", stack.getLoadedPositions().isEmpty());
+            assertEquals("flushed bytes", 0, stack.cachedBytes);
+        } finally {
+            stack.flush();
+        }
+    }
+
+    @Test
+    public void testMinCachedPlanes() {
+        IJVirtualStack.CACHE_SIZE = 0;
+        IJVirtualStack.MIN_CACHED_PLANES = 4;
+        IJVirtualStack stack = new IJVirtualStack(getImage());
+        try {
+            for (int z = 0; z<SIZE_Z; ++z) stack.load(plane(z), null);
+            assertEquals("min number of planes kept", planes(4, 5, 6, 7), stack.getLoadedPositions());
+            assertEquals("max cached planes used for prefetching", 4, stack.getMaxCachedPlanes());
+        } finally {
+            stack.flush();
+        }
+    }
+
+    @Test
+    public void testConcurrentLoading() throws InterruptedException {
+        IJVirtualStack.CACHE_SIZE = SIZE_Z * SIZE_XY * SIZE_XY;
+        AtomicInteger decodeCount = new AtomicInteger();
+        IJVirtualStack stack = new IJVirtualStack(getImage()) {
+            @Override
+            protected Image getFullResolutionPlane(ImageCoordinate fcz) {
+                decodeCount.incrementAndGet();
+                return super.getFullResolutionPlane(fcz);
+            }
+        };
+        try {
+            int nThreads = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            List<ImageProcessor> results = new CopyOnWriteArrayList<>();
+            List<Thread> threads = IntStream.range(0, nThreads).mapToObj(i -> new Thread(() -> {
+                try {
+                    start.await();
+                    results.add(stack.load(plane(i % 2), null));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            })).collect(Collectors.toList());
+            threads.forEach(Thread::start);
+            start.countDown();
+            for (Thread t : threads) t.join();
+            assertEquals("all loads completed", nThreads, results.size());
+            assertEquals("each plane decoded once", 2, decodeCount.get());
+            assertEquals("one processor per plane", 2, new HashSet<>(results).size());
+            assertEquals("cached planes", planes(0, 1), stack.getLoadedPositions());
+        } finally {
+            stack.flush();
+        }
+    }
+}
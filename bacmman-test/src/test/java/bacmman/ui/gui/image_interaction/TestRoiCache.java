@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.ui.gui.image_interaction;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestRoiCache {
+    static class Item {
+        final long bytes;
+        boolean pinned;
+        Item(long bytes, boolean pinned) {
+            this.bytes = bytes;
+            this.pinned = pinned;
+        }
+    }
+
+    static RoiCache<Integer, Item> createCache(RoiCache.Budget budget) {
+        return new RoiCache<>("test", budget, i -> i.bytes, i -> i.pinned);
+    }
+
+    @Test
+    public void testEvictionToTarget() {
+        RoiCache.Budget budget = new RoiCache.Budget(1000, 100);
+        Map<Integer, Item> cache = createCache(budget).get("pos");
+        for (int i = 0; i<10; ++i) cache.put(i, new Item(100, false));
+        assertEquals("within limits: no eviction", 10, cache.size());
+        cache.get(0); // 0 becomes the most recently used entry
+        cache.put(10, new Item(100, false));
+        assertEquals("evicted down to target", (long)(1000 * RoiCache.EVICTION_TARGET), budget.getBytes());
+        assertEquals("evicted entries", 9, budget.getEntries());
+        assertTrue("recently used entry is kept", cache.containsKey(0));
+        assertFalse("least recently used entry is evicted", cache.containsKey(1));
+        assertFalse("least recently used entry is evicted", cache.containsKey(2));
+        assertTrue("inserted entry is kept", cache.containsKey(10));
+
+        budget.setMaxEntries(5);
+        assertTrue("evicted down to entry target", budget.getEntries() <= 5 * RoiCache.EVICTION_TARGET);
+    }
+
+    @Test
+    public void testPinned() {
+        RoiCache.Budget budget = new RoiCache.Budget(1000, 100);
+        Map<Integer, Item> cache = createCache(budget).get("pos");
+        for (int i = 0; i<5; ++i) cache.put(i, new Item(100, true));
+        for (int i = 5; i<11; ++i) cache.put(i, new Item(100, false));
+        for (int i = 0; i<5; ++i) assertTrue("pinned entry "+i+" survives", cache.containsKey(i));
+        assertEquals("unpinned entries are evicted", 900, budget.getBytes());
+    }
+
+    @Test
+    public void testBackOff() {
+        RoiCache.Budget budget = new RoiCache.Budget(1000, 100);
+        Map<Integer, Item> cache = createCache(budget).get("pos");
+        for (int i = 0; i<11; ++i) cache.put(i, new Item(100, true));
+        assertEquals("pinned entries cannot be evicted", 11, cache.size());
+        cache.values().forEach(i -> i.pinned = false);
+        cache.put(11, new Item(100, false));
+        assertEquals("no eviction before usage grows by the back-off factor", 12, cache.size());
+        cache.put(12, new Item(100, false));
+        assertEquals("eviction once usage has grown by the back-off factor", 900, budget.getBytes());
+    }
+
+    @Test
+    public void testRemovePosition() {
+        RoiCache.Budget budget = new RoiCache.Budget(1000, 100);
+        RoiCache<Integer, Item> roiCache = createCache(budget);
+        Map<Integer, Item> cache1 = roiCache.get("pos1"), cache2 = roiCache.get("pos2");
+        for (int i = 0; i<3; ++i) cache1.put(i, new Item(100, true));
+        for (int i = 0; i<2; ++i) cache2.put(i, new Item(50, false));
+        assertEquals("bytes of all positions", 400, budget.getBytes());
+        assertEquals("ROIs of all positions", 5, roiCache.getRoiCount());
+        roiCache.remove("pos1");
+        assertEquals("bytes released", 100, budget.getBytes());
+        assertEquals("entries released", 2, budget.getEntries());
+        assertEquals("positions", 1, roiCache.size());
+    }
+}
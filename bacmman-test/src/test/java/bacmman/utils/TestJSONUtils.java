@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Jean Ollion
+ *
+ * This File is part of BACMMAN
+ *
+ * BACMMAN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * BACMMAN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with BACMMAN.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacmman.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jean Ollion
+ */
+public class TestJSONUtils {
+    static String getValue(String json, String key) {
+        int[] range = JSONUtils.findTopLevelValue(json, key);
+        return range == null ? null : json.substring(range[0], range[1]);
+    }
+
+    @Test
+    public void testFindTopLevelValue() {
+        String region = "{\"bounds\":[1,2,3,4,0,0],\"x\":[1,2],\"s\":\"}{\",\"is2D\":true}";
+        String json = "{\"id\":\"a\\\"object\\\":1\",\"object\":"+region+",\"frame\":3, \"n\" : null}";
+        assertEquals("object", region, getValue(json, "object"));
+        assertEquals("number", "3", getValue(json, "frame"));
+        assertEquals("null", "null", getValue(json, "n"));
+        assertEquals("string", "\"a\\\"object\\\":1\"", getValue(json, "id"));
+        assertNull("nested key", getValue(json, "bounds"));
+        assertNull("missing key", getValue(json, "x"));
+        assertEquals("array", "[1,2,3,4,0,0]", getValue(region, "bounds"));
+        assertEquals("boolean", "true", getValue(region, "is2D"));
+        assertEquals("string with braces", "\"}{\"", getValue(region, "s"));
+    }
+}
@@ -10,6 +10,7 @@ import bacmman.processing.ImageOperations;
 import bacmman.processing.ResizeUtils;
 import bacmman.tf2.TensorWrapper;
 import bacmman.utils.HashMapGetCreate;
+import bacmman.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tensorflow.*;
@@ -149,6 +150,13 @@ public class TF2engine implements DLEngine, Hint, DLMetadataConfigurable {
     }
 
     public synchronized Image[][][] process(Image[][]... inputNC) {
+        try (Metrics.Context c = Metrics.time(Metrics.STAGE.DL_ENGINE, Metrics.name(this))) {
+            if (inputNC.length>0) Metrics.count(Metrics.STAGE.DL_ENGINE, Metrics.name(this), inputNC[0].length);
+            return processInputs(inputNC);
+        }
+    }
+
+    protected Image[][][] processInputs(Image[][]... inputNC) {
         if (inputNC.length!=getNumInputArrays()) throw new IllegalArgumentException("Invalid number of input provided. Expected:"+getNumInputArrays()+" provided:"+inputNC.length);
         int batchSize = this.batchSize.getValue().intValue();
         int nSamples = inputNC[0].length;